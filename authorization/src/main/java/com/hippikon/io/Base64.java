@@ -24,21 +24,40 @@
  */
 package com.hippikon.io;
  
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+ 
  /**
-  * Provides Base64 encoding/decoding routines as per RFC 1521.<p>
+  * Provides Base64 encoding/decoding routines as per RFC 4648, with the
+  * standard alphabet of RFC 1521 and the URL and filename safe alphabet.<p>
+  *
+  * The routines that write to a char[] or byte[] given by the caller 
+  * allocate nothing, so they may be used on every request with buffers 
+  * the caller reuses. Standard output is padded with '=' characters; URL 
+  * safe output is not, and URL safe input may be padded or not.<p>
+  *
+  * Decoding is strict: a character outside the alphabet, misplaced 
+  * padding, a length no encoding has, or unused bits that are not zero 
+  * throw an IllegalArgumentException, so each byte array has exactly one
+  * encoding accepted.
   *
   * @author Dale Churchett
   * @version $Id: Base64.java,v 1.1.1.1 2005/05/24 01:27:24 dalehippikon Exp $
   * @since JDK 1.2.2
   */
  
- // this code was snagged from the O'Reilly Java Cryptography Book
- // examples - if we wanted an alternative, we could grab the 
- // com.sun.misc base64 class that was shipped with earlier versions
- // of the JDK
- 
  public class Base64 {
  
+     private static final char[] STANDARD = 
+         "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+     private static final char[] URL_SAFE = 
+         "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+ 
+     // the six bit value of each ASCII character, or -1
+     //
+     private static final byte[] STANDARD_VALUES = values(STANDARD);
+     private static final byte[] URL_SAFE_VALUES = values(URL_SAFE);
+ 
  
      /**
       * Returns a base64 encoded String from a raw byte array
@@ -47,11 +66,112 @@ package com.hippikon.io;
       * @return a base64 encoded String
       */
      public static String encode(byte[] raw) {
-         StringBuffer encoded = new StringBuffer();
-         for (int i = 0; i < raw.length; i += 3) {
-             encoded.append(encodeBlock(raw, i));
+         return encode(raw, false);
+     }
+ 
+     /**
+      * Returns a URL safe base64 encoded String, without padding, from a
+      * raw byte array
+      *
+      * @param raw a byte array to encode using base64
+      * @return a URL safe base64 encoded String
+      */
+     public static String encodeUrlSafe(byte[] raw) {
+         return encode(raw, true);
+     }
+ 
+     private static String encode(byte[] raw, boolean urlSafe) {
+         char[] encoded = new char[encodedLength(raw.length, urlSafe)];
+         encode(raw, 0, raw.length, encoded, 0, urlSafe);
+         return new String(encoded);
+     }
+ 
+     /**
+      * Returns the number of characters the encoding of a number of bytes
+      * takes
+      */
+     public static int encodedLength(int length, boolean urlSafe) {
+         if (!urlSafe) return (length + 2) / 3 * 4;
+         int slack = length % 3;
+         return length / 3 * 4 + ((slack == 0) ? 0 : slack + 1);
+     }
+ 
+     /**
+      * Encodes bytes of an array into a char array
+      *
+      * @param src the bytes to encode
+      * @param off the index of the first byte
+      * @param len the number of bytes
+      * @param dst the array to write the encoding to, which must have room
+      * for {@link #encodedLength(int, boolean)} characters
+      * @param dstOff the index of the first character written
+      * @param urlSafe true for the URL safe alphabet without padding
+      * @return the number of characters written
+      */
+     public static int encode(byte[] src, int off, int len, char[] dst, int dstOff, boolean urlSafe) {
+         char[] alphabet = urlSafe ? URL_SAFE : STANDARD;
+         int slack = len % 3;
+         int end = off + len - slack;
+         int d = dstOff;
+         for (int s = off; s < end; s += 3) {
+             int block = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+             d = encodeBlock(block, alphabet, dst, d);
+         }
+         if (slack > 0) {
+             int block = (src[end] & 0xff) << 16;
+             if (slack == 2) block |= (src[end + 1] & 0xff) << 8;
+             d = encodeSlack(block, slack, alphabet, dst, d, !urlSafe);
+         }
+         return d - dstOff;
+     }
+ 
+     /**
+      * Encodes the remaining bytes of a buffer into a char array, leaving
+      * the buffer at its limit
+      *
+      * @param src the bytes to encode
+      * @param dst the array to write the encoding to, which must have room
+      * for {@link #encodedLength(int, boolean)} characters
+      * @param dstOff the index of the first character written
+      * @param urlSafe true for the URL safe alphabet without padding
+      * @return the number of characters written
+      */
+     public static int encode(ByteBuffer src, char[] dst, int dstOff, boolean urlSafe) {
+         char[] alphabet = urlSafe ? URL_SAFE : STANDARD;
+         int d = dstOff;
+         while (src.remaining() >= 3) {
+             int block = (src.get() & 0xff) << 16 | (src.get() & 0xff) << 8 | (src.get() & 0xff);
+             d = encodeBlock(block, alphabet, dst, d);
+         }
+         int slack = src.remaining();
+         if (slack > 0) {
+             int block = (src.get() & 0xff) << 16;
+             if (slack == 2) block |= (src.get() & 0xff) << 8;
+             d = encodeSlack(block, slack, alphabet, dst, d, !urlSafe);
+         }
+         return d - dstOff;
+     }
+ 
+     private static int encodeBlock(int block, char[] alphabet, char[] dst, int d) {
+         dst[d++] = alphabet[block >>> 18];
+         dst[d++] = alphabet[(block >>> 12) & 0x3f];
+         dst[d++] = alphabet[(block >>> 6) & 0x3f];
+         dst[d++] = alphabet[block & 0x3f];
+         return d;
+     }
+ 
+     // the one or two bytes left over, in the top of the block
+     //
+     private static int encodeSlack(int block, int slack, char[] alphabet, char[] dst, int d, boolean pad) {
+         dst[d++] = alphabet[block >>> 18];
+         dst[d++] = alphabet[(block >>> 12) & 0x3f];
+         if (slack == 2) {
+             dst[d++] = alphabet[(block >>> 6) & 0x3f];
+         } else if (pad) {
+             dst[d++] = '=';
          }
-         return encoded.toString();
+         if (pad) dst[d++] = '=';
+         return d;
      }
  
  
@@ -61,73 +181,177 @@ package com.hippikon.io;
       *
       * @param base64 a base64 encoded String
       * @return a base64 decoded byte array
+      *
+      * @exception IllegalArgumentException thrown if the string is not 
+      * valid base64
       */
      public static byte[] decode(String base64) {
+         return decode(base64, false);
+     }
+ 
+     /**
+      * Returns a decoded byte array from a URL safe base64 encoded string,
+      * with or without padding
+      *
+      * @param base64 a URL safe base64 encoded String
+      * @return a base64 decoded byte array
+      *
+      * @exception IllegalArgumentException thrown if the string is not 
+      * valid URL safe base64
+      */
+     public static byte[] decodeUrlSafe(String base64) {
+         return decode(base64, true);
+     }
+ 
+     private static byte[] decode(String base64, boolean urlSafe) {
+         byte[] raw = new byte[decodedLength(base64, 0, base64.length(), urlSafe)];
+         decode(base64, 0, base64.length(), raw, 0, urlSafe);
+         return raw;
+     }
+ 
+     /**
+      * Returns the number of bytes encoded by characters of a sequence
+      *
+      * @exception IllegalArgumentException thrown if no encoding has the 
+      * length of the characters, or their padding is wrong
+      */
+     public static int decodedLength(CharSequence src, int off, int len, boolean urlSafe) {
+         return decodedLength(src, null, off, len, urlSafe);
+     }
+ 
+     // the characters to decode are read from the sequence, or from the 
+     // array if it is not null, so an array is decoded without wrapping it
+     //
+     private static int decodedLength(CharSequence seq, char[] array, int off, int len, boolean urlSafe) {
+         int chars = len - padding(seq, array, off, len);
+         if ((!urlSafe || chars != len) && len % 4 != 0) {
+             throw new IllegalArgumentException("Base64 input of " + len + " characters is not padded to a multiple of 4");
+         }
+         if (chars % 4 == 1) {
+             throw new IllegalArgumentException("Base64 input of " + chars + " characters encodes no whole byte");
+         }
+         int slack = chars % 4;
+         return chars / 4 * 3 + ((slack == 0) ? 0 : slack - 1);
+     }
+ 
+     // the number of '=' characters that end the input, of which there 
+     // may be two at most
+     //
+     private static int padding(CharSequence seq, char[] array, int off, int len) {
          int pad = 0;
-         for (int i = base64.length() - 1; base64.charAt(i) == '='; i--)
+         while (pad < 2 && pad < len && charAt(seq, array, off + len - 1 - pad) == '=') {
              pad++;
-             int length = base64.length() * 6 / 8 - pad;
-             byte[] raw = new byte[length];
-             int rawIndex = 0;
-             for (int i = 0; i < base64.length(); i += 4) {
-                 int block = (getValue(base64.charAt(i)) << 18)
-                     + (getValue(base64.charAt(i + 1)) << 12)
-                     + (getValue(base64.charAt(i + 2)) << 6)
-                     + (getValue(base64.charAt(i + 3)));
-                 for (int j = 0; j < 3 && rawIndex + j < raw.length; j++)
-                     raw[rawIndex + j] = (byte)((block >> (8 * (2 - j))) & 0xff);
-                 rawIndex += 3;
-                 }
-         return raw;
+         }
+         return pad;
+     }
+ 
+     /**
+      * Decodes characters of a sequence into a byte array
+      *
+      * @param src the characters to decode
+      * @param off the index of the first character
+      * @param len the number of characters, including any padding
+      * @param dst the array to write the bytes to
+      * @param dstOff the index of the first byte written
+      * @param urlSafe true for the URL safe alphabet
+      * @return the number of bytes written
+      *
+      * @exception IllegalArgumentException thrown if the characters are not
+      * valid base64, or the array has too little room for the bytes
+      */
+     public static int decode(CharSequence src, int off, int len, byte[] dst, int dstOff, boolean urlSafe) {
+         return decode(src, null, off, len, dst, dstOff, urlSafe);
      }
-   
-     private static char[] encodeBlock(byte[] raw, int offset) {
  
-         int block = 0;
-         int slack = raw.length - offset - 1;
-         int end = (slack >= 2) ? 2 : slack;
-         for (int i = 0; i <= end; i++)  {
-             byte b = raw[offset + i];
-             int neuter = (b < 0) ? b + 256 : b;
-             block += neuter << (8 * (2 - i));
+     /**
+      * Decodes characters of an array into a byte array
+      *
+      * @return the number of bytes written
+      *
+      * @exception IllegalArgumentException thrown if the characters are not
+      * valid base64, or the array has too little room for the bytes
+      */
+     public static int decode(char[] src, int off, int len, byte[] dst, int dstOff, boolean urlSafe) {
+         return decode(null, src, off, len, dst, dstOff, urlSafe);
+     }
+ 
+     private static int decode(CharSequence seq, char[] array, int off, int len, byte[] dst, int dstOff, boolean urlSafe) {
+         int length = decodedLength(seq, array, off, len, urlSafe);
+         if (dst.length - dstOff < length) {
+             throw new IllegalArgumentException("No room for " + length + " decoded bytes");
          }
-         char[] base64 = new char[4];
-         for (int i = 0; i < 4; i++) {
-             int sixbit = (block >>> (6 * (3 - i))) & 0x3f;
-             base64[i] = getChar(sixbit);
+         byte[] values = urlSafe ? URL_SAFE_VALUES : STANDARD_VALUES;
+         int chars = len - padding(seq, array, off, len);
+         int slack = chars % 4;
+         int end = off + chars - slack;
+         int d = dstOff;
+         for (int s = off; s < end; s += 4) {
+             int block = value(values, seq, array, s) << 18 | value(values, seq, array, s + 1) << 12 
+                       | value(values, seq, array, s + 2) << 6 | value(values, seq, array, s + 3);
+             dst[d++] = (byte)(block >>> 16);
+             dst[d++] = (byte)(block >>> 8);
+             dst[d++] = (byte)block;
          }
-         if (slack < 1) base64[2] = '=';
-         if (slack < 2) base64[3] = '=';
+         if (slack > 0) {
+             int block = value(values, seq, array, end) << 18 | value(values, seq, array, end + 1) << 12;
+             if (slack == 3) block |= value(values, seq, array, end + 2) << 6;
  
-         return base64;
+             // the bits past the last byte must be zero, or two encodings 
+             // would give the same bytes
+             //
+             if ((block & ((slack == 3) ? 0xff : 0xffff)) != 0) {
+                 throw new IllegalArgumentException("Base64 input has unused bits set at " + (end + slack - 1));
+             }
+             dst[d++] = (byte)(block >>> 16);
+             if (slack == 3) dst[d++] = (byte)(block >>> 8);
+         }
+         return d - dstOff;
+     }
+ 
+     /**
+      * Decodes a sequence of characters into a buffer, from its position
+      *
+      * @return the number of bytes written
+      *
+      * @exception IllegalArgumentException thrown if the characters are not
+      * valid base64, or the buffer has too little room for the bytes
+      */
+     public static int decode(CharSequence src, ByteBuffer dst, boolean urlSafe) {
+         int length = decodedLength(src, 0, src.length(), urlSafe);
+         if (length > dst.remaining()) {
+             throw new IllegalArgumentException("No room for " + length + " decoded bytes");
+         }
+         if (dst.hasArray()) {
+             decode(src, 0, src.length(), dst.array(), dst.arrayOffset() + dst.position(), urlSafe);
+             dst.position(dst.position() + length);
+         } else {
+             byte[] raw = new byte[length];
+             decode(src, 0, src.length(), raw, 0, urlSafe);
+             dst.put(raw);
+         }
+         return length;
      }
  
-   
-     private static char getChar(int sixBit) {
-         if (sixBit >= 0 && sixBit <= 25)
-             return (char)('A' + sixBit);
-         if (sixBit >= 26 && sixBit <= 51)
-             return (char)('a' + (sixBit - 26));
-         if (sixBit >= 52 && sixBit <= 61)
-             return (char)('0' + (sixBit - 52));
-         if (sixBit == 62) return '+';
-         if (sixBit == 63) return '/';
+     private static int value(byte[] values, CharSequence seq, char[] array, int i) {
+         char c = charAt(seq, array, i);
+         int value = (c < 128) ? values[c] : -1;
+         if (value < 0) {
+             throw new IllegalArgumentException("Illegal base64 character '" + c + "' at " + i);
+         }
+         return value;
+     }
  
-         return '?';
+     private static char charAt(CharSequence seq, char[] array, int i) {
+         return (array != null) ? array[i] : seq.charAt(i);
      }
  
-   
-   
-     private static int getValue(char c) {
-         if (c >= 'A' && c <= 'Z') return c - 'A';
-         if (c >= 'a' && c <= 'z') return c - 'a' + 26;
-         if (c >= '0' && c <= '9') return c - '0' + 52;
-         if (c == '+') return 62;
-         if (c == '/') return 63;
-         if (c == '=') return 0;
-         return -1;
+     private static byte[] values(char[] alphabet) {
+         byte[] values = new byte[128];
+         Arrays.fill(values, (byte)-1);
+         for (int i = 0; i < alphabet.length; i++) {
+             values[alphabet[i]] = (byte)i;
+         }
+         return values;
      }
  
  }
- 
-
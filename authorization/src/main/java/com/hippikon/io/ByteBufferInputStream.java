@@ -0,0 +1,80 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.io;
+ 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+ 
+ /**
+  * An InputStream that reads the remaining bytes of a ByteBuffer without
+  * copying them. Used to parse memory mapped or in-memory files with 
+  * the standard stream based XML and Properties APIs.<p>
+  *
+  * The stream reads from its own view of the buffer, so the position of
+  * the buffer passed to the constructor is not changed.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class ByteBufferInputStream extends InputStream {
+ 
+     private final ByteBuffer buffer;
+ 
+     /**
+      * Creates a new ByteBufferInputStream over the remaining bytes of 
+      * a buffer
+      *
+      * @param buffer the buffer to read
+      */
+     public ByteBufferInputStream(ByteBuffer buffer) {
+         this.buffer = buffer.duplicate();
+     }
+ 
+     public int read() {
+         return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+     }
+ 
+     public int read(byte[] b, int off, int len) {
+         if (len == 0) return 0;
+         if (!buffer.hasRemaining()) return -1;
+         len = Math.min(len, buffer.remaining());
+         buffer.get(b, off, len);
+         return len;
+     }
+ 
+     public long skip(long n) {
+         if (n <= 0) return 0;
+         int skipped = (int)Math.min(n, buffer.remaining());
+         buffer.position(buffer.position() + skipped);
+         return skipped;
+     }
+ 
+     public int available() {
+         return buffer.remaining();
+     }
+ 
+ }
@@ -50,6 +50,15 @@ package com.hippikon.security;
  
  class ACL {
  
+     /** The estimated size of an ACL object, excluding its name */
+     static final long SHALLOW_BYTES = 
+         PolicyStoreFootprint.align(PolicyStoreFootprint.OBJECT_HEADER + PolicyStoreFootprint.REFERENCE + 4);
+ 
+     // the ACLs of all loaded stores; most principals have the same 
+     // permissions on many resources, so each name/flags pair is held once
+     //
+     private static final Interner<ACL> ACLS = new Interner<ACL>();
+ 
      private String name;
      private int flags;
  
@@ -72,6 +81,18 @@ package com.hippikon.security;
          this.flags = flags;
      }
  
+     /**
+      * Returns the shared ACL for a principal name and permission set, the
+      * name being interned. Used when loading stores, whose ACLs are never
+      * changed once loaded.
+      *
+      * @param name the principal name. This may not be null.
+      * @param flags the integer representation of a permission set
+      */
+     static ACL valueOf(String name, int flags) throws IllegalArgumentException {
+         return ACLS.intern(new ACL((name == null) ? null : name.intern(), flags));
+     }
+ 
      /**
       * Returns the principal name of the ACL.
       * 
@@ -91,5 +112,16 @@ package com.hippikon.security;
          return flags;
      }
  
+     public boolean equals(Object o) {
+         if (o == this) return true;
+         if (!(o instanceof ACL)) return false;
+         ACL acl = (ACL)o;
+         return flags == acl.flags && name.equals(acl.name);
+     }
+ 
+     public int hashCode() {
+         return 31 * name.hashCode() + flags;
+     }
+ 
  }
 
@@ -0,0 +1,374 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.lang.management.ManagementFactory;
+ import java.util.ArrayList;
+ import java.util.Collections;
+ import java.util.Iterator;
+ import java.util.List;
+ import java.util.concurrent.ThreadLocalRandom;
+ import java.util.concurrent.atomic.LongAdder;
+
+ import javax.management.MBeanServer;
+ import javax.management.ObjectName;
+
+ import org.apache.log4j.Logger;
+ 
+ /**
+  * Records which resources are checked most often by the 
+  * {@link PermissionsFactory}, using fixed-memory streaming sketches so
+  * the statistics may be left switched on in production.<p>
+  *
+  * Two combinations are tracked for every successful authorization check:
+  *
+  * <ul>
+  * <li>the productID and resource path (e.g., <code>991:Project::TaskList</code>)
+  * <li>the set of principals and the resource path
+  * </ul><p>
+  *
+  * Each combination is counted by a {@link CountMinSketch} and the most
+  * frequent combinations are kept in a small top-k table. The statistics
+  * can be used to size and pre-warm caches, to find code that re-authorizes 
+  * the same resources redundantly, and to decide which resource paths are 
+  * worth pre-computing after a policy store is reloaded.<p>
+  *
+  * The statistics are available from {@link #getInstance()} and through JMX
+  * as <code>com.hippikon.security:type=AccessStatistics</code>. The following
+  * system properties may be set at deploy time:<p>
+  *
+  * <pre>
+  * hippikon.statistics.enabled       (default true)
+  * hippikon.statistics.sample-rate   (record 1 in n checks, default 1)
+  * hippikon.statistics.top-k         (default 100)
+  * hippikon.statistics.sketch-width  (counters per sketch row, default 16384)
+  * hippikon.statistics.jmx           (default true)
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class AccessStatistics implements AccessStatisticsMBean {
+ 
+     private static final int SKETCH_DEPTH = 4;
+     private static final String OBJECT_NAME = "com.hippikon.security:type=AccessStatistics";
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.AccessStatistics");
+ 
+     private static final AccessStatistics instance = new AccessStatistics();
+ 
+     private volatile boolean enabled;
+     private final int sampleRate;
+     private final LongAdder recorded;
+ 
+     private final CountMinSketch resourceSketch;
+     private final CountMinSketch principalSketch;
+     private final TopKeys<HotResource> hotResources;
+     private final TopKeys<HotResource> hotPrincipalResources;
+ 
+     // register the MBean once the singleton is available
+     //
+     static {
+         if (Boolean.valueOf(System.getProperty("hippikon.statistics.jmx", "true")).booleanValue()) {
+             try {
+                 MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                 ObjectName name = new ObjectName(OBJECT_NAME);
+                 if (!server.isRegistered(name)) {
+                     server.registerMBean(instance, name);
+                 }
+             } catch (Exception e) {
+                 log.warn("Could not register AccessStatistics MBean: " + e.getMessage());
+             }
+         }
+     }
+ 
+     /**
+      * Creates the singleton instance from the system properties
+      */
+     private AccessStatistics() {
+         this.enabled = Boolean.valueOf(System.getProperty("hippikon.statistics.enabled", "true")).booleanValue();
+         this.sampleRate = Math.max(1, Integer.getInteger("hippikon.statistics.sample-rate", 1).intValue());
+         int width = Integer.getInteger("hippikon.statistics.sketch-width", 16384).intValue();
+         int topK = Integer.getInteger("hippikon.statistics.top-k", 100).intValue();
+ 
+         this.recorded = new LongAdder();
+         this.resourceSketch = new CountMinSketch(SKETCH_DEPTH, width);
+         this.principalSketch = new CountMinSketch(SKETCH_DEPTH, width);
+         this.hotResources = new TopKeys<HotResource>(topK);
+         this.hotPrincipalResources = new TopKeys<HotResource>(topK);
+     }
+ 
+     /**
+      * Returns the AccessStatistics for the JVM
+      */
+     public static AccessStatistics getInstance() {
+         return instance;
+     }
+ 
+     /**
+      * Records a successful authorization check. This is called by the 
+      * PermissionsFactory on every check so must not allocate unless a 
+      * new combination is entering the top-k tables. The paths are walked
+      * with iterators, since they are often LinkedLists whose get(i) would
+      * walk the list from the start each time.
+      *
+      * @param productID the product being accessed
+      * @param resourcePath the names of the resources that were checked
+      * @param principals the principals used to look up the permissions
+      */
+     static void record(String productID, List<String> resourcePath, List<String> principals) {
+         instance.recordCheck(productID, resourcePath, principals);
+     }
+ 
+     private void recordCheck(String productID, List<String> resourcePath, List<String> principals) {
+ 
+         if (!enabled) return;
+         if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) return;
+ 
+         recorded.increment();
+ 
+         long pathHash = hashPath(resourcePath);
+         long resourceHash = mix(pathHash ^ (productID == null ? 0 : productID.hashCode()));
+         long principalHash = mix(pathHash + hashPrincipals(principals));
+ 
+         long estimate = resourceSketch.add(resourceHash, sampleRate);
+         if (!hotResources.update(resourceHash, estimate) && hotResources.isCandidate(resourceHash, estimate)) {
+             hotResources.insert(resourceHash, estimate, 
+                                 new HotResource(productID, resourcePath, null));
+         }
+ 
+         estimate = principalSketch.add(principalHash, sampleRate);
+         if (!hotPrincipalResources.update(principalHash, estimate) && hotPrincipalResources.isCandidate(principalHash, estimate)) {
+             hotPrincipalResources.insert(principalHash, estimate, 
+                                          new HotResource(productID, resourcePath, principals));
+         }
+     }
+ 
+     /**
+      * Returns the estimated number of times a resource path has been 
+      * checked within a product
+      *
+      * @param productID the product identifier
+      * @param resourcePath the list of resource names forming the path
+      */
+     public long estimateChecks(String productID, List<String> resourcePath) {
+         long hash = mix(hashPath(resourcePath) ^ (productID == null ? 0 : productID.hashCode()));
+         return resourceSketch.estimate(hash);
+     }
+ 
+     /**
+      * Returns the most frequently checked product and resource path
+      * combinations, most frequent first
+      *
+      * @param n the maximum number of entries to return
+      */
+     public List<HotResource> getHotResources(int n) {
+         return toList(hotResources.getTopKeys(), n, null);
+     }
+ 
+     /**
+      * Returns the most frequently checked resource paths within a 
+      * product, most frequent first. This is useful for deciding which
+      * paths to pre-compute after a policy store has been reloaded.
+      *
+      * @param productID the product identifier
+      * @param n the maximum number of entries to return
+      */
+     public List<HotResource> getHotResources(String productID, int n) {
+         return toList(hotResources.getTopKeys(), n, productID);
+     }
+ 
+     /**
+      * Returns the most frequently checked principal set and resource path
+      * combinations, most frequent first
+      *
+      * @param n the maximum number of entries to return
+      */
+     public List<HotResource> getHotPrincipalResources(int n) {
+         return toList(hotPrincipalResources.getTopKeys(), n, null);
+     }
+ 
+     private List<HotResource> toList(List<TopKeys.Slot<HotResource>> slots, int n, String productID) {
+         List<HotResource> list = new ArrayList<HotResource>();
+         for (Iterator<TopKeys.Slot<HotResource>> i = slots.iterator(); i.hasNext() && list.size() < n;) {
+             TopKeys.Slot<HotResource> slot = i.next();
+             if (productID != null && !productID.equals(slot.label.getProductID())) continue;
+             list.add(slot.label.withCount(slot.count));
+         }
+         return list;
+     }
+ 
+     public boolean isEnabled() {
+         return enabled;
+     }
+ 
+     public void setEnabled(boolean enabled) {
+         this.enabled = enabled;
+     }
+ 
+     public long getRecordedChecks() {
+         return recorded.sum();
+     }
+ 
+     public long getSketchSizeInBytes() {
+         return resourceSketch.getSizeInBytes() + principalSketch.getSizeInBytes();
+     }
+ 
+     public String[] getHotResources() {
+         return toStrings(getHotResources(Integer.MAX_VALUE));
+     }
+ 
+     public String[] getHotPrincipalResources() {
+         return toStrings(getHotPrincipalResources(Integer.MAX_VALUE));
+     }
+ 
+     private String[] toStrings(List<HotResource> list) {
+         String[] s = new String[list.size()];
+         for (int i = 0; i < s.length; i++) {
+             s[i] = list.get(i).toString();
+         }
+         return s;
+     }
+ 
+     public synchronized void decay() {
+         resourceSketch.decay();
+         principalSketch.decay();
+         hotResources.decay();
+         hotPrincipalResources.decay();
+     }
+ 
+     public synchronized void reset() {
+         log.debug("Resetting access statistics");
+         resourceSketch.clear();
+         principalSketch.clear();
+         hotResources.clear();
+         hotPrincipalResources.clear();
+         recorded.reset();
+     }
+ 
+     // hashes the resource path - order is significant
+     //
+     private static long hashPath(List<String> resourcePath) {
+         long h = 0x9E3779B97F4A7C15L;
+         for (Iterator<String> i = resourcePath.iterator(); i.hasNext();) {
+             h = (h ^ i.next().hashCode()) * 0x100000001B3L;
+         }
+         return h;
+     }
+ 
+     // hashes a set of principals - order is not significant since the 
+     // same principals may be found in a different order for each check
+     //
+     private static long hashPrincipals(List<String> principals) {
+         long h = 0;
+         if (principals == null) return h;
+         for (Iterator<String> i = principals.iterator(); i.hasNext();) {
+             h += mix(i.next().hashCode());
+         }
+         return h;
+     }
+ 
+     // the 64-bit finalizer from MurmurHash3
+     //
+     private static long mix(long h) {
+         h ^= h >>> 33;
+         h *= 0xff51afd7ed558ccdL;
+         h ^= h >>> 33;
+         h *= 0xc4ceb53a97f1d5c3L;
+         h ^= h >>> 33;
+         return h;
+     }
+ 
+     /**
+      * A frequently checked resource path, with the product it belongs to,
+      * the principals it was checked with (if tracked) and the estimated
+      * number of checks
+      */
+     public static final class HotResource {
+ 
+         private final String productID;
+         private final List<String> resourcePath;
+         private final List<String> principals;
+         private final long count;
+ 
+         private HotResource(String productID, List<String> resourcePath, List<String> principals) {
+             this(productID, Collections.unmodifiableList(new ArrayList<String>(resourcePath)),
+                  (principals == null) ? null : sorted(principals), 0);
+         }
+ 
+         private HotResource(String productID, List<String> resourcePath, List<String> principals, long count) {
+             this.productID = productID;
+             this.resourcePath = resourcePath;
+             this.principals = principals;
+             this.count = count;
+         }
+ 
+         private static List<String> sorted(List<String> principals) {
+             List<String> list = new ArrayList<String>(principals);
+             Collections.sort(list);
+             return Collections.unmodifiableList(list);
+         }
+ 
+         private HotResource withCount(long count) {
+             return new HotResource(productID, resourcePath, principals, count);
+         }
+ 
+         /** Returns the product the resource path was checked in */
+         public String getProductID() {
+             return productID;
+         }
+ 
+         /** Returns the list of resource names forming the path */
+         public List<String> getResourcePath() {
+             return resourcePath;
+         }
+ 
+         /** Returns the sorted principals, or null if principals were not tracked */
+         public List<String> getPrincipals() {
+             return principals;
+         }
+ 
+         /** Returns the estimated number of checks */
+         public long getCount() {
+             return count;
+         }
+ 
+         public String toString() {
+             StringBuffer sb = new StringBuffer();
+             sb.append(count).append(' ').append(productID).append(':');
+             for (int i = 0; i < resourcePath.size(); i++) {
+                 if (i > 0) sb.append("::");
+                 sb.append(resourcePath.get(i));
+             }
+             if (principals != null) {
+                 sb.append(' ').append(principals);
+             }
+             return sb.toString();
+         }
+     }
+ 
+ }
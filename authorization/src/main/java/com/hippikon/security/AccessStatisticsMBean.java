@@ -0,0 +1,87 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * The JMX management interface of {@link AccessStatistics}. The MBean
+  * is registered with the platform MBeanServer under the name
+  * <code>com.hippikon.security:type=AccessStatistics</code>.<p>
+  *
+  * Hot entries are returned as Strings in the form
+  * <code>count productID:Resource::Child [principal,principal]</code>
+  * so they can be read from any JMX console.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public interface AccessStatisticsMBean {
+ 
+     /**
+      * Returns true if authorization checks are currently being recorded
+      */
+     public boolean isEnabled();
+ 
+     /**
+      * Turns recording of authorization checks on or off
+      */
+     public void setEnabled(boolean enabled);
+ 
+     /**
+      * Returns the number of authorization checks recorded since the
+      * statistics were last reset
+      */
+     public long getRecordedChecks();
+ 
+     /**
+      * Returns the number of bytes held by the sketches. This is fixed
+      * at start-up and does not grow with traffic.
+      */
+     public long getSketchSizeInBytes();
+ 
+     /**
+      * Returns the most frequently checked product and resource path
+      * combinations
+      */
+     public String[] getHotResources();
+ 
+     /**
+      * Returns the most frequently checked principal set and resource 
+      * path combinations
+      */
+     public String[] getHotPrincipalResources();
+ 
+     /**
+      * Halves all counts so that recent traffic carries more weight
+      */
+     public void decay();
+ 
+     /**
+      * Clears all recorded statistics
+      */
+     public void reset();
+ 
+ }
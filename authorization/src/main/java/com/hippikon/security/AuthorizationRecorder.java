@@ -0,0 +1,223 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * Captures real authorization requests into a compact file so they can be
+  * replayed later against any {@link PolicyStore} with the 
+  * {@link AuthorizationReplay} driver.<p>
+  *
+  * For each successful check made through the {@link PermissionsFactory}
+  * the recorder writes the productID, the resource path and the principals
+  * used to look up the PolicyStore, and optionally the permission flags
+  * found in the PolicyStore. These are the store-level flags, before any 
+  * {@link Policy} doFinal() methods have been invoked, so that a replay
+  * against a PolicyStore alone can be compared decision for decision.<p>
+  *
+  * Strings are written once and referred to by number afterwards, so a
+  * capture of a busy product costs a few bytes per request.<p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * AuthorizationRecorder.start(new File("/tmp/auth.capture"), true);
+  * // ... production traffic ...
+  * AuthorizationRecorder.stop();
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class AuthorizationRecorder {
+ 
+     /** The first bytes of every capture file */
+     static final int MAGIC = 0x484b5452;
+ 
+     /** The capture file format version */
+     static final int FORMAT_VERSION = 1;
+ 
+     /** Written in place of the flags when flags are not being recorded */
+     static final int NO_FLAGS = 0xff;
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.AuthorizationRecorder");
+ 
+     // the running recorder, or null when no capture is running - read
+     // on every check so it is volatile rather than locked
+     //
+     private static volatile AuthorizationRecorder current;
+ 
+     private final File file;
+     private final DataOutputStream out;
+     private final boolean recordFlags;
+     private final long maxRecords;
+     private final Map<String, Integer> stringIds;
+     private long records;
+ 
+     private AuthorizationRecorder(File file, boolean recordFlags, long maxRecords) throws IOException {
+         this.file = file;
+         this.recordFlags = recordFlags;
+         this.maxRecords = maxRecords;
+         this.stringIds = new HashMap<String, Integer>();
+         this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+         out.writeInt(MAGIC);
+         out.writeInt(FORMAT_VERSION);
+     }
+ 
+     /**
+      * Starts capturing authorization requests into a file, replacing any
+      * capture that is already running
+      *
+      * @param file the file to write the capture to
+      * @param recordFlags true if the PolicyStore permission flags should be
+      * recorded so a replay can detect differing decisions
+      *
+      * @exception IOException thrown if the file could not be created
+      */
+     public static void start(File file, boolean recordFlags) throws IOException {
+         start(file, recordFlags, Long.MAX_VALUE);
+     }
+ 
+     /**
+      * Starts capturing authorization requests into a file, stopping 
+      * automatically once a number of requests have been captured
+      *
+      * @param file the file to write the capture to
+      * @param recordFlags true if the PolicyStore permission flags should be
+      * recorded
+      * @param maxRecords the number of requests to capture
+      *
+      * @exception IOException thrown if the file could not be created
+      */
+     public static synchronized void start(File file, boolean recordFlags, long maxRecords) throws IOException {
+         stop();
+         log.info("Capturing authorization requests to " + file);
+         current = new AuthorizationRecorder(file, recordFlags, maxRecords);
+     }
+ 
+     /**
+      * Stops the running capture and closes its file. This does nothing if no
+      * capture is running.
+      *
+      * @return the number of requests captured
+      */
+     public static synchronized long stop() {
+         AuthorizationRecorder recorder = current;
+         current = null;
+         if (recorder == null) return 0;
+         return recorder.close();
+     }
+ 
+     /**
+      * Returns true if a capture is running
+      */
+     public static boolean isRecording() {
+         return current != null;
+     }
+ 
+     /**
+      * Called by the PermissionsFactory for every successful check
+      */
+     static void record(String productID, List<String> resourcePath, List<String> principals, 
+                        PermissionSet storePerms) {
+         AuthorizationRecorder recorder = current;
+         if (recorder == null) return;
+         recorder.write(productID, resourcePath, principals, storePerms);
+     }
+ 
+     private synchronized void write(String productID, List<String> resourcePath, List<String> principals, 
+                                     PermissionSet storePerms) {
+         if (records >= maxRecords) return;
+         try {
+             writeString(productID);
+             writeVarInt(resourcePath.size());
+             for (int i = 0; i < resourcePath.size(); i++) {
+                 writeString(resourcePath.get(i));
+             }
+             writeVarInt(principals.size());
+             for (int i = 0; i < principals.size(); i++) {
+                 writeString(principals.get(i));
+             }
+             if (recordFlags && storePerms != null) {
+                 out.writeByte(DefaultPermissionSet.getFlags(storePerms));
+             } else {
+                 out.writeByte(NO_FLAGS);
+             }
+             if (++records >= maxRecords) {
+                 log.info("Captured " + records + " authorization requests to " + file);
+                 out.flush();
+             }
+         } catch (IOException e) {
+             log.error("Stopping authorization capture: " + e.getMessage());
+             records = maxRecords;
+         }
+     }
+ 
+     // strings are written as 0 followed by the UTF value the first time 
+     // they are seen, and as their number + 1 afterwards
+     //
+     private void writeString(String s) throws IOException {
+         if (s == null) s = "";
+         Integer id = stringIds.get(s);
+         if (id != null) {
+             writeVarInt(id.intValue() + 1);
+         } else {
+             stringIds.put(s, Integer.valueOf(stringIds.size()));
+             writeVarInt(0);
+             out.writeUTF(s);
+         }
+     }
+ 
+     private void writeVarInt(int value) throws IOException {
+         while ((value & ~0x7f) != 0) {
+             out.writeByte((value & 0x7f) | 0x80);
+             value >>>= 7;
+         }
+         out.writeByte(value);
+     }
+ 
+     private synchronized long close() {
+         try {
+             out.close();
+         } catch (IOException e) {
+             log.warn("Error closing authorization capture: " + e.getMessage());
+         }
+         log.info("Captured " + records + " authorization requests to " + file);
+         return records;
+     }
+ 
+ }
@@ -0,0 +1,403 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * Replays a capture written by the {@link AuthorizationRecorder} against
+  * any {@link PolicyStore} implementation at full speed, and reports the
+  * throughput, latency and every decision that differs from the recording.<p>
+  *
+  * The capture is read into memory before the replay starts so that file
+  * access is not measured. Resource paths and principal lists are shared 
+  * between requests exactly as they were in the capture.<p>
+  *
+  * <b>Usage:</b><p>
+  *
+  * <pre>
+  * java com.hippikon.security.AuthorizationReplay capture=/tmp/auth.capture \
+  *      store=hippikon.product-id.991.policy-store.xml product=991 iterations=5
+  * </pre>
+  *
+  * The product argument is optional; without it every captured request is
+  * replayed against the store.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class AuthorizationReplay {
+ 
+     private final String[] productIDs;
+     private final List<List<String>> resourcePaths;
+     private final List<List<String>> principals;
+     private final int[] flags;
+     private final int size;
+ 
+     private AuthorizationReplay(List<String> productIDs, List<List<String>> resourcePaths, 
+                                 List<List<String>> principals, List<Integer> flags) {
+         this.size = productIDs.size();
+         this.productIDs = productIDs.toArray(new String[size]);
+         this.resourcePaths = resourcePaths;
+         this.principals = principals;
+         this.flags = new int[size];
+         for (int i = 0; i < size; i++) {
+             this.flags[i] = flags.get(i).intValue();
+         }
+     }
+ 
+     /**
+      * Reads a capture file written by the {@link AuthorizationRecorder}
+      *
+      * @param file the capture file
+      *
+      * @exception IOException thrown if the file cannot be read or is not
+      * a capture file
+      */
+     public static AuthorizationReplay load(File file) throws IOException {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+         try {
+             if (in.readInt() != AuthorizationRecorder.MAGIC) {
+                 throw new IOException(file + " is not an authorization capture");
+             }
+             int version = in.readInt();
+             if (version != AuthorizationRecorder.FORMAT_VERSION) {
+                 throw new IOException("Unsupported authorization capture version: " + version);
+             }
+ 
+             List<String> strings = new ArrayList<String>();
+             List<String> productIDs = new ArrayList<String>();
+             List<List<String>> paths = new ArrayList<List<String>>();
+             List<List<String>> principals = new ArrayList<List<String>>();
+             List<Integer> flags = new ArrayList<Integer>();
+ 
+             // identical paths and principal lists share one List so the
+             // replay touches memory the way the live system does
+             //
+             Map<List<String>, List<String>> shared = new HashMap<List<String>, List<String>>();
+ 
+             while (true) {
+                 int first;
+                 try {
+                     first = readVarInt(in);
+                 } catch (EOFException e) {
+                     break;
+                 }
+                 productIDs.add(readString(in, strings, first));
+                 paths.add(readList(in, strings, shared));
+                 principals.add(readList(in, strings, shared));
+                 flags.add(Integer.valueOf(in.readUnsignedByte()));
+             }
+             return new AuthorizationReplay(productIDs, paths, principals, flags);
+         } finally {
+             in.close();
+         }
+     }
+ 
+     /**
+      * Returns the number of requests in the capture
+      */
+     public int size() {
+         return size;
+     }
+ 
+     /**
+      * Replays every captured request against a single PolicyStore
+      *
+      * @param store the PolicyStore to replay against
+      */
+     public Result replay(PolicyStore store) {
+         return replay(null, store);
+     }
+ 
+     /**
+      * Replays the captured requests for one product against a PolicyStore
+      *
+      * @param productID the product to replay, or null for all products
+      * @param store the PolicyStore to replay against
+      */
+     public Result replay(String productID, PolicyStore store) {
+         Map<String, PolicyStore> stores = new HashMap<String, PolicyStore>();
+         stores.put(productID, store);
+         return replay(stores);
+     }
+ 
+     /**
+      * Replays the captured requests against a PolicyStore per productID.
+      * Requests for products that have no PolicyStore in the map are skipped,
+      * unless the map has a PolicyStore for the null key.
+      *
+      * @param stores the PolicyStore objects keyed by productID
+      */
+     public Result replay(Map<String, PolicyStore> stores) {
+         PolicyStore fallback = stores.get(null);
+         long[] latencies = new long[size];
+         List<Mismatch> mismatches = new ArrayList<Mismatch>();
+         int count = 0;
+ 
+         long start = System.nanoTime();
+         for (int i = 0; i < size; i++) {
+             PolicyStore store = stores.get(productIDs[i]);
+             if (store == null) store = fallback;
+             if (store == null) continue;
+ 
+             // the PolicyStore contract takes a LinkedList, which is
+             // copied outside of the measured time
+             //
+             LinkedList<String> path = new LinkedList<String>(resourcePaths.get(i));
+             int replayed = -1;
+             String error = null;
+             long t0 = System.nanoTime();
+             try {
+                 replayed = DefaultPermissionSet.getFlags(store.getPermissions(path, principals.get(i)));
+             } catch (Exception e) {
+                 error = e.toString();
+             }
+             latencies[count++] = System.nanoTime() - t0;
+ 
+             if (error != null || 
+                 (flags[i] != AuthorizationRecorder.NO_FLAGS && flags[i] != replayed)) {
+                 mismatches.add(new Mismatch(productIDs[i], resourcePaths.get(i), principals.get(i), 
+                                             flags[i], replayed, error));
+             }
+         }
+         long elapsed = System.nanoTime() - start;
+         return new Result(Arrays.copyOf(latencies, count), elapsed, mismatches);
+     }
+ 
+     private static int readVarInt(DataInputStream in) throws IOException {
+         int value = 0;
+         for (int shift = 0; shift < 32; shift += 7) {
+             int b = in.readUnsignedByte();
+             value |= (b & 0x7f) << shift;
+             if ((b & 0x80) == 0) return value;
+         }
+         throw new IOException("Malformed authorization capture");
+     }
+ 
+     private static String readString(DataInputStream in, List<String> strings, int id) throws IOException {
+         if (id == 0) {
+             String s = in.readUTF();
+             strings.add(s);
+             return s;
+         }
+         if (id > strings.size()) {
+             throw new IOException("Malformed authorization capture");
+         }
+         return strings.get(id - 1);
+     }
+ 
+     private static List<String> readList(DataInputStream in, List<String> strings, 
+                                          Map<List<String>, List<String>> shared) throws IOException {
+         int n = readVarInt(in);
+         List<String> list = new ArrayList<String>(n);
+         for (int i = 0; i < n; i++) {
+             list.add(readString(in, strings, readVarInt(in)));
+         }
+         List<String> existing = shared.get(list);
+         if (existing != null) return existing;
+         list = Collections.unmodifiableList(list);
+         shared.put(list, list);
+         return list;
+     }
+ 
+     /**
+      * The outcome of one replay
+      */
+     public static final class Result {
+ 
+         private final long[] latencies;
+         private final long elapsedNanos;
+         private final List<Mismatch> mismatches;
+ 
+         Result(long[] latencies, long elapsedNanos, List<Mismatch> mismatches) {
+             this.latencies = latencies;
+             this.elapsedNanos = elapsedNanos;
+             this.mismatches = Collections.unmodifiableList(mismatches);
+             Arrays.sort(this.latencies);
+         }
+ 
+         /**
+          * Returns the number of requests replayed
+          */
+         public int getChecks() {
+             return latencies.length;
+         }
+ 
+         /**
+          * Returns the wall-clock time of the replay in nanoseconds
+          */
+         public long getElapsedNanos() {
+             return elapsedNanos;
+         }
+ 
+         /**
+          * Returns the number of requests replayed per second
+          */
+         public double getThroughput() {
+             return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+         }
+ 
+         /**
+          * Returns a latency percentile in nanoseconds
+          *
+          * @param percentile a value between 0 and 100
+          */
+         public long getLatency(double percentile) {
+             if (latencies.length == 0) return 0;
+             int index = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+             return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+         }
+ 
+         /**
+          * Returns the decisions that differ from the recording, or that
+          * failed with an exception
+          */
+         public List<Mismatch> getMismatches() {
+             return mismatches;
+         }
+ 
+         public String toString() {
+             StringBuffer sb = new StringBuffer();
+             sb.append(getChecks()).append(" checks in ").append(elapsedNanos / 1000000).append(" ms, ");
+             sb.append((long)getThroughput()).append(" checks/s, latency ns p50=").append(getLatency(50));
+             sb.append(" p99=").append(getLatency(99)).append(" p99.9=").append(getLatency(99.9));
+             sb.append(" max=").append(getLatency(100)).append(", ");
+             sb.append(mismatches.size()).append(" mismatches");
+             return sb.toString();
+         }
+     }
+ 
+     /**
+      * A replayed decision that differs from the recording
+      */
+     public static final class Mismatch {
+ 
+         private final String productID;
+         private final List<String> resourcePath;
+         private final List<String> principals;
+         private final int recordedFlags;
+         private final int replayedFlags;
+         private final String error;
+ 
+         Mismatch(String productID, List<String> resourcePath, List<String> principals, 
+                  int recordedFlags, int replayedFlags, String error) {
+             this.productID = productID;
+             this.resourcePath = resourcePath;
+             this.principals = principals;
+             this.recordedFlags = recordedFlags;
+             this.replayedFlags = replayedFlags;
+             this.error = error;
+         }
+ 
+         public String getProductID() {
+             return productID;
+         }
+ 
+         public List<String> getResourcePath() {
+             return resourcePath;
+         }
+ 
+         public List<String> getPrincipals() {
+             return principals;
+         }
+ 
+         /**
+          * Returns the recorded permission flags, or 0xff if flags were
+          * not recorded
+          */
+         public int getRecordedFlags() {
+             return recordedFlags;
+         }
+ 
+         /**
+          * Returns the replayed permission flags, or -1 if the replay failed
+          */
+         public int getReplayedFlags() {
+             return replayedFlags;
+         }
+ 
+         /**
+          * Returns the exception thrown by the replay, or null
+          */
+         public String getError() {
+             return error;
+         }
+ 
+         public String toString() {
+             return productID + ":" + resourcePath + " " + principals + " recorded=" + 
+                    (recordedFlags == AuthorizationRecorder.NO_FLAGS ? "-" : String.valueOf(recordedFlags)) + 
+                    " replayed=" + (error != null ? error : String.valueOf(replayedFlags));
+         }
+     }
+ 
+     public static void main(String[] args) throws Exception {
+         Map<String, String> params = new HashMap<String, String>();
+         for (int i = 0; i < args.length; i++) {
+             int eq = args[i].indexOf('=');
+             if (eq < 0) {
+                 System.err.println("Usage: AuthorizationReplay capture=<file> store=<policy-store.xml> " +
+                                    "[product=<productID>] [iterations=<n>]");
+                 System.exit(1);
+             }
+             params.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+         }
+         if (params.get("capture") == null || params.get("store") == null) {
+             main(new String[] { "?" });
+         }
+ 
+         AuthorizationReplay replay = load(new File(params.get("capture")));
+         PolicyStore store = new XMLPolicyStore(new File(params.get("store")));
+         String productID = params.get("product");
+         int iterations = params.containsKey("iterations") ? Integer.parseInt(params.get("iterations")) : 1;
+ 
+         System.out.println("Replaying " + replay.size() + " captured requests");
+         Result result = null;
+         for (int i = 0; i < iterations; i++) {
+             result = replay.replay(productID, store);
+             System.out.println("iteration " + (i + 1) + ": " + result);
+         }
+         if (result != null) {
+             for (Mismatch m : result.getMismatches()) {
+                 System.out.println("  " + m);
+             }
+         }
+     }
+ 
+ }
@@ -0,0 +1,321 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * Makes the checks of the {@link PermissionsFactory} for one web request or
+  * unit of work, remembering their results until the session is thrown 
+  * away.<p>
+  *
+  * A page that shows many children of the same parents authorizes the 
+  * parents over and over again. Within a session each resource instance 
+  * gets one {@link Policy}, whose {@link Policy#determineUserPrincipals()} 
+  * is called once, and the final PermissionSet of each chain of resource
+  * instances is worked out once:<p>
+  *
+  * <pre>
+  * AuthorizationSession session = new AuthorizationSession(ctx);
+  * for (Component component : project.getComponents()) {
+  *     PermissionSet perms = session.getPermissions(Arrays.asList(project, component));
+  *     ...
+  * }
+  * </pre>
+  *
+  * Resources are told apart by identity, not equals(). The session also 
+  * keeps the {@link PolicyStore} it first used, so all its decisions come 
+  * from one version of the store even if the store is reloaded meanwhile. 
+  * A session must not outlive the request it was created for, nor be 
+  * shared by threads. Call {@link #clear()} if the request changes a 
+  * resource in a way its Policy depends on.<p>
+  *
+  * Resources whose classes have a {@link ParentResolver} may be checked 
+  * with {@link #getPermissionsInChain(Object)}, which builds their chain of
+  * ancestors. The chains are remembered as well, by the class and identity
+  * or id of each resource where it has one, so the parents shared by many
+  * children are resolved, and their Policy objects created, once per 
+  * session.<p>
+  *
+  * A remembered decision is kept as its permission flags, and each request 
+  * for it is given a PermissionSet of its own. It is reported to the 
+  * {@link AccessStatistics} and the {@link AuthorizationRecorder} the first
+  * time it is made only.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class AuthorizationSession {
+ 
+     private final AuthorizationContext ctx;
+     private PolicyStore store;
+ 
+     // the Policy and user principals of each resource instance
+     //
+     private final Map<Object, Binding> bindings = new IdentityHashMap<Object, Binding>();
+ 
+     // the permission flags of the final PermissionSet of each chain of 
+     // resources
+     //
+     private final Map<Chain, Integer> decisions = new HashMap<Chain, Integer>();
+
+     // the chain of ancestors resolved for each resource instance
+     //
+     private final Map<Object, List<Object>> chains = new HashMap<Object, List<Object>>();
+ 
+     /**
+      * Creates a session for the authorization requests made within an
+      * AuthorizationContext
+      */
+     public AuthorizationSession(AuthorizationContext ctx) {
+         this.ctx = ctx;
+     }
+ 
+     /**
+      * Returns the AuthorizationContext the session was created for
+      */
+     public AuthorizationContext getContext() {
+         return ctx;
+     }
+ 
+     /**
+      * Returns the PermissionSet for a ProtectedResource
+      *
+      * @see PermissionsFactory#getPermissions(Object, AuthorizationContext)
+      */
+     public PermissionSet getPermissions(Object res) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         if (res == null)
+             throw new IllegalAuthorizationException("NULL objects passed to AuthorizationSession");
+         List<Object> resources = new ArrayList<Object>();
+         resources.add(res);
+         return getPermissions(resources);
+     }
+ 
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource
+      *
+      * @see PermissionsFactory#getPermissions(Class, AuthorizationContext)
+      */
+     public <T> PermissionSet getPermissions(Class<T> c) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         Chain chain = new Chain(new Object[] { c });
+         PermissionSet perms = recall(chain);
+         if (perms == null) {
+             perms = remember(chain, PermissionsFactory.getPermissions(c, ctx, this));
+         }
+         return perms;
+     }
+ 
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource within a
+      * parent ProtectedResource
+      *
+      * @see PermissionsFactory#getPermissions(Object, Class, AuthorizationContext)
+      */
+     public <T> PermissionSet getPermissions(Object res, Class<T> c) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         if (res == null)
+             throw new IllegalAuthorizationException("NULL objects passed to AuthorizationSession");
+         List<Object> resources = new ArrayList<Object>();
+         resources.add(res);
+         return getPermissions(resources, c);
+     }
+ 
+     /**
+      * Returns the PermissionSet for a ProtectedResource influenced by a 
+      * hierarchy of ProtectedResources
+      *
+      * @see PermissionsFactory#getPermissions(List, AuthorizationContext)
+      */
+     public PermissionSet getPermissions(List<Object> resources) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         if (resources == null)
+             throw new IllegalAuthorizationException("NULL objects passed to AuthorizationSession");
+         Chain chain = new Chain(resources.toArray());
+         PermissionSet perms = recall(chain);
+         if (perms == null) {
+             perms = remember(chain, PermissionsFactory.getPermissions(resources, ctx, this));
+         }
+         return perms;
+     }
+ 
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource in the 
+      * context of a list of ProtectedResource objects
+      *
+      * @see PermissionsFactory#getPermissions(List, Class, AuthorizationContext)
+      */
+     public <T> PermissionSet getPermissions(List<Object> resources, Class<T> c) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         if (resources == null)
+             throw new IllegalAuthorizationException("NULL objects passed to AuthorizationSession");
+         Object[] elements = resources.toArray(new Object[resources.size() + 1]);
+         elements[resources.size()] = c;
+         Chain chain = new Chain(elements);
+         PermissionSet perms = recall(chain);
+         if (perms == null) {
+             perms = remember(chain, PermissionsFactory.getPermissions(resources, c, ctx, this));
+         }
+         return perms;
+     }
+ 
+     /**
+      * Returns the PermissionSet for a ProtectedResource within the chain
+      * of ancestors its ParentResolver gives
+      *
+      * @see PermissionsFactory#getPermissionsInChain(Object, AuthorizationContext)
+      */
+     public PermissionSet getPermissionsInChain(Object res) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(ResourceChains.resolve(res, chains));
+     }
+
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource within a
+      * parent ProtectedResource and the chain of ancestors of the parent
+      *
+      * @see PermissionsFactory#getPermissionsInChain(Object, Class, AuthorizationContext)
+      */
+     public <T> PermissionSet getPermissionsInChain(Object res, Class<T> c) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(ResourceChains.resolve(res, chains), c);
+     }
+ 
+     /**
+      * Forgets every Policy, user principal, resource chain and decision, 
+      * and the PolicyStore, so the next checks are made afresh
+      */
+     public void clear() {
+         bindings.clear();
+         chains.clear();
+         decisions.clear();
+         store = null;
+     }
+ 
+     // keeps the flags of a decision, so that no caller can change it for
+     // the next
+     //
+     private PermissionSet remember(Chain chain, PermissionSet perms) {
+         int flags = (perms instanceof DefaultPermissionSet) ? ((DefaultPermissionSet)perms).flags 
+                                                             : new DefaultPermissionSet(perms).flags;
+         decisions.put(chain, Integer.valueOf(flags));
+         return perms;
+     }
+ 
+     // returns a new PermissionSet of a remembered decision, or null
+     //
+     private PermissionSet recall(Chain chain) {
+         Integer flags = decisions.get(chain);
+         return (flags == null) ? null : new DefaultPermissionSet(flags.intValue());
+     }
+ 
+     /**
+      * Returns the PolicyStore of the session, getting it from the 
+      * PolicyStoreFactory the first time
+      */
+     PolicyStore getPolicyStore() throws PolicyStoreLoadException {
+         if (store == null) {
+             store = PolicyStoreFactory.getPolicyStore(ctx);
+         }
+         return store;
+     }
+ 
+     /**
+      * Returns the Policy created for a resource instance in this session,
+      * or null if there is none yet
+      */
+     Policy getPolicy(Object res) {
+         Binding binding = bindings.get(res);
+         return (binding == null) ? null : binding.policy;
+     }
+ 
+     /**
+      * Returns the user principals the Policy of a resource instance 
+      * determined
+      */
+     List<String> getUserPrincipals(Object res) {
+         return bindings.get(res).principals;
+     }
+ 
+     /**
+      * Remembers the Policy of a resource instance and the user principals
+      * it determined
+      */
+     void bind(Object res, Policy policy, List<String> principals) {
+         bindings.put(res, new Binding(policy, principals));
+     }
+ 
+     private static final class Binding {
+         final Policy policy;
+         final List<String> principals;
+ 
+         Binding(Policy policy, List<String> principals) {
+             this.policy = policy;
+             this.principals = principals;
+         }
+     }
+ 
+     // a chain of resource instances and classes compared by identity
+     //
+     private static final class Chain {
+         private final Object[] elements;
+         private final int hash;
+ 
+         Chain(Object[] elements) {
+             this.elements = elements;
+             int h = 1;
+             for (int i = 0; i < elements.length; i++) {
+                 h = 31 * h + System.identityHashCode(elements[i]);
+             }
+             this.hash = h;
+         }
+ 
+         public int hashCode() {
+             return hash;
+         }
+ 
+         public boolean equals(Object o) {
+             if (!(o instanceof Chain)) return false;
+             Object[] other = ((Chain)o).elements;
+             if (other.length != elements.length) return false;
+             for (int i = 0; i < elements.length; i++) {
+                 if (other[i] != elements[i]) return false;
+             }
+             return true;
+         }
+ 
+         public String toString() {
+             return Arrays.asList(elements).toString();
+         }
+     }
+ }
@@ -0,0 +1,91 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * Signals that an authorization check was denied because it did not 
+  * complete by its deadline, because the circuit breaker of a 
+  * {@link Policy} class that keeps overrunning is open, or because the 
+  * Policy class already had as many callbacks running as it may. Access is denied 
+  * as for any IllegalAuthorizationException; catching this subclass lets 
+  * an application tell a slow dependency apart from a refused request.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class AuthorizationTimeoutException extends IllegalAuthorizationException {
+ 
+     private static final long serialVersionUID = 1L;
+ 
+     /**
+      * The callback name for a check refused by an open circuit breaker
+      */
+     public static final String CIRCUIT_OPEN = "circuit-open";
+ 
+     /**
+      * The callback name for a check refused because the Policy class had
+      * as many callbacks on the executor as it may
+      */
+     public static final String BULKHEAD_FULL = "bulkhead-full";
+ 
+     private final String policyClassName;
+     private final String callback;
+ 
+     /**
+      * Creates a new AuthorizationTimeoutException
+      *
+      * @param msg a descriptive error message
+      * @param policyClassName the Policy class that overran, or null if the
+      * check overran outside of a Policy
+      * @param callback the callback that overran, such as doFinal, 
+      * {@link #CIRCUIT_OPEN} or {@link #BULKHEAD_FULL}
+      */
+     public AuthorizationTimeoutException(String msg, String policyClassName, String callback) {
+         super(msg);
+         this.policyClassName = policyClassName;
+         this.callback = callback;
+     }
+ 
+     /**
+      * Returns the name of the Policy class that overran, or null if the 
+      * check overran outside of a Policy
+      */
+     public String getPolicyClassName() {
+         return policyClassName;
+     }
+ 
+     /**
+      * Returns the Policy callback that overran: determineUserPrincipals or
+      * doFinal, {@link #CIRCUIT_OPEN} or {@link #BULKHEAD_FULL} if the 
+      * Policy class was not called, or null if the check overran outside of
+      * a Policy
+      */
+     public String getCallback() {
+         return callback;
+     }
+ 
+ }
@@ -0,0 +1,175 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.ClassUtils;
+ 
+ /**
+  * A {@link PolicySource} that reads files from the root of the classpath,
+  * whether they are in a directory or packaged inside a jar. This is the
+  * default source.<p>
+  *
+  * Files are read as streams and never need to be extracted to the 
+  * filesystem. When a name is on the classpath more than once, the first 
+  * entry is used. Files at the root of a jar are listed if the jar is on 
+  * the system classpath, is given to a URLClassLoader in the chain of the
+  * class loader, or has a manifest the class loader can find.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class ClasspathPolicySource extends PolicySource {
+ 
+     private final ClassLoader classLoader;
+ 
+     /**
+      * Creates a new ClasspathPolicySource using the thread context
+      * class loader
+      */
+     public ClasspathPolicySource() {
+         this(null);
+     }
+ 
+     /**
+      * Creates a new ClasspathPolicySource using a specific class loader
+      *
+      * @param classLoader the class loader to read from, or null for the
+      * thread context class loader
+      */
+     public ClasspathPolicySource(ClassLoader classLoader) {
+         this.classLoader = classLoader;
+     }
+ 
+     private ClassLoader getClassLoader() {
+         return (classLoader != null) ? classLoader : ClassUtils.getDefaultClassLoader();
+     }
+ 
+     public InputStream open(String name) throws IOException {
+         InputStream in = getClassLoader().getResourceAsStream(name);
+         if (in == null) throw new FileNotFoundException(name + " not found in the classpath");
+         return new BufferedInputStream(in, 16384);
+     }
+ 
+     public List<String> list(String prefix) throws IOException {
+         TreeSet<String> names = new TreeSet<String>();
+ 
+         // directories on the classpath
+         //
+         PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(getClassLoader());
+         Resource[] resources = resolver.getResources("classpath*:" + prefix + "*");
+         for (Resource resource : resources) {
+             String filename = resource.getFilename();
+             if (filename != null && filename.startsWith(prefix)) names.add(filename);
+         }
+ 
+         // the resolver cannot search the root of a jar, so the jars of 
+         // the class loader are searched directly
+         //
+         for (File file : getJars()) {
+             JarFile jar = new JarFile(file);
+             try {
+                 for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                     String name = e.nextElement().getName();
+                     if (name.startsWith(prefix) && name.indexOf('/') < 0) names.add(name);
+                 }
+             } finally {
+                 jar.close();
+             }
+         }
+         return new ArrayList<String>(names);
+     }
+ 
+     // the jars on the system classpath, given to the URLClassLoaders in 
+     // the chain of the class loader, and holding a manifest it can find
+     //
+     private Set<File> getJars() throws IOException {
+         Set<File> jars = new LinkedHashSet<File>();
+         String classpath = System.getProperty("java.class.path", "");
+         for (String entry : classpath.split(File.pathSeparator)) {
+             if (entry.endsWith(".jar")) addJar(jars, new File(entry));
+         }
+         for (ClassLoader loader = getClassLoader(); loader != null; loader = loader.getParent()) {
+             if (!(loader instanceof URLClassLoader)) continue;
+             for (URL url : ((URLClassLoader)loader).getURLs()) {
+                 if ("file".equals(url.getProtocol()) && url.getPath().endsWith(".jar")) addJar(jars, toFile(url));
+             }
+         }
+         for (Enumeration<URL> e = getClassLoader().getResources("META-INF/MANIFEST.MF"); e.hasMoreElements();) {
+             URL url = e.nextElement();
+             if (!"jar".equals(url.getProtocol())) continue;
+             String path = url.getPath();
+             int separator = path.indexOf("!/");
+             if (separator < 0) continue;
+             URL jar = new URL(path.substring(0, separator));
+             if ("file".equals(jar.getProtocol())) addJar(jars, toFile(jar));
+         }
+         return jars;
+     }
+ 
+     private static void addJar(Set<File> jars, File file) {
+         if (file != null && file.isFile()) jars.add(file.getAbsoluteFile());
+     }
+ 
+     private static File toFile(URL url) {
+         try {
+             return new File(url.toURI());
+         } catch (URISyntaxException e) {
+             return new File(url.getPath());
+         } catch (IllegalArgumentException e) {
+             return null;
+         }
+     }
+ 
+     public String getDescription(String name) {
+         return new ClassPathResource(name, getClassLoader()).getDescription();
+     }
+ 
+     public String toString() {
+         return "classpath";
+     }
+ 
+ }
@@ -0,0 +1,140 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.util.concurrent.atomic.AtomicLongArray;
+ 
+ /**
+  * A fixed-memory count-min sketch used to estimate how often a key has
+  * been seen in a stream of authorization requests. Keys are supplied as
+  * pre-computed 64-bit hash values so callers never need to allocate a
+  * key object on the hot path.<p>
+  *
+  * The sketch is made of <code>depth</code> rows of <code>width</code>
+  * counters. Each key increments one counter per row, and the estimate
+  * for a key is the smallest of its counters. Estimates may over-count
+  * (when keys collide) but never under-count.<p>
+  *
+  * Counters are held in an {@link AtomicLongArray} so the sketch may be
+  * updated concurrently without locking.<p>
+  *
+  * This class is used internally by {@link AccessStatistics} and is not
+  * exposed to clients in the public API.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class CountMinSketch {
+ 
+     private final int depth;
+     private final int mask;
+     private final AtomicLongArray counters;
+ 
+     /**
+      * Creates a new CountMinSketch
+      *
+      * @param depth the number of hash rows. Four rows give a good
+      * balance between accuracy and update cost.
+      * @param width the number of counters per row. This is rounded up
+      * to the next power of two.
+      */
+     CountMinSketch(int depth, int width) {
+         if (depth < 1 || width < 1)
+             throw new IllegalArgumentException("CountMinSketch depth and width must be positive");
+         int w = Integer.highestOneBit(width);
+         if (w < width) w <<= 1;
+         this.depth = depth;
+         this.mask = w - 1;
+         this.counters = new AtomicLongArray(depth * w);
+     }
+ 
+     /**
+      * Adds a number of occurrences of a key to the sketch and returns
+      * the new estimated count for the key
+      *
+      * @param hash the 64-bit hash value of the key
+      * @param count the number of occurrences to add
+      */
+     long add(long hash, long count) {
+         int h1 = (int)hash;
+         int h2 = (int)(hash >>> 32);
+         long estimate = Long.MAX_VALUE;
+         for (int i = 0; i < depth; i++) {
+             int index = (i * (mask + 1)) + ((h1 + (i * h2)) & mask);
+             long value = counters.addAndGet(index, count);
+             if (value < estimate) estimate = value;
+         }
+         return estimate;
+     }
+ 
+     /**
+      * Returns the estimated number of occurrences of a key
+      *
+      * @param hash the 64-bit hash value of the key
+      */
+     long estimate(long hash) {
+         int h1 = (int)hash;
+         int h2 = (int)(hash >>> 32);
+         long estimate = Long.MAX_VALUE;
+         for (int i = 0; i < depth; i++) {
+             int index = (i * (mask + 1)) + ((h1 + (i * h2)) & mask);
+             long value = counters.get(index);
+             if (value < estimate) estimate = value;
+         }
+         return estimate;
+     }
+ 
+     /**
+      * Halves every counter so that older traffic gradually carries
+      * less weight than recent traffic
+      */
+     void decay() {
+         for (int i = 0; i < counters.length(); i++) {
+             long value;
+             do {
+                 value = counters.get(i);
+             } while (!counters.compareAndSet(i, value, value >>> 1));
+         }
+     }
+ 
+     /**
+      * Resets every counter to zero
+      */
+     void clear() {
+         for (int i = 0; i < counters.length(); i++) {
+             counters.set(i, 0);
+         }
+     }
+ 
+     /**
+      * Returns the number of bytes held by the counters
+      */
+     long getSizeInBytes() {
+         return counters.length() * 8L;
+     }
+ 
+ }
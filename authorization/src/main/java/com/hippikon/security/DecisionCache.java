@@ -0,0 +1,422 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * Caches the final PermissionSet of checks made on chains of 
+  * {@link VersionedResource} objects, after every Policy doFinal() has 
+  * been invoked, so a later request for the same user and unchanged 
+  * resources makes no Policy calls at all.<p>
+  *
+  * The key holds the user's context, including the locale and time zone
+  * that {@link FinalRule} objects may test, and the type, identity and version of
+  * each resource in the chain. An entry also remembers the 
+  * {@link PolicyStore} it was found in and the store's modification count, 
+  * and is only used while both are current, so a reload or edit of the 
+  * store is never masked.<p>
+  *
+  * When the ACLs of a store are edited in place through a 
+  * {@link PolicyStoreEditor}, the {@link PolicyStoreDiff} of the edit is 
+  * checked against the resource path and principals of each entry made in
+  * the store: the entries it affects are dropped and the others are 
+  * stamped with the new modification count and kept. Any other change, 
+  * such as a reload, which may change the Policy bindings and final rules
+  * as well as the ACLs, drops every entry of the product. Decisions kept 
+  * off the heap are stamped when put only, so every edit or reload 
+  * invalidates them all. The decisions of an account overlay are stamped
+  * with its product store as well, and an edit of either invalidates 
+  * them.<p>
+  *
+  * A cached decision is kept as its permission flags, and each request 
+  * that finds it is given a PermissionSet of its own, so no caller can 
+  * change the decision another is given.<p>
+  *
+  * The cache is bounded by <code>hippikon.decision-cache.size</code> 
+  * entries (default 10000) and evicts the least recently used. A size of
+  * 0 turns it off.<p>
+  *
+  * Very large working sets may be kept off the heap in an 
+  * {@link OffHeapDecisionTable}, which holds a fingerprint of each key and 
+  * the permission flags only. A decision found there is not reported to 
+  * the AccessStatistics or AuthorizationRecorder again. The following 
+  * system properties choose where decisions are kept:<p>
+  *
+  * <pre>
+  * hippikon.decision-cache.storage  heap, direct or mapped (default heap)
+  * hippikon.decision-cache.file     the file mapped by mapped storage (default a temporary file)
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class DecisionCache implements PolicyStoreListener {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.DecisionCache");
+ 
+     private static final DecisionCache instance = 
+         new DecisionCache(Integer.getInteger("hippikon.decision-cache.size", 10000).intValue(),
+                           System.getProperty("hippikon.decision-cache.storage", "heap"));
+ 
+     // the seeds of the two halves of a key fingerprint
+     //
+     private static final long SEED = 0xcbf29ce484222325L;
+     private static final long SEED2 = 0x84222325cbf29ce4L;
+ 
+     // the decisions found off the heap, one for each set of flags
+     //
+     private static final Entry[] FLAG_ENTRIES = new Entry[32];
+     static {
+         for (int flags = 0; flags < FLAG_ENTRIES.length; flags++) {
+             FLAG_ENTRIES[flags] = new Entry(null, 0, flags, null, null, null, null);
+         }
+     }
+ 
+     private final int maxEntries;
+ 
+     // the off-heap decisions, or null if they are kept on the heap
+     //
+     private final OffHeapDecisionTable table;
+ 
+     // access ordered, so the eldest entry is the least recently used
+     //
+     private final LinkedHashMap<List<Object>, Entry> entries;
+ 
+     /**
+      * Creates a new DecisionCache
+      *
+      * @param maxEntries the maximum number of decisions held, or 0 for none
+      * @param storage heap, direct or mapped
+      */
+     DecisionCache(final int maxEntries, String storage) {
+         this.maxEntries = maxEntries;
+         this.table = (maxEntries > 0) ? createTable(maxEntries, storage) : null;
+         this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+             private static final long serialVersionUID = 1L;
+ 
+             protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                 return size() > DecisionCache.this.maxEntries;
+             }
+         };
+         if (maxEntries > 0 && table == null) {
+             PolicyStoreCache.getInstance().addPolicyStoreListener(this);
+         }
+     }
+ 
+     // creates the off-heap table for direct or mapped storage. The cache
+     // stays on the heap if the file cannot be mapped
+     //
+     private static OffHeapDecisionTable createTable(int maxEntries, String storage) {
+         try {
+             if ("direct".equals(storage)) {
+                 return new OffHeapDecisionTable(maxEntries, null);
+             }
+             if ("mapped".equals(storage)) {
+                 String name = System.getProperty("hippikon.decision-cache.file");
+                 File file = null;
+                 if (name != null) {
+                     file = new File(name);
+                 } else {
+                     file = File.createTempFile("hippikon-decisions", ".cache");
+                     file.deleteOnExit();
+                 }
+                 return new OffHeapDecisionTable(maxEntries, file);
+             }
+         } catch (IOException e) {
+             log.error("Could not map the decision cache, decisions are kept on the heap", e);
+         }
+         return null;
+     }
+ 
+     /**
+      * Returns the cache
+      */
+     static DecisionCache getInstance() {
+         return instance;
+     }
+ 
+     /**
+      * Returns the key of a check, or null if the check may not be cached
+      * because the cache is off or a resource in the chain is not a 
+      * VersionedResource
+      *
+      * @param resources the chain of ProtectedResource objects and classes
+      * @param c the class checked within the chain, or null
+      * @param ctx the AuthorizationContext of the check
+      */
+     List<Object> getKey(List<Object> resources, Class<?> c, AuthorizationContext ctx) {
+         if (maxEntries <= 0) return null;
+         List<Object> key = new ArrayList<Object>(8 + 3 * resources.size() + 1);
+         key.add(PolicyStoreFactory.getCacheKey(ctx.getProductID()));
+         key.add(ctx.getAccountID());
+         key.add(ctx.getUserGUID());
+         key.add(copy(ctx.getUserRoles()));
+         key.add(copy(ctx.getUserGroups()));
+         key.add(copy(ctx.getSubscriptions()));
+         key.add((ctx.getLocale() == null) ? null : ctx.getLocale().toString());
+         key.add((ctx.getTimeZone() == null) ? null : ctx.getTimeZone().getID());
+         for (Object res : resources) {
+             if (res instanceof Class) {
+                 key.add(((Class<?>)res).getName());
+             } else if (res instanceof VersionedResource) {
+                 VersionedResource versioned = (VersionedResource)res;
+                 key.add(res.getClass().getName());
+                 key.add(versioned.getResourceIdentity());
+                 key.add(Long.valueOf(versioned.getResourceVersion()));
+             } else {
+                 return null;
+             }
+         }
+         key.add((c == null) ? null : c.getName());
+         return key;
+     }
+ 
+     // the key must not change if the context's lists do
+     //
+     private static List<String> copy(List<String> list) {
+         return (list == null) ? null : new ArrayList<String>(list);
+     }
+ 
+     /**
+      * Returns the modification count of a store, which is taken before a
+      * decision is worked out and stored with it. The count of an overlay
+      * includes that of the product store it is laid over, so an edit of
+      * either invalidates the overlay's decisions
+      */
+     static int getModificationCount(PolicyStore store) {
+         if (store instanceof OverlayPolicyStore) {
+             OverlayPolicyStore overlay = (OverlayPolicyStore)store;
+             return overlay.getBase().getModificationCount() + overlay.getModificationCount();
+         }
+         if (store instanceof DefaultPolicyStore) {
+             return ((DefaultPolicyStore)store).getModificationCount();
+         }
+         return 0;
+     }
+
+     /**
+      * Returns the serial the off-heap decisions of a store are stamped 
+      * with, or 0 if they may not be kept off the heap. The serial of an 
+      * overlay holds the serial of the product store it is laid over as 
+      * well as its own
+      */
+     static long getSerial(PolicyStore store) {
+         if (store instanceof OverlayPolicyStore) {
+             OverlayPolicyStore overlay = (OverlayPolicyStore)store;
+             return (overlay.getBase().getSerial() << 32) | overlay.getSerial();
+         }
+         if (store instanceof DefaultPolicyStore) {
+             return ((DefaultPolicyStore)store).getSerial();
+         }
+         return 0;
+     }
+ 
+     /**
+      * Returns the entry for a key, or null if there is none or it was found
+      * in a store other than the current one
+      *
+      * @param key a key returned by {@link #getKey(List, Class, AuthorizationContext)}
+      * @param store the current PolicyStore for the context
+      */
+     Entry get(List<Object> key, PolicyStore store) {
+         int modifications = getModificationCount(store);
+         if (table != null) {
+             long serial = getSerial(store);
+             if (serial == 0) return null;
+             int flags = table.get(fingerprint(key, SEED), fingerprint(key, SEED2), serial, modifications);
+             return (flags < 0) ? null : FLAG_ENTRIES[flags];
+         }
+         synchronized(entries) {
+             Entry entry = entries.get(key);
+             if (entry == null) return null;
+             if (entry.store != store || entry.modifications != modifications) {
+                 entries.remove(key);
+                 return null;
+             }
+             return entry;
+         }
+     }
+ 
+     /**
+      * Stores the final PermissionSet of a check
+      */
+     void put(List<Object> key, Entry entry) {
+         if (table != null) {
+             long serial = getSerial(entry.store);
+             if (serial == 0) return;
+             table.put(fingerprint(key, SEED), fingerprint(key, SEED2), serial, entry.modifications, entry.flags);
+             return;
+         }
+         synchronized(entries) {
+             entries.put(key, entry);
+         }
+     }
+ 
+     /**
+      * Returns the number of decisions held
+      */
+     int size() {
+         if (table != null) return table.size();
+         synchronized(entries) {
+             return entries.size();
+         }
+     }
+ 
+     /**
+      * Drops the decisions of a product whose store has changed, or every
+      * decision if the product is not known. The decisions made in a store
+      * whose ACLs were edited are kept unless the edit affects them
+      */
+     public void policyStoreChanged(String productID, PolicyStoreDiff diff) {
+         synchronized(entries) {
+             if (productID == null) {
+                 entries.clear();
+                 return;
+             }
+             String cacheKey = PolicyStoreFactory.getCacheKey(productID);
+             DefaultPolicyStore edited = (diff == null) ? null : diff.getEditedStore();
+             int removed = 0;
+             int kept = 0;
+             for (Iterator<Map.Entry<List<Object>, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+                 Map.Entry<List<Object>, Entry> mapping = i.next();
+                 if (!cacheKey.equals(mapping.getKey().get(0))) continue;
+                 Entry entry = mapping.getValue();
+ 
+                 // only an entry that was current just before the edit is
+                 // carried over to the edited store
+                 //
+                 if (edited != null && entry.store == edited && entry.modifications + 1 == diff.getModificationCount() 
+                     && !diff.affects(entry.resourcePath, entry.principals)) {
+                     mapping.setValue(entry.stamp(diff.getModificationCount()));
+                     kept++;
+                 } else {
+                     i.remove();
+                     removed++;
+                 }
+             }
+             log.debug("Dropped " + removed + " and kept " + kept + " cached decisions for product " + productID);
+         }
+     }
+ 
+     /**
+      * Returns a 64 bit fingerprint of a key. The two seeds give two 
+      * independent halves of the 128 bit fingerprint an off-heap decision
+      * is found by
+      */
+     static long fingerprint(List<Object> key, long seed) {
+         long h = seed;
+         for (Object element : key) {
+             h = fingerprint(h, element);
+         }
+         return h;
+     }
+ 
+     private static long fingerprint(long h, Object element) {
+         if (element instanceof String) {
+             String s = (String)element;
+             for (int i = 0; i < s.length(); i++) {
+                 h = mix(h, s.charAt(i));
+             }
+             return mix(h, s.length());
+         }
+         if (element instanceof List) {
+             List<?> list = (List<?>)element;
+             for (Object o : list) {
+                 h = fingerprint(h, o);
+             }
+             return mix(h, ~list.size());
+         }
+         if (element instanceof Long) {
+             return mix(h, ((Long)element).longValue());
+         }
+         return mix(h, (element == null) ? -1L : element.hashCode());
+     }
+ 
+     // one round of a multiply and xor-shift mix
+     //
+     private static long mix(long h, long value) {
+         h = (h ^ value) * 0x9e3779b97f4a7c15L;
+         return h ^ (h >>> 31);
+     }
+ 
+     /**
+      * A cached decision with what is needed to report the check to the
+      * AccessStatistics and AuthorizationRecorder when it is reused
+      */
+     static final class Entry {
+         final PolicyStore store;
+         final int modifications;
+         final int flags;
+         final List<String> resourcePath;
+         final List<String> userPrincipals;
+         final List<String> principals;
+         final PermissionSet storePerms;
+ 
+         Entry(PolicyStore store, int modifications, PermissionSet perms, List<String> resourcePath, 
+               List<String> userPrincipals, List<String> principals, PermissionSet storePerms) {
+             this(store, modifications, (perms instanceof DefaultPermissionSet) ? ((DefaultPermissionSet)perms).flags 
+                                                                               : new DefaultPermissionSet(perms).flags,
+                  resourcePath, userPrincipals, principals, storePerms);
+         }
+ 
+         private Entry(PolicyStore store, int modifications, int flags, List<String> resourcePath, 
+                       List<String> userPrincipals, List<String> principals, PermissionSet storePerms) {
+             this.store = store;
+             this.modifications = modifications;
+             this.flags = flags;
+             this.resourcePath = resourcePath;
+             this.userPrincipals = userPrincipals;
+             this.principals = principals;
+             this.storePerms = storePerms;
+         }
+ 
+         /**
+          * Returns the entry stamped with another modification count of its
+          * store
+          */
+         Entry stamp(int modifications) {
+             return new Entry(store, modifications, flags, resourcePath, userPrincipals, principals, storePerms);
+         }
+ 
+         /**
+          * Returns a new PermissionSet of the decision
+          */
+         PermissionSet getPermissions() {
+             return new DefaultPermissionSet(flags);
+         }
+     }
+ 
+ }
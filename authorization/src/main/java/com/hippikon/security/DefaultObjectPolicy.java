@@ -24,7 +24,11 @@
  */
 package com.hippikon.security;
  
-  
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+ 
  /**
   * The DefaultObjectPolicy class provides a mechanism to handle simple 
   * authorization based on the the roles assigned to a user. The role
@@ -60,6 +64,28 @@ package com.hippikon.security;
      throws IllegalAuthorizationException {
          super(res, ctx);
      }
+
+     /**
+      * Returns no user principals without using the executor, unless a 
+      * subclass may have its own
+      */
+     protected CompletableFuture<List<String>> determineUserPrincipalsAsync(Executor executor) {
+         if (getClass() != DefaultObjectPolicy.class) {
+             return super.determineUserPrincipalsAsync(executor);
+         }
+         return CompletableFuture.completedFuture((List<String>)new ArrayList<String>());
+     }
+
+     /**
+      * Returns the PermissionSet unchanged without using the executor, 
+      * unless a subclass may change it
+      */
+     protected CompletableFuture<PermissionSet> doFinalAsync(PermissionSet perms, Executor executor) {
+         if (getClass() != DefaultObjectPolicy.class) {
+             return super.doFinalAsync(perms, executor);
+         }
+         return CompletableFuture.completedFuture(perms);
+     }
  
  }
 
@@ -307,6 +307,19 @@ package com.hippikon.security;
          return flags;
      }
      
+     /**
+      * Returns the integer flags of any PermissionSet. This avoids
+      * building a String representation of DefaultPermissionSet objects.
+      *
+      * @param perms a PermissionSet object
+      * @exception IllegalArgumentException thrown if the PermissionSet is null
+      */
+     static int getFlags(PermissionSet perms) throws IllegalArgumentException {
+         if (perms instanceof DefaultPermissionSet)
+             return ((DefaultPermissionSet)perms).flags;
+         return new DefaultPermissionSet(perms).flags;
+     }
+ 
      protected int getIntValue() {
          return getIntVal(toString());
      }
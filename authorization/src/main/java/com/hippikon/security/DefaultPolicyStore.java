@@ -25,6 +25,7 @@
 package com.hippikon.security;
  
  import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.*;
  
@@ -55,7 +56,30 @@ import org.apache.log4j.*;
      // the caveat of this approach is that no duplicate objects
      // are allowed since we use a Hashtable
      //
-     private Map<String, ResourceAclList> resourceAcls;
+     private volatile Map<String, ResourceAclList> resourceAcls;
+
+     // counts the times the resource tree has been replaced, so that 
+     // anything derived from it can tell that it is out of date
+     //
+     private volatile int modifications;
+
+     // tells the store instances of the JVM apart for caches that do not
+     // keep a reference to the store
+     //
+     private static final AtomicLong serials = new AtomicLong();
+     private final long serial = serials.incrementAndGet();
+
+     // the number of batches of changes applied through the journal
+     //
+     private volatile long version;
+ 
+     // the resource name->Policy bindings loaded with the store
+     //
+     private PolicyRegistry policyRegistry = PolicyRegistry.EMPTY;
+
+     // the role and group inheritance declared by the store
+     //
+     private volatile RoleHierarchy roleHierarchy = RoleHierarchy.EMPTY;
  
      // required for the PermsNavigator
      //
@@ -98,6 +122,163 @@ import org.apache.log4j.*;
          }
          resourceAcls.put(key, list);
      }
+
+     /**
+      * Replaces all the ResourceAclList objects of the PolicyStore at once,
+      * for instance when part of the store has been reloaded. Requests 
+      * already under way finish against the tree they started with.
+      *
+      * @param acls the top-level ResourceAclList objects keyed by name
+      */
+     protected synchronized void setResourceAcls(Map<String, ResourceAclList> acls) {
+         this.resourceAcls = acls;
+         modifications++;
+     }
+
+     /**
+      * Returns the number of times the resource tree has been replaced 
+      * by {@link #setResourceAcls(Map)}
+      */
+     int getModificationCount() {
+         return modifications;
+     }
+
+     /**
+      * Returns a number no other store instance in the JVM has
+      */
+     long getSerial() {
+         return serial;
+     }
+
+     /**
+      * Returns the PolicySource the store was read from, which the 
+      * overlays of its accounts are read from too
+      */
+     PolicySource getPolicySource() {
+         return PolicySource.getDefault();
+     }
+
+     /**
+      * Replaces all the ResourceAclList objects with a version produced by
+      * applying changes from the {@link PolicyJournal}
+      *
+      * @param acls the top-level ResourceAclList objects keyed by name
+      * @param version the journal version the objects reflect
+      * @return the modification count of the store with the changes
+      */
+     synchronized int publish(Map<String, ResourceAclList> acls, long version) {
+         this.version = version;
+         setResourceAcls(acls);
+         return modifications;
+     }
+
+     /**
+      * Returns the journal version of the store, which is 0 until a change
+      * has been applied through a {@link PolicyStoreEditor}
+      */
+     long getVersion() {
+         return version;
+     }
+ 
+ 
+     /**
+      * Binds the resource policy mappings to the store
+      *
+      * @param registry the PolicyRegistry loaded for the same product
+      */
+     protected void setPolicyRegistry(PolicyRegistry registry) {
+         this.policyRegistry = registry;
+     }
+ 
+     /**
+      * Returns the resource policy mappings bound to the store
+      */
+     PolicyRegistry getPolicyRegistry() {
+         return policyRegistry;
+     }
+ 
+     /**
+      * Sets the role and group inheritance the store declares. The 
+      * principals of each request are expanded with those they inherit.
+      */
+     protected void setRoleHierarchy(RoleHierarchy roleHierarchy) {
+         this.roleHierarchy = roleHierarchy;
+     }
+
+     RoleHierarchy getRoleHierarchy() {
+         return roleHierarchy;
+     }
+
+     PolicyFactory getPolicyFactory(String resourceName) throws PolicyStoreLoadException {
+         return policyRegistry.getPolicyFactory(resourceName);
+     }
+ 
+ 
+     /**
+      * Replaces identical subtrees of the loaded ResourceAclList tree with a
+      * single shared instance, working up from the leaves. Large stores 
+      * repeat the same resource shapes with the same ACLs many times over, 
+      * for instance one per document type. Nodes are read only once shared,
+      * so this must not be called on stores that are edited afterwards 
+      * (such as by the PermsNavigator).
+      *
+      * @param acls the top-level ResourceAclList objects to share subtrees
+      * between, keyed by name. Each is replaced if identical to another.
+      * @return the number of nodes replaced by a shared node
+      */
+     protected int shareSubtrees(Map<String, ResourceAclList> acls) {
+         Map<SubtreeKey, ResourceAclList> shared = new HashMap<SubtreeKey, ResourceAclList>();
+         int[] replaced = new int[1];
+         for (Map.Entry<String, ResourceAclList> entry : acls.entrySet()) {
+             entry.setValue(share(entry.getValue(), shared, replaced));
+         }
+         return replaced[0];
+     }
+
+     private ResourceAclList share(ResourceAclList list, Map<SubtreeKey, ResourceAclList> shared, int[] replaced) {
+         for (ResourceAclList child : new ArrayList<ResourceAclList>(list.getNestedList().values())) {
+             ResourceAclList sharedChild = share(child, shared, replaced);
+             if (sharedChild != child) list.replaceNestedList(sharedChild);
+         }
+         SubtreeKey key = new SubtreeKey(list);
+         ResourceAclList existing = shared.get(key);
+         if (existing != null) {
+             replaced[0]++;
+             return existing;
+         }
+         shared.put(key, list);
+         return list;
+     }
+
+     // a ResourceAclList compared by its subtree rather than identity
+     //
+     private static class SubtreeKey {
+         private final ResourceAclList list;
+         private final int hash;
+
+         SubtreeKey(ResourceAclList list) {
+             this.list = list;
+             this.hash = list.subtreeHashCode();
+         }
+
+         public int hashCode() {
+             return hash;
+         }
+
+         public boolean equals(Object o) {
+             return (o instanceof SubtreeKey) && list.isSameSubtree(((SubtreeKey)o).list);
+         }
+     }
+
+
+     /**
+      * Returns the estimated bytes a subclass keeps in addition to the 
+      * ResourceAclList tree, such as the document it was loaded from. Used
+      * by the {@link PolicyStoreFootprint}.
+      */
+     long estimateLoaderBytes() {
+         return 0;
+     }
  
  
      /**
@@ -152,7 +333,7 @@ import org.apache.log4j.*;
              PermissionsPrincipalsStruct structure = _getPermissions(resNamePath, principals);
              PermissionSet perms = structure.perms;
              Map<String, PermissionSet> principalEntries = structure.principalPermsMap;
-             return mediator.invokePolicyFinals(perms, principalEntries);
+             return mediator.invokePolicyFinals(perms, principalEntries, getFinalRules(structure.resAclList));
          } catch (Exception e) {
              throw new ResourceNotFoundException(e.getMessage());
          }
@@ -168,6 +349,32 @@ import org.apache.log4j.*;
      class PermissionsPrincipalsStruct {
     	 private PermissionSet perms;
     	 private Map<String, PermissionSet> principalPermsMap;
+    	 private List<ResourceAclList> resAclList;
+     }
+
+     PermissionSet applyFinalRules(LinkedList<String> resNamePath, PermissionSet perms, AuthorizationContext ctx)
+     throws ResourceNotFoundException {
+         FinalRule[][] rules = getFinalRules(getResourceAclListsForPathEntries(resNamePath));
+         if (rules == null) return perms;
+         int flags = DefaultPermissionSet.getFlags(perms);
+         int ruled = flags;
+         for (int i = rules.length - 1; i >= 0; i--) {
+             if (rules[i] != null) ruled = FinalRule.apply(rules[i], ruled, null, ctx, resNamePath);
+         }
+         return (ruled == flags) ? perms : new DefaultPermissionSet(ruled);
+     }
+
+     // the rules of each resource along the path, or null if none has any
+     //
+     private static FinalRule[][] getFinalRules(List<ResourceAclList> resAclList) {
+         FinalRule[][] rules = null;
+         for (int i = 0; i < resAclList.size(); i++) {
+             FinalRule[] declared = resAclList.get(i).getFinalRules();
+             if (declared == null) continue;
+             if (rules == null) rules = new FinalRule[resAclList.size()][];
+             rules[i] = declared;
+         }
+         return rules;
      }
  
      // first element is the permissions, 2nd element is the principalEntries 
@@ -188,6 +395,10 @@ import org.apache.log4j.*;
              // ProtectedResource in the PolicyStore
              //
              List<ResourceAclList> resAclList = getResourceAclListsForPathEntries(resNamePath);
+
+             // add the principals inherited through the role hierarchy
+             //
+             principals = getRoleHierarchy().expand(principals);
  
              // we use this to track overridden entries down the hierachy
              // this allows child entries to override those speified higher up
@@ -242,6 +453,7 @@ import org.apache.log4j.*;
  
              structure.perms = perms;
              structure.principalPermsMap = permEntries;
+             structure.resAclList = resAclList;
  
              return structure;
  
@@ -0,0 +1,141 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.hippikon.io.ByteBufferInputStream;
+ 
+ /**
+  * A {@link PolicySource} that reads files from a filesystem directory.<p>
+  *
+  * Files larger than the mapping threshold are memory mapped and parsed
+  * directly from the mapping, so a large policy store is not copied 
+  * through a heap buffer while it is loaded. Smaller files are read through
+  * a buffered stream. The threshold defaults to 64KB and may be set with 
+  * the <code>hippikon.policy-source.mmap-threshold</code> system property 
+  * (in bytes).
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class DirectoryPolicySource extends PolicySource {
+ 
+     private static final long MMAP_THRESHOLD = 
+         Long.getLong("hippikon.policy-source.mmap-threshold", 65536).longValue();
+ 
+     private final File directory;
+ 
+     /**
+      * Creates a new DirectoryPolicySource
+      *
+      * @param directory the directory containing the policy files
+      */
+     public DirectoryPolicySource(File directory) {
+         if (directory == null) 
+             throw new IllegalArgumentException("NULL directory passed to DirectoryPolicySource");
+         this.directory = directory;
+     }
+ 
+     /**
+      * Returns the directory files are read from
+      */
+     public File getDirectory() {
+         return directory;
+     }
+ 
+     // only plain names are accepted so a name can never
+     // refer to a file outside of the directory
+     //
+     private File getFile(String name) throws IOException {
+         if (name.length() == 0 || name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0 || name.equals("..")) {
+             throw new FileNotFoundException("Illegal policy file name: " + name);
+         }
+         File file = new File(directory, name);
+         if (!file.isFile()) throw new FileNotFoundException(file + " not found");
+         return file;
+     }
+ 
+     public InputStream open(String name) throws IOException {
+         File file = getFile(name);
+         if (file.length() >= MMAP_THRESHOLD) {
+             return new ByteBufferInputStream(map(file));
+         }
+         return new BufferedInputStream(new FileInputStream(file), 16384);
+     }
+ 
+     public ByteBuffer read(String name) throws IOException {
+         File file = getFile(name);
+         if (file.length() >= MMAP_THRESHOLD) {
+             return map(file);
+         }
+         return super.read(name);
+     }
+ 
+     // the mapping stays valid after the channel is closed
+     //
+     private ByteBuffer map(File file) throws IOException {
+         RandomAccessFile raf = new RandomAccessFile(file, "r");
+         try {
+             FileChannel channel = raf.getChannel();
+             return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         } finally {
+             raf.close();
+         }
+     }
+ 
+     public List<String> list(String prefix) throws IOException {
+         String[] names = directory.list();
+         if (names == null) throw new FileNotFoundException("Not a directory: " + directory);
+         Arrays.sort(names);
+         List<String> matches = new ArrayList<String>();
+         for (String name : names) {
+             if (name.startsWith(prefix) && new File(directory, name).isFile()) matches.add(name);
+         }
+         return matches;
+     }
+ 
+     public String getDescription(String name) {
+         return new File(directory, name).getPath();
+     }
+ 
+     public String toString() {
+         return "directory " + directory;
+     }
+ 
+ }
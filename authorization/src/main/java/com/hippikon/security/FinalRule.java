@@ -0,0 +1,327 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * A FinalRule is a <code>&lt;final-rule&gt;</code> element declared in a
+  * policy store next to the principals of a protected-resource. It takes 
+  * the place of the simplest {@link Policy#doFinal(PermissionSet)} 
+  * methods, such as making a resource read-only once it is closed, without 
+  * a Policy class being written, bound and deployed. For example:<p>
+  *
+  * <pre>
+  * &lt;protected-resource name="Project"&gt;
+  *     &lt;principal type="role" name="manager" acl="irwcd"/&gt;
+  *     &lt;final-rule property="closed" unless-path-contains="ProductChange" limit="-r---"/&gt;
+  * &lt;/protected-resource&gt;
+  * </pre>
+  *
+  * A rule holds when all of its conditions do:<p>
+  *
+  * <ul>
+  * <li><b>property</b> - a bean property of the resource instance, read 
+  *     with its <code>isX()</code> or <code>getX()</code> method, equals 
+  *     the <b>equals</b> attribute, "true" if none is given. Entries of a 
+  *     resource path given as a Class have no instance, so the condition 
+  *     never holds for them. A property that cannot be read holds, so a 
+  *     mistyped rule denies rather than grants.</li>
+  * <li><b>path-contains</b> or <b>unless-path-contains</b> - the resource
+  *     path of the check does or does not contain a resource name</li>
+  * <li><b>subscription</b> or <b>unless-subscription</b> - the 
+  *     AuthorizationContext does or does not have a subscription</li>
+  * <li><b>locale</b> - the locale of the AuthorizationContext, or its 
+  *     language, equals the attribute</li>
+  * <li><b>timezone</b> - the time zone ID of the AuthorizationContext
+  *     equals the attribute</li>
+  * </ul>
+  *
+  * A rule that holds limits the permissions to the flags of its 
+  * <b>limit</b> ACL, or removes the flags of its <b>revoke</b> ACL. Rules 
+  * may only take permissions away.<p>
+  *
+  * Rules are compiled once when the store is loaded, into conditions and a 
+  * flag mask applied to the integer permissions, and each property 
+  * accessor is looked up once per resource class. The rules of a resource 
+  * are applied just before the doFinal() of its Policy, in the same 
+  * reverse order along the resource path.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class FinalRule {
+ 
+     // the attributes a rule may declare, in the order they are written
+     //
+     static final String PROPERTY = "property";
+     static final String EQUALS = "equals";
+     static final String PATH_CONTAINS = "path-contains";
+     static final String UNLESS_PATH_CONTAINS = "unless-path-contains";
+     static final String SUBSCRIPTION = "subscription";
+     static final String UNLESS_SUBSCRIPTION = "unless-subscription";
+     static final String LOCALE = "locale";
+     static final String TIMEZONE = "timezone";
+     static final String LIMIT = "limit";
+     static final String REVOKE = "revoke";
+ 
+     static final String[] ATTRIBUTES = {
+         PROPERTY, EQUALS, PATH_CONTAINS, UNLESS_PATH_CONTAINS, SUBSCRIPTION, 
+         UNLESS_SUBSCRIPTION, LOCALE, TIMEZONE, LIMIT, REVOKE
+     };
+ 
+     private static final int ALL_FLAGS = DefaultPermissionSet.CREATE_FLAG | DefaultPermissionSet.READ_FLAG | 
+                                          DefaultPermissionSet.WRITE_FLAG | DefaultPermissionSet.CONTROL_FLAG | 
+                                          DefaultPermissionSet.DELETE_FLAG;
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.FinalRule");
+ 
+     // the attributes as declared, for snapshots and comparison
+     //
+     private final Map<String, String> attributes;
+     private final Condition[] conditions;
+     private final int mask;
+ 
+     private FinalRule(Map<String, String> attributes, Condition[] conditions, int mask) {
+         this.attributes = attributes;
+         this.conditions = conditions;
+         this.mask = mask;
+     }
+ 
+     /**
+      * Compiles a rule from the attributes of its element
+      *
+      * @param attributes the attribute values keyed by name, an empty value
+      * being the same as none
+      * @param resourceName the resource the rule is declared on, for messages
+      *
+      * @exception IllegalArgumentException thrown if the rule has no limit 
+      * or revoke ACL, or both, or an attribute is not well formed
+      */
+     static FinalRule compile(Map<String, String> attributes, String resourceName) throws IllegalArgumentException {
+         Map<String, String> declared = new LinkedHashMap<String, String>();
+         for (String name : ATTRIBUTES) {
+             String value = attributes.get(name);
+             if (value != null && value.length() > 0) declared.put(name, value);
+         }
+         String limit = declared.get(LIMIT);
+         String revoke = declared.get(REVOKE);
+         if ((limit == null) == (revoke == null)) 
+             throw new IllegalArgumentException("final-rule on " + resourceName + " must have one of limit or revoke");
+         int mask = (limit != null) ? getFlags(limit, resourceName) : ~getFlags(revoke, resourceName) & ALL_FLAGS;
+         if (declared.containsKey(EQUALS) && !declared.containsKey(PROPERTY))
+             throw new IllegalArgumentException("final-rule on " + resourceName + " has equals but no property");
+ 
+         List<Condition> conditions = new ArrayList<Condition>();
+         if (declared.containsKey(PROPERTY)) {
+             String value = declared.containsKey(EQUALS) ? declared.get(EQUALS) : "true";
+             conditions.add(new PropertyCondition(declared.get(PROPERTY), value));
+         }
+         if (declared.containsKey(PATH_CONTAINS)) {
+             conditions.add(new PathCondition(declared.get(PATH_CONTAINS), true));
+         }
+         if (declared.containsKey(UNLESS_PATH_CONTAINS)) {
+             conditions.add(new PathCondition(declared.get(UNLESS_PATH_CONTAINS), false));
+         }
+         if (declared.containsKey(SUBSCRIPTION)) {
+             conditions.add(new SubscriptionCondition(declared.get(SUBSCRIPTION), true));
+         }
+         if (declared.containsKey(UNLESS_SUBSCRIPTION)) {
+             conditions.add(new SubscriptionCondition(declared.get(UNLESS_SUBSCRIPTION), false));
+         }
+         if (declared.containsKey(LOCALE)) {
+             final String locale = declared.get(LOCALE);
+             conditions.add(new Condition() {
+                 boolean test(Object res, AuthorizationContext ctx, List<String> path) {
+                     Locale l = ctx.getLocale();
+                     return l != null && (locale.equals(l.toString()) || locale.equals(l.getLanguage()));
+                 }
+             });
+         }
+         if (declared.containsKey(TIMEZONE)) {
+             final String timezone = declared.get(TIMEZONE);
+             conditions.add(new Condition() {
+                 boolean test(Object res, AuthorizationContext ctx, List<String> path) {
+                     TimeZone tz = ctx.getTimeZone();
+                     return tz != null && timezone.equals(tz.getID());
+                 }
+             });
+         }
+         return new FinalRule(Collections.unmodifiableMap(declared), 
+                              conditions.toArray(new Condition[conditions.size()]), mask);
+     }
+ 
+     private static int getFlags(String acl, String resourceName) {
+         if (acl.length() != 5) 
+             throw new IllegalArgumentException("Illegal ACL " + acl + " in final-rule on " + resourceName);
+         return DefaultPermissionSet.getIntVal(acl);
+     }
+ 
+     /**
+      * Returns the attributes of the rule as declared
+      */
+     Map<String, String> getAttributes() {
+         return attributes;
+     }
+ 
+     /**
+      * Applies the rules of one resource to the permissions
+      *
+      * @param rules the rules declared on the resource
+      * @param flags the integer permissions found so far
+      * @param res the resource instance, or null if the path entry is a Class
+      * @param ctx the AuthorizationContext of the check
+      * @param path the resource path of the check
+      * @return the permissions once each rule that holds has been applied
+      */
+     static int apply(FinalRule[] rules, int flags, Object res, AuthorizationContext ctx, List<String> path) {
+         for (int i = 0; i < rules.length; i++) {
+             if ((flags & rules[i].mask) != flags && rules[i].holds(res, ctx, path)) {
+                 flags &= rules[i].mask;
+             }
+         }
+         return flags;
+     }
+ 
+     private boolean holds(Object res, AuthorizationContext ctx, List<String> path) {
+         for (int i = 0; i < conditions.length; i++) {
+             if (!conditions[i].test(res, ctx, path)) return false;
+         }
+         return true;
+     }
+ 
+     public boolean equals(Object o) {
+         return (o instanceof FinalRule) && attributes.equals(((FinalRule)o).attributes);
+     }
+ 
+     public int hashCode() {
+         return attributes.hashCode();
+     }
+ 
+     public String toString() {
+         return XMLPolicyStore.FINAL_RULE + attributes;
+     }
+ 
+     // one compiled condition of a rule
+     //
+     private static abstract class Condition {
+         abstract boolean test(Object res, AuthorizationContext ctx, List<String> path);
+     }
+ 
+     private static class PathCondition extends Condition {
+         private final String name;
+         private final boolean contains;
+ 
+         PathCondition(String name, boolean contains) {
+             this.name = name;
+             this.contains = contains;
+         }
+ 
+         boolean test(Object res, AuthorizationContext ctx, List<String> path) {
+             return path.contains(name) == contains;
+         }
+     }
+ 
+     private static class SubscriptionCondition extends Condition {
+         private final String name;
+         private final boolean subscribed;
+ 
+         SubscriptionCondition(String name, boolean subscribed) {
+             this.name = name;
+             this.subscribed = subscribed;
+         }
+ 
+         boolean test(Object res, AuthorizationContext ctx, List<String> path) {
+             List<String> subscriptions = ctx.getSubscriptions();
+             return (subscriptions != null && subscriptions.contains(name)) == subscribed;
+         }
+     }
+ 
+     // reads a bean property through an accessor found once per class
+     //
+     private static class PropertyCondition extends Condition {
+         private final String property;
+         private final String value;
+         private final ClassValue<Optional<Method>> accessors = new ClassValue<Optional<Method>>() {
+             protected Optional<Method> computeValue(Class<?> type) {
+                 return findAccessor(type);
+             }
+         };
+ 
+         PropertyCondition(String property, String value) {
+             this.property = property;
+             this.value = value;
+         }
+ 
+         boolean test(Object res, AuthorizationContext ctx, List<String> path) {
+             if (res == null) return false;
+ 
+             // a descriptor has the attribute or else holds the rule
+             //
+             if (res instanceof ResourceDescriptor) {
+                 Object attribute = ((ResourceDescriptor)res).getAttribute(property);
+                 return attribute == null || value.equals(String.valueOf(attribute));
+             }
+             Optional<Method> accessor = accessors.get(res.getClass());
+             if (!accessor.isPresent()) return true;
+             try {
+                 return value.equals(String.valueOf(accessor.get().invoke(res)));
+             } catch (Exception e) {
+                 log.error("Could not read property " + property + " of " + res.getClass().getName(), e);
+                 return true;
+             }
+         }
+ 
+         private Optional<Method> findAccessor(Class<?> type) {
+             String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+             for (String name : new String[] {"is" + suffix, "get" + suffix}) {
+                 try {
+                     Method method = type.getMethod(name);
+                     if (method.getReturnType() == Void.TYPE) continue;
+                     try {
+                         method.setAccessible(true);
+                     } catch (RuntimeException e) { }
+                     return Optional.of(method);
+                 } catch (NoSuchMethodException e) { }
+             }
+             log.error("No accessor for property " + property + " of " + type.getName() + 
+                       ", the final-rule will always hold");
+             return Optional.empty();
+         }
+     }
+ 
+ }
@@ -0,0 +1,126 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+ 
+ /**
+  * A {@link PolicySource} that holds files as byte arrays in memory. Useful
+  * for stores generated at runtime, fetched by the application from another
+  * system, or built by tests.<p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * InMemoryPolicySource source = new InMemoryPolicySource();
+  * source.put("hippikon.product-id.001.policy-store.xml", xmlBytes);
+  * source.put("hippikon.product-id.001.resource.policies", propsBytes);
+  * PolicySource.setDefault(source);
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class InMemoryPolicySource extends PolicySource {
+ 
+     private static final Charset UTF8 = Charset.forName("UTF-8");
+ 
+     private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+ 
+     /**
+      * Adds or replaces a file. The array is not copied and must not be
+      * changed afterwards.
+      *
+      * @param name the file name
+      * @param content the file contents
+      */
+     public void put(String name, byte[] content) {
+         if (name == null || content == null) 
+             throw new IllegalArgumentException("NULL name or content passed to InMemoryPolicySource");
+         files.put(name, content);
+     }
+ 
+     /**
+      * Adds or replaces a file, encoding the contents as UTF-8
+      *
+      * @param name the file name
+      * @param content the file contents
+      */
+     public void put(String name, String content) {
+         put(name, content.getBytes(UTF8));
+     }
+ 
+     /**
+      * Removes a file
+      *
+      * @param name the file name
+      */
+     public void remove(String name) {
+         files.remove(name);
+     }
+ 
+     private byte[] get(String name) throws FileNotFoundException {
+         byte[] content = files.get(name);
+         if (content == null) throw new FileNotFoundException(name + " not found in memory");
+         return content;
+     }
+ 
+     public InputStream open(String name) throws FileNotFoundException {
+         return new ByteArrayInputStream(get(name));
+     }
+ 
+     public ByteBuffer read(String name) throws FileNotFoundException {
+         return ByteBuffer.wrap(get(name)).asReadOnlyBuffer();
+     }
+ 
+     public List<String> list(String prefix) {
+         List<String> names = new ArrayList<String>();
+         for (String name : files.keySet()) {
+             if (name.startsWith(prefix)) names.add(name);
+         }
+         Collections.sort(names);
+         return names;
+     }
+ 
+     public String getDescription(String name) {
+         return "memory:" + name;
+     }
+ 
+     public String toString() {
+         return "memory";
+     }
+ 
+ }
@@ -0,0 +1,73 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+ 
+ /**
+  * Hands out one canonical instance for each distinct value, so that the
+  * ACLs repeated across nodes and across loaded products are held once. 
+  * Canonical instances are only weakly held, so a value is forgotten once 
+  * no loaded store uses it. Names are interned with String.intern(), whose
+  * table is cheaper per entry than a WeakHashMap.<p>
+  *
+  * Interning is only done while stores are loaded, never on a permission
+  * lookup, so a single lock is enough.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class Interner<T> {
+ 
+     private final WeakHashMap<T, WeakReference<T>> table = new WeakHashMap<T, WeakReference<T>>();
+ 
+     /**
+      * Returns the canonical instance equal to a value, which becomes the
+      * canonical instance if there is none
+      *
+      * @param value the value to intern, may be null
+      */
+     synchronized T intern(T value) {
+         if (value == null) return null;
+         WeakReference<T> ref = table.get(value);
+         T canonical = (ref == null) ? null : ref.get();
+         if (canonical == null) {
+             table.put(value, new WeakReference<T>(value));
+             canonical = value;
+         }
+         return canonical;
+     }
+ 
+     /**
+      * Returns the number of canonical instances held
+      */
+     synchronized int size() {
+         return table.size();
+     }
+ 
+ }
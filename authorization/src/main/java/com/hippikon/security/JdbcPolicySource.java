@@ -0,0 +1,182 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+ 
+ /**
+  * A {@link PolicySource} that reads files from rows of a database table,
+  * one row per file with the file name in one column and the contents in
+  * a binary or BLOB column.<p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * CREATE TABLE policy_files (name VARCHAR(255) PRIMARY KEY, content BLOB);
+  *
+  * PolicySource.setDefault(new JdbcPolicySource(dataSource, "policy_files", "name", "content"));
+  * </pre>
+  *
+  * Each read takes a connection from the DataSource and returns it before 
+  * the contents are parsed, so a connection is never held while a policy
+  * store is built. Use {@link #readAll(java.util.Collection, int)} to fetch 
+  * many files at once over several connections.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class JdbcPolicySource extends PolicySource {
+ 
+     private final DataSource dataSource;
+     private final String selectSql;
+     private final String listSql;
+ 
+     /**
+      * Creates a new JdbcPolicySource for a table with a name and a content
+      * column
+      *
+      * @param dataSource the DataSource to take connections from
+      * @param table the table name
+      * @param nameColumn the column holding the file name
+      * @param contentColumn the column holding the file contents
+      */
+     public JdbcPolicySource(DataSource dataSource, String table, String nameColumn, String contentColumn) {
+         this(dataSource,
+              "SELECT " + contentColumn + " FROM " + table + " WHERE " + nameColumn + " = ?",
+              "SELECT " + nameColumn + " FROM " + table + " WHERE " + nameColumn + " LIKE ?");
+     }
+ 
+     /**
+      * Creates a new JdbcPolicySource with custom SQL
+      *
+      * @param dataSource the DataSource to take connections from
+      * @param selectSql a query taking the file name as its only parameter
+      * and returning the contents in its first column
+      * @param listSql a query taking a LIKE pattern as its only parameter and
+      * returning file names in its first column
+      */
+     public JdbcPolicySource(DataSource dataSource, String selectSql, String listSql) {
+         if (dataSource == null) 
+             throw new IllegalArgumentException("NULL DataSource passed to JdbcPolicySource");
+         this.dataSource = dataSource;
+         this.selectSql = selectSql;
+         this.listSql = listSql;
+     }
+ 
+     public InputStream open(String name) throws IOException {
+         return new ByteArrayInputStream(fetch(name));
+     }
+ 
+     public ByteBuffer read(String name) throws IOException {
+         return ByteBuffer.wrap(fetch(name)).asReadOnlyBuffer();
+     }
+ 
+     private byte[] fetch(String name) throws IOException {
+         try {
+             Connection conn = dataSource.getConnection();
+             try {
+                 PreparedStatement stmt = conn.prepareStatement(selectSql);
+                 try {
+                     stmt.setString(1, name);
+                     ResultSet rs = stmt.executeQuery();
+                     try {
+                         if (!rs.next()) throw new FileNotFoundException(name + " not found in the database");
+                         InputStream in = rs.getBinaryStream(1);
+                         if (in == null) throw new FileNotFoundException(name + " has no content in the database");
+                         try {
+                             return readFully(in);
+                         } finally {
+                             in.close();
+                         }
+                     } finally {
+                         rs.close();
+                     }
+                 } finally {
+                     stmt.close();
+                 }
+             } finally {
+                 conn.close();
+             }
+         } catch (SQLException e) {
+             throw new IOException("Could not read " + name + " from the database: " + e.getMessage(), e);
+         }
+     }
+ 
+     public List<String> list(String prefix) throws IOException {
+         List<String> names = new ArrayList<String>();
+         try {
+             Connection conn = dataSource.getConnection();
+             try {
+                 PreparedStatement stmt = conn.prepareStatement(listSql);
+                 try {
+                     stmt.setString(1, prefix + "%");
+                     ResultSet rs = stmt.executeQuery();
+                     try {
+                         while (rs.next()) {
+                             // LIKE treats '_' as a wildcard, so check the prefix again
+                             //
+                             String name = rs.getString(1);
+                             if (name != null && name.startsWith(prefix)) names.add(name);
+                         }
+                     } finally {
+                         rs.close();
+                     }
+                 } finally {
+                     stmt.close();
+                 }
+             } finally {
+                 conn.close();
+             }
+         } catch (SQLException e) {
+             throw new IOException("Could not list policy files in the database: " + e.getMessage(), e);
+         }
+         Collections.sort(names);
+         return names;
+     }
+ 
+     public String getDescription(String name) {
+         return "jdbc:" + name;
+     }
+ 
+     public String toString() {
+         return "database";
+     }
+ 
+ }
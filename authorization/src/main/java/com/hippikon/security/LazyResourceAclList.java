@@ -0,0 +1,162 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.Collection;
+import java.util.Map;
+ 
+ /**
+  * A ResourceAclList whose principal ACLs and nested resources are built by
+  * a {@link SubtreeLoader} the first time they are used. Until then the node
+  * only holds its name and the byte range of its element. Lazy nodes are 
+  * read only.<p>
+  *
+  * A built top-level node may be dropped again once it has been idle, 
+  * releasing its whole subtree. Lookups already holding part of the subtree
+  * carry on with it, since the built nodes themselves are never changed.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class LazyResourceAclList extends ResourceAclList {
+ 
+     private final SubtreeLoader loader;
+     private final int start;
+     private final int end;
+     private final boolean topLevel;
+ 
+     private volatile ResourceAclList contents;
+     private volatile long lastUsed;
+ 
+     /**
+      * Creates a new LazyResourceAclList
+      *
+      * @param resourceName the ProtectedResource name
+      * @param loader builds the node when it is first used
+      * @param start the offset of the node's protected-resource element
+      * @param end the offset just after the element
+      * @param topLevel true for a top-level resource, which may be dropped
+      * when idle
+      */
+     LazyResourceAclList(String resourceName, SubtreeLoader loader, int start, int end, boolean topLevel) {
+         super(resourceName);
+         this.loader = loader;
+         this.start = start;
+         this.end = end;
+         this.topLevel = topLevel;
+     }
+ 
+     int getStart() {
+         return start;
+     }
+ 
+     int getEnd() {
+         return end;
+     }
+ 
+     // returns the built node, building it on first use
+     //
+     private ResourceAclList contents() {
+         if (topLevel) lastUsed = loader.touch();
+         ResourceAclList built = contents;
+         if (built == null) {
+             synchronized(this) {
+                 built = contents;
+                 if (built == null) {
+                     built = loader.build(this);
+                     contents = built;
+                 }
+             }
+         }
+         return built;
+     }
+ 
+     /**
+      * Drops the built subtree if the node has not been used since a time
+      *
+      * @return true if the subtree was dropped
+      */
+     boolean dropIfIdle(long idleSince) {
+         if (contents == null || lastUsed >= idleSince) return false;
+         contents = null;
+         return true;
+     }
+ 
+     boolean isLoaded() {
+         return contents != null;
+     }
+ 
+     ACL getPrincipalACL(String principal) {
+         return contents().getPrincipalACL(principal);
+     }
+ 
+     boolean containsNestedList(String resourceName) {
+         return contents().containsNestedList(resourceName);
+     }
+ 
+     ResourceAclList getNestedList(String resourceName) throws ResourceNotFoundException {
+         return contents().getNestedList(resourceName);
+     }
+ 
+     Map<String, ResourceAclList> getNestedList() {
+         return contents().getNestedList();
+     }
+ 
+     Collection<ACL> getAcls() {
+         return contents().getAcls();
+     }
+
+     FinalRule[] getFinalRules() {
+         return contents().getFinalRules();
+     }
+ 
+     void addNestedList(ResourceAclList list) {
+         throw new UnsupportedOperationException("Lazily loaded resource " + getResourceName() + " is read only");
+     }
+ 
+     void addPrincipalACL(ACL acl) {
+         throw new UnsupportedOperationException("Lazily loaded resource " + getResourceName() + " is read only");
+     }
+ 
+     void addFinalRule(FinalRule rule) {
+         throw new UnsupportedOperationException("Lazily loaded resource " + getResourceName() + " is read only");
+     }
+ 
+     void clearPrincipalACLs() {
+         throw new UnsupportedOperationException("Lazily loaded resource " + getResourceName() + " is read only");
+     }
+ 
+     long estimateShallowBytes() {
+         // the ResourceAclList fields, the loader and contents references,
+         // the offsets, the flag and the last use time
+         //
+         long bytes = PolicyStoreFootprint.align(PolicyStoreFootprint.OBJECT_HEADER + 6 * PolicyStoreFootprint.REFERENCE + 2 * 4 + 1 + 8);
+         ResourceAclList built = contents;
+         return (built == null) ? bytes : bytes + built.estimateShallowBytes();
+     }
+ 
+ }
@@ -0,0 +1,208 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+ 
+ /**
+  * Holds the decisions of the {@link DecisionCache} outside of the Java 
+  * heap, for working sets of millions of decisions that would otherwise 
+  * fill the heap with keys and PermissionSet objects.<p>
+  *
+  * Each decision takes a 32 byte slot holding a 128 bit fingerprint of its
+  * key, the serial and modification count of the store it was found in, 
+  * and its permission flags. The slots live in direct ByteBuffers, or in a
+  * memory-mapped file that the operating system may page out.<p>
+  *
+  * The table is split into stripes, each with its own lock, so threads
+  * working on different decisions rarely wait for each other. Within a
+  * stripe a decision is looked for in a window of 16 slots from its home
+  * slot (open addressing). When the window is full a clock hand picks the 
+  * slot to reuse, passing over slots that were used since it last passed.
+  * Slots are never emptied, as a decision found in an older store simply
+  * no longer matches and is reused in time.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class OffHeapDecisionTable {
+ 
+     // the layout of a slot
+     //
+     private static final int SLOT = 32;
+     private static final int FINGERPRINT = 0;
+     private static final int FINGERPRINT2 = 8;
+     private static final int SERIAL = 16;
+     private static final int MODIFICATIONS = 24;
+     private static final int FLAGS = 28;
+     private static final int REFERENCED = 29;
+     private static final int USED = 30;
+ 
+     private static final int PROBES = 16;
+     private static final int STRIPES = 64;
+ 
+     private final Stripe[] stripes;
+ 
+     /**
+      * Creates a table of at least a number of slots
+      *
+      * @param capacity the number of decisions the table should hold
+      * @param file the file to map the slots to, or null to use direct 
+      * buffers. Anything in the file is discarded.
+      */
+     OffHeapDecisionTable(int capacity, File file) throws IOException {
+         int stripeCount = (capacity >= STRIPES * PROBES) ? STRIPES : 1;
+         int slots = PROBES;
+         while ((long)slots * stripeCount < capacity) {
+             slots <<= 1;
+         }
+         int bytes = slots * SLOT;
+         stripes = new Stripe[stripeCount];
+         if (file == null) {
+             for (int i = 0; i < stripeCount; i++) {
+                 stripes[i] = new Stripe(ByteBuffer.allocateDirect(bytes), slots);
+             }
+             return;
+         }
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         try {
+             raf.setLength(0);
+             raf.setLength((long)bytes * stripeCount);
+             FileChannel channel = raf.getChannel();
+             for (int i = 0; i < stripeCount; i++) {
+                 stripes[i] = new Stripe(channel.map(FileChannel.MapMode.READ_WRITE, (long)bytes * i, bytes), slots);
+             }
+         } finally {
+             raf.close();
+         }
+     }
+ 
+     /**
+      * Returns the flags of a decision, or -1 if the table does not hold 
+      * it for the store given
+      */
+     int get(long fingerprint, long fingerprint2, long serial, int modifications) {
+         Stripe stripe = stripes[(int)(fingerprint >>> 32) & (stripes.length - 1)];
+         ByteBuffer slots = stripe.slots;
+         synchronized(stripe) {
+             int index = (int)fingerprint & stripe.mask;
+             for (int probe = 0; probe < PROBES; probe++, index = (index + 1) & stripe.mask) {
+                 int at = index * SLOT;
+                 if (slots.get(at + USED) == 0) return -1;
+                 if (slots.getLong(at + FINGERPRINT) == fingerprint && slots.getLong(at + FINGERPRINT2) == fingerprint2) {
+                     if (slots.getLong(at + SERIAL) != serial || slots.getInt(at + MODIFICATIONS) != modifications) return -1;
+                     slots.put(at + REFERENCED, (byte)1);
+                     return slots.get(at + FLAGS);
+                 }
+             }
+             return -1;
+         }
+     }
+ 
+     /**
+      * Stores the flags of a decision made in a store, replacing any older
+      * decision with the same fingerprint
+      */
+     void put(long fingerprint, long fingerprint2, long serial, int modifications, int flags) {
+         Stripe stripe = stripes[(int)(fingerprint >>> 32) & (stripes.length - 1)];
+         ByteBuffer slots = stripe.slots;
+         synchronized(stripe) {
+             int home = (int)fingerprint & stripe.mask;
+             int at = -1;
+             for (int probe = 0; probe < PROBES; probe++) {
+                 int slot = ((home + probe) & stripe.mask) * SLOT;
+                 if (slots.get(slot + USED) == 0) {
+                     stripe.used++;
+                     at = slot;
+                     break;
+                 }
+                 if (slots.getLong(slot + FINGERPRINT) == fingerprint && slots.getLong(slot + FINGERPRINT2) == fingerprint2) {
+                     at = slot;
+                     break;
+                 }
+             }
+ 
+             // the window is full, so the clock hand gives every slot used 
+             // since it last passed a second chance. Two turns always find one
+             //
+             for (int turn = 0; at < 0 && turn < 2 * PROBES; turn++) {
+                 int slot = ((home + stripe.hand) & stripe.mask) * SLOT;
+                 stripe.hand = (stripe.hand + 1) % PROBES;
+                 if (slots.get(slot + REFERENCED) == 0) {
+                     at = slot;
+                 } else {
+                     slots.put(slot + REFERENCED, (byte)0);
+                 }
+             }
+ 
+             slots.putLong(at + FINGERPRINT, fingerprint);
+             slots.putLong(at + FINGERPRINT2, fingerprint2);
+             slots.putLong(at + SERIAL, serial);
+             slots.putInt(at + MODIFICATIONS, modifications);
+             slots.put(at + FLAGS, (byte)flags);
+             slots.put(at + REFERENCED, (byte)1);
+             slots.put(at + USED, (byte)1);
+         }
+     }
+ 
+     /**
+      * Returns the number of slots in use
+      */
+     int size() {
+         int size = 0;
+         for (Stripe stripe : stripes) {
+             synchronized(stripe) {
+                 size += stripe.used;
+             }
+         }
+         return size;
+     }
+ 
+     /**
+      * Returns the number of slots
+      */
+     int getCapacity() {
+         return stripes.length * (stripes[0].mask + 1);
+     }
+ 
+     private static final class Stripe {
+         final ByteBuffer slots;
+         final int mask;
+         int hand;
+         int used;
+ 
+         Stripe(ByteBuffer slots, int count) {
+             this.slots = slots;
+             this.mask = count - 1;
+         }
+     }
+ 
+ }
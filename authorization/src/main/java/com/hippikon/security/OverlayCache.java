@@ -0,0 +1,242 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * Holds the {@link OverlayPolicyStore} objects of the accounts that are 
+  * active, loading each on the first request of an account and evicting it
+  * when the account goes idle.<p>
+  *
+  * Accounts without an overlay are remembered too, so the PolicySource
+  * is asked once per account rather than once per request. Requests find
+  * their account without taking a lock, and the cache is swept by a 
+  * background thread, which evicts the entries that have not been used for
+  * the idle timeout and, if the cache has grown past its size, those idle
+  * longest. The sweep runs at the idle timeout or every minute, whichever 
+  * is sooner, and as soon as the cache grows past its size. Both may be 
+  * set with system properties:<p>
+  *
+  * <pre>
+  * hippikon.overlay.cache-size     maximum accounts held (default 10000)
+  * hippikon.overlay.idle-timeout   idle milliseconds before eviction (default 30 minutes)
+  * </pre>
+  *
+  * An overlay is read from the {@link PolicySource} of the product store
+  * it is laid over, and is bound to that store. When the product store is
+  * flushed and reloaded, or its modules are reloaded, the overlay is 
+  * loaded again.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class OverlayCache {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.OverlayCache");
+ 
+     private static final long MAX_SWEEP_INTERVAL = 60000L;
+ 
+     private final int maxEntries;
+     private final long idleTimeout;
+     private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+ 
+     // set while a sweep for an over-full cache is waiting to run
+     //
+     private final AtomicBoolean trimming = new AtomicBoolean();
+ 
+     private final Runnable sweep = new Runnable() {
+         public void run() {
+             trimming.set(false);
+             try {
+                 sweep(System.currentTimeMillis());
+             } catch (RuntimeException e) {
+                 log.warn("Could not sweep the overlay cache", e);
+             }
+         }
+     };
+ 
+     /**
+      * Creates a new OverlayCache configured from the system properties
+      */
+     OverlayCache() {
+         this(Integer.getInteger("hippikon.overlay.cache-size", 10000).intValue(),
+              Long.getLong("hippikon.overlay.idle-timeout", 1800000L).longValue());
+     }
+ 
+     /**
+      * Creates a new OverlayCache
+      *
+      * @param maxEntries the maximum number of accounts held
+      * @param idleTimeout the milliseconds an account may be idle before 
+      * its overlay is evicted
+      */
+     OverlayCache(int maxEntries, long idleTimeout) {
+         this.maxEntries = maxEntries;
+         this.idleTimeout = idleTimeout;
+         long interval = Math.max(1L, Math.min(idleTimeout, MAX_SWEEP_INTERVAL));
+         Sweeper.instance.scheduleWithFixedDelay(sweep, interval, interval, TimeUnit.MILLISECONDS);
+     }
+ 
+     /**
+      * Returns the store for an account: its overlay laid over the product
+      * store, or the product store itself if the account has no overlay
+      *
+      * @param accountID the account being accessed
+      * @param productID the product being accessed
+      * @param base the current product store
+      *
+      * @exception PolicyStoreLoadException thrown if the account has an overlay
+      * that could not be loaded
+      */
+     PolicyStore get(String accountID, String productID, DefaultPolicyStore base) 
+     throws PolicyStoreLoadException {
+ 
+         String key = accountID + "/" + PolicyStoreFactory.getCacheKey(productID);
+         long now = System.currentTimeMillis();
+ 
+         Entry entry = entries.get(key);
+         if (entry != null && entry.base == base && entry.modifications == base.getModificationCount()) {
+             entry.lastAccess = now;
+             return (entry.overlay != null) ? entry.overlay : base;
+         }
+ 
+         // loaded without holding any lock so one account's overlay never 
+         // delays another; two requests racing for the same account both 
+         // load it
+         //
+         int modifications = base.getModificationCount();
+         OverlayPolicyStore overlay = null;
+         try {
+             overlay = new OverlayPolicyStore(base, accountID, productID, base.getPolicySource());
+         } catch (FileNotFoundException e) {
+             // no overlay for this account
+         } catch (IOException e) {
+             throw new PolicyStoreLoadException("Could not read overlay for account " + accountID + ": " + e.getMessage());
+         }
+ 
+         entries.put(key, new Entry(base, modifications, overlay, now));
+         if (entries.size() > maxEntries && trimming.compareAndSet(false, true)) {
+             Sweeper.instance.execute(sweep);
+         }
+         return (overlay != null) ? overlay : base;
+     }
+ 
+     /**
+      * Evicts the entries idle for the idle timeout and, while there are 
+      * more than the maximum, those idle longest
+      *
+      * @param now the current time in milliseconds
+      */
+     void sweep(long now) {
+         for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+             Entry entry = mapping.getValue();
+             if (now - entry.lastAccess >= idleTimeout && entries.remove(mapping.getKey(), entry)) {
+                 evicted(entry);
+             }
+         }
+ 
+         int excess = entries.size() - maxEntries;
+         if (excess <= 0) return;
+         List<Map.Entry<String, Entry>> eldest = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+         Collections.sort(eldest, new Comparator<Map.Entry<String, Entry>>() {
+             public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+                 long x = a.getValue().lastAccess;
+                 long y = b.getValue().lastAccess;
+                 return (x < y) ? -1 : ((x == y) ? 0 : 1);
+             }
+         });
+         for (int i = 0; i < eldest.size() && excess > 0; i++) {
+             Map.Entry<String, Entry> mapping = eldest.get(i);
+             if (entries.remove(mapping.getKey(), mapping.getValue())) {
+                 evicted(mapping.getValue());
+                 excess--;
+             }
+         }
+     }
+ 
+     private static void evicted(Entry entry) {
+         if (entry.overlay != null) {
+             log.debug("Evicting idle overlay for account " + entry.overlay.getAccountID());
+         }
+     }
+ 
+     /**
+      * Returns the number of accounts held, with or without an overlay
+      */
+     int size() {
+         return entries.size();
+     }
+ 
+     /**
+      * Removes every account
+      */
+     void clear() {
+         entries.clear();
+     }
+ 
+     private static class Entry {
+         final DefaultPolicyStore base;
+         final int modifications;
+         final OverlayPolicyStore overlay;
+         volatile long lastAccess;
+ 
+         Entry(DefaultPolicyStore base, int modifications, OverlayPolicyStore overlay, long lastAccess) {
+             this.base = base;
+             this.modifications = modifications;
+             this.overlay = overlay;
+             this.lastAccess = lastAccess;
+         }
+     }
+ 
+     private static class Sweeper {
+         static final ScheduledExecutorService instance = Executors.newSingleThreadScheduledExecutor(new SweeperThreadFactory());
+     }
+ 
+     private static class SweeperThreadFactory implements ThreadFactory {
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-overlay-sweeper");
+             thread.setDaemon(true);
+             return thread;
+         }
+     }
+ 
+ }
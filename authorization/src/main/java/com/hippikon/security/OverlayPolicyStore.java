@@ -0,0 +1,275 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+ 
+ /**
+  * A {@link PolicyStore} for one account that lays a sparse account overlay
+  * over the shared policy store of a product.<p>
+  *
+  * The overlay is read from a file named
+  * <code>hippikon.account-id.[accountID].product-id.[productID].policy-store.xml</code>
+  * with the same format as a product policy store, but containing only the
+  * resources and principals the account changes:<p>
+  *
+  * <pre>
+  * &lt;policy-store&gt;
+  *   &lt;protected-resource name="Project"&gt;
+  *     &lt;principal name="manager" acl="irwc-"/&gt;      &lt;!-- replaces the product ACL --&gt;
+  *     &lt;principal name="vendor" remove="true"/&gt;     &lt;!-- removes the product ACL --&gt;
+  *     &lt;protected-resource name="Budget"&gt;         &lt;!-- adds a resource --&gt;
+  *       &lt;principal name="manager" acl="-r---"/&gt;
+  *     &lt;/protected-resource&gt;
+  *     &lt;protected-resource name="Archive" remove="true"/&gt;
+  *   &lt;/protected-resource&gt;
+  * &lt;/policy-store&gt;
+  * </pre>
+  *
+  * Only the resources named in the overlay get a node of their own; every
+  * other node, and the resource policy mappings, are shared with the 
+  * product store. Overlays are loaded and cached by the 
+  * {@link PolicyStoreFactory}.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class OverlayPolicyStore extends DefaultPolicyStore {
+ 
+     private static final String OVERLAY_PREFIX = "hippikon.account-id.";
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.OverlayPolicyStore");
+ 
+     private final DefaultPolicyStore base;
+     private final String accountID;
+     private final String filename;
+     private final PolicySource source;
+     private final List<String> overlayPrincipals = new ArrayList<String>();
+     private int overlayNodes;
+ 
+     /**
+      * Loads the overlay of an account over a product store
+      *
+      * @param base the product store
+      * @param accountID the account the overlay belongs to
+      * @param productID the product the overlay applies to
+      * @param source the PolicySource to read the overlay from
+      *
+      * @exception java.io.FileNotFoundException thrown if the account has no
+      * overlay for the product
+      * @exception PolicyStoreLoadException thrown if the overlay could not be
+      * loaded
+      */
+     OverlayPolicyStore(DefaultPolicyStore base, String accountID, String productID, PolicySource source) 
+     throws IOException, PolicyStoreLoadException {
+         this.base = base;
+         this.accountID = accountID;
+         this.filename = getOverlayFilename(accountID, productID);
+         this.source = source;
+ 
+         // a missing overlay is the common case and is not an error, so
+         // it is reported before any parsing is attempted
+         //
+         InputStream in = source.open(filename);
+         try {
+             load(in);
+         } finally {
+             in.close();
+         }
+     }
+ 
+     /**
+      * Returns the overlay filename for an account and product
+      */
+     static String getOverlayFilename(String accountID, String productID) {
+         return OVERLAY_PREFIX + accountID + ".product-id." + PolicyStoreFactory.getCacheKey(productID) + ".policy-store.xml";
+     }
+ 
+     /**
+      * Returns the product store the overlay is laid over
+      */
+     DefaultPolicyStore getBase() {
+         return base;
+     }
+ 
+     PolicySource getPolicySource() {
+         return source;
+     }
+ 
+     /**
+      * Returns the account the overlay belongs to
+      */
+     String getAccountID() {
+         return accountID;
+     }
+ 
+     /**
+      * Returns the number of resource nodes the overlay adds or changes
+      */
+     int getOverlayNodeCount() {
+         return overlayNodes;
+     }
+ 
+     protected void load() throws PolicyStoreLoadException {
+         InputStream in = null;
+         try {
+             in = source.open(filename);
+             load(in);
+         } catch (IOException e) {
+             throw new PolicyStoreLoadException(source.getDescription(filename) + ": " + e.getMessage());
+         } finally {
+             try {
+                 if (in != null) in.close();
+             } catch (IOException e) { }
+         }
+     }
+ 
+     private void load(InputStream in) throws PolicyStoreLoadException {
+         String description = source.getDescription(filename);
+         try {
+             DocumentBuilder domParser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+             Document doc = domParser.parse(in, description);
+ 
+             // start from the product's top-level nodes; only the top-level
+             // map is copied, the nodes themselves are shared
+             //
+             Map<String, ResourceAclList> baseAcls = base.getResourceAcls();
+             for (Map.Entry<String, ResourceAclList> entry : baseAcls.entrySet()) {
+                 addResourceAclList(entry.getKey(), entry.getValue());
+             }
+ 
+             for (Element el : getResourceElements(doc.getDocumentElement())) {
+                 String name = el.getAttribute("name");
+                 if (isRemoved(el)) {
+                     getResourceAcls().remove(name);
+                     continue;
+                 }
+                 addResourceAclList(name, buildNode(el, baseAcls.get(name)));
+             }
+             log.debug("Loaded overlay " + description + " changing " + overlayNodes + " resources");
+ 
+         } catch (PolicyStoreLoadException e) {
+             throw e;
+         } catch (Exception e) {
+             log.error("Could not load policy store overlay " + description, e);
+             throw new PolicyStoreLoadException(description + ": " + e.getMessage());
+         }
+     }
+ 
+     // builds the overlay node for a protected-resource element, and those
+     // of any protected-resource elements nested in it
+     //
+     private OverlayResourceAclList buildNode(Element el, ResourceAclList baseList) 
+     throws PolicyStoreLoadException, ResourceNotFoundException {
+ 
+         String name = el.getAttribute("name");
+         if (name.length() == 0) throw new PolicyStoreLoadException("protected-resource without a name in overlay");
+         OverlayResourceAclList list = new OverlayResourceAclList(name, baseList);
+         overlayNodes++;
+ 
+         NodeList children = el.getChildNodes();
+         for (int i = 0; i < children.getLength(); i++) {
+             Node node = children.item(i);
+             if (!(node instanceof Element) || !node.getNodeName().equals("principal")) continue;
+             Element principal = (Element)node;
+             String principalName = principal.getAttribute("name");
+             if (isRemoved(principal)) {
+                 list.removePrincipalACL(principalName);
+             } else {
+                 int flags = DefaultPermissionSet.getIntVal(principal.getAttribute("acl"));
+                 list.addPrincipalACL(ACL.valueOf(principalName, flags));
+                 if (!overlayPrincipals.contains(principalName)) overlayPrincipals.add(principalName);
+             }
+         }
+ 
+         for (Element child : getResourceElements(el)) {
+             String childName = child.getAttribute("name");
+             if (isRemoved(child)) {
+                 list.removeNestedList(childName);
+                 continue;
+             }
+             ResourceAclList baseChild = null;
+             if (baseList != null && baseList.containsNestedList(childName)) {
+                 baseChild = baseList.getNestedList(childName);
+             }
+             list.addNestedList(buildNode(child, baseChild));
+         }
+         return list;
+     }
+ 
+     private static List<Element> getResourceElements(Element parent) {
+         List<Element> elements = new ArrayList<Element>();
+         NodeList children = parent.getChildNodes();
+         for (int i = 0; i < children.getLength(); i++) {
+             Node node = children.item(i);
+             if (node instanceof Element && node.getNodeName().equals(XMLPolicyStore.PROTECTED_RESOURCE)) {
+                 elements.add((Element)node);
+             }
+         }
+         return elements;
+     }
+ 
+     private static boolean isRemoved(Element el) {
+         return "true".equals(el.getAttribute("remove"));
+     }
+ 
+     PolicyRegistry getPolicyRegistry() {
+         return base.getPolicyRegistry();
+     }
+
+     RoleHierarchy getRoleHierarchy() {
+         return base.getRoleHierarchy();
+     }
+ 
+     PolicyFactory getPolicyFactory(String resourceName) throws PolicyStoreLoadException {
+         return base.getPolicyFactory(resourceName);
+     }
+ 
+     public List<String> getDefinedPrincipals() {
+         List<String> principals = new ArrayList<String>(base.getDefinedPrincipals());
+         for (String principal : overlayPrincipals) {
+             if (!principals.contains(principal)) principals.add(principal);
+         }
+         Collections.sort(principals);
+         return principals;
+     }
+ 
+ }
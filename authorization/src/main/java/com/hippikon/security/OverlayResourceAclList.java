@@ -0,0 +1,160 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+ 
+ /**
+  * A ResourceAclList that lays the changes an account overlay makes to one
+  * ProtectedResource over the shared product node. Principal ACLs and 
+  * nested resources that the overlay does not mention are read straight
+  * from the base node, so the base tree is never copied.<p>
+  *
+  * An overlay may add, replace or remove principal ACLs, and add or remove
+  * nested resources. A node that only exists in the overlay has no base
+  * node. Nodes are built once when the overlay is loaded and are not 
+  * changed afterwards.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class OverlayResourceAclList extends ResourceAclList {
+ 
+     private final ResourceAclList base;
+     private final Map<String, ACL> acls = new HashMap<String, ACL>();
+     private final Set<String> removedPrincipals = new HashSet<String>();
+     private final Map<String, ResourceAclList> children = new HashMap<String, ResourceAclList>();
+     private final Set<String> removedChildren = new HashSet<String>();
+ 
+     /**
+      * Creates a new OverlayResourceAclList
+      *
+      * @param resourceName the ProtectedResource name
+      * @param base the product node being changed, or null if the overlay
+      * adds the resource
+      */
+     OverlayResourceAclList(String resourceName, ResourceAclList base) {
+         super(resourceName);
+         this.base = base;
+     }
+ 
+     /**
+      * Returns the product node being changed, or null
+      */
+     ResourceAclList getBase() {
+         return base;
+     }
+ 
+     void addPrincipalACL(ACL acl) {
+         if (acl == null) return;
+         acls.put(acl.getName(), acl);
+         removedPrincipals.remove(acl.getName());
+     }
+ 
+     void removePrincipalACL(String principal) {
+         acls.remove(principal);
+         removedPrincipals.add(principal);
+     }
+ 
+     void addNestedList(ResourceAclList list) {
+         if (list == null) return;
+         children.put(list.getResourceName(), list);
+         removedChildren.remove(list.getResourceName());
+     }
+ 
+     void removeNestedList(String resourceName) {
+         children.remove(resourceName);
+         removedChildren.add(resourceName);
+     }
+ 
+     ACL getPrincipalACL(String principal) {
+         ACL acl = acls.get(principal);
+         if (acl != null) return acl;
+         if (base == null || removedPrincipals.contains(principal)) return null;
+         return base.getPrincipalACL(principal);
+     }
+ 
+     // an overlay changes ACLs and nested resources only, so the rules 
+     // are those of the product node
+     //
+     FinalRule[] getFinalRules() {
+         return (base != null) ? base.getFinalRules() : super.getFinalRules();
+     }
+ 
+     boolean containsNestedList(String resourceName) {
+         if (children.containsKey(resourceName)) return true;
+         if (base == null || removedChildren.contains(resourceName)) return false;
+         return base.containsNestedList(resourceName);
+     }
+ 
+     ResourceAclList getNestedList(String resourceName) throws ResourceNotFoundException {
+         ResourceAclList child = children.get(resourceName);
+         if (child != null) return child;
+         if (base == null || removedChildren.contains(resourceName)) 
+             throw new ResourceNotFoundException("Nested ResourceAclList not found for " + resourceName);
+         return base.getNestedList(resourceName);
+     }
+ 
+     long estimateShallowBytes() {
+         // the overlay fields, each set being a HashMap behind a 16 byte HashSet
+         //
+         return super.estimateShallowBytes() + 8 * PolicyStoreFootprint.REFERENCE + 
+                PolicyStoreFootprint.hashMapBytes(acls.size()) +
+                PolicyStoreFootprint.hashMapBytes(children.size()) + 
+                16 + PolicyStoreFootprint.hashMapBytes(removedPrincipals.size()) +
+                16 + PolicyStoreFootprint.hashMapBytes(removedChildren.size());
+     }
+ 
+     // the merged views below are built on demand; they are only used by
+     // tools, never by permission lookups
+     //
+     Map<String, ResourceAclList> getNestedList() {
+         Map<String, ResourceAclList> merged = new HashMap<String, ResourceAclList>();
+         if (base != null) merged.putAll(base.getNestedList());
+         merged.keySet().removeAll(removedChildren);
+         merged.putAll(children);
+         return merged;
+     }
+ 
+     Collection<ACL> getAcls() {
+         Map<String, ACL> merged = new HashMap<String, ACL>();
+         if (base != null) {
+             for (ACL acl : base.getAcls()) {
+                 merged.put(acl.getName(), acl);
+             }
+         }
+         merged.keySet().removeAll(removedPrincipals);
+         merged.putAll(acls);
+         return new ArrayList<ACL>(merged.values());
+     }
+ 
+ }
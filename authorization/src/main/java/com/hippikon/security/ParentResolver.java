@@ -0,0 +1,65 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * A ParentResolver gives the parent of a {@link ProtectedResource}, so the
+  * {@link PermissionsFactory} can build the resource path of a check from
+  * the resource being accessed alone. A resolver may return a parent the 
+  * resource holds a reference to, or load the parent by its id:<p>
+  *
+  * <pre>
+  * PermissionsFactory.setParentResolver(Component.class, new ParentResolver() {
+  *     public Object getParent(Object res) {
+  *         return projects.findById(((Component)res).getProjectID());
+  *     }
+  * });
+  * PermissionSet perms = session.getPermissionsInChain(component);
+  * </pre>
+  *
+  * A resolver is found by the class of the resource, or else by its 
+  * nearest superclass or interface with one. A resource with no resolver,
+  * or whose resolver returns null, is at the top of its chain.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public interface ParentResolver {
+ 
+     /**
+      * Returns the parent of a resource
+      *
+      * @param res the ProtectedResource whose parent is wanted
+      * @return the parent ProtectedResource, or null if the resource is at
+      * the top of its chain
+      *
+      * @exception IllegalAuthorizationException thrown if the parent cannot
+      * be found, which fails the check
+      */
+     public Object getParent(Object res) throws IllegalAuthorizationException;
+ 
+ }
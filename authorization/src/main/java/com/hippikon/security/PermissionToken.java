@@ -0,0 +1,215 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+ 
+ /**
+  * A PermissionToken is a decision of the authorization framework that a
+  * {@link PermissionTokenSigner} has signed, so a downstream service can
+  * use it without making the check again. It holds a digest of the account,
+  * product and resource path checked, the user, the permission flags, the journal 
+  * version of the {@link PolicyStore} and the time the token expires.<p>
+  *
+  * The resource path digest is the first 16 bytes of the SHA-256 of the
+  * account, the product and the name and id of each resource, each written
+  * with its length, so no other path can be made to give the same digest,
+  * and a token issued in one account does not hold in another for a user 
+  * of the same GUID. The id is
+  * that of a {@link ResourceProjection}, such as a 
+  * {@link ResourceDescriptor}, or of a {@link VersionedResource}. A service
+  * holding only descriptors of the resources can therefore match a token
+  * issued for the domain objects.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class PermissionToken {
+ 
+     /**
+      * The number of bytes of the resource path digest
+      */
+     static final int DIGEST_LENGTH = 16;
+ 
+     private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+         protected MessageDigest initialValue() {
+             try {
+                 return MessageDigest.getInstance("SHA-256");
+             } catch (NoSuchAlgorithmException e) {
+                 throw new IllegalStateException("SHA-256 is not available for permission tokens", e);
+             }
+         }
+     };
+ 
+     private final byte[] resourceDigest;
+     private final String userGUID;
+     private final int flags;
+     private final long storeVersion;
+     private final long expiry;
+ 
+     PermissionToken(byte[] resourceDigest, String userGUID, int flags, long storeVersion, long expiry) {
+         this.resourceDigest = resourceDigest;
+         this.userGUID = userGUID;
+         this.flags = flags;
+         this.storeVersion = storeVersion;
+         this.expiry = expiry;
+     }
+ 
+     /**
+      * Returns the digest of the account, product and resource path checked
+      */
+     public byte[] getResourceDigest() {
+         return resourceDigest.clone();
+     }
+ 
+     byte[] resourceDigest() {
+         return resourceDigest;
+     }
+
+     /**
+      * Returns the GUID of the user the decision was made for
+      */
+     public String getUserGUID() {
+         return userGUID;
+     }
+ 
+     /**
+      * Returns the PermissionSet decided
+      */
+     public PermissionSet getPermissions() {
+         return new DefaultPermissionSet(flags);
+     }
+ 
+     int getFlags() {
+         return flags;
+     }
+ 
+     /**
+      * Returns the journal version of the PolicyStore the decision was made
+      * with, which is 0 until a change has been applied through a 
+      * {@link PolicyStoreEditor}
+      */
+     public long getStoreVersion() {
+         return storeVersion;
+     }
+ 
+     /**
+      * Returns the time the token expires, in milliseconds since the epoch
+      */
+     public long getExpiry() {
+         return expiry;
+     }
+ 
+     /**
+      * Returns true if the token has expired
+      */
+     public boolean isExpired() {
+         return System.currentTimeMillis() >= expiry;
+     }
+ 
+     /**
+      * Returns true if the token was issued for the user of a context and 
+      * a resource path of the same names and ids in its account and product
+      *
+      * @param resources the chain of ProtectedResource objects, descriptors
+      * or classes checked
+      * @param ctx the AuthorizationContext of the user
+      *
+      * @exception IllegalAuthorizationException thrown if a resource has 
+      * neither a name nor an id
+      */
+     public boolean matches(List<Object> resources, AuthorizationContext ctx) throws IllegalAuthorizationException {
+         return userGUID.equals(ctx.getUserGUID()) && 
+                MessageDigest.isEqual(resourceDigest, digest(ctx.getAccountID(), ctx.getProductID(), resources));
+     }
+ 
+     /**
+      * Returns the digest of the account, the product and the name and id
+      * of each resource in a path
+      *
+      * @exception IllegalAuthorizationException thrown if a resource has 
+      * neither a name nor an id, as its token would hold for any instance
+      */
+     static byte[] digest(String accountID, String productID, List<Object> resources) throws IllegalAuthorizationException {
+         MessageDigest digest = digests.get();
+         digest.reset();
+         update(digest, (accountID == null) ? "" : accountID);
+         update(digest, PolicyStoreFactory.getCacheKey(productID));
+         for (Object res : resources) {
+             try {
+                 if (res instanceof Class) {
+                     update(digest, new ProtectedResourceWrapper((Class<?>)res).getResourceName());
+                     update(digest, "");
+                     continue;
+                 }
+                 Object id = null;
+                 if (res instanceof ResourceProjection) {
+                     id = ((ResourceProjection)res).getId();
+                 } else if (res instanceof VersionedResource) {
+                     id = ((VersionedResource)res).getResourceIdentity();
+                 }
+                 if (id == null) {
+                     throw new IllegalAuthorizationException("No id for a permission token of " + res.getClass().getName());
+                 }
+                 if (res instanceof ResourceDescriptor) {
+                     update(digest, ((ResourceDescriptor)res).getName());
+                 } else if (res instanceof Configurable) {
+                     update(digest, ((Configurable)res).getName());
+                 } else {
+                     update(digest, new ProtectedResourceWrapper(res).getResourceName());
+                 }
+                 update(digest, id.toString());
+             } catch (ProtectedResourceNamingException e) {
+                 throw new IllegalAuthorizationException(e.getMessage());
+             }
+         }
+         return Arrays.copyOf(digest.digest(), DIGEST_LENGTH);
+     }
+ 
+     // each string is written after its length, so the path "ab", "c" and
+     // the path "a", "bc" differ
+     //
+     private static void update(MessageDigest digest, String s) {
+         byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+         int length = bytes.length;
+         digest.update((byte)(length >>> 24));
+         digest.update((byte)(length >>> 16));
+         digest.update((byte)(length >>> 8));
+         digest.update((byte)length);
+         digest.update(bytes);
+     }
+ 
+     public String toString() {
+         return "PermissionToken[user=" + userGUID + ", perms=" + getPermissions() + ", store=" + storeVersion + 
+                ", expiry=" + expiry + "]";
+     }
+ 
+ }
@@ -0,0 +1,321 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.hippikon.io.Base64;
+ 
+ /**
+  * Issues and verifies compact signed {@link PermissionToken} strings, 
+  * which carry a decision of the authorization framework to downstream 
+  * services that share the key:<p>
+  *
+  * <pre>
+  * PermissionTokenSigner signer = new PermissionTokenSigner(key);
+  * String token = signer.issue(Arrays.asList(project, taskList), ctx, 5, TimeUnit.MINUTES);
+  *
+  * // in the downstream service
+  * PermissionSet perms = signer.verify(token, Arrays.asList(projectDescriptor, taskListDescriptor), ctx);
+  * </pre>
+  *
+  * A token is a format byte, the expiry, store version and resource path 
+  * digest, the flags and the UTF-8 user GUID, followed by the first 16 bytes
+  * of their HMAC-SHA256, all in URL safe base64 without padding. A token 
+  * for a 36 character user GUID is 116 characters.<p>
+  *
+  * Each thread keeps its own Mac and buffers, so issuing and verifying a
+  * token allocates little more than the token string.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class PermissionTokenSigner {
+ 
+     private static final String ALGORITHM = "HmacSHA256";
+ 
+     private static final byte FORMAT = 3;
+ 
+     // the truncated HMAC, as allowed by RFC 2104 down to half its length
+     //
+     private static final int MAC_LENGTH = 16;
+ 
+     // format, expiry, store version, resource digest, flags and user length
+     //
+     private static final int DIGEST_OFFSET = 17;
+     private static final int FLAGS_OFFSET = DIGEST_OFFSET + PermissionToken.DIGEST_LENGTH;
+     private static final int HEADER_LENGTH = FLAGS_OFFSET + 2;
+     private static final int MAX_USER_LENGTH = 255;
+     private static final int MAX_LENGTH = HEADER_LENGTH + MAX_USER_LENGTH + MAC_LENGTH;
+     private static final int MAX_ENCODED_LENGTH = Base64.encodedLength(MAX_LENGTH, true);
+ 
+     private final SecretKeySpec key;
+ 
+     private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+         protected Buffers initialValue() {
+             return new Buffers(newMac());
+         }
+     };
+ 
+     /**
+      * Creates a new PermissionTokenSigner
+      *
+      * @param key the HMAC key shared with the services that verify the
+      * tokens, of at least 32 random bytes
+      *
+      * @exception IllegalArgumentException thrown if the key is shorter 
+      * than 32 bytes
+      */
+     public PermissionTokenSigner(byte[] key) {
+         if (key == null || key.length < 32) {
+             throw new IllegalArgumentException("A permission token key needs at least 32 bytes");
+         }
+         this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+         newMac();
+     }
+ 
+     /**
+      * Checks a ProtectedResource and returns a token of the decision
+      *
+      * @param res the ProtectedResource being accessed, which must have an 
+      * id as described by {@link PermissionToken}
+      * @param ctx the AuthorizationContext of the user
+      * @param ttl how long the token holds
+      * @param unit the unit of the time to live
+      *
+      * @exception IllegalAuthorizationException thrown if the check fails 
+      * or a resource has no id
+      * @exception ResourceNotFoundException thrown if the PolicyStore has no
+      * entry for the resource
+      */
+     public String issue(Object res, AuthorizationContext ctx, long ttl, TimeUnit unit) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         List<Object> resources = new ArrayList<Object>(1);
+         resources.add(res);
+         return issue(resources, ctx, ttl, unit);
+     }
+ 
+     /**
+      * Checks a chain of ProtectedResource objects and returns a token of 
+      * the decision
+      *
+      * @param resources the chain of resources being accessed, each of which
+      * must have an id as described by {@link PermissionToken}
+      * @param ctx the AuthorizationContext of the user
+      * @param ttl how long the token holds
+      * @param unit the unit of the time to live
+      *
+      * @exception IllegalAuthorizationException thrown if the check fails 
+      * or a resource has no id
+      * @exception ResourceNotFoundException thrown if the PolicyStore has no
+      * entry for the resource path
+      */
+     public String issue(List<Object> resources, AuthorizationContext ctx, long ttl, TimeUnit unit) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         if (resources == null || ctx == null || ctx.getUserGUID() == null)
+             throw new IllegalAuthorizationException("NULL objects passed to PermissionTokenSigner");
+         byte[] resourceDigest = PermissionToken.digest(ctx.getAccountID(), ctx.getProductID(), resources);
+ 
+         // the version is read before the check, so a token never claims a
+         // later store than its decision was made with
+         //
+         long storeVersion;
+         try {
+             storeVersion = getStoreVersion(PolicyStoreFactory.getPolicyStore(ctx));
+         } catch (PolicyStoreLoadException e) {
+             throw new IllegalAuthorizationException(e.getMessage());
+         }
+         PermissionSet perms = PermissionsFactory.getPermissions(resources, ctx);
+         long expiry = System.currentTimeMillis() + unit.toMillis(ttl);
+         return encode(new PermissionToken(resourceDigest, ctx.getUserGUID(), DefaultPermissionSet.getFlags(perms), 
+                                           storeVersion, expiry));
+     }
+ 
+     /**
+      * Returns the signed string of a token
+      *
+      * @exception IllegalAuthorizationException thrown if the user GUID is
+      * longer than 255 bytes in UTF-8
+      */
+     public String encode(PermissionToken token) throws IllegalAuthorizationException {
+         byte[] user = token.getUserGUID().getBytes(StandardCharsets.UTF_8);
+         if (user.length > MAX_USER_LENGTH) {
+             throw new IllegalAuthorizationException("User GUID too long for a permission token: " + token.getUserGUID());
+         }
+         Buffers b = buffers.get();
+         byte[] bytes = b.bytes;
+         bytes[0] = FORMAT;
+         putLong(bytes, 1, token.getExpiry());
+         putLong(bytes, 9, token.getStoreVersion());
+         System.arraycopy(token.resourceDigest(), 0, bytes, DIGEST_OFFSET, PermissionToken.DIGEST_LENGTH);
+         bytes[FLAGS_OFFSET] = (byte)token.getFlags();
+         bytes[FLAGS_OFFSET + 1] = (byte)user.length;
+         System.arraycopy(user, 0, bytes, HEADER_LENGTH, user.length);
+         int length = HEADER_LENGTH + user.length;
+         sign(b, length);
+         System.arraycopy(b.digest, 0, bytes, length, MAC_LENGTH);
+         return new String(b.chars, 0, Base64.encode(bytes, 0, length + MAC_LENGTH, b.chars, 0, true));
+     }
+ 
+     /**
+      * Verifies the signature and expiry of a token and returns it
+      *
+      * @exception IllegalAuthorizationException thrown if the token is 
+      * malformed, was not signed with the key or has expired
+      */
+     public PermissionToken verify(String token) throws IllegalAuthorizationException {
+         if (token == null || token.length() > MAX_ENCODED_LENGTH) {
+             throw new IllegalAuthorizationException("Malformed permission token");
+         }
+         Buffers b = buffers.get();
+         byte[] bytes = b.bytes;
+         int length;
+         try {
+             length = Base64.decode(token, 0, token.length(), bytes, 0, true);
+         } catch (IllegalArgumentException e) {
+             throw new IllegalAuthorizationException("Malformed permission token: " + e.getMessage());
+         }
+         if (length < HEADER_LENGTH + MAC_LENGTH || bytes[0] != FORMAT || 
+             length != HEADER_LENGTH + (bytes[FLAGS_OFFSET + 1] & 0xff) + MAC_LENGTH) {
+             throw new IllegalAuthorizationException("Malformed permission token");
+         }
+ 
+         // compare every byte of the signature, so the time taken does not
+         // tell how much of a forged one was right
+         //
+         int signed = length - MAC_LENGTH;
+         sign(b, signed);
+         int diff = 0;
+         for (int i = 0; i < MAC_LENGTH; i++) {
+             diff |= b.digest[i] ^ bytes[signed + i];
+         }
+         if (diff != 0) {
+             throw new IllegalAuthorizationException("Permission token signature does not match");
+         }
+         byte[] resourceDigest = Arrays.copyOfRange(bytes, DIGEST_OFFSET, FLAGS_OFFSET);
+         String user = new String(bytes, HEADER_LENGTH, bytes[FLAGS_OFFSET + 1] & 0xff, StandardCharsets.UTF_8);
+         PermissionToken result = new PermissionToken(resourceDigest, user, bytes[FLAGS_OFFSET] & 0xff, 
+                                                      getLong(bytes, 9), getLong(bytes, 1));
+         if (result.isExpired()) {
+             throw new IllegalAuthorizationException("Permission token expired at " + result.getExpiry());
+         }
+         return result;
+     }
+ 
+     /**
+      * Verifies a token and returns its PermissionSet, if it was issued for 
+      * the user of a context and the resource path given
+      *
+      * @param token the signed token
+      * @param resources the chain of ProtectedResource objects, descriptors
+      * or classes being accessed
+      * @param ctx the AuthorizationContext of the user
+      *
+      * @exception IllegalAuthorizationException thrown if the token is 
+      * malformed, was not signed with the key, has expired or was issued
+      * for another user or resource path
+      */
+     public PermissionSet verify(String token, List<Object> resources, AuthorizationContext ctx) 
+     throws IllegalAuthorizationException {
+         PermissionToken result = verify(token);
+         if (!result.matches(resources, ctx)) {
+             throw new IllegalAuthorizationException("Permission token was issued for another user or resource path");
+         }
+         return result.getPermissions();
+     }
+ 
+     /**
+      * Returns the journal version of a store, or 0 for a store without one
+      */
+     static long getStoreVersion(PolicyStore store) {
+         if (store instanceof DefaultPolicyStore) {
+             return ((DefaultPolicyStore)store).getVersion();
+         }
+         if (store instanceof OverlayPolicyStore) {
+             return ((OverlayPolicyStore)store).getBase().getVersion();
+         }
+         return 0;
+     }
+ 
+     private void sign(Buffers b, int length) {
+         try {
+             b.mac.update(b.bytes, 0, length);
+             b.mac.doFinal(b.digest, 0);
+         } catch (ShortBufferException e) {
+             throw new IllegalStateException(e);
+         }
+     }
+ 
+     private Mac newMac() {
+         try {
+             Mac mac = Mac.getInstance(ALGORITHM);
+             mac.init(key);
+             return mac;
+         } catch (GeneralSecurityException e) {
+             throw new IllegalStateException("Cannot create " + ALGORITHM + " for permission tokens", e);
+         }
+     }
+ 
+     private static void putLong(byte[] bytes, int off, long value) {
+         for (int i = 7; i >= 0; i--) {
+             bytes[off + i] = (byte)value;
+             value >>>= 8;
+         }
+     }
+ 
+     private static long getLong(byte[] bytes, int off) {
+         long value = 0;
+         for (int i = 0; i < 8; i++) {
+             value = (value << 8) | (bytes[off + i] & 0xff);
+         }
+         return value;
+     }
+ 
+     // the Mac and buffers of a thread
+     //
+     private static final class Buffers {
+         final Mac mac;
+         final byte[] bytes = new byte[MAX_LENGTH];
+         final byte[] digest;
+         final char[] chars = new char[MAX_ENCODED_LENGTH];
+ 
+         Buffers(Mac mac) {
+             this.mac = mac;
+             this.digest = new byte[mac.getMacLength()];
+         }
+     }
+ 
+ }
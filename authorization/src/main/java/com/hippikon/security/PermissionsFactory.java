@@ -26,6 +26,18 @@ package com.hippikon.security;
  
  import org.apache.log4j.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
  
  /**
   * The PermissionsFactory class provides a convenient and simple mechanism for obtaining
@@ -58,6 +70,36 @@ import java.util.*;
   * }
   * </pre>
   *
+  * Requests that check the same resources many times should use an
+  * {@link AuthorizationSession}, which makes the same checks but remembers
+  * their results for the lifetime of the request.<p>
+  *
+  * The <code>getPermissionsAsync</code> methods make the same checks without
+  * blocking the caller while {@link Policy} objects consult remote data. 
+  * The user principals of the policies along a resource path are looked up
+  * at the same time, and the doFinal() calls are chained in the usual 
+  * reverse order. Policies that override the asynchronous callbacks with
+  * non-blocking clients let thousands of checks be in flight without a 
+  * thread for each. Others run on the executor given, which on JDK 21 may 
+  * be <code>Executors.newVirtualThreadPerTaskExecutor()</code>, or on a 
+  * shared pool of <code>hippikon.async.threads</code> daemon threads 
+  * (default four per processor).<p>
+  *
+  * Callers that hold only the resource being accessed may register a
+  * {@link ParentResolver} for each resource class and use the
+  * <code>getPermissionsInChain</code> methods, which build the chain of 
+  * ancestors themselves.<p>
+  *
+  * List pages and batch jobs may check a {@link ResourceDescriptor} of each
+  * row in place of the domain object, provided the Policy of the resource
+  * reads it through {@link ResourceProjection}.<p>
+  *
+  * A check may be given a timeout, within which every Policy callback must
+  * complete. A check that overruns fails closed with an 
+  * {@link AuthorizationTimeoutException} naming the Policy class, and a 
+  * Policy class that keeps overrunning is not called for a while. See
+  * {@link PolicyGuard}.<p>
+  *
   * @author Dale Churchett
   * @version $Id: PermissionsFactory.java,v 1.2 2012/04/23 14:25:16 dalehippikon Exp $
   * @since JDK 1.2.2
@@ -65,6 +107,10 @@ import java.util.*;
  
  public abstract class PermissionsFactory {
  
+     // how long a check with a deadline is waited for after the deadline
+     //
+     private static final long DEADLINE_GRACE = TimeUnit.SECONDS.toNanos(1);
+ 
      // for debugging
      //
      private static Logger log = Logger.getLogger("com.hippikon.security.PermissionsFactory");
@@ -109,6 +155,8 @@ import java.util.*;
  
          } catch (ResourceNotFoundException e) {
              throw e;
+         } catch (IllegalAuthorizationException e) {
+             throw e;
          } catch (Exception e) {
              log.debug(e.getMessage(), e);
              throw new IllegalAuthorizationException(e.getMessage());
@@ -137,6 +185,15 @@ import java.util.*;
       * @pre ctx != null
       */
      public static <T> PermissionSet getPermissions(Class<T> c, AuthorizationContext ctx)
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(c, ctx, null);
+     }
+
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource, using the
+      * PolicyStore of an AuthorizationSession if there is one
+      */
+     static <T> PermissionSet getPermissions(Class<T> c, AuthorizationContext ctx, AuthorizationSession session)
      throws IllegalAuthorizationException, ResourceNotFoundException {
  
          // we don't allow Configurable objects to be passed into this method 
@@ -164,7 +221,7 @@ import java.util.*;
              resPath.add(resourceName);
              ctx.setResourcePath(resPath);
  
-             PolicyStore store = PolicyStoreFactory.getPolicyStore(ctx);
+             PolicyStore store = (session != null) ? session.getPolicyStore() : PolicyStoreFactory.getPolicyStore(ctx);
  
              resources.add(resourceName);
  
@@ -172,8 +229,9 @@ import java.util.*;
              // is no instance to determine user principals
              //
              PermissionSet perms = store.getPermissions(resources, ctx.getUserRoles());
+             recordCheck(ctx, resources, ctx.getUserRoles(), perms);
  
-             return perms;
+             return store.applyFinalRules(resources, perms, ctx);
  
          } catch (Exception e) {
              log.debug(e.getMessage(), e);
@@ -182,6 +240,16 @@ import java.util.*;
  
      }
  
+     // passes a successful check to the AccessStatistics and, while a 
+     // capture is running, the AuthorizationRecorder. The store permissions
+     // are those found in the PolicyStore before any Policy doFinal() calls
+     //
+     private static void recordCheck(AuthorizationContext ctx, List<String> resourcePath, 
+                                     List<String> principals, PermissionSet storePerms) {
+         AccessStatistics.record(ctx.getProductID(), resourcePath, principals);
+         AuthorizationRecorder.record(ctx.getProductID(), resourcePath, principals, storePerms);
+     }
+ 
      // throws an exception if a class implements Configurable
      //
      private static <T> void _checkForConfigurableInstance(Class<T> c) throws IllegalAuthorizationException {
@@ -258,6 +326,17 @@ import java.util.*;
       * @pre ctx != null
       */
      public static <T> PermissionSet getPermissions(List<Object> resources, Class<T> c, AuthorizationContext ctx)
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(resources, c, ctx, null);
+     }
+
+     /**
+      * Returns the PermissionSet for a class of ProtectedResource in the 
+      * context of a list of ProtectedResource objects, reusing the Policy 
+      * objects and user principals of an AuthorizationSession if there is one
+      */
+     static <T> PermissionSet getPermissions(List<Object> resources, Class<T> c, AuthorizationContext ctx, 
+                                             AuthorizationSession session)
      throws IllegalAuthorizationException, ResourceNotFoundException {
  
          // ensure pre-conditions are met
@@ -270,30 +349,10 @@ import java.util.*;
          
          try {
  
-             LinkedList<String> resourceList = new LinkedList<String>();
- 
-             PolicyMediator mediator = new PolicyMediator(resources, ctx);
-             resourceList.addAll(mediator.getResourceList());
-             ctx.setResourcePath(resourceList);
- 
-             // now set up for the class - note there are no user types for a Class
-             // of ProtectedResource, so we just need to get the ResourceName and 
-             // add to the list
-             //
-             String classResName = new ProtectedResourceWrapper(c).getResourceName();
-             resourceList.add(classResName);
- 
-             // now we can get the permissions by passing in the user types and
-             // resource names to the PolicyStore
-             //
-             PolicyStore store = PolicyStoreFactory.getPolicyStore(ctx);
- 
-             // now all the policy objects the chance to perform
-             // a final permissions check
-             //
-             return store.getPermissions(resourceList, mediator);
-             
+             return decide(resources, c, ctx, session);
  
+         } catch (AuthorizationTimeoutException e) {
+             throw e;
          } catch (Exception e) {
              log.debug(e.getMessage(), e);
              throw new IllegalAuthorizationException(e.getMessage());
@@ -334,6 +393,16 @@ import java.util.*;
       * @pre ctx != null
       */
      public static PermissionSet getPermissions(List<Object> resources, AuthorizationContext ctx) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(resources, ctx, (AuthorizationSession)null);
+     }
+
+     /**
+      * Returns the PermissionSet for a ProtectedResource influenced by a 
+      * hierarchy of ProtectedResources, reusing the Policy objects and user
+      * principals of an AuthorizationSession if there is one
+      */
+     static PermissionSet getPermissions(List<Object> resources, AuthorizationContext ctx, AuthorizationSession session) 
      throws IllegalAuthorizationException, ResourceNotFoundException {
  
          // ensure pre-conditions are met
@@ -345,24 +414,361 @@ import java.util.*;
  
          try {
  
-             LinkedList<String> resourceList = new LinkedList<String>();
+             return decide(resources, null, ctx, session);
  
-             PolicyMediator mediator = new PolicyMediator(resources, ctx);
-             resourceList.addAll(mediator.getResourceList());
-             ctx.setResourcePath(resourceList);
+         } catch (AuthorizationTimeoutException e) {
+             throw e;
+         } catch (Exception e) {
+             log.debug(e.getMessage(), e);
+             throw new IllegalAuthorizationException(e.getMessage());
+         }
+     }
+
+
+     /**
+      * Registers the ParentResolver that gives the parent of the instances of
+      * a ProtectedResource class and its subclasses, or removes it
+      *
+      * @param type the ProtectedResource class or interface
+      * @param resolver the resolver, or null to remove the resolver of the type
+      */
+     public static void setParentResolver(Class<?> type, ParentResolver resolver) {
+         ResourceChains.setResolver(type, resolver);
+     }
+
+     /**
+      * Returns the complete PermissionSet for a ProtectedResource influenced
+      * by the chain of ancestors given by the {@link ParentResolver} of each
+      * resource in turn. This is the same as passing the chain, top-level
+      * resource first, to {@link #getPermissions(List, AuthorizationContext)}.
+      * An {@link AuthorizationSession} also remembers the chains it resolves.
+      *
+      * @param res the ProtectedResource being accessed
+      * @param ctx the AuthorizationContext containing data about an authenticated user
+      *
+      * @exception IllegalAuthorizationException thrown if a parent cannot be
+      * found, or as by getPermissions
+      */
+     public static PermissionSet getPermissionsInChain(Object res, AuthorizationContext ctx) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(ResourceChains.resolve(res, null), ctx);
+     }
+
+     /**
+      * Returns the complete PermissionSet for a class of ProtectedResource 
+      * within a parent ProtectedResource and the chain of ancestors of the
+      * parent
+      *
+      * @see #getPermissionsInChain(Object, AuthorizationContext)
+      * @see #getPermissions(List, Class, AuthorizationContext)
+      */
+     public static <T> PermissionSet getPermissionsInChain(Object res, Class<T> c, AuthorizationContext ctx) 
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         return getPermissions(ResourceChains.resolve(res, null), c, ctx);
+     }
+
+
+     // works out the final PermissionSet for a list of ProtectedResources, 
+     // and for a class within them if c is not null. A decision on resources
+     // that are all VersionedResources is looked up in the DecisionCache 
+     // first, and stored there once it is made
+     //
+     private static PermissionSet decide(List<Object> resources, Class<?> c, AuthorizationContext ctx, 
+                                         AuthorizationSession session) throws Exception {
+ 
+         DecisionCache cache = DecisionCache.getInstance();
+         List<Object> key = cache.getKey(resources, c, ctx);
+         PolicyStore current = null;
+         int modifications = 0;
+         if (key != null) {
+             current = (session != null) ? session.getPolicyStore() : PolicyStoreFactory.getPolicyStore(ctx);
+             DecisionCache.Entry entry = cache.get(key, current);
+             if (entry != null) {
+ 
+                 // decisions kept off the heap have their flags only
+                 //
+                 if (entry.resourcePath != null) {
+                     ctx.setResourcePath(entry.resourcePath);
+                     ctx.setUserPrincipals(entry.userPrincipals);
+                     recordCheck(ctx, entry.resourcePath, entry.principals, entry.storePerms);
+                 }
+                 return entry.getPermissions();
+             }
+             modifications = DecisionCache.getModificationCount(current);
+         }
+ 
+         LinkedList<String> resourceList = new LinkedList<String>();
+ 
+         PolicyMediator mediator = new PolicyMediator(resources, ctx, session);
+         resourceList.addAll(mediator.getResourceList());
+         ctx.setResourcePath(resourceList);
+ 
+         // now set up for the class - note there are no user types for a Class
+         // of ProtectedResource, so we just need to get the ResourceName and 
+         // add to the list
+         //
+         if (c != null) {
+             resourceList.add(new ProtectedResourceWrapper(c).getResourceName());
+         }
+         mediator.setResourcePath(resourceList);
+ 
+         // now we can get the permissions by passing in the user types and
+         // resource names to the PolicyStore, which gives all the policy 
+         // objects the chance to perform a final permissions check
+         //
+         PolicyStore store = mediator.getPolicyStore();
+         PermissionSet perms = store.getPermissions(resourceList, mediator);
+         recordCheck(ctx, resourceList, mediator.getPrincipals(), mediator.getStorePermissions());
+ 
+         // a decision made in another store than the one it was looked up in
+         // is not cached
+         //
+         if (key != null && store == current) {
+             cache.put(key, new DecisionCache.Entry(store, modifications, perms, Collections.unmodifiableList(resourceList), 
+                                                    mediator.getUserTypes(), 
+                                                    mediator.getPrincipals(), mediator.getStorePermissions()));
+         }
+         return perms;
+     }
  
-             // now we can get the permissions by passing in the user types and
-             // resource names to the PolicyStore
+ 
+     /**
+      * Returns a future of the complete PermissionSet for a ProtectedResource
+      * being accessed within an AuthorizationContext. The future completes 
+      * exceptionally with an IllegalAuthorizationException where 
+      * {@link #getPermissions(Object, AuthorizationContext)} would throw one,
+      * which includes a resource path the PolicyStore has no entry for.
+      *
+      * @param res the ProtectedResource being accessed
+      * @param ctx the AuthorizationContext containing data about an authenticated user
+      */
+     public static CompletableFuture<PermissionSet> getPermissionsAsync(Object res, AuthorizationContext ctx) {
+         List<Object> resources = new ArrayList<Object>();
+         resources.add(res);
+         return getPermissionsAsync(resources, null, ctx, getDefaultExecutor());
+     }
+ 
+     /**
+      * Returns a future of the complete PermissionSet for a ProtectedResource 
+      * influenced by a hierarchy of ProtectedResources
+      *
+      * @see #getPermissions(List, AuthorizationContext)
+      */
+     public static CompletableFuture<PermissionSet> getPermissionsAsync(List<Object> resources, AuthorizationContext ctx) {
+         return getPermissionsAsync(resources, null, ctx, getDefaultExecutor());
+     }
+ 
+     /**
+      * Returns a future of the complete PermissionSet for a ProtectedResource 
+      * influenced by a hierarchy of ProtectedResources, running the Policy 
+      * callbacks that block on an executor
+      *
+      * @see #getPermissions(List, AuthorizationContext)
+      */
+     public static CompletableFuture<PermissionSet> getPermissionsAsync(List<Object> resources, AuthorizationContext ctx, 
+                                                                        Executor executor) {
+         return getPermissionsAsync(resources, null, ctx, executor);
+     }
+ 
+     /**
+      * Returns a future of the PermissionSet for a class of ProtectedResource 
+      * in the context of a list of ProtectedResource objects, running the 
+      * Policy callbacks that block on an executor
+      *
+      * @param c the class checked within the resources, or null to check 
+      * the last of the resources
+      *
+      * @see #getPermissions(List, Class, AuthorizationContext)
+      */
+     public static <T> CompletableFuture<PermissionSet> getPermissionsAsync(List<Object> resources, Class<T> c, 
+                                                                            AuthorizationContext ctx, Executor executor) {
+         return decideAsync(resources, c, ctx, executor, 0);
+     }
+ 
+     /**
+      * Returns a future of the PermissionSet for a class of ProtectedResource 
+      * in the context of a list of ProtectedResource objects, failed with an
+      * {@link AuthorizationTimeoutException} if a Policy callback has not 
+      * completed within the timeout
+      *
+      * @param c the class checked within the resources, or null to check 
+      * the last of the resources
+      * @param timeout the time the check may take
+      * @param unit the unit of the timeout
+      *
+      * @see #getPermissions(List, Class, AuthorizationContext)
+      */
+     public static <T> CompletableFuture<PermissionSet> getPermissionsAsync(List<Object> resources, Class<T> c, 
+                                                                            AuthorizationContext ctx, Executor executor,
+                                                                            long timeout, TimeUnit unit) {
+         return decideAsync(resources, c, ctx, executor, getDeadline(timeout, unit));
+     }
+ 
+     /**
+      * Returns the complete PermissionSet for a ProtectedResource, failing
+      * closed if a Policy callback has not completed within the timeout. The
+      * callbacks run on the shared pool of the asynchronous checks, so the 
+      * calling thread is not held past the timeout.
+      *
+      * @param timeout the time the check may take
+      * @param unit the unit of the timeout
+      *
+      * @exception AuthorizationTimeoutException thrown if the check did not
+      * complete in time, or the circuit breaker of a Policy class is open
+      *
+      * @see #getPermissions(Object, AuthorizationContext)
+      */
+     public static PermissionSet getPermissions(Object res, AuthorizationContext ctx, long timeout, TimeUnit unit)
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         List<Object> resources = new ArrayList<Object>();
+         resources.add(res);
+         return getPermissions(resources, ctx, timeout, unit);
+     }
+ 
+     /**
+      * Returns the complete PermissionSet for a ProtectedResource influenced
+      * by a hierarchy of ProtectedResources, failing closed if a Policy 
+      * callback has not completed within the timeout
+      *
+      * @param timeout the time the check may take
+      * @param unit the unit of the timeout
+      *
+      * @exception AuthorizationTimeoutException thrown if the check did not
+      * complete in time, or the circuit breaker of a Policy class is open
+      *
+      * @see #getPermissions(List, AuthorizationContext)
+      */
+     public static PermissionSet getPermissions(List<Object> resources, AuthorizationContext ctx, long timeout, TimeUnit unit)
+     throws IllegalAuthorizationException, ResourceNotFoundException {
+         long deadline = getDeadline(timeout, unit);
+         CompletableFuture<PermissionSet> future = decideAsync(resources, null, ctx, getDefaultExecutor(), deadline);
+ 
+         // every callback is bounded by its own timer, so the wait is only a
+         // backstop that leaves the timers time to report the Policy class
+         //
+         try {
+             return future.get(Math.max(deadline - System.nanoTime(), 0) + DEADLINE_GRACE, TimeUnit.NANOSECONDS);
+         } catch (TimeoutException e) {
+             throw new AuthorizationTimeoutException("The check overran its deadline", null, null);
+         } catch (InterruptedException e) {
+             Thread.currentThread().interrupt();
+             throw new IllegalAuthorizationException("Interrupted while waiting for the check");
+         } catch (ExecutionException e) {
+             Throwable cause = e.getCause();
+             if (cause instanceof IllegalAuthorizationException) throw (IllegalAuthorizationException)cause;
+             log.debug(cause.getMessage(), cause);
+             throw new IllegalAuthorizationException(cause.getMessage());
+         }
+     }
+ 
+     // the System.nanoTime() a timeout ends at, never 0 since 0 means no
+     // deadline
+     //
+     private static long getDeadline(long timeout, TimeUnit unit) {
+         long deadline = System.nanoTime() + unit.toNanos(timeout);
+         return (deadline == 0) ? 1 : deadline;
+     }
+ 
+     private static <T> CompletableFuture<PermissionSet> decideAsync(final List<Object> resources, Class<T> c, 
+                                                                     final AuthorizationContext ctx, 
+                                                                     final Executor executor, final long deadline) {
+         try {
+ 
+             // ensure pre-conditions are met
+             //
+             if (c != null)
+                 _checkForConfigurableInstance(c);
+             if (resources == null || ctx == null || executor == null)
+                 throw new IllegalAuthorizationException("NULL objects passed to PermissionsFactory");
+             if (resources.size() < 1)
+                 throw new IllegalAuthorizationException("Empty resource list passed to PermissionsFactory");
+ 
+             final DecisionCache cache = DecisionCache.getInstance();
+             final List<Object> key = cache.getKey(resources, c, ctx);
+             PolicyStore current = null;
+             int modifications = 0;
+             if (key != null) {
+                 current = PolicyStoreFactory.getPolicyStore(ctx);
+                 DecisionCache.Entry entry = cache.get(key, current);
+                 if (entry != null) {
+                     if (entry.resourcePath != null) {
+                         recordCheck(ctx, entry.resourcePath, entry.principals, entry.storePerms);
+                     }
+                     return CompletableFuture.completedFuture(entry.getPermissions());
+                 }
+                 modifications = DecisionCache.getModificationCount(current);
+             }
+ 
+             // the policies are created here, and called once their 
+             // principal lookups have all completed
              //
-             PolicyStore store = PolicyStoreFactory.getPolicyStore(ctx);
-             return store.getPermissions(resourceList, mediator);
+             final PolicyMediator mediator = new PolicyMediator(resources, ctx, null, true);
+             final LinkedList<String> resourceList = new LinkedList<String>(mediator.getResourceList());
+             if (c != null) {
+                 resourceList.add(new ProtectedResourceWrapper(c).getResourceName());
+             }
+             mediator.setResourcePath(resourceList);
+ 
+             final PolicyStore lookedUp = current;
+             final int lookedUpModifications = modifications;
+             return mediator.determineUserPrincipalsAsync(executor, deadline).thenCompose(new Function<Void, CompletionStage<PermissionSet>>() {
+                 public CompletionStage<PermissionSet> apply(Void done) {
+                     try {
+                         mediator.getPolicyStore().getPermissions(resourceList, mediator);
+                     } catch (ResourceNotFoundException e) {
+
+                         // reported as the synchronous checks report it
+                         //
+                         log.debug(e.getMessage(), e);
+                         throw new CompletionException(new IllegalAuthorizationException(e.getMessage()));
+                     }
+                     return mediator.invokePolicyFinalsAsync(executor, deadline);
+                 }
+             }).thenApply(new Function<PermissionSet, PermissionSet>() {
+                 public PermissionSet apply(PermissionSet perms) {
+                     recordCheck(ctx, resourceList, mediator.getPrincipals(), mediator.getStorePermissions());
+                     if (key != null && mediator.getPolicyStore() == lookedUp) {
+                         cache.put(key, new DecisionCache.Entry(lookedUp, lookedUpModifications, perms, 
+                                                                Collections.unmodifiableList(resourceList), mediator.getUserTypes(), 
+                                                                mediator.getPrincipals(), mediator.getStorePermissions()));
+                     }
+                     return perms;
+                 }
+             });
  
          } catch (Exception e) {
              log.debug(e.getMessage(), e);
-             throw new IllegalAuthorizationException(e.getMessage());
+             CompletableFuture<PermissionSet> failed = new CompletableFuture<PermissionSet>();
+             failed.completeExceptionally((e instanceof IllegalAuthorizationException) ? e : new IllegalAuthorizationException(e.getMessage()));
+             return failed;
          }
      }
  
+     /**
+      * Returns the shared pool the asynchronous checks run on when no 
+      * executor is given
+      */
+     static Executor getDefaultExecutor() {
+         return AsyncExecutor.instance;
+     }
+ 
+     // created on the first asynchronous check
+     //
+     private static class AsyncExecutor {
+         static final ExecutorService instance = 
+             Executors.newFixedThreadPool(Integer.getInteger("hippikon.async.threads", 
+                                                             4 * Runtime.getRuntime().availableProcessors()).intValue(), 
+                                          new AsyncThreadFactory());
+     }
+ 
+     private static class AsyncThreadFactory implements ThreadFactory {
+         private final AtomicInteger count = new AtomicInteger();
+ 
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-async-" + count.incrementAndGet());
+             thread.setDaemon(true);
+             return thread;
+         }
+     }
  
  }
-
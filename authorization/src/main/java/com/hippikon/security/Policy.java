@@ -25,6 +25,9 @@
 package com.hippikon.security;
  
  import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
  
  /**
   * The Policy abstract class provides a simple mechanism for 
@@ -55,6 +58,13 @@ package com.hippikon.security;
   * This is another reason the authorization framework is considered a 
   * white-box framework.<p>
   *
+  * Policies that consult remote data may override 
+  * {@link #determineUserPrincipalsAsync(Executor)} and 
+  * {@link #doFinalAsync(PermissionSet, Executor)} to return a future from a
+  * non-blocking client, for the asynchronous checks of the 
+  * {@link PermissionsFactory}. By default these run the synchronous 
+  * callbacks on the executor of the check.<p>
+  *
   * @author Dale Churchett
   * @version $Id: Policy.java,v 1.2 2012/04/23 14:25:16 dalehippikon Exp $
   * @since JDK 1.2.2
@@ -66,6 +76,11 @@ package com.hippikon.security;
      //
      private List<String> userPrincipals;
  
+     // the resource path of the authorization check, set by the framework 
+     // before the callbacks are invoked
+     //
+     private List<String> resourcePath;
+
      // stores the context of how the final permissions were obtained
      // from the PolicyStore definitions
      //
@@ -144,6 +159,50 @@ package com.hippikon.security;
      protected PermissionSet doFinal(PermissionSet perms) {
          return perms;
      }
+
+     /**
+      * Returns a future of the user principals for an asynchronous 
+      * authorization check. The principals of every Policy along a resource
+      * path are looked up at the same time.<p>
+      *
+      * The default implementation runs {@link #determineUserPrincipals()} 
+      * on the executor. Policies that consult remote data should override 
+      * this method to return a future completed by a non-blocking client, 
+      * so a check in flight holds no thread.
+      *
+      * @param executor the Executor the asynchronous check runs on
+      *
+      * @post determineUserPrincipalsAsync(executor) != null
+      */
+     protected CompletableFuture<List<String>> determineUserPrincipalsAsync(Executor executor) {
+         return CompletableFuture.supplyAsync(new Supplier<List<String>>() {
+             public List<String> get() {
+                 return determineUserPrincipals();
+             }
+         }, executor);
+     }
+
+     /**
+      * Returns a future of the final PermissionSet for an asynchronous 
+      * authorization check. As with {@link #doFinal(PermissionSet)}, the
+      * Policy objects along a resource path are called in reverse order, 
+      * each with the PermissionSet of the one before.<p>
+      *
+      * The default implementation runs {@link #doFinal(PermissionSet)} on 
+      * the executor.
+      *
+      * @param perms the PermissionSet found so far
+      * @param executor the Executor the asynchronous check runs on
+      *
+      * @post doFinalAsync(perms, executor) != null
+      */
+     protected CompletableFuture<PermissionSet> doFinalAsync(final PermissionSet perms, Executor executor) {
+         return CompletableFuture.supplyAsync(new Supplier<PermissionSet>() {
+             public PermissionSet get() {
+                 return doFinal(perms);
+             }
+         }, executor);
+     }
  
      /**
       * Returns a new {@link MutablePermissionSet} instance that may be used by 
@@ -193,7 +252,16 @@ package com.hippikon.security;
       * being accessed.
       */
      protected List<String> getResourcePathInContext() {
-         return ctx.getResourcePath();
+         return (resourcePath != null) ? resourcePath : ctx.getResourcePath();
+     }
+
+     /**
+      * Sets the resource path of the authorization check, so a Policy in an
+      * asynchronous check does not see the path of another check made in 
+      * the same AuthorizationContext
+      */
+     final void setResourcePath(List<String> resourcePath) {
+         this.resourcePath = resourcePath;
      }
  
      /**
@@ -24,17 +24,16 @@
  */
 package com.hippikon.security;
  
- import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.lang.reflect.Constructor;
+ import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
-
-import com.hippikon.io.FileUtil;
  
  /**
   * The PolicyBroker is responsible for returning an instance of a {@link Policy}
@@ -42,8 +41,8 @@ import com.hippikon.io.FileUtil;
   * {@link AuthorizationContext}.<p>
   *
   * The rules that bind ProtectedResources with specialized Policy implementations
-  * must be entered in a file named '[productID]-resource.policies' that is 
-  * located in the system classpath.<p>
+  * must be entered in a file named 'hippikon.product-id.[productID].resource.policies'
+  * that is read from a {@link PolicySource}, by default the system classpath.<p>
   *
   * The entries in the file should be in the standard java Properties format
   * (i.e., key  = value), where the key should be [ProtectedResource.name()].policy.classname.<p>
@@ -59,6 +58,11 @@ import com.hippikon.io.FileUtil;
   * Policy implementation bound to it, the {@link DefaultObjectPolicy} class
   * is used.<p>
   *
+  * The bindings are compiled into a {@link PolicyRegistry} that is loaded 
+  * with, and held by, the product's {@link PolicyStore}. Policies are 
+  * then created through {@link PolicyStore#getPolicyFactory(String)}, so 
+  * the bindings are reloaded whenever the store is.<p>
+  *
   * @author Dale Churchett
   * @version $Id: PolicyBroker.java,v 1.2 2012/04/23 14:25:16 dalehippikon Exp $
   * @since JDK 1.2.2
@@ -66,33 +70,26 @@ import com.hippikon.io.FileUtil;
  
  class PolicyBroker {
  
-     private static Map<String, Properties> propsCache;
      private static final String RESOURCE_POLICY_FILE = ".resource.policies";
+     private static final String POLICY_CLASSNAME_SUFFIX = ".policy.classname";
      private static Logger log = Logger.getLogger("com.hippikon.security.PolicyBroker");
  
-     // initialize the cache
-     //
-     static {
-         propsCache = new HashMap<String, Properties>();
-     }
- 
      /**
       * Loads the ProtectedResource->Policy classname properties file
-      * for the product being accessed
+      * for a product from a PolicySource
       */
-     private static Properties loadProperties(AuthorizationContext ctx)
+     static Properties loadProperties(String productID, PolicySource source)
      throws IOException {
  
          Properties props = new Properties();
          synchronized(props) {
  
-             FileInputStream in = null;
+             InputStream in = null;
  
              try {
  
-                 String propsFilename = getPropsFilename(ctx.getProductID());
-                 File propsFile = FileUtil.findFileInClasspath(propsFilename);
-                 in = new FileInputStream(propsFile);
+                 String propsFilename = getPropsFilename(productID);
+                 in = source.open(propsFilename);
                  props.load(in);
  
                  return props;
@@ -110,23 +107,34 @@ import com.hippikon.io.FileUtil;
  
  
      /**
-      * Since the properties for each product will be accessed often, we
-      * cache the properties object once loaded
-     */
-     private static Properties getProperties(AuthorizationContext ctx)
-     throws IOException {
+      * Loads the resource policy mappings for a product and compiles them into
+      * a PolicyRegistry. This never throws; if the mappings can not be loaded
+      * the registry fails each Policy lookup with the reason.
+      *
+      * @param productID the product to load the mappings for
+      * @param source the PolicySource to read the mappings from
+      */
+     static PolicyRegistry loadRegistry(String productID, PolicySource source) {
  
-         synchronized(propsCache) {
+         Properties props;
+         try {
+             props = loadProperties(productID, source);
+         } catch (IOException e) {
+             return PolicyRegistry.failed(e.getMessage());
+         }
  
-             String productID = ctx.getProductID();
-             Properties props = propsCache.get(productID);
-             if (props != null) {
-             } else {
-                 props = loadProperties(ctx);
-                 propsCache.put(productID, props);
+         Map<String, PolicyFactory> factories = new HashMap<String, PolicyFactory>();
+         List<String> unknownKeys = new ArrayList<String>();
+         for (String key : props.stringPropertyNames()) {
+             if (!key.endsWith(POLICY_CLASSNAME_SUFFIX)) {
+                 unknownKeys.add(key);
+                 continue;
              }
-             return props;
+             String resourceName = key.substring(0, key.length() - POLICY_CLASSNAME_SUFFIX.length());
+             factories.put(resourceName, new PolicyFactory(props.getProperty(key).trim()));
          }
+         Collections.sort(unknownKeys);
+         return new PolicyRegistry(factories, unknownKeys, null);
      }
  
  
@@ -134,7 +142,7 @@ import com.hippikon.io.FileUtil;
       * Returns the correct filename for the specified productID
       * resource.policies file
       */
-     private static String getPropsFilename(String productID) throws IOException {
+     static String getPropsFilename(String productID) throws IOException {
  
          if (productID == null || productID.equals("")) 
              throw new IOException("NULL or blank productID passed to PolicyBroker");
@@ -150,56 +158,4 @@ import com.hippikon.io.FileUtil;
           
      }
  
- 
-     /**
-      * Returns the correct Policy for a ProtectedResource. This method uses the 
-      * Java Reflection API and passes the {@link AuthorizationContext} through
-      * to the Policy implementation. Each policy implementation must provide
-      * a constructor that takes a ProtectecResource and an AuthorizationContext
-      * as method parameters (in that order).
-      *
-      * @param res the ProtectedResource to find the Policy for
-      * @param ctx the AuthorizationContext of the access
-      *
-      * @exception PolicyStoreLoadException thrown if the Policy could not be loaded
-      * or instantiated
-      */
-	 @SuppressWarnings("unchecked")
-	static Policy getPolicy(Object res, AuthorizationContext ctx) 
-     throws PolicyStoreLoadException {
- 
-         try {
- 
-             Properties props = getProperties(ctx);
- 
-             String name = new ProtectedResourceWrapper(res).getResourceName();
-             String policyName = props.getProperty(name + ".policy.classname");
-         
-             // if no policy is defined use a default that 
-             // does not apply any user specific PermissionSet logic
-             //
-             // TODO: get this out of a property file so clients can specify their 
-             // own default class, but provide this as the default for easy out-of-the-box
-             // implementations
-             //
-             if (policyName == null) {
-                 policyName = "com.hippikon.security.DefaultObjectPolicy";
-             }
- 
-             Class policyClass = Class.forName(policyName);
-             Class[] constructorParams = new Class[] { Object.class, AuthorizationContext.class };
-             Constructor constructor = policyClass.getConstructor(constructorParams);
- 
-             Object[] objParams = new Object[] { res, ctx };
-             Object policy = constructor.newInstance(objParams);
- 
-             return (Policy)policy;
- 
-         } catch (Exception e) {
-             log.debug(e.getMessage(), e);
-             throw new PolicyStoreLoadException(e.getMessage());
-         }
-     }
- 
  }
-
@@ -0,0 +1,230 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * One change to a product's policy store, applied through a 
+  * {@link PolicyStoreEditor}. The changes are those the PermsNavigator 
+  * offers: adding and removing protected resources, and setting and 
+  * removing the ACL of a principal on a resource.<p>
+  *
+  * Resources are named by their path from a top-level resource, for 
+  * example <code>Arrays.asList("PurchaseOrder", "Note")</code>. Adding a
+  * resource that exists already leaves it as it is, so its parent must 
+  * exist but the resource itself need not.<p>
+  *
+  * A change never modifies the nodes of the store it is applied to. The 
+  * nodes on the path to the changed resource are copied, and the copies 
+  * share every other node with the current tree, so requests under way 
+  * carry on reading the tree they started with.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class PolicyChange {
+ 
+     // the kinds of change, also the names written to the journal
+     //
+     static final String ADD_RESOURCE = "add-resource";
+     static final String REMOVE_RESOURCE = "remove-resource";
+     static final String SET_ACL = "set-acl";
+     static final String REMOVE_ACL = "remove-acl";
+ 
+     private final String type;
+     private final List<String> path;
+     private final String principal;
+     private final String acl;
+ 
+     PolicyChange(String type, List<String> path, String principal, String acl) {
+         if (!ADD_RESOURCE.equals(type) && !REMOVE_RESOURCE.equals(type) && !SET_ACL.equals(type) && !REMOVE_ACL.equals(type)) 
+             throw new IllegalArgumentException("Unknown policy change " + type);
+         if (path == null || path.isEmpty()) 
+             throw new IllegalArgumentException("Empty resource path for " + type);
+         for (String name : path) {
+             if (name == null || name.length() == 0) 
+                 throw new IllegalArgumentException("Empty resource name in " + path);
+         }
+         if ((SET_ACL.equals(type) || REMOVE_ACL.equals(type)) && (principal == null || principal.length() == 0)) 
+             throw new IllegalArgumentException("No principal given for " + type + " on " + path);
+         if (SET_ACL.equals(type) && (acl == null || acl.length() != 5)) 
+             throw new IllegalArgumentException("Illegal ACL " + acl + " for " + principal + " on " + path);
+         this.type = type;
+         this.path = Collections.unmodifiableList(new ArrayList<String>(path));
+         this.principal = principal;
+         this.acl = acl;
+     }
+ 
+     /**
+      * Returns a change that adds a protected resource, if it does not exist
+      *
+      * @param resourcePath the path of the resource, whose parent must exist
+      */
+     public static PolicyChange addResource(List<String> resourcePath) {
+         return new PolicyChange(ADD_RESOURCE, resourcePath, null, null);
+     }
+ 
+     /**
+      * Returns a change that removes a protected resource and the resources
+      * nested in it
+      *
+      * @param resourcePath the path of the resource
+      */
+     public static PolicyChange removeResource(List<String> resourcePath) {
+         return new PolicyChange(REMOVE_RESOURCE, resourcePath, null, null);
+     }
+ 
+     /**
+      * Returns a change that adds or replaces the ACL of a principal on a 
+      * protected resource
+      *
+      * @param resourcePath the path of the resource
+      * @param principal the user or role name
+      * @param acl the permissions in the irwcd format, e.g. <code>-rw--</code>
+      */
+     public static PolicyChange setAcl(List<String> resourcePath, String principal, String acl) {
+         return new PolicyChange(SET_ACL, resourcePath, principal, acl);
+     }
+ 
+     /**
+      * Returns a change that removes the ACL of a principal from a protected
+      * resource, so the principal inherits its permissions again
+      *
+      * @param resourcePath the path of the resource
+      * @param principal the user or role name
+      */
+     public static PolicyChange removeAcl(List<String> resourcePath, String principal) {
+         return new PolicyChange(REMOVE_ACL, resourcePath, principal, null);
+     }
+ 
+     String getType() {
+         return type;
+     }
+ 
+     List<String> getPath() {
+         return path;
+     }
+ 
+     String getPrincipal() {
+         return principal;
+     }
+ 
+     String getAcl() {
+         return acl;
+     }
+ 
+     /**
+      * Applies the change to a copy of a store's top-level resources
+      *
+      * @param acls the top-level resources, which are replaced by changed
+      * copies but never modified themselves
+      *
+      * @exception ResourceNotFoundException thrown if a resource on the 
+      * path does not exist
+      */
+     void applyTo(Map<String, ResourceAclList> acls) throws ResourceNotFoundException {
+         String name = path.get(0);
+         ResourceAclList top = acls.get(name);
+         if (path.size() == 1 && ADD_RESOURCE.equals(type)) {
+             if (top == null) acls.put(name.intern(), new ResourceAclList(name));
+             return;
+         }
+         if (top == null) throw new ResourceNotFoundException("Resource not found: " + name);
+         if (path.size() == 1 && REMOVE_RESOURCE.equals(type)) {
+             acls.remove(name);
+             return;
+         }
+         acls.put(name, edit(top, 1));
+     }
+ 
+     // returns a copy of the node at depth - 1 of the path with the change
+     // applied below it, or the node itself if the change leaves it as it is
+     //
+     private ResourceAclList edit(ResourceAclList node, int depth) throws ResourceNotFoundException {
+         if ((ADD_RESOURCE.equals(type) || REMOVE_RESOURCE.equals(type)) && depth == path.size() - 1) {
+             String name = path.get(depth);
+             if (ADD_RESOURCE.equals(type)) {
+                 if (node.containsNestedList(name)) return node;
+                 ResourceAclList copy = copy(node, null, null);
+                 copy.addNestedList(new ResourceAclList(name));
+                 return copy;
+             }
+             if (!node.containsNestedList(name)) throw new ResourceNotFoundException("Resource not found: " + path);
+             return copy(node, null, name);
+         }
+         if (depth == path.size()) {
+             if (SET_ACL.equals(type)) {
+                 ACL entry = ACL.valueOf(principal, DefaultPermissionSet.getIntVal(acl));
+                 if (entry.equals(node.getPrincipalACL(principal))) return node;
+                 ResourceAclList copy = copy(node, principal, null);
+                 copy.addPrincipalACL(entry);
+                 return copy;
+             }
+             if (node.getPrincipalACL(principal) == null) return node;
+             return copy(node, principal, null);
+         }
+         ResourceAclList child = node.getNestedList(path.get(depth));
+         ResourceAclList edited = edit(child, depth + 1);
+         if (edited == child) return node;
+         ResourceAclList copy = copy(node, null, null);
+         copy.replaceNestedList(edited);
+         return copy;
+     }
+ 
+     // copies a node without one of its ACLs or nested nodes
+     //
+     private static ResourceAclList copy(ResourceAclList node, String skipPrincipal, String skipChild) {
+         ResourceAclList copy = new ResourceAclList(node.getResourceName());
+         FinalRule[] rules = node.getFinalRules();
+         for (int i = 0; rules != null && i < rules.length; i++) {
+             copy.addFinalRule(rules[i]);
+         }
+         for (ACL entry : node.getAcls()) {
+             if (!entry.getName().equals(skipPrincipal)) copy.addPrincipalACL(entry);
+         }
+         for (ResourceAclList child : node.getNestedList().values()) {
+             if (!child.getResourceName().equals(skipChild)) copy.addNestedList(child);
+         }
+         return copy;
+     }
+ 
+     public String toString() {
+         StringBuffer sb = new StringBuffer(type).append(' ');
+         for (int i = 0; i < path.size(); i++) {
+             if (i > 0) sb.append("::");
+             sb.append(path.get(i));
+         }
+         if (principal != null) sb.append(' ').append(principal);
+         if (acl != null) sb.append(' ').append(acl);
+         return sb.toString();
+     }
+ 
+ }
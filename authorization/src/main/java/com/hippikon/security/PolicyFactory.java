@@ -0,0 +1,147 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+ 
+ /**
+  * Creates the {@link Policy} instances for one ProtectedResource name, as
+  * bound in a product's resource policy mappings.<p>
+  *
+  * The Policy class and its (Object, AuthorizationContext) constructor are 
+  * resolved on first use and kept, so each authorization request only pays
+  * for the constructor call. A class that can not be resolved fails the 
+  * requests for that resource only, exactly as an unresolvable mapping 
+  * always has.<p>
+  *
+  * The class is used internally to the Hippikon framework implementation 
+  * and not exposed to clients in the public API.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class PolicyFactory {
+ 
+     /**
+      * Creates {@link DefaultObjectPolicy} instances for resources that have
+      * no Policy bound to them
+      */
+     static final PolicyFactory DEFAULT = new PolicyFactory(DefaultObjectPolicy.class.getName()) {
+         Policy newPolicy(Object res, AuthorizationContext ctx) throws PolicyStoreLoadException {
+             try {
+                 return new DefaultObjectPolicy(res, ctx);
+             } catch (IllegalAuthorizationException e) {
+                 throw new PolicyStoreLoadException(e.getMessage());
+             }
+         }
+     };
+ 
+     private final String className;
+ 
+     // resolved on first use - a race only resolves the same constructor twice
+     //
+     private volatile Constructor<?> constructor;
+ 
+     /**
+      * Creates a new PolicyFactory for a Policy class name
+      *
+      * @param className the fully qualified name of the Policy implementation
+      */
+     PolicyFactory(String className) {
+         this.className = className;
+     }
+ 
+     /**
+      * Returns the name of the Policy class created by the factory
+      */
+     String getClassName() {
+         return className;
+     }
+ 
+     /**
+      * Returns a new Policy for a ProtectedResource being accessed within an
+      * AuthorizationContext
+      *
+      * @exception PolicyStoreLoadException thrown if the Policy could not be 
+      * loaded or instantiated
+      */
+     Policy newPolicy(Object res, AuthorizationContext ctx) throws PolicyStoreLoadException {
+         Constructor<?> c = constructor;
+         if (c == null) {
+             c = resolve();
+             constructor = c;
+         }
+         try {
+             return (Policy)c.newInstance(res, ctx);
+         } catch (InvocationTargetException e) {
+             Throwable cause = e.getCause();
+             throw new PolicyStoreLoadException("Policy " + className + " could not be instantiated: " + 
+                                                (cause != null ? cause.getMessage() : e.getMessage()));
+         } catch (Exception e) {
+             throw new PolicyStoreLoadException("Policy " + className + " could not be instantiated: " + e.getMessage());
+         }
+     }
+ 
+     /**
+      * Loads the Policy class and finds its (Object, AuthorizationContext)
+      * constructor
+      *
+      * @exception PolicyStoreLoadException thrown if the class can not be
+      * loaded, is not a public concrete Policy or has no such constructor
+      */
+     Constructor<?> resolve() throws PolicyStoreLoadException {
+         Class<?> policyClass;
+         try {
+             policyClass = Class.forName(className);
+         } catch (ClassNotFoundException e) {
+             throw new PolicyStoreLoadException("Policy class " + className + " not found");
+         } catch (LinkageError e) {
+             throw new PolicyStoreLoadException("Policy class " + className + " could not be loaded: " + e);
+         }
+         if (!Policy.class.isAssignableFrom(policyClass)) {
+             throw new PolicyStoreLoadException(className + " does not implement " + Policy.class.getName());
+         }
+         if (Modifier.isAbstract(policyClass.getModifiers())) {
+             throw new PolicyStoreLoadException(className + " is abstract");
+         }
+         if (!Modifier.isPublic(policyClass.getModifiers())) {
+             throw new PolicyStoreLoadException(className + " is not public");
+         }
+         try {
+             return policyClass.getConstructor(Object.class, AuthorizationContext.class);
+         } catch (NoSuchMethodException e) {
+             throw new PolicyStoreLoadException(className + " has no public (Object, AuthorizationContext) constructor");
+         }
+     }
+ 
+     public String toString() {
+         return className;
+     }
+ 
+ }
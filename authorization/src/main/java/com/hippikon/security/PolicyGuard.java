@@ -0,0 +1,539 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * Holds authorization checks with a deadline to it, and stops calling 
+  * Policy classes that keep overrunning.<p>
+  *
+  * Each Policy callback of a check with a deadline must complete before 
+  * the deadline, or the check fails with an 
+  * {@link AuthorizationTimeoutException} naming the Policy class and the 
+  * callback. The callback itself carries on, but nothing waits for it.<p>
+  *
+  * A callback run on the executor of the check may wait behind the work of
+  * other checks. Such a callback is timed from when it starts to run: if 
+  * the check runs out of time while the callback waits, the check fails 
+  * without naming the Policy class, and the class is only held to account
+  * should the callback overrun the time it was given once started.<p>
+  *
+  * Every Policy class has a circuit breaker. After a number of timeouts in
+  * a row the breaker opens, and checks that need the class are refused at
+  * once, deadline or not, so a degraded dependency does not hold up every
+  * request thread. Once the breaker has been open for a while it is half
+  * open, and lets a single check through as a probe while the rest are 
+  * still refused. A check is admitted once for each Policy class, however
+  * many of its resources the class is bound to. A probe whose callbacks 
+  * complete in time, or without a deadline complete at all, closes the 
+  * breaker; one that overruns opens it again. A probe that never reports 
+  * holds the breaker half open for another open time before the next 
+  * probe.<p>
+  *
+  * Every Policy class also has a bulkhead, a limit to the callbacks of the
+  * class that may be queued or running on the executor of the check at 
+  * once. A callback that would exceed it is refused with an 
+  * AuthorizationTimeoutException and counted as a timeout, so a class 
+  * whose callbacks hang holds at most its share of the executor and 
+  * cannot starve the others. Work that was still waiting when its check 
+  * ran out of time gives its place up and is not run, and work queued by
+  * a callback from the thread of an earlier callback of the same class 
+  * takes over the place of that callback. The following system properties may be 
+  * set:<p>
+  *
+  * <pre>
+  * hippikon.policy-breaker.failures   timeouts in a row that open a breaker (default 5)
+  * hippikon.policy-breaker.open-time  milliseconds a breaker stays open (default 30000)
+  * hippikon.policy-bulkhead.size      callbacks of a Policy class on the executor at once (default 2 per CPU)
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class PolicyGuard {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.PolicyGuard");
+ 
+     private static final int FAILURES = Integer.getInteger("hippikon.policy-breaker.failures", 5).intValue();
+     private static final int BULKHEAD = Integer.getInteger("hippikon.policy-bulkhead.size", 
+                                                            2 * Runtime.getRuntime().availableProcessors()).intValue();
+ 
+     // the breakers of the Policy classes that have overrun
+     //
+     private static final ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<String, Breaker>();
+ 
+     // the bulkheads of the Policy classes that have run on an executor
+     //
+     private static final ConcurrentHashMap<String, Semaphore> bulkheads = new ConcurrentHashMap<String, Semaphore>();
+ 
+     // the callback work running on the current thread
+     //
+     private static final ThreadLocal<Work> running = new ThreadLocal<Work>();
+ 
+     private PolicyGuard() { }
+ 
+     /**
+      * Throws an AuthorizationTimeoutException if the breaker of a Policy 
+      * class is open. A check calls this once for each Policy class, since 
+      * a half open breaker admits a single probe
+      *
+      * @param admitted the names of the Policy classes the check has been 
+      * admitted to already, to which the class of the Policy is added
+      */
+     static void checkClosed(Policy policy, List<String> admitted) throws AuthorizationTimeoutException {
+         String policyClassName = policy.getClass().getName();
+         if (admitted.contains(policyClassName)) return;
+         admitted.add(policyClassName);
+         if (breakers.isEmpty()) return;
+         Breaker breaker = breakers.get(policy.getClass().getName());
+         if (breaker != null && !breaker.admit()) {
+             throw new AuthorizationTimeoutException("Circuit open for Policy class " + policy.getClass().getName(), 
+                                                     policy.getClass().getName(), AuthorizationTimeoutException.CIRCUIT_OPEN);
+         }
+     }
+ 
+     /**
+      * Closes the breaker of a Policy class whose callback completed in a 
+      * check without a deadline
+      */
+     static void completed(Policy policy) {
+         if (breakers.isEmpty()) return;
+         Breaker breaker = breakers.get(policy.getClass().getName());
+         if (breaker != null) breaker.succeeded();
+     }
+ 
+     /**
+      * Returns the executor to give a Policy callback, which notes when the
+      * callback first runs on the executor of the check and refuses work 
+      * beyond the bulkhead of the Policy class
+      */
+     static Callback callback(Executor executor, Policy policy) {
+         return new Callback(executor, policy.getClass().getName());
+     }
+ 
+     /**
+      * Returns the exception for a callback refused by the bulkhead of its
+      * Policy class, which Policy code calling the executor directly sees 
+      * as a RejectedExecutionException
+      */
+     static AuthorizationTimeoutException refused(Policy policy) {
+         return new AuthorizationTimeoutException("Bulkhead full for Policy class " + policy.getClass().getName(), 
+                                                  policy.getClass().getName(), AuthorizationTimeoutException.BULKHEAD_FULL);
+     }
+ 
+     /**
+      * Returns a future completed by a Policy callback, or failed with an 
+      * AuthorizationTimeoutException if the callback has not completed by 
+      * the deadline. The timeout is held against the Policy class if the 
+      * callback ran for all of the time it was given, counted from when it
+      * was called or, if it ran on the executor, from when it started
+      *
+      * @param callback the future returned by the callback
+      * @param executor the executor the callback was given
+      * @param policy the Policy called
+      * @param name the name of the callback
+      * @param deadline the System.nanoTime() by which the callback must 
+      * complete, or 0 for no deadline
+      */
+     static <T> CompletableFuture<T> within(CompletableFuture<T> callback, final Callback executor, final Policy policy, 
+                                            final String name, long deadline) {
+         if (deadline == 0) {
+
+             // without a deadline a probe closes the breaker once it
+             // completes
+             //
+             final CompletableFuture<T> unbounded = new CompletableFuture<T>();
+             callback.whenComplete(new BiConsumer<T, Throwable>() {
+                 public void accept(T value, Throwable failure) {
+                     if (executor.isRefused()) {
+                         unbounded.completeExceptionally(refused(policy));
+                         return;
+                     }
+                     completed(policy);
+                     if (failure == null) {
+                         unbounded.complete(value);
+                     } else {
+                         unbounded.completeExceptionally(failure);
+                     }
+                 }
+             });
+             return unbounded;
+         }
+         final String policyClassName = policy.getClass().getName();
+         final CompletableFuture<T> bounded = new CompletableFuture<T>();
+         final long allowed = deadline - executor.called;
+         long remaining = deadline - System.nanoTime();
+         if (remaining <= 0 && !callback.isDone()) {
+ 
+             bounded.completeExceptionally(expired(policy, name));
+             return bounded;
+         }
+ 
+         // settled once the callback has either completed or been charged
+         // with a timeout, whichever comes first
+         //
+         final AtomicBoolean settled = new AtomicBoolean();
+         final ScheduledFuture<?> timer = Timer.instance.schedule(new Runnable() {
+             public void run() {
+                 if (executor.isWaiting()) {
+                     executor.abandon();
+                     bounded.completeExceptionally(new AuthorizationTimeoutException("The check overran its deadline while " + 
+                                                   name + " of Policy class " + policyClassName + " waited to run", null, null));
+                 } else {
+
+                     // charged before the check fails, so that the caller 
+                     // sees the breaker as this timeout leaves it
+                     //
+                     if (!bounded.isDone() && !executor.isQueued() && settled.compareAndSet(false, true)) {
+                         timedOut(policyClassName, name);
+                     }
+                     bounded.completeExceptionally(overran(policyClassName, name));
+                 }
+             }
+         }, Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+ 
+         // a callback run on the executor is timed from when it started, 
+         // with the time it was given when called, and only then held to 
+         // account
+         //
+         final ScheduledFuture<?>[] started = new ScheduledFuture<?>[1];
+         executor.whenStarted(new Runnable() {
+             public void run() {
+                 synchronized (started) {
+                     started[0] = Timer.instance.schedule(new Runnable() {
+                         public void run() {
+                             if (settled.compareAndSet(false, true)) timedOut(policyClassName, name);
+                         }
+                     }, allowed, TimeUnit.NANOSECONDS);
+                 }
+             }
+         });
+         callback.whenComplete(new BiConsumer<T, Throwable>() {
+             public void accept(T value, Throwable failure) {
+                 timer.cancel(false);
+                 synchronized (started) {
+                     if (started[0] != null) started[0].cancel(false);
+                 }
+                 if (executor.isRefused()) {
+
+                     // the refusal was counted by the bulkhead
+                     //
+                     bounded.completeExceptionally(refused(policy));
+                     return;
+                 }
+                 if (failure == null) {
+                     bounded.complete(value);
+                 } else {
+                     bounded.completeExceptionally(failure);
+                 }
+                 if (settled.compareAndSet(false, true)) {
+                     Breaker breaker = breakers.get(policyClassName);
+                     if (breaker != null) breaker.succeeded();
+                 }
+             }
+         });
+         return bounded;
+     }
+ 
+     /**
+      * Returns true if a deadline has passed
+      *
+      * @param deadline a System.nanoTime(), or 0 for no deadline
+      */
+     static boolean isExpired(long deadline) {
+         return deadline != 0 && System.nanoTime() - deadline >= 0;
+     }
+ 
+     /**
+      * Returns the exception for a check whose time ran out before a 
+      * callback was called, which is not held against the Policy class
+      */
+     static AuthorizationTimeoutException expired(Policy policy, String name) {
+         return new AuthorizationTimeoutException("The check overran its deadline before " + name + " of Policy class " + 
+                                                  policy.getClass().getName() + " was called", null, null);
+     }
+ 
+     private static AuthorizationTimeoutException overran(String policyClassName, String name) {
+         return new AuthorizationTimeoutException(name + " of Policy class " + policyClassName + " overran the deadline", 
+                                                  policyClassName, name);
+     }
+ 
+     // counts the timeout of a callback that overran against its class
+     //
+     private static void timedOut(String policyClassName, String name) {
+         log.warn(name + " of Policy class " + policyClassName + " overran the deadline");
+         charge(policyClassName);
+     }
+ 
+     private static void charge(String policyClassName) {
+         Breaker breaker = breakers.get(policyClassName);
+         if (breaker == null) {
+             breakers.putIfAbsent(policyClassName, new Breaker());
+             breaker = breakers.get(policyClassName);
+         }
+         if (breaker.failed()) {
+             log.error("Opening the circuit breaker of Policy class " + policyClassName + " for " + getOpenTime() + " ms");
+         }
+     }
+ 
+     // read on each use so that the open time may be changed at runtime
+     //
+     private static long getOpenTime() {
+         return Long.getLong("hippikon.policy-breaker.open-time", 30000L).longValue();
+     }
+ 
+     // returns the bulkhead of a Policy class
+     //
+     private static Semaphore bulkhead(String policyClassName) {
+         Semaphore bulkhead = bulkheads.get(policyClassName);
+         if (bulkhead == null) {
+             bulkheads.putIfAbsent(policyClassName, new Semaphore(BULKHEAD));
+             bulkhead = bulkheads.get(policyClassName);
+         }
+         return bulkhead;
+     }
+ 
+     /**
+      * Closes every breaker
+      */
+     static void reset() {
+         breakers.clear();
+     }
+ 
+     /**
+      * The executor given to a Policy callback, which notes whether the 
+      * callback has work waiting on the executor of the check and when the
+      * first of it started, and holds a place in the bulkhead of the Policy
+      * class for each task until it has run
+      */
+     static final class Callback implements Executor {
+         private final Executor executor;
+         private final String policyClassName;
+         private final long called = System.nanoTime();
+         private boolean queued;
+         private boolean started;
+         private boolean refused;
+         private Runnable onStart;
+         private final List<Work> queue = new ArrayList<Work>(1);
+ 
+         private Callback(Executor executor, String policyClassName) {
+             this.executor = executor;
+             this.policyClassName = policyClassName;
+         }
+ 
+         public void execute(Runnable command) {
+             Semaphore bulkhead = bulkhead(policyClassName);
+             Work caller = running.get();
+             boolean handedOver = caller != null && caller.bulkhead == bulkhead && caller.handOver();
+             if (!handedOver && !bulkhead.tryAcquire()) {
+                 synchronized (this) {
+                     refused = true;
+                 }
+                 log.warn("Bulkhead full for Policy class " + policyClassName);
+                 charge(policyClassName);
+                 throw new RejectedExecutionException("Bulkhead full for Policy class " + policyClassName);
+             }
+             Work work = new Work(this, command, bulkhead);
+             synchronized (this) {
+                 if (!started) queued = true;
+                 queue.add(work);
+             }
+             try {
+                 executor.execute(work);
+             } catch (RuntimeException e) {
+                 work.release();
+                 throw e;
+             }
+         }
+ 
+         // gives up the places of the work that has yet to start, which 
+         // will not be run
+         //
+         void abandon() {
+             List<Work> waiting;
+             synchronized (this) {
+                 waiting = new ArrayList<Work>(queue);
+             }
+             for (Work work : waiting) {
+                 work.abandon();
+             }
+         }
+ 
+         // true if the bulkhead refused work of the callback
+         //
+         synchronized boolean isRefused() {
+             return refused;
+         }
+ 
+         // true if the callback put work on the executor
+         //
+         synchronized boolean isQueued() {
+             return queued;
+         }
+ 
+         // true while the work of the callback has yet to start
+         //
+         synchronized boolean isWaiting() {
+             return queued && !started;
+         }
+ 
+         // runs the task once the work of the callback starts, at once if
+         // it already has
+         //
+         void whenStarted(Runnable task) {
+             synchronized (this) {
+                 if (!started) {
+                     onStart = task;
+                     return;
+                 }
+             }
+             task.run();
+         }
+ 
+         private void start() {
+             Runnable task;
+             synchronized (this) {
+                 if (started) return;
+                 started = true;
+                 task = onStart;
+             }
+             if (task != null) task.run();
+         }
+     }
+ 
+     // a task of a callback holding a place in the bulkhead of its class
+     //
+     private static final class Work implements Runnable {
+         private static final int QUEUED = 0;
+         private static final int RUNNING = 1;
+         private static final int ABANDONED = 2;
+ 
+         private final Callback callback;
+         private final Runnable command;
+         private final Semaphore bulkhead;
+         private final AtomicInteger state = new AtomicInteger(QUEUED);
+         private final AtomicBoolean holding = new AtomicBoolean(true);
+ 
+         Work(Callback callback, Runnable command, Semaphore bulkhead) {
+             this.callback = callback;
+             this.command = command;
+             this.bulkhead = bulkhead;
+         }
+ 
+         public void run() {
+             if (!state.compareAndSet(QUEUED, RUNNING)) return;
+             Work outer = running.get();
+             running.set(this);
+             try {
+                 callback.start();
+                 command.run();
+             } finally {
+                 running.set(outer);
+                 release();
+             }
+         }
+ 
+         void abandon() {
+             if (state.compareAndSet(QUEUED, ABANDONED)) release();
+         }
+ 
+         // passes the place of this work to work it queues, returning 
+         // false if it has none to pass
+         //
+         boolean handOver() {
+             return holding.compareAndSet(true, false);
+         }
+ 
+         void release() {
+             if (holding.compareAndSet(true, false)) bulkhead.release();
+         }
+     }
+ 
+     // the consecutive timeouts of a Policy class
+     //
+     private static final class Breaker {
+         private int failures;
+         private long openUntil;
+ 
+         // returns false while the breaker is open. Once the open time has
+         // passed the breaker is half open, and admits one probe before 
+         // refusing checks for another open time
+         //
+         synchronized boolean admit() {
+             if (failures < FAILURES) return true;
+             long now = System.currentTimeMillis();
+             if (now < openUntil) return false;
+             openUntil = now + getOpenTime();
+             return true;
+         }
+ 
+         // returns true if the breaker opened
+         //
+         synchronized boolean failed() {
+             failures++;
+             if (failures < FAILURES) return false;
+             openUntil = System.currentTimeMillis() + getOpenTime();
+             return true;
+         }
+ 
+         synchronized void succeeded() {
+             failures = 0;
+         }
+     }
+ 
+     // created on the first check with a deadline
+     //
+     private static class Timer {
+         static final ScheduledExecutorService instance = Executors.newSingleThreadScheduledExecutor(new TimerThreadFactory());
+     }
+ 
+     private static class TimerThreadFactory implements ThreadFactory {
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-deadline-timer");
+             thread.setDaemon(true);
+             return thread;
+         }
+     }
+ 
+ }
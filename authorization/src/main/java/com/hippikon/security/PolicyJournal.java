@@ -0,0 +1,441 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * The write-ahead journal of the changes made to a product's policy store
+  * through a {@link PolicyStoreEditor}.<p>
+  *
+  * Each batch of changes is appended to the journal file and synced to disk
+  * before it is applied, then applied to copies of the affected nodes and
+  * published to the store as a new version. Readers never lock: a request
+  * reads one version of the tree throughout, since published nodes are 
+  * never modified.<p>
+  *
+  * Once hippikon.journal.compact-after changes have been journaled (1000 
+  * by default) the current version is written out as a complete 
+  * policy-store document, the snapshot, and the journal is emptied. When 
+  * the store is loaded again the snapshot replaces the deployed document 
+  * and the journal is replayed over it. Remove both files to return to the
+  * deployed document.<p>
+  *
+  * The files are kept in the directory named by the 
+  * <code>hippikon.journal.directory</code> system property:<p>
+  *
+  * <pre>
+  * hippikon.product-id.[productID].journal           changes since the snapshot
+  * hippikon.product-id.[productID].policy-store.xml  the snapshot
+  * </pre>
+  *
+  * Each line of the journal is one change, written as tab separated URL 
+  * encoded fields: the version, the kind of change, the resource path 
+  * separated by '/', the principal and the ACL. A batch ends with a 
+  * <code>commit</code> line, and a batch without one, left by a crash 
+  * while it was written, is discarded when the journal is read.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class PolicyJournal {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.PolicyJournal");
+ 
+     private static final int COMPACT_AFTER = Integer.getInteger("hippikon.journal.compact-after", 1000).intValue();
+     private static final boolean SYNC = Boolean.valueOf(System.getProperty("hippikon.journal.sync", "true")).booleanValue();
+ 
+     private static final String COMMIT = "commit";
+     private static final String JOURNAL_EXT = ".journal";
+ 
+     // one journal per file, so that every editor of a product shares its lock
+     //
+     private static final ConcurrentHashMap<String, PolicyJournal> journals = new ConcurrentHashMap<String, PolicyJournal>();
+ 
+     private final String productID;
+     private final File file;
+     private final File snapshot;
+ 
+     // the last committed version, or -1 until the journal has been read, 
+     // and the number of changes journaled since the snapshot
+     //
+     private long version = -1;
+     private int records;
+ 
+     private PolicyJournal(String productID, File file, File snapshot) {
+         this.productID = productID;
+         this.file = file;
+         this.snapshot = snapshot;
+     }
+ 
+     /**
+      * Returns the journal of a product, or null if the 
+      * hippikon.journal.directory property is not set
+      */
+     static PolicyJournal forProduct(String productID) {
+         String directory = System.getProperty("hippikon.journal.directory");
+         if (directory == null || directory.length() == 0) return null;
+         String key = PolicyStoreFactory.getCacheKey(productID);
+         File dir = new File(directory).getAbsoluteFile();
+         File file = new File(dir, "hippikon.product-id." + key + JOURNAL_EXT);
+         PolicyJournal journal = journals.get(file.getPath());
+         if (journal == null) {
+             PolicyJournal created = new PolicyJournal(key, file, new File(dir, XMLPolicyStore.constructStoreFilename(key)));
+             journal = journals.putIfAbsent(file.getPath(), created);
+             if (journal == null) journal = created;
+         }
+         return journal;
+     }
+ 
+     /**
+      * Brings a store up to the latest journaled version, from the snapshot
+      * if the store is older than it. Called as each store is loaded.
+      *
+      * @exception PolicyStoreLoadException thrown if the snapshot or journal
+      * could not be read
+      */
+     synchronized void recover(XMLPolicyStore store) throws PolicyStoreLoadException {
+         try {
+             long base = store.getVersion();
+             Map<String, ResourceAclList> acls = new HashMap<String, ResourceAclList>(store.getResourceAcls());
+             if (snapshot.isFile()) {
+                 ByteBuffer buffer = new DirectoryPolicySource(snapshot.getParentFile()).read(snapshot.getName());
+                 long snapshotVersion = readVersion(buffer);
+                 if (snapshotVersion > base) {
+                     PolicyModule module = store.loadSnapshot(snapshot, buffer);
+                     acls = new HashMap<String, ResourceAclList>(module.getResources());
+                     store.setRoleHierarchy(RoleHierarchy.build(module.getRoles()));
+                     base = snapshotVersion;
+                 }
+             }
+             long latest = replay(acls, base);
+             if (latest != store.getVersion()) {
+                 store.publish(acls, latest);
+                 log.info("Recovered policy store " + productID + " at version " + latest + " from " + file.getParent());
+             }
+             this.version = latest;
+         } catch (IOException e) {
+             log.error("Could not recover policy store " + productID + " from its journal", e);
+             throw new PolicyStoreLoadException("Could not read journal " + file + ": " + e.getMessage());
+         }
+     }
+ 
+     /**
+      * Returns the latest version of a store
+      */
+     synchronized long getVersion(XMLPolicyStore store) throws PolicyStoreLoadException {
+         if (version < 0 || store.getVersion() != version) recover(store);
+         return version;
+     }
+ 
+     /**
+      * Journals a batch of changes and publishes them to the store as a 
+      * new version. Either every change is applied or none is.
+      *
+      * @param store the product store being changed
+      * @param expectedVersion the version the changes were made against, or
+      * -1 to apply them to whichever version is current
+      * @param changes the changes, applied in order
+      * @return the new version
+      *
+      * @exception ConcurrentModificationException thrown if the store is 
+      * no longer at the expected version
+      * @exception ResourceNotFoundException thrown if a change names a 
+      * resource that does not exist
+      * @exception IOException thrown if the changes could not be journaled
+      */
+     synchronized long apply(XMLPolicyStore store, long expectedVersion, PolicyChange[] changes) 
+     throws PolicyStoreLoadException, ResourceNotFoundException, IOException {
+         if (version < 0 || store.getVersion() != version) recover(store);
+         if (expectedVersion >= 0 && expectedVersion != version) {
+             throw new ConcurrentModificationException("Policy store " + productID + " is at version " + version + 
+                                                       ", not " + expectedVersion);
+         }
+         Map<String, ResourceAclList> before = store.getResourceAcls();
+         Map<String, ResourceAclList> acls = new HashMap<String, ResourceAclList>(before);
+         for (PolicyChange change : changes) {
+             change.applyTo(acls);
+         }
+         long next = version + 1;
+         append(next, changes);
+         int modifications = store.publish(acls, next);
+         this.version = next;
+         this.records += changes.length;
+         log.info("Applied " + Arrays.asList(changes) + " to policy store " + productID + " as version " + next);
+         PolicyStoreCache.getInstance().fireEdited(productID, before, acls, store, modifications);
+ 
+         if (records >= COMPACT_AFTER) {
+             try {
+                 compact(store);
+             } catch (IOException e) {
+                 log.error("Could not compact the journal of policy store " + productID, e);
+             }
+         }
+         return next;
+     }
+ 
+     /**
+      * Writes the current version of a store as the snapshot and empties the
+      * journal
+      */
+     synchronized void compact(XMLPolicyStore store) throws PolicyStoreLoadException, IOException {
+         if (version < 0 || store.getVersion() != version) recover(store);
+         File tmp = new File(snapshot.getPath() + ".tmp");
+         FileOutputStream out = new FileOutputStream(tmp);
+         try {
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+             writeSnapshot(store, writer);
+             writer.flush();
+             out.getFD().sync();
+         } finally {
+             out.close();
+         }
+         Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+ 
+         // a crash before the journal is emptied leaves batches the snapshot 
+         // already holds, which are skipped by their version when replayed
+         //
+         truncate(0);
+         log.info("Compacted " + records + " journaled changes of policy store " + productID + " into " + snapshot);
+         this.records = 0;
+     }
+ 
+     // applies the committed batches newer than a version, returning the 
+     // latest version applied
+     //
+     private long replay(Map<String, ResourceAclList> acls, long after) throws IOException {
+         this.records = 0;
+         if (!file.isFile()) return after;
+         byte[] bytes = Files.readAllBytes(file.toPath());
+         long latest = after;
+         long committedEnd = 0;
+         List<PolicyChange> batch = new ArrayList<PolicyChange>();
+         int start = 0;
+         for (int i = 0; i < bytes.length; i++) {
+             if (bytes[i] != '\n') continue;
+             String[] fields = new String(bytes, start, i - start, StandardCharsets.UTF_8).split("\t", -1);
+             start = i + 1;
+             long batchVersion;
+             try {
+                 batchVersion = Long.parseLong(fields[0]);
+             } catch (NumberFormatException e) {
+                 break;
+             }
+             if (fields.length == 2 && fields[1].equals(COMMIT)) {
+                 if (batchVersion > latest) {
+                     for (PolicyChange change : batch) {
+                         try {
+                             change.applyTo(acls);
+                         } catch (ResourceNotFoundException e) {
+                             log.warn("Skipping journaled change " + change + " of policy store " + productID + ": " + e.getMessage());
+                         }
+                     }
+                     latest = batchVersion;
+                 }
+                 records += batch.size();
+                 batch.clear();
+                 committedEnd = start;
+                 continue;
+             }
+             try {
+                 batch.add(decode(fields));
+             } catch (IllegalArgumentException e) {
+                 break;
+             }
+         }
+         if (committedEnd < bytes.length) {
+             log.warn("Discarding " + (bytes.length - committedEnd) + " bytes of uncommitted changes at the end of " + file);
+             truncate(committedEnd);
+         }
+         return latest;
+     }
+ 
+     private void append(long version, PolicyChange[] changes) throws IOException {
+         StringBuffer sb = new StringBuffer();
+         for (PolicyChange change : changes) {
+             sb.append(version).append('\t').append(change.getType()).append('\t');
+             List<String> path = change.getPath();
+             for (int i = 0; i < path.size(); i++) {
+                 if (i > 0) sb.append('/');
+                 sb.append(encode(path.get(i)));
+             }
+             sb.append('\t').append(encode(change.getPrincipal()));
+             sb.append('\t').append(encode(change.getAcl())).append('\n');
+         }
+         sb.append(version).append('\t').append(COMMIT).append('\n');
+ 
+         file.getParentFile().mkdirs();
+         long length = file.length();
+         FileOutputStream out = new FileOutputStream(file, true);
+         try {
+             out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+             if (SYNC) out.getFD().sync();
+         } catch (IOException e) {
+             // a torn batch is discarded when the journal is next read, but
+             // would hide the batches appended after it
+             //
+             try {
+                 truncate(length);
+             } catch (IOException ignored) { }
+             throw e;
+         } finally {
+             out.close();
+         }
+     }
+ 
+     private void truncate(long length) throws IOException {
+         if (!file.exists()) return;
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         try {
+             raf.setLength(length);
+             if (SYNC) raf.getFD().sync();
+         } finally {
+             raf.close();
+         }
+     }
+ 
+     private static PolicyChange decode(String[] fields) {
+         if (fields.length != 5) throw new IllegalArgumentException("Malformed journal record");
+         List<String> path = new ArrayList<String>();
+         for (String name : fields[2].split("/")) {
+             path.add(decode(name));
+         }
+         String principal = decode(fields[3]);
+         String acl = decode(fields[4]);
+         return new PolicyChange(fields[1], path, (principal.length() == 0) ? null : principal, 
+                                 (acl.length() == 0) ? null : acl);
+     }
+ 
+     private static String encode(String s) {
+         if (s == null) return "";
+         try {
+             return URLEncoder.encode(s, "UTF-8");
+         } catch (UnsupportedEncodingException e) {
+             throw new IllegalStateException(e.toString());
+         }
+     }
+ 
+     private static String decode(String s) {
+         try {
+             return URLDecoder.decode(s, "UTF-8");
+         } catch (UnsupportedEncodingException e) {
+             throw new IllegalStateException(e.toString());
+         }
+     }
+ 
+     // the version attribute of a snapshot's root element
+     //
+     private long readVersion(ByteBuffer buffer) throws PolicyStoreLoadException {
+         PolicyStoreScanner scanner = new PolicyStoreScanner(buffer, snapshot.getPath());
+         int root = scanner.findRoot();
+         String value = (root < 0) ? null : scanner.getAttribute(root, "version");
+         try {
+             return (value == null) ? 0 : Long.parseLong(value);
+         } catch (NumberFormatException e) {
+             throw new PolicyStoreLoadException(snapshot + ": illegal version " + value);
+         }
+     }
+ 
+     private void writeSnapshot(XMLPolicyStore store, Writer out) throws IOException {
+         String applicationName = store.getApplicationName();
+         out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+         out.write("<" + XMLPolicyStore.POLICY_STORE_NODENAME + " application-name=\"" + 
+                   escape((applicationName == null) ? "" : applicationName) + "\" version=\"" + version + "\">\n");
+         for (Map.Entry<String, List<String>> role : store.getRoleHierarchy().getDeclarations().entrySet()) {
+             StringBuffer inherits = new StringBuffer();
+             for (String name : role.getValue()) {
+                 if (inherits.length() > 0) inherits.append(", ");
+                 inherits.append(name);
+             }
+             out.write("    <" + XMLPolicyStore.ROLE + " name=\"" + escape(role.getKey()) + "\" inherits=\"" + 
+                       escape(inherits.toString()) + "\"/>\n");
+         }
+         for (ResourceAclList list : new TreeMap<String, ResourceAclList>(store.getResourceAcls()).values()) {
+             writeResource(list, out, "    ");
+         }
+         out.write("</" + XMLPolicyStore.POLICY_STORE_NODENAME + ">\n");
+     }
+ 
+     private static void writeResource(ResourceAclList list, Writer out, String indent) throws IOException {
+         out.write(indent + "<" + XMLPolicyStore.PROTECTED_RESOURCE + " name=\"" + escape(list.getResourceName()) + "\">\n");
+         for (ACL acl : list.getAcls()) {
+             out.write(indent + "    <principal name=\"" + escape(acl.getName()) + "\" acl=\"" + 
+                       new DefaultPermissionSet(acl.getPermsAsInt()) + "\"/>\n");
+         }
+         FinalRule[] rules = list.getFinalRules();
+         for (int i = 0; rules != null && i < rules.length; i++) {
+             out.write(indent + "    <" + XMLPolicyStore.FINAL_RULE);
+             for (Map.Entry<String, String> attribute : rules[i].getAttributes().entrySet()) {
+                 out.write(" " + attribute.getKey() + "=\"" + escape(attribute.getValue()) + "\"");
+             }
+             out.write("/>\n");
+         }
+         for (ResourceAclList child : list.getNestedList().values()) {
+             writeResource(child, out, indent + "    ");
+         }
+         out.write(indent + "</" + XMLPolicyStore.PROTECTED_RESOURCE + ">\n");
+     }
+ 
+     private static String escape(String s) {
+         StringBuffer sb = new StringBuffer(s.length());
+         for (int i = 0; i < s.length(); i++) {
+             char c = s.charAt(i);
+             switch (c) {
+                 case '&': sb.append("&amp;"); break;
+                 case '<': sb.append("&lt;"); break;
+                 case '>': sb.append("&gt;"); break;
+                 case '"': sb.append("&quot;"); break;
+                 default: sb.append(c);
+             }
+         }
+         return sb.toString();
+     }
+ 
+ }
@@ -30,6 +30,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 import org.apache.log4j.Logger;
  
@@ -41,6 +47,19 @@ import org.apache.log4j.Logger;
   * methods of the policies, determineUserPrincipals() and doFinal(),
   * defined for each ProtectedResource in the list.<p>
   *
+  * A mediator for an asynchronous check creates the Policy objects only. 
+  * Their principals are then looked up together with
+  * {@link #determineUserPrincipalsAsync(Executor, long)}, and their doFinal() 
+  * methods chained with {@link #invokePolicyFinalsAsync(Executor, long)}, 
+  * each bounded by the deadline of the check.<p>
+  *
+  * The user principals a resource declares with {@link UserPrincipal} 
+  * annotations are added to those its Policy determines.<p>
+  *
+  * The {@link FinalRule} objects declared on each resource in the store are
+  * applied just before the doFinal() of its Policy, on the integer flags,
+  * so a rule costs no Policy call and no MutablePermissionSet.<p>
+  *
   * This class is based on the Mediator design pattern 
   * (ref: Design Patterns: Elements of Reusable Object Oriented Software)
   *
@@ -51,9 +70,17 @@ import org.apache.log4j.Logger;
  class PolicyMediator {
  
      private List<String> userTypes;
+     private List<String> principals;
+     private PermissionSet storePerms;
      private LinkedList<String> resourceList;
      private LinkedList<Policy> policyList;
+     private List<Object> instances;
+     private List<String> checkPath;
+     private FinalRule[][] finalRules;
      private AuthorizationContext ctx;
+     private PolicyStore store;
+     private final boolean async;
+     private Map<String, PermissionSet> principalAcls;
  
      private static Logger log = Logger.getLogger("com.hippikon.security.PolicyMediator");
  
@@ -74,20 +101,54 @@ import org.apache.log4j.Logger;
       * interface
       *
       */
-     @SuppressWarnings("unchecked")
 	PolicyMediator(List<Object> resources, AuthorizationContext ctx)
-     throws PolicyStoreLoadException, ProtectedResourceNamingException {
+     throws PolicyStoreLoadException, ProtectedResourceNamingException, IllegalAuthorizationException {
+         this(resources, ctx, null);
+     }
+
+     /**
+      * Creates a new PolicyMediator instance that reuses the store, Policy
+      * objects and user principals memoized by an AuthorizationSession
+      *
+      * @param session the AuthorizationSession the request is made in, or
+      * null if there is none
+      */
+	PolicyMediator(List<Object> resources, AuthorizationContext ctx, AuthorizationSession session)
+     throws PolicyStoreLoadException, ProtectedResourceNamingException, IllegalAuthorizationException {
+         this(resources, ctx, session, false);
+     }
+
+     /**
+      * Creates a new PolicyMediator instance
+      *
+      * @param async true if the check is asynchronous, in which case the
+      * Policy objects are created but not called
+      *
+      * @exception AuthorizationTimeoutException thrown if the circuit 
+      * breaker of a Policy class is open
+      */
+     @SuppressWarnings("unchecked")
+	PolicyMediator(List<Object> resources, AuthorizationContext ctx, AuthorizationSession session, boolean async)
+     throws PolicyStoreLoadException, ProtectedResourceNamingException, IllegalAuthorizationException {
  
          this.ctx = ctx;
+         this.async = async;
          this.resourceList = new LinkedList<String>();
          this.userTypes = new ArrayList<String>();
          this.policyList = new LinkedList<Policy>();
+         this.instances = new ArrayList<Object>();
+ 
+         // the store gives both the ACLs and the Policy bindings, so one
+         // store instance is used for the whole request
+         //
+         this.store = (session != null) ? session.getPolicyStore() : PolicyStoreFactory.getPolicyStore(ctx);
  
          // we need to iterate through the ProtectedResource list to 
          // determine the user principals for the context - at the same time we
          // build the LinkedList of ProtectedResource names for efficiency
          //
          boolean foundClass = false;
+         List<String> admitted = new ArrayList<String>(2);
          for (Iterator<Object> i = resources.iterator(); i.hasNext();) {
  
              // DJL - we need to extend this here.  What we will do is to check the resources iterator
@@ -100,6 +161,7 @@ import org.apache.log4j.Logger;
              if (obj instanceof Class) {
                  String classResName = new ProtectedResourceWrapper((Class)obj).getResourceName();
                  resourceList.add(classResName);
+                 instances.add(null);
                  foundClass = true;
                  continue;
              }
@@ -111,23 +173,61 @@ import org.apache.log4j.Logger;
              // if we are a Configurable object, use the getName() method, else use
              // we use getResourceName() on the class itself
              //
+             // Policy bindings always use the class resource name, and a
+             // ResourceDescriptor gives its own
+             //
+             String policyName = null;
              String resourceName = null;
+             if (obj instanceof ResourceDescriptor) {
+                 policyName = ((ResourceDescriptor)obj).getName();
+             } else {
+                 policyName = new ProtectedResourceWrapper(obj).getResourceName();
+             }
              if (obj instanceof Configurable) {
                  resourceName = ((Configurable)obj).getName();
              } else {
-                 resourceName = new ProtectedResourceWrapper(obj).getResourceName();
+                 resourceName = policyName;
              }
              resourceList.add(resourceName);
+             instances.add(obj);
  
              // get the correct Policy for the ProtectedResource and maintain 
-             // a reference so we can invoke the doFinalPermissions(perms) of each
+             // a reference so we can invoke the doFinalPermissions(perms) of each. 
+             // A session creates one Policy per resource instance and asks it 
+             // for its user principals once
              //
-             Policy policy = PolicyBroker.getPolicy(obj, ctx);
-             policyList.add(policy);
- 
-             logPolicyLoadEvent(policy, resourceName);
+             Policy policy = (session != null) ? session.getPolicy(obj) : null;
+             PrincipalExtractor extractor = PrincipalExtractor.forResource(obj);
+             if (async) {
+                 policy = store.getPolicyFactory(policyName).newPolicy(obj, ctx);
+                 PolicyGuard.checkClosed(policy, admitted);
+                 logPolicyLoadEvent(policy, resourceName);
+                 policyList.add(policy);
+                 extractor.extract(obj, ctx, userTypes);
+                 continue;
+             }
+             List<String> resourceUserTypes = null;
+             if (policy == null) {
+                 policy = store.getPolicyFactory(policyName).newPolicy(obj, ctx);
+                 PolicyGuard.checkClosed(policy, admitted);
+                 logPolicyLoadEvent(policy, resourceName);
+                 resourceUserTypes = policy.determineUserPrincipals();
+                 PolicyGuard.completed(policy);
+                 if (session != null) {
  
-             List<String> resourceUserTypes = policy.determineUserPrincipals();
+                     // the session remembers the declared principals 
+                     // together with those of the Policy
+                     //
+                     if (!extractor.isEmpty()) {
+                         resourceUserTypes = new ArrayList<String>(resourceUserTypes);
+                         extractor.extract(obj, ctx, resourceUserTypes);
+                     }
+                     session.bind(obj, policy, resourceUserTypes);
+                 }
+             } else {
+                 resourceUserTypes = session.getUserPrincipals(obj);
+             }
+             policyList.add(policy);
  
              // only add unique user types - may make sense to use a Map here
              //
@@ -137,12 +237,72 @@ import org.apache.log4j.Logger;
                      userTypes.add(userType);
                  }
              }
+
+             // and the principals declared with UserPrincipal annotations,
+             // which need no list of their own outside a session
+             //
+             if (session == null) {
+                 extractor.extract(obj, ctx, userTypes);
+             }
  
          } // end resource loop
  
-         // now set the complete list for the context of the user
+         // now set the complete list for the context of the user. An 
+         // asynchronous check leaves the context alone, as other checks may
+         // be under way in it
          //
-         ctx.setUserPrincipals(userTypes);
+         if (!async) {
+             ctx.setUserPrincipals(userTypes);
+         }
+     }
+
+
+     /**
+      * Returns a future completed when the Policy objects of an asynchronous
+      * check have all determined their user principals. The lookups are 
+      * started together and their results combined in resource path order.
+      *
+      * @param deadline the System.nanoTime() by which each lookup must 
+      * complete, or 0 for no deadline
+      */
+     CompletableFuture<Void> determineUserPrincipalsAsync(Executor executor, long deadline) {
+         final List<CompletableFuture<List<String>>> lookups = new ArrayList<CompletableFuture<List<String>>>();
+         for (Policy policy : policyList) {
+             PolicyGuard.Callback callback = PolicyGuard.callback(executor, policy);
+             CompletableFuture<List<String>> lookup;
+             try {
+                 lookup = policy.determineUserPrincipalsAsync(callback);
+             } catch (RejectedExecutionException e) {
+                 lookup = new CompletableFuture<List<String>>();
+                 lookup.completeExceptionally(e);
+             }
+             lookups.add(PolicyGuard.within(lookup, callback, policy, "determineUserPrincipals", deadline));
+         }
+         return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()]))
+             .thenApply(new Function<Void, Void>() {
+                 public Void apply(Void done) {
+                     for (CompletableFuture<List<String>> lookup : lookups) {
+                         for (String userType : lookup.join()) {
+                             if (!userTypes.contains(userType)) {
+                                 userTypes.add(userType);
+                             }
+                         }
+                     }
+                     return null;
+                 }
+             });
+     }
+
+
+     /**
+      * Gives each Policy the resource path of the check, which may differ 
+      * from the path last set on the AuthorizationContext
+      */
+     void setResourcePath(List<String> resourcePath) {
+         this.checkPath = resourcePath;
+         for (Policy policy : policyList) {
+             policy.setResourcePath(resourcePath);
+         }
      }
  
  
@@ -151,7 +311,7 @@ import org.apache.log4j.Logger;
       * as a List object in the constructor. These user types represent
       * all possible ownership entries in the PolicyStore.
       */
-     private List<String> getUserTypes() {
+     List<String> getUserTypes() {
          return userTypes;
      }
  
@@ -169,20 +329,34 @@ import org.apache.log4j.Logger;
       * match all entries defined in the PolicyStore for each ProtectedResource, but
       * those that <b>may</b> be defined. Just because a user has been assigned the 
       * role of 'manager' does not mean that principal must be defined in the 
-      * PolicyStore for each ProtectedResource.
+      * PolicyStore for each ProtectedResource.<p>
       *
+      * The list is built once and shared by the PolicyStore lookup and
+      * the {@link AccessStatistics} for the authorization request.
       */
      List<String> getPrincipals() {
-         List<String> principals = new ArrayList<String>();
-         principals.addAll(getUserTypes());
-         principals.addAll(ctx.getUserRoles());
-         if (getUserTypes().size() != 0) {
-             principals.addAll(ctx.getUserGroups());
+         if (principals == null) {
+             List<String> list = new ArrayList<String>();
+             list.addAll(getUserTypes());
+             list.addAll(ctx.getUserRoles());
+             if (getUserTypes().size() != 0) {
+                 list.addAll(ctx.getUserGroups());
+             }
+             principals = list;
          }
          return principals;
      }
  
  
+     /**
+      * Returns the PolicyStore the Policy objects for the request were
+      * created from. The permissions must be found in the same store.
+      */
+     PolicyStore getPolicyStore() {
+         return store;
+     }
+ 
+ 
      /**
       * Returns a LinkedList of String objects representing the resource path
       * created from the list of ProtectedResource objects passed into the 
@@ -205,15 +379,26 @@ import org.apache.log4j.Logger;
       * and policy implementions need to know how the permission set coming into the doFinal()
       * methods were determined (for instance, implement a different permissions inheritance
       * algorithm).
+      * @param finalRules the rules declared on each resource along the path, or null if
+      * none has any
       *
       * @exception IllegalAuthorizationException thrown if the PermissionSet returned from
       * any of the doFinal() methods is null
       */
-     PermissionSet invokePolicyFinals(PermissionSet perms, Map<String, PermissionSet> principalAcls)
+     PermissionSet invokePolicyFinals(PermissionSet perms, Map<String, PermissionSet> principalAcls, 
+                                      FinalRule[][] finalRules)
      throws IllegalAuthorizationException {
  
-         PermissionSet newPerms = new DefaultPermissionSet(perms);
+         this.storePerms = perms;
+         this.principalAcls = principalAcls;
+         this.finalRules = finalRules;
+ 
+         // an asynchronous check invokes the finals itself
+         //
+         if (async) return perms;
+         PermissionSet newPerms = applyClassRules(new DefaultPermissionSet(perms));
          for (ListIterator<Policy> i = policyList.listIterator(policyList.size()); i.hasPrevious();) {
+             newPerms = applyFinalRules(i.previousIndex(), newPerms);
              Policy policy = (Policy)i.previous();
  
              // make sure we make the user principals across the scope of the authorization request
@@ -232,6 +417,85 @@ import org.apache.log4j.Logger;
          return newPerms;
      }
  
+     /**
+      * Returns a future of the PermissionSet of an asynchronous check once
+      * the doFinalAsync() methods of the policies have been chained in the 
+      * same reverse order as {@link #invokePolicyFinals(PermissionSet, Map, FinalRule[][])}.
+      * The PolicyStore must have been asked for the permissions first.
+      *
+      * @param deadline the System.nanoTime() by which each doFinal must 
+      * complete, or 0 for no deadline
+      */
+     CompletableFuture<PermissionSet> invokePolicyFinalsAsync(final Executor executor, final long deadline) {
+         CompletableFuture<PermissionSet> result = 
+             CompletableFuture.completedFuture(applyClassRules(new DefaultPermissionSet(storePerms)));
+         for (ListIterator<Policy> i = policyList.listIterator(policyList.size()); i.hasPrevious();) {
+             final int index = i.previousIndex();
+             final Policy policy = i.previous();
+             result = result.thenCompose(new Function<PermissionSet, CompletionStage<PermissionSet>>() {
+                 public CompletionStage<PermissionSet> apply(PermissionSet perms) {
+                     if (PolicyGuard.isExpired(deadline)) {
+                         throw new CompletionException(PolicyGuard.expired(policy, "doFinal"));
+                     }
+                     policy.setUserPrincipals(getUserTypes());
+                     policy.setPrincipalAcls(principalAcls);
+                     PolicyGuard.Callback callback = PolicyGuard.callback(executor, policy);
+                     CompletableFuture<PermissionSet> finalPerms;
+                     try {
+                         finalPerms = policy.doFinalAsync(applyFinalRules(index, perms), callback);
+                     } catch (RejectedExecutionException e) {
+                         finalPerms = new CompletableFuture<PermissionSet>();
+                         finalPerms.completeExceptionally(e);
+                     }
+                     return PolicyGuard.within(finalPerms, callback, policy, "doFinal", deadline);
+                 }
+             }).thenApply(new Function<PermissionSet, PermissionSet>() {
+                 public PermissionSet apply(PermissionSet perms) {
+                     if (perms == null) {
+                         throw new CompletionException(new IllegalAuthorizationException("NULL PermissionSet returned from doFinal " +
+                                                       "invoked on Policy class: " + policy.getClass().getName()));
+                     }
+                     return perms;
+                 }
+             });
+         }
+         return result;
+     }
+
+     /**
+      * Applies the rules of the entries at the end of the path that have no
+      * Policy, being given as a Class, last to first
+      */
+     private PermissionSet applyClassRules(PermissionSet perms) {
+         if (finalRules == null) return perms;
+         for (int i = finalRules.length - 1; i >= policyList.size(); i--) {
+             perms = applyFinalRules(i, perms);
+         }
+         return perms;
+     }
+
+     /**
+      * Applies the rules declared on the resource at a position in the 
+      * path, creating a new PermissionSet only if a rule takes a flag away
+      */
+     private PermissionSet applyFinalRules(int index, PermissionSet perms) {
+         if (finalRules == null || finalRules[index] == null) return perms;
+         int flags = DefaultPermissionSet.getFlags(perms);
+         Object res = (index < instances.size()) ? instances.get(index) : null;
+         List<String> path = (checkPath != null) ? checkPath : ctx.getResourcePath();
+         int ruled = FinalRule.apply(finalRules[index], flags, res, ctx, path);
+         return (ruled == flags) ? perms : new DefaultPermissionSet(ruled);
+     }
+
+     /**
+      * Returns the PermissionSet found in the PolicyStore before the 
+      * doFinal() methods were invoked, or null if the policy finals have
+      * not been invoked yet
+      */
+     PermissionSet getStorePermissions() {
+         return storePerms;
+     }
+ 
      /**
       * Logs a debug event when a policy is loaded for a ProtectedResource
       */
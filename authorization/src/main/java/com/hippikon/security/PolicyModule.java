@@ -0,0 +1,143 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+ 
+ /**
+  * One document of an {@link XMLPolicyStore}: the store document itself, or
+  * a module it includes with an <code>&lt;include file="..."/&gt;</code>
+  * element. A module is a policy-store document whose top-level resources 
+  * are added to the including store, so a large store may be split into 
+  * one module per top-level resource or per team.<p>
+  *
+  * Each module keeps the checksum of the bytes it was built from, so that 
+  * a reload only rebuilds the modules that have changed.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class PolicyModule {
+ 
+     private final String name;
+     private final long checksum;
+     private final String applicationName;
+     private final Map<String, ResourceAclList> resources;
+     private final List<String> includes;
+     private final Map<String, List<String>> roles;
+     private final List<String> principals;
+     private final SubtreeLoader loader;
+ 
+     /**
+      * Creates a new PolicyModule
+      *
+      * @param name the file name of the module in its PolicySource
+      * @param checksum the checksum of the module's bytes
+      * @param applicationName the application-name of the document
+      * @param resources the top-level resources defined by the module, 
+      * keyed by name in document order
+      * @param includes the file names of the modules the document includes
+      * @param roles the role and group inheritance the document declares
+      * @param principals the principal names used by the module, or null if
+      * it is loaded lazily
+      * @param loader builds the module's subtrees if it is loaded lazily, 
+      * otherwise null
+      */
+     PolicyModule(String name, long checksum, String applicationName, Map<String, ResourceAclList> resources, 
+                  List<String> includes, Map<String, List<String>> roles, List<String> principals, 
+                  SubtreeLoader loader) {
+         this.name = name;
+         this.checksum = checksum;
+         this.applicationName = applicationName;
+         this.resources = resources;
+         this.includes = includes;
+         this.roles = roles;
+         this.principals = principals;
+         this.loader = loader;
+     }
+ 
+     /**
+      * Returns the checksum of the remaining bytes of a buffer, without
+      * changing its position
+      */
+     static long checksum(ByteBuffer buffer) {
+         CRC32 crc = new CRC32();
+         crc.update(buffer.duplicate());
+         return crc.getValue();
+     }
+ 
+     String getName() {
+         return name;
+     }
+ 
+     long getChecksum() {
+         return checksum;
+     }
+ 
+     String getApplicationName() {
+         return applicationName;
+     }
+ 
+     Map<String, ResourceAclList> getResources() {
+         return resources;
+     }
+ 
+     List<String> getIncludes() {
+         return includes;
+     }
+ 
+     Map<String, List<String>> getRoles() {
+         return roles;
+     }
+
+     /**
+      * Returns the principal names used by the module
+      */
+     List<String> getDefinedPrincipals() {
+         if (loader != null) return loader.getDefinedPrincipals();
+         return (principals == null) ? Collections.<String>emptyList() : principals;
+     }
+ 
+     /**
+      * Returns the estimated bytes kept by the module in addition to its 
+      * resource tree
+      */
+     long estimateBytes() {
+         long bytes = PolicyStoreFootprint.hashMapBytes(resources.size());
+         if (loader != null) return bytes + loader.estimateBytes();
+         return bytes + PolicyStoreFootprint.arrayListBytes(principals.size());
+     }
+ 
+     public String toString() {
+         return name;
+     }
+ 
+ }
@@ -0,0 +1,117 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * The ProtectedResource name->{@link PolicyFactory} bindings of a product,
+  * built once from its resource policy mappings when its {@link PolicyStore}
+  * is loaded.<p>
+  *
+  * A registry belongs to one PolicyStore instance and is replaced with it, 
+  * so a flushed store is reloaded with the policy mappings that were current
+  * at the time.<p>
+  *
+  * If the mappings could not be loaded the registry keeps the error, and
+  * every Policy lookup fails with it, as it did before the mappings were 
+  * part of the store.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class PolicyRegistry {
+ 
+     /**
+      * A registry without any bindings, where every resource uses the
+      * {@link DefaultObjectPolicy}
+      */
+     static final PolicyRegistry EMPTY = new PolicyRegistry(new HashMap<String, PolicyFactory>(), 
+                                                            Collections.<String>emptyList(), null);
+ 
+     private final Map<String, PolicyFactory> factories;
+     private final List<String> unknownKeys;
+     private final String loadError;
+ 
+     /**
+      * Creates a new PolicyRegistry
+      *
+      * @param factories the PolicyFactory objects keyed by ProtectedResource name
+      * @param unknownKeys the mapping keys that are not a resource policy binding
+      * @param loadError the reason the mappings could not be loaded, or null
+      */
+     PolicyRegistry(Map<String, PolicyFactory> factories, List<String> unknownKeys, String loadError) {
+         this.factories = factories;
+         this.unknownKeys = unknownKeys;
+         this.loadError = loadError;
+     }
+ 
+     /**
+      * Returns a registry that fails every lookup with an error
+      */
+     static PolicyRegistry failed(String loadError) {
+         return new PolicyRegistry(new HashMap<String, PolicyFactory>(), Collections.<String>emptyList(), loadError);
+     }
+ 
+     /**
+      * Returns the PolicyFactory bound to a ProtectedResource name, or the
+      * default factory if none is bound
+      *
+      * @exception PolicyStoreLoadException thrown if the mappings could not
+      * be loaded
+      */
+     PolicyFactory getPolicyFactory(String resourceName) throws PolicyStoreLoadException {
+         if (loadError != null) throw new PolicyStoreLoadException(loadError);
+         PolicyFactory factory = factories.get(resourceName);
+         return (factory != null) ? factory : PolicyFactory.DEFAULT;
+     }
+ 
+     /**
+      * Returns all bindings keyed by ProtectedResource name
+      */
+     Map<String, PolicyFactory> getFactories() {
+         return Collections.unmodifiableMap(factories);
+     }
+ 
+     /**
+      * Returns the mapping keys that are not a resource policy binding
+      */
+     List<String> getUnknownKeys() {
+         return unknownKeys;
+     }
+ 
+     /**
+      * Returns the reason the mappings could not be loaded, or null
+      */
+     String getLoadError() {
+         return loadError;
+     }
+ 
+ }
@@ -0,0 +1,242 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * A PolicySource provides the contents of the named files that make up 
+  * the policy configuration of each product, such as 
+  * <code>hippikon.product-id.001.policy-store.xml</code> and
+  * <code>hippikon.product-id.001.resource.policies</code>.<p>
+  *
+  * Sources are read as streams, so policy stores may be packaged inside 
+  * jars, kept in a database or built in memory without being extracted
+  * to the filesystem. The following implementations are provided:<p>
+  *
+  * <ul>
+  * <li>{@link ClasspathPolicySource} - the classpath, including jars (the default)
+  * <li>{@link DirectoryPolicySource} - a filesystem directory, memory mapping large files
+  * <li>{@link InMemoryPolicySource} - byte arrays held in memory
+  * <li>{@link JdbcPolicySource} - rows of a database table
+  * </ul><p>
+  *
+  * The default source is used by the {@link PermissionsFactory}. If the
+  * <code>hippikon.policy-source.directory</code> system property is set a 
+  * DirectoryPolicySource for that directory is the default, otherwise the
+  * classpath is used.<p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * PolicySource.setDefault(new JdbcPolicySource(dataSource, "policy_files", "name", "content"));
+  * </pre>
+  *
+  * Implementations must be safe for use by multiple threads.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public abstract class PolicySource {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.PolicySource");
+ 
+     private static volatile PolicySource defaultSource;
+ 
+     /**
+      * Opens a named file for reading. The caller must close the stream.
+      *
+      * @param name the file name (e.g., hippikon.product-id.001.policy-store.xml)
+      *
+      * @exception java.io.FileNotFoundException thrown if the source has no
+      * file of that name
+      * @exception IOException thrown if the file could not be opened
+      */
+     public abstract InputStream open(String name) throws IOException;
+ 
+     /**
+      * Returns the names of the files in the source that start with a prefix
+      *
+      * @param prefix the start of the names to return (e.g., hippikon.product-id.)
+      *
+      * @exception IOException thrown if the source could not be searched
+      */
+     public abstract List<String> list(String prefix) throws IOException;
+ 
+     /**
+      * Returns a description of a named file for log and error messages
+      */
+     public String getDescription(String name) {
+         return name;
+     }
+ 
+     /**
+      * Returns the complete contents of a named file. The buffer is read-only
+      * and may be backed by memory outside of the heap.
+      *
+      * @param name the file name
+      *
+      * @exception java.io.FileNotFoundException thrown if the source has no
+      * file of that name
+      * @exception IOException thrown if the file could not be read
+      */
+     public ByteBuffer read(String name) throws IOException {
+         InputStream in = open(name);
+         try {
+             return ByteBuffer.wrap(readFully(in)).asReadOnlyBuffer();
+         } finally {
+             in.close();
+         }
+     }
+ 
+     /**
+      * Reads a number of named files at once. This is useful for sources
+      * where each read waits on a network, such as a database.
+      *
+      * @param names the file names to read
+      * @param threads the maximum number of files read at once
+      *
+      * @return the file contents keyed by name, in the order of the names 
+      *
+      * @exception IOException thrown if any file could not be read
+      */
+     public Map<String, ByteBuffer> readAll(Collection<String> names, int threads) throws IOException {
+         Map<String, ByteBuffer> contents = new LinkedHashMap<String, ByteBuffer>();
+         if (names.isEmpty()) return contents;
+         if (threads < 2 || names.size() == 1) {
+             for (String name : names) {
+                 contents.put(name, read(name));
+             }
+             return contents;
+         }
+ 
+         ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, names.size()), 
+                                                                 new FetchThreadFactory());
+         try {
+             List<Future<ByteBuffer>> futures = new ArrayList<Future<ByteBuffer>>();
+             for (final String name : names) {
+                 futures.add(executor.submit(new Callable<ByteBuffer>() {
+                     public ByteBuffer call() throws IOException {
+                         return read(name);
+                     }
+                 }));
+             }
+             int i = 0;
+             for (String name : names) {
+                 try {
+                     contents.put(name, futures.get(i++).get());
+                 } catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                     throw new IOException("Interrupted reading " + getDescription(name));
+                 } catch (ExecutionException e) {
+                     Throwable cause = e.getCause();
+                     if (cause instanceof IOException) throw (IOException)cause;
+                     throw new IOException("Could not read " + getDescription(name) + ": " + cause);
+                 }
+             }
+             return contents;
+         } finally {
+             executor.shutdownNow();
+         }
+     }
+ 
+     /**
+      * Returns the source used to load product policy stores and 
+      * resource policy mappings
+      */
+     public static PolicySource getDefault() {
+         PolicySource source = defaultSource;
+         if (source == null) {
+             synchronized(PolicySource.class) {
+                 if (defaultSource == null) {
+                     String dir = System.getProperty("hippikon.policy-source.directory");
+                     defaultSource = (dir != null) ? new DirectoryPolicySource(new File(dir)) 
+                                                   : new ClasspathPolicySource();
+                     log.info("Loading policy stores from " + defaultSource);
+                 }
+                 source = defaultSource;
+             }
+         }
+         return source;
+     }
+ 
+     /**
+      * Sets the source used to load product policy stores and resource 
+      * policy mappings. Any cached policy stores are flushed, so the
+      * next request for each product is loaded from the new source.
+      *
+      * @param source the new source, or null to restore the default
+      */
+     public static void setDefault(PolicySource source) {
+         synchronized(PolicySource.class) {
+             defaultSource = source;
+         }
+         PolicyStoreFactory.flushCache();
+     }
+ 
+     /**
+      * Reads a stream to its end
+      */
+     static byte[] readFully(InputStream in) throws IOException {
+         ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+         byte[] buf = new byte[8192];
+         int n;
+         while ((n = in.read(buf)) != -1) {
+             out.write(buf, 0, n);
+         }
+         return out.toByteArray();
+     }
+ 
+     private static class FetchThreadFactory implements ThreadFactory {
+         private final AtomicInteger count = new AtomicInteger();
+ 
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-policy-fetch-" + count.incrementAndGet());
+             thread.setDaemon(true);
+             return thread;
+         }
+     }
+ 
+ }
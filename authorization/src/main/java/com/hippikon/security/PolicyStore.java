@@ -91,6 +91,37 @@ import java.util.*;
       * @return a List of sorted String objects
       */
      public abstract List<String> getDefinedPrincipals();
+
+ 
+     /**
+      * Returns the factory that creates the {@link Policy} bound to a 
+      * ProtectedResource name. Stores that carry no resource policy mappings
+      * use the {@link DefaultObjectPolicy} for every resource.
+      *
+      * @param resourceName the ProtectedResource name
+      *
+      * @exception PolicyStoreLoadException thrown if the resource policy 
+      * mappings for the store could not be loaded
+      */
+     PolicyFactory getPolicyFactory(String resourceName) throws PolicyStoreLoadException {
+         return PolicyFactory.DEFAULT;
+     }
+
+
+     /**
+      * Applies the {@link FinalRule} objects declared along a resource path
+      * to the permissions of a check made on a Class, which has no 
+      * PolicyMediator. Stores that declare no rules return the permissions
+      * unchanged.
+      *
+      * @param resourcePath the ProtectedResource names of the check
+      * @param perms the permissions found for the path
+      * @param ctx the AuthorizationContext of the check
+      */
+     PermissionSet applyFinalRules(LinkedList<String> resourcePath, PermissionSet perms, AuthorizationContext ctx)
+     throws ResourceNotFoundException {
+         return perms;
+     }
  
  
  }
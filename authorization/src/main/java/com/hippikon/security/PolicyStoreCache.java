@@ -0,0 +1,532 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * The cache of loaded product {@link PolicyStore} objects used by the
+  * {@link PolicyStoreFactory}, bounded by the number of stores and by their 
+  * estimated retained heap.<p>
+  *
+  * When a newly loaded store takes the cache over either bound, stores are
+  * evicted until it is back within them. The store evicted is the least 
+  * recently used (LRU) or the least frequently used (LFU), where use counts
+  * are halved at every eviction so that past traffic fades. Pinned products 
+  * are never evicted, so hot products do not pay for a reload because of a 
+  * burst of rarely used ones.<p>
+  *
+  * Requests for a cached store do not lock. A product being loaded only 
+  * holds up the requests for that product.<p>
+  *
+  * A cached store split into modules may be reloaded with 
+  * {@link #reload(String)}, which rebuilds only the modules that have 
+  * changed. A store whose own document has changed is loaded again in 
+  * full.<p>
+  *
+  * {@link PolicyStoreListener} objects are told of every store that is 
+  * reloaded, edited, evicted or flushed, with a {@link PolicyStoreDiff} of
+  * the changed ACLs where it is known.<p>
+  *
+  * The retained heap of each store is estimated with a 
+  * {@link PolicyStoreFootprint} when it is loaded. The footprints and cache
+  * statistics are available from {@link #getInstance()} and through JMX as 
+  * <code>com.hippikon.security:type=PolicyStoreCache</code>. The following
+  * system properties may be set at deploy time:<p>
+  *
+  * <pre>
+  * hippikon.store-cache.max-entries  maximum stores held (default 1000)
+  * hippikon.store-cache.max-bytes    maximum estimated bytes (default a quarter of the maximum heap)
+  * hippikon.store-cache.policy       lru or lfu (default lru)
+  * hippikon.store-cache.pinned       comma separated productIDs never evicted
+  * hippikon.store-cache.jmx          (default true)
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class PolicyStoreCache implements PolicyStoreCacheMBean {
+ 
+     private static final String OBJECT_NAME = "com.hippikon.security:type=PolicyStoreCache";
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.PolicyStoreCache");
+ 
+     private static final PolicyStoreCache instance = new PolicyStoreCache();
+ 
+     // register the MBean once the singleton is available
+     //
+     static {
+         if (Boolean.valueOf(System.getProperty("hippikon.store-cache.jmx", "true")).booleanValue()) {
+             try {
+                 MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                 ObjectName name = new ObjectName(OBJECT_NAME);
+                 if (!server.isRegistered(name)) {
+                     server.registerMBean(instance, name);
+                 }
+             } catch (Exception e) {
+                 log.warn("Could not register PolicyStoreCache MBean: " + e.getMessage());
+             }
+         }
+     }
+ 
+     private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+     private final Set<String> pinned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+     private final Object evictionLock = new Object();
+     private final List<PolicyStoreListener> listeners = new CopyOnWriteArrayList<PolicyStoreListener>();
+ 
+     private volatile int maxEntries;
+     private volatile long maxBytes;
+     private volatile boolean lfu;
+ 
+     private final AtomicLong retainedBytes = new AtomicLong();
+     private final AtomicLong hits = new AtomicLong();
+     private final AtomicLong misses = new AtomicLong();
+     private final AtomicLong evictions = new AtomicLong();
+ 
+     private PolicyStoreCache() {
+         this.maxEntries = Integer.getInteger("hippikon.store-cache.max-entries", 1000).intValue();
+         this.maxBytes = Long.getLong("hippikon.store-cache.max-bytes", Runtime.getRuntime().maxMemory() / 4).longValue();
+         this.lfu = "lfu".equalsIgnoreCase(System.getProperty("hippikon.store-cache.policy", "lru"));
+         String pins = System.getProperty("hippikon.store-cache.pinned");
+         if (pins != null) {
+             for (String productID : pins.split(",")) {
+                 if (productID.trim().length() > 0) pin(productID.trim());
+             }
+         }
+     }
+ 
+     /**
+      * Returns the PolicyStoreCache
+      */
+     public static PolicyStoreCache getInstance() {
+         return instance;
+     }
+ 
+     /**
+      * Returns the store for a product, loading it if it is not cached
+      *
+      * @param productID the product being accessed
+      *
+      * @exception PolicyStoreLoadException thrown if the store could not
+      * be loaded
+      */
+     PolicyStore get(final String productID) throws PolicyStoreLoadException {
+         String key = PolicyStoreFactory.getCacheKey(productID);
+         Entry entry = entries.get(key);
+         if (entry != null) {
+             hits.incrementAndGet();
+             return entry.get();
+         }
+ 
+         Entry created = new Entry(key, new FutureTask<PolicyStore>(new Callable<PolicyStore>() {
+             public PolicyStore call() throws PolicyStoreLoadException {
+                 return PolicyStoreFactory.loadPolicyStore(productID);
+             }
+         }));
+         entry = entries.putIfAbsent(key, created);
+         if (entry != null) {
+             // another request is loading the product
+             //
+             hits.incrementAndGet();
+             return entry.get();
+         }
+ 
+         misses.incrementAndGet();
+         created.task.run();
+         try {
+             PolicyStore store = created.get();
+             loaded(created, store);
+             return store;
+         } catch (PolicyStoreLoadException e) {
+             // failed loads are not cached, so the next request tries again
+             //
+             entries.remove(key, created);
+             throw e;
+         }
+     }
+ 
+     /**
+      * Places a loaded store in the cache, replacing any cached store for 
+      * the product
+      *
+      * @param productID the product the store was loaded for
+      * @param store the loaded store
+      */
+     void put(String productID, PolicyStore store) {
+         if (replace(productID, store) != null) fireChanged(PolicyStoreFactory.getCacheKey(productID), null);
+     }
+
+     // places a store in the cache, returning the store it replaced
+     //
+     private PolicyStore replace(String productID, final PolicyStore store) {
+         String key = PolicyStoreFactory.getCacheKey(productID);
+         Entry entry = new Entry(key, new FutureTask<PolicyStore>(new Callable<PolicyStore>() {
+             public PolicyStore call() {
+                 return store;
+             }
+         }));
+         entry.task.run();
+         Entry old = entries.put(key, entry);
+         if (old != null) retainedBytes.addAndGet(-old.bytes);
+         loaded(entry, store);
+         return (old != null && old.task.isDone()) ? old.peek() : null;
+     }
+ 
+     /**
+      * Reloads a product's store if it is cached. Only the modules whose 
+      * contents have changed are rebuilt and swapped into the cached store,
+      * unless the store document itself has changed or the store is not 
+      * made of modules, in which case the store is loaded again in full 
+      * and replaces the cached one. Requests continue to be served by the 
+      * current store while the changes are loaded.
+      *
+      * @param productID the product to reload
+      * @return a description of what was reloaded
+      */
+     public String reload(String productID) {
+         String key = PolicyStoreFactory.getCacheKey(productID);
+         Entry entry = entries.get(key);
+         if (entry == null) return "Policy store " + key + " is not cached";
+         try {
+             PolicyStore store = entry.get();
+             // a store changed through a PolicyStoreEditor is not made of its
+             // modules any more, and is loaded again with its journal
+             //
+             if (store instanceof XMLPolicyStore && ((XMLPolicyStore)store).getVersion() == 0 && 
+                 !((XMLPolicyStore)store).isDocumentChanged()) {
+                 Map<String, ResourceAclList> before = ((XMLPolicyStore)store).getResourceAcls();
+                 RoleHierarchy beforeRoles = ((XMLPolicyStore)store).getRoleHierarchy();
+                 List<String> changed = ((XMLPolicyStore)store).reloadModules();
+                 if (changed.isEmpty()) return "Policy store " + key + " is unchanged";
+                 refreshed(entry, store);
+                 fireChanged(key, before, beforeRoles, (XMLPolicyStore)store);
+                 return "Reloaded modules " + changed + " of policy store " + key;
+             }
+             // the journal is locked while the store is replaced, so that no
+             // change is applied to the old store after the new one is loaded
+             //
+             PolicyJournal journal = PolicyJournal.forProduct(productID);
+             PolicyStore reloaded;
+             if (journal == null) {
+                 reloaded = PolicyStoreFactory.loadPolicyStore(productID);
+                 replace(productID, reloaded);
+             } else {
+                 synchronized(journal) {
+                     reloaded = PolicyStoreFactory.loadPolicyStore(productID);
+                     replace(productID, reloaded);
+                 }
+             }
+             if (store instanceof DefaultPolicyStore && reloaded instanceof DefaultPolicyStore) {
+                 fireChanged(key, ((DefaultPolicyStore)store).getResourceAcls(), ((DefaultPolicyStore)store).getRoleHierarchy(), 
+                             (DefaultPolicyStore)reloaded);
+             } else {
+                 fireChanged(key, null);
+             }
+             log.info("Reloaded policy store " + key);
+             return "Reloaded policy store " + key;
+         } catch (PolicyStoreLoadException e) {
+             log.error("Could not reload policy store " + key, e);
+             return "Could not reload policy store " + key + ": " + e.getMessage();
+         }
+     }
+
+     // estimates a store again once its modules have been swapped
+     //
+     private void refreshed(Entry entry, PolicyStore store) {
+         synchronized(evictionLock) {
+             long old = entry.bytes;
+             entry.footprint = PolicyStoreFootprint.estimate(entry.key, store);
+             entry.bytes = entry.footprint.getRetainedBytes();
+             if (entries.get(entry.key) == entry) retainedBytes.addAndGet(entry.bytes - old);
+         }
+         evict(entry);
+     }
+
+     // accounts for a newly loaded store and evicts others if the cache 
+     // is now out of bounds
+     //
+     private void loaded(Entry entry, PolicyStore store) {
+         entry.footprint = PolicyStoreFootprint.estimate(entry.key, store);
+         entry.bytes = entry.footprint.getRetainedBytes();
+         if (entries.get(entry.key) != entry) return;
+         retainedBytes.addAndGet(entry.bytes);
+         log.debug("Cached " + entry.footprint);
+         evict(entry);
+     }
+ 
+     private void evict(Entry keep) {
+         synchronized(evictionLock) {
+             while (entries.size() > maxEntries || retainedBytes.get() > maxBytes) {
+                 Entry victim = null;
+                 for (Entry entry : entries.values()) {
+                     if (entry == keep || entry.footprint == null || pinned.contains(entry.key)) continue;
+                     if (victim == null || (lfu ? entry.uses < victim.uses : entry.lastAccess < victim.lastAccess)) {
+                         victim = entry;
+                     }
+                 }
+                 if (victim == null) {
+                     log.warn("Policy store cache is over its bounds with " + entries.size() + " stores and " + 
+                              (retainedBytes.get() / 1024) + " KB, but no store can be evicted");
+                     break;
+                 }
+                 if (entries.remove(victim.key, victim)) {
+                     retainedBytes.addAndGet(-victim.bytes);
+                     evictions.incrementAndGet();
+                     log.info("Evicted policy store " + victim.footprint);
+                     fireChanged(victim.key, null);
+                 }
+             }
+             if (lfu) {
+                 for (Entry entry : entries.values()) {
+                     entry.uses >>= 1;
+                 }
+             }
+         }
+     }
+ 
+     /**
+      * Returns the footprints of the cached stores, largest first
+      */
+     public List<PolicyStoreFootprint> getFootprints() {
+         List<PolicyStoreFootprint> footprints = new ArrayList<PolicyStoreFootprint>();
+         for (Entry entry : entries.values()) {
+             if (entry.footprint != null) footprints.add(entry.footprint);
+         }
+         Collections.sort(footprints, new Comparator<PolicyStoreFootprint>() {
+             public int compare(PolicyStoreFootprint a, PolicyStoreFootprint b) {
+                 return Long.compare(b.getRetainedBytes(), a.getRetainedBytes());
+             }
+         });
+         return footprints;
+     }
+ 
+     /**
+      * Sets the maximum number of stores kept in the cache
+      */
+     public void setMaxEntries(int maxEntries) {
+         this.maxEntries = maxEntries;
+         evict(null);
+     }
+ 
+     /**
+      * Sets the maximum estimated bytes of all stores in the cache
+      */
+     public void setMaxBytes(long maxBytes) {
+         this.maxBytes = maxBytes;
+         evict(null);
+     }
+ 
+     /**
+      * Sets the eviction policy
+      *
+      * @param policy LRU or LFU
+      */
+     public void setEvictionPolicy(String policy) {
+         if (!"lru".equalsIgnoreCase(policy) && !"lfu".equalsIgnoreCase(policy)) 
+             throw new IllegalArgumentException("Unknown eviction policy: " + policy);
+         this.lfu = "lfu".equalsIgnoreCase(policy);
+     }
+ 
+     public int getEntryCount() {
+         return entries.size();
+     }
+ 
+     public int getMaxEntries() {
+         return maxEntries;
+     }
+ 
+     public long getRetainedBytes() {
+         return retainedBytes.get();
+     }
+ 
+     public long getMaxBytes() {
+         return maxBytes;
+     }
+ 
+     public String getEvictionPolicy() {
+         return lfu ? "LFU" : "LRU";
+     }
+ 
+     public long getHitCount() {
+         return hits.get();
+     }
+ 
+     public long getMissCount() {
+         return misses.get();
+     }
+ 
+     public long getEvictionCount() {
+         return evictions.get();
+     }
+ 
+     public String[] getStoreFootprints() {
+         return PolicyStoreFootprint.toStrings(getFootprints());
+     }
+ 
+     public String[] getPinnedProducts() {
+         List<String> list = new ArrayList<String>(pinned);
+         Collections.sort(list);
+         return list.toArray(new String[list.size()]);
+     }
+ 
+     public void pin(String productID) {
+         pinned.add(PolicyStoreFactory.getCacheKey(productID));
+     }
+ 
+     public void unpin(String productID) {
+         pinned.remove(PolicyStoreFactory.getCacheKey(productID));
+     }
+ 
+     public void flush() {
+         PolicyStoreFactory.flushCache();
+     }
+ 
+     /**
+      * Removes every store. Called by the PolicyStoreFactory.
+      */
+     void clear() {
+         synchronized(evictionLock) {
+             entries.clear();
+             retainedBytes.set(0);
+         }
+         fireChanged(null, null);
+     }
+
+     /**
+      * Adds a listener told of every change to a cached store
+      */
+     public void addPolicyStoreListener(PolicyStoreListener listener) {
+         listeners.add(listener);
+     }
+
+     public void removePolicyStoreListener(PolicyStoreListener listener) {
+         listeners.remove(listener);
+     }
+
+     /**
+      * Tells the listeners that a product's store has changed from an 
+      * earlier version of its resources and role hierarchy. The diff is 
+      * only worked out if there are listeners.
+      */
+     void fireChanged(String key, Map<String, ResourceAclList> before, RoleHierarchy beforeRoles, DefaultPolicyStore after) {
+         if (listeners.isEmpty()) return;
+         PolicyStoreDiff diff = PolicyStoreDiff.compare(before, beforeRoles, after.getResourceAcls(), after.getRoleHierarchy());
+         log.debug("Policy store " + key + " changed: " + diff);
+         fireChanged(key, diff);
+     }
+
+     /**
+      * Tells the listeners that the ACLs of a product's store have been 
+      * edited in place, so that decisions the edit does not affect may be
+      * kept
+      *
+      * @param after the top-level resources published by the edit
+      * @param modifications the modification count of the store with the 
+      * edit
+      */
+     void fireEdited(String key, Map<String, ResourceAclList> before, Map<String, ResourceAclList> after, 
+                     DefaultPolicyStore store, int modifications) {
+         if (listeners.isEmpty()) return;
+         PolicyStoreDiff diff = PolicyStoreDiff.compare(before, store.getRoleHierarchy(), after, store.getRoleHierarchy())
+                                               .forEdit(store, modifications);
+         log.debug("Policy store " + key + " edited: " + diff);
+         fireChanged(key, diff);
+     }
+ 
+     private void fireChanged(String key, PolicyStoreDiff diff) {
+         for (PolicyStoreListener listener : listeners) {
+             try {
+                 listener.policyStoreChanged(key, diff);
+             } catch (RuntimeException e) {
+                 log.error("PolicyStoreListener failed for policy store " + key, e);
+             }
+         }
+     }
+ 
+     private static class Entry {
+         final String key;
+         final FutureTask<PolicyStore> task;
+         volatile PolicyStoreFootprint footprint;
+         volatile long bytes;
+ 
+         // updated without locking; a lost update only makes the
+         // eviction choice slightly less exact
+         //
+         volatile long lastAccess;
+         volatile int uses;
+ 
+         Entry(String key, FutureTask<PolicyStore> task) {
+             this.key = key;
+             this.task = task;
+         }
+ 
+         // the loaded store, or null if the load failed
+         //
+         PolicyStore peek() {
+             try {
+                 return task.get();
+             } catch (Exception e) {
+                 return null;
+             }
+         }
+
+         PolicyStore get() throws PolicyStoreLoadException {
+             PolicyStore store;
+             try {
+                 store = task.get();
+             } catch (InterruptedException e) {
+                 Thread.currentThread().interrupt();
+                 throw new PolicyStoreLoadException("Interrupted while waiting for policy store " + key);
+             } catch (ExecutionException e) {
+                 Throwable cause = e.getCause();
+                 if (cause instanceof PolicyStoreLoadException) throw (PolicyStoreLoadException)cause;
+                 throw new PolicyStoreLoadException("Could not load policy store " + key + ": " + cause);
+             }
+             lastAccess = System.nanoTime();
+             uses++;
+             return store;
+         }
+     }
+ 
+ }
@@ -0,0 +1,113 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * The JMX management interface of the {@link PolicyStoreCache}. The MBean
+  * is registered with the platform MBeanServer under the name
+  * <code>com.hippikon.security:type=PolicyStoreCache</code>.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public interface PolicyStoreCacheMBean {
+ 
+     /**
+      * Returns the number of stores in the cache
+      */
+     public int getEntryCount();
+ 
+     /**
+      * Returns the maximum number of stores kept in the cache
+      */
+     public int getMaxEntries();
+ 
+     /**
+      * Returns the estimated bytes retained by all stores in the cache
+      */
+     public long getRetainedBytes();
+ 
+     /**
+      * Returns the maximum estimated bytes of all stores in the cache
+      */
+     public long getMaxBytes();
+ 
+     /**
+      * Returns the eviction policy, LRU or LFU
+      */
+     public String getEvictionPolicy();
+ 
+     /**
+      * Returns the number of requests that found their store in the cache
+      */
+     public long getHitCount();
+ 
+     /**
+      * Returns the number of requests that loaded their store
+      */
+     public long getMissCount();
+ 
+     /**
+      * Returns the number of stores evicted to stay within the bounds
+      */
+     public long getEvictionCount();
+ 
+     /**
+      * Returns the footprint of each cached store, largest first
+      */
+     public String[] getStoreFootprints();
+ 
+     /**
+      * Returns the pinned productIDs
+      */
+     public String[] getPinnedProducts();
+ 
+     /**
+      * Keeps a product's store in the cache once loaded. Pinned stores are
+      * never evicted, but are flushed by {@link #flush()}.
+      */
+     public void pin(String productID);
+ 
+     /**
+      * Allows a product's store to be evicted again
+      */
+     public void unpin(String productID);
+ 
+     /**
+      * Reloads a product's store if it is cached, rebuilding only the 
+      * modules that have changed where the store is made of modules
+      *
+      * @return a description of what was reloaded
+      */
+     public String reload(String productID);
+
+     /**
+      * Removes every store, so that each is loaded again on its next request
+      */
+     public void flush();
+ 
+ }
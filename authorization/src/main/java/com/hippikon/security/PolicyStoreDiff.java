@@ -0,0 +1,382 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+ 
+ /**
+  * The difference between two versions of a product policy store, as the 
+  * exact set of (resource path, principal) pairs whose effective ACL 
+  * changes.<p>
+  *
+  * The effective ACL of a principal on a resource is the one defined on the
+  * resource itself or, failing that, on its nearest ancestor, since a child
+  * entry overrides its parents' when permissions are evaluated. A change to
+  * an ACL therefore changes every nested resource that does not define its
+  * own, and those pairs are listed too. Resources added or removed are 
+  * listed for every principal with an effective ACL on them.<p>
+  *
+  * A change to the role and group inheritance of the store may change the
+  * permissions of any request holding an affected principal. It is reported
+  * by {@link #isRoleHierarchyChanged()} rather than as pairs.<p>
+  *
+  * Subtrees held by both versions as the same nodes, as the unchanged 
+  * modules of a reloaded store or the untouched paths of an edited store 
+  * are, are skipped unless an inherited ACL has changed above them.<p>
+  *
+  * A diff is passed to each {@link PolicyStoreListener} when a cached store
+  * changes, so that only the affected decisions need be discarded. It may
+  * also be run on two store files to review the reach of a change before 
+  * it is deployed:<p>
+  *
+  * <pre>
+  * java com.hippikon.security.PolicyStoreDiff before=hippikon.product-id.001.policy-store.xml after=new.xml [limit=100]
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class PolicyStoreDiff {
+ 
+     /**
+      * A change to the effective ACL of a principal on one resource
+      */
+     public static final class Change {
+         private final List<String> resourcePath;
+         private final String principal;
+         private final String before;
+         private final String after;
+ 
+         Change(List<String> resourcePath, String principal, String before, String after) {
+             this.resourcePath = resourcePath;
+             this.principal = principal;
+             this.before = before;
+             this.after = after;
+         }
+ 
+         /**
+          * Returns the names of the resources from the top-level resource
+          */
+         public List<String> getResourcePath() {
+             return resourcePath;
+         }
+ 
+         public String getPrincipal() {
+             return principal;
+         }
+ 
+         /**
+          * Returns the effective ACL before the change in the irwcd format,
+          * or null if none applied or the resource did not exist
+          */
+         public String getBefore() {
+             return before;
+         }
+ 
+         /**
+          * Returns the effective ACL after the change in the irwcd format, 
+          * or null if none applies or the resource no longer exists
+          */
+         public String getAfter() {
+             return after;
+         }
+ 
+         public String toString() {
+             StringBuffer sb = new StringBuffer();
+             for (int i = 0; i < resourcePath.size(); i++) {
+                 if (i > 0) sb.append("::");
+                 sb.append(resourcePath.get(i));
+             }
+             sb.append(' ').append(principal).append(' ');
+             sb.append((before == null) ? "none" : before).append(" -> ").append((after == null) ? "none" : after);
+             return sb.toString();
+         }
+     }
+ 
+     private static final Map<String, ACL> NONE = Collections.emptyMap();
+ 
+     private final List<Change> changes;
+     private final RoleHierarchy before;
+     private final RoleHierarchy after;
+ 
+     // the store changed in place by an edit, and its modification count 
+     // with the edit, or null if the diff is not of an edit
+     //
+     private final DefaultPolicyStore edited;
+     private final int modifications;
+ 
+     // the changed principals of each resource path, built when first needed
+     //
+     private volatile Map<List<String>, Set<String>> index;
+ 
+     private PolicyStoreDiff(List<Change> changes, RoleHierarchy before, RoleHierarchy after, 
+                             DefaultPolicyStore edited, int modifications) {
+         this.changes = Collections.unmodifiableList(changes);
+         this.before = before;
+         this.after = after;
+         this.edited = edited;
+         this.modifications = modifications;
+     }
+ 
+     /**
+      * Compares two versions of a store
+      */
+     static PolicyStoreDiff compare(DefaultPolicyStore before, DefaultPolicyStore after) {
+         return compare(before.getResourceAcls(), before.getRoleHierarchy(), after.getResourceAcls(), after.getRoleHierarchy());
+     }
+
+     /**
+      * Compares two versions of a store's top-level resources and role 
+      * hierarchy
+      */
+     static PolicyStoreDiff compare(Map<String, ResourceAclList> before, RoleHierarchy beforeRoles, 
+                                    Map<String, ResourceAclList> after, RoleHierarchy afterRoles) {
+         List<Change> changes = new ArrayList<Change>();
+         Set<String> names = new TreeSet<String>(before.keySet());
+         names.addAll(after.keySet());
+         List<String> path = new ArrayList<String>();
+         for (String name : names) {
+             path.add(name);
+             compare(path, before.get(name), after.get(name), NONE, NONE, changes);
+             path.remove(0);
+         }
+         return new PolicyStoreDiff(changes, beforeRoles, afterRoles, null, 0);
+     }
+ 
+     /**
+      * Returns this diff as that of an edit which changed only the ACLs of
+      * a store in place, taking it from one modification count to the next
+      *
+      * @param store the store edited
+      * @param modifications the modification count of the store with the 
+      * edit
+      */
+     PolicyStoreDiff forEdit(DefaultPolicyStore store, int modifications) {
+         return new PolicyStoreDiff(changes, before, after, store, modifications);
+     }
+ 
+     /**
+      * Returns the store changed in place by an edit of its ACLs only, or 
+      * null if the diff is of a reload, which may have changed more than 
+      * the ACLs
+      */
+     DefaultPolicyStore getEditedStore() {
+         return edited;
+     }
+ 
+     /**
+      * Returns the modification count of the edited store with the edit
+      */
+     int getModificationCount() {
+         return modifications;
+     }
+ 
+     /**
+      * Compares two policy store files
+      *
+      * @exception PolicyStoreLoadException thrown if either could not be 
+      * loaded
+      */
+     public static PolicyStoreDiff compare(File before, File after) throws PolicyStoreLoadException {
+         return compare(new XMLPolicyStore(before), new XMLPolicyStore(after));
+     }
+ 
+     // compares the nodes at a path, either of which may be missing, given
+     // the effective ACLs of their parents
+     //
+     private static void compare(List<String> path, ResourceAclList a, ResourceAclList b, 
+                                 Map<String, ACL> inheritedA, Map<String, ACL> inheritedB, List<Change> changes) {
+         if (a == b && (a == null || inheritedA.equals(inheritedB))) return;
+         Map<String, ACL> effectiveA = effective(a, inheritedA);
+         Map<String, ACL> effectiveB = effective(b, inheritedB);
+ 
+         Set<String> principals = new LinkedHashSet<String>(effectiveA.keySet());
+         principals.addAll(effectiveB.keySet());
+         List<String> resourcePath = null;
+         for (String principal : principals) {
+             ACL before = effectiveA.get(principal);
+             ACL after = effectiveB.get(principal);
+             if (before == null ? after == null : before.equals(after)) continue;
+             if (resourcePath == null) resourcePath = Collections.unmodifiableList(new ArrayList<String>(path));
+             changes.add(new Change(resourcePath, principal, toString(before), toString(after)));
+         }
+ 
+         Map<String, ResourceAclList> childrenA = (a == null) ? Collections.<String, ResourceAclList>emptyMap() : a.getNestedList();
+         Map<String, ResourceAclList> childrenB = (b == null) ? Collections.<String, ResourceAclList>emptyMap() : b.getNestedList();
+         Set<String> names = new LinkedHashSet<String>(childrenA.keySet());
+         names.addAll(childrenB.keySet());
+         for (String name : names) {
+             path.add(name);
+             compare(path, childrenA.get(name), childrenB.get(name), effectiveA, effectiveB, changes);
+             path.remove(path.size() - 1);
+         }
+     }
+ 
+     // the ACLs in effect on a node, none if it does not exist
+     //
+     private static Map<String, ACL> effective(ResourceAclList list, Map<String, ACL> inherited) {
+         if (list == null) return NONE;
+         Collection<ACL> acls = list.getAcls();
+         if (acls.isEmpty()) return inherited;
+         Map<String, ACL> effective = new HashMap<String, ACL>(inherited);
+         for (ACL acl : acls) {
+             effective.put(acl.getName(), acl);
+         }
+         return effective;
+     }
+ 
+     private static String toString(ACL acl) {
+         return (acl == null) ? null : new DefaultPermissionSet(acl.getPermsAsInt()).toString();
+     }
+ 
+     /**
+      * Returns the changed pairs, parents before their nested resources
+      */
+     public List<Change> getChanges() {
+         return changes;
+     }
+ 
+     public boolean isEmpty() {
+         return changes.isEmpty() && !isRoleHierarchyChanged();
+     }
+
+     /**
+      * Returns true if the role and group inheritance declared by the store
+      * has changed
+      */
+     public boolean isRoleHierarchyChanged() {
+         return !before.equals(after);
+     }
+ 
+     /**
+      * Returns the principals with a changed ACL on any resource
+      */
+     public Set<String> getAffectedPrincipals() {
+         Set<String> principals = new TreeSet<String>();
+         for (Change change : changes) {
+             principals.add(change.getPrincipal());
+         }
+         return principals;
+     }
+ 
+     /**
+      * Returns true if a decision on a resource for a set of principals may
+      * have changed, that is if any of the principals, or any principal they
+      * inherit, has a changed ACL on the resource. Every decision may have
+      * changed if the inheritance itself has.
+      *
+      * @param resourcePath the names of the resources from the top-level 
+      * resource
+      * @param principals the user and role names of the request
+      */
+     public boolean affects(List<String> resourcePath, Collection<String> principals) {
+         if (isRoleHierarchyChanged()) return true;
+         Map<List<String>, Set<String>> index = this.index;
+         if (index == null) {
+             index = new HashMap<List<String>, Set<String>>();
+             for (Change change : changes) {
+                 Set<String> changed = index.get(change.getResourcePath());
+                 if (changed == null) {
+                     changed = new HashSet<String>();
+                     index.put(change.getResourcePath(), changed);
+                 }
+                 changed.add(change.getPrincipal());
+             }
+             this.index = index;
+         }
+         Set<String> changed = index.get(resourcePath);
+         if (changed == null) return false;
+         for (String principal : after.expand(new ArrayList<String>(principals))) {
+             if (changed.contains(principal)) return true;
+         }
+         return false;
+     }
+ 
+     public String toString() {
+         return changes.size() + " changed ACLs for " + getAffectedPrincipals().size() + " principals" + 
+                (isRoleHierarchyChanged() ? ", role inheritance changed" : "");
+     }
+ 
+     /**
+      * Prints the changes between two policy store files
+      */
+     public static void main(String[] args) throws PolicyStoreLoadException {
+ 
+         File before = null;
+         File after = null;
+         int limit = 100;
+ 
+         for (int i = 0; i < args.length; i++) {
+             int eq = args[i].indexOf('=');
+             if (eq < 0) {
+                 System.err.println("Illegal argument: " + args[i]);
+                 System.exit(1);
+             }
+             String name = args[i].substring(0, eq);
+             String value = args[i].substring(eq + 1);
+             if (name.equals("before")) before = new File(value);
+             else if (name.equals("after")) after = new File(value);
+             else if (name.equals("limit")) limit = Integer.parseInt(value);
+             else {
+                 System.err.println("Unknown argument: " + name);
+                 System.exit(1);
+             }
+         }
+ 
+         if (before == null || after == null) {
+             System.err.println("Usage: PolicyStoreDiff before=file after=file [limit=n]");
+             System.exit(1);
+         }
+ 
+         PolicyStoreDiff diff = compare(before, after);
+         System.out.println(diff);
+         System.out.println("Principals: " + diff.getAffectedPrincipals());
+         if (diff.isRoleHierarchyChanged()) {
+             System.out.println("Role inheritance: " + diff.before + " -> " + diff.after);
+         }
+         int shown = 0;
+         for (Change change : diff.getChanges()) {
+             if (shown++ == limit) {
+                 System.out.println("... " + (diff.getChanges().size() - limit) + " more");
+                 break;
+             }
+             System.out.println("  " + change);
+         }
+         System.exit(0);
+     }
+ 
+ }
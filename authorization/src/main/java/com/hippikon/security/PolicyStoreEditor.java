@@ -0,0 +1,151 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.IOException;
+ 
+ /**
+  * Changes the policy store of a product while it is in use, with the 
+  * changes the PermsNavigator makes to a store file: adding and removing 
+  * protected resources and principal ACLs. See {@link PolicyChange}.<p>
+  *
+  * Each call applies a batch of changes as one new version of the store. 
+  * The batch is first appended to the product's {@link PolicyJournal} and 
+  * synced to disk, so a change that has been applied survives a restart, 
+  * and is then published to the cached store. Authorization requests are 
+  * not held up by an edit and see either all of a batch or none of it.<p>
+  *
+  * Editors that read a store before changing it should pass the version 
+  * they read to {@link #apply(long, PolicyChange[])}, which fails rather 
+  * than overwrite a change made by someone else in the meantime:<p>
+  *
+  * <pre>
+  * PolicyStoreEditor editor = PolicyStoreEditor.forProduct("001");
+  * long version = editor.getVersion();
+  * ...
+  * editor.apply(version, PolicyChange.setAcl(Arrays.asList("PurchaseOrder", "Note"), "teamleader", "-rw--"));
+  * </pre>
+  *
+  * The <code>hippikon.journal.directory</code> system property must name 
+  * the directory the journals are kept in.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class PolicyStoreEditor {
+ 
+     private final String productID;
+     private final PolicyJournal journal;
+ 
+     private PolicyStoreEditor(String productID, PolicyJournal journal) {
+         this.productID = productID;
+         this.journal = journal;
+     }
+ 
+     /**
+      * Returns an editor for a product's policy store
+      *
+      * @param productID the product to edit
+      * @exception IllegalStateException thrown if the 
+      * hippikon.journal.directory property is not set
+      */
+     public static PolicyStoreEditor forProduct(String productID) {
+         PolicyJournal journal = PolicyJournal.forProduct(productID);
+         if (journal == null) {
+             throw new IllegalStateException("hippikon.journal.directory must be set to edit policy stores");
+         }
+         return new PolicyStoreEditor(productID, journal);
+     }
+ 
+     /**
+      * Returns the current version of the store, which counts the batches of
+      * changes applied to it
+      *
+      * @exception PolicyStoreLoadException thrown if the store could not be
+      * loaded
+      */
+     public long getVersion() throws PolicyStoreLoadException {
+         return journal.getVersion(getStore());
+     }
+ 
+     /**
+      * Applies a batch of changes to the current version of the store
+      *
+      * @return the new version
+      * @see #apply(long, PolicyChange[])
+      */
+     public long apply(PolicyChange... changes) 
+     throws PolicyStoreLoadException, ResourceNotFoundException, IOException {
+         return apply(-1, changes);
+     }
+ 
+     /**
+      * Applies a batch of changes to the store, in order. Either every 
+      * change is applied or none is.
+      *
+      * @param expectedVersion the version the changes were made against, or
+      * -1 to apply them to whichever version is current
+      * @param changes the changes to apply
+      * @return the new version
+      *
+      * @exception java.util.ConcurrentModificationException thrown if the 
+      * store is no longer at the expected version
+      * @exception ResourceNotFoundException thrown if a change names a 
+      * resource that does not exist
+      * @exception PolicyStoreLoadException thrown if the store could not be
+      * loaded
+      * @exception IOException thrown if the changes could not be journaled,
+      * in which case none is applied
+      */
+     public long apply(long expectedVersion, PolicyChange... changes) 
+     throws PolicyStoreLoadException, ResourceNotFoundException, IOException {
+         return journal.apply(getStore(), expectedVersion, changes);
+     }
+ 
+     /**
+      * Writes the current version of the store as a policy-store document 
+      * and empties the journal. This is done automatically every
+      * hippikon.journal.compact-after changes.
+      *
+      * @exception IOException thrown if the document could not be written
+      */
+     public void compact() throws PolicyStoreLoadException, IOException {
+         journal.compact(getStore());
+     }
+ 
+     // the store is looked up on each call, so an editor follows the store
+     // through a reload
+     //
+     private XMLPolicyStore getStore() throws PolicyStoreLoadException {
+         PolicyStore store = PolicyStoreCache.getInstance().get(productID);
+         if (!(store instanceof XMLPolicyStore)) {
+             throw new PolicyStoreLoadException("Policy store " + productID + " cannot be edited");
+         }
+         return (XMLPolicyStore)store;
+     }
+ 
+ }
@@ -24,9 +24,6 @@
  */
 package com.hippikon.security;
  
-import java.util.HashMap;
-import java.util.Map;
-
 import org.apache.log4j.Logger;
  
  /**
@@ -51,9 +48,11 @@ import org.apache.log4j.Logger;
  
  abstract class PolicyStoreFactory {
  
-     // stores loaded PolicyStore objects
+     // the account overlays laid over the cached stores
      //
-     private static Map<String, PolicyStore> storeCache;
+     private static OverlayCache overlayCache;
+     private static final boolean OVERLAYS_ENABLED = 
+         Boolean.valueOf(System.getProperty("hippikon.overlay.enabled", "true")).booleanValue();
  
      // a thread that sweeps the cache at regular intervals
      //
@@ -65,7 +64,7 @@ import org.apache.log4j.Logger;
      // initialize the cache and sweeper thread
      //
      static {
-         storeCache = new HashMap<String, PolicyStore>();
+         overlayCache = new OverlayCache();
          cacheSweeperThread = new Thread(new CacheSweeper());
          cacheSweeperThread.start();
      }
@@ -84,38 +83,69 @@ import org.apache.log4j.Logger;
      static PolicyStore getPolicyStore(AuthorizationContext ctx) 
      throws PolicyStoreLoadException {
  
-         // we can retrieve the correct policy store using the productID
-         // and accountID from the AuthorizationContext, but for now
-         // we are using a simple policy store for the working prototype
-         // a more robust implementation would take the productID and accountID
-         // as constructor arguments and either load from a db schema or from
-         // an XML file. The factory may also be responsible for keeping the
-         // the PolicyStore object in a cache for efficiency
+         // the product store is shared by all accounts, and an account
+         // with customizations gets a sparse overlay laid over it
          //
-         synchronized(storeCache) {
+         String productID = ctx.getProductID();
+         PolicyStore store = PolicyStoreCache.getInstance().get(productID);
  
-             String productID = ctx.getProductID();
+         String accountID = ctx.getAccountID();
+         if (OVERLAYS_ENABLED && accountID != null && accountID.length() > 0 && store instanceof DefaultPolicyStore) {
+             return overlayCache.get(accountID, productID, (DefaultPolicyStore)store);
+         }
+         return store;
+     }
  
-             if (!(storeCache.containsKey(productID))) {
-                 PolicyStore store = new XMLPolicyStore(productID);
-                 storeCache.put(productID, store);
-                 return store;
-             } else {
-                 return (PolicyStore)storeCache.get(productID);
-             }
+ 
+     /**
+      * Places a loaded PolicyStore in the cache so the first request for
+      * the product does not have to load it. Used by the 
+      * {@link PolicyStorePreloader}.
+      *
+      * @param productID the product the PolicyStore was loaded for
+      * @param store the loaded PolicyStore
+      */
+     static void putPolicyStore(String productID, PolicyStore store) {
+         PolicyStoreCache.getInstance().put(productID, store);
+     }
+
+
+     /**
+      * Loads the PolicyStore for a product. Called by the 
+      * {@link PolicyStoreCache} when the product's store is not cached.
+      *
+      * @param productID the product being accessed
+      */
+     static PolicyStore loadPolicyStore(String productID) throws PolicyStoreLoadException {
+         return new XMLPolicyStore(productID);
+     }
+ 
+ 
+     /**
+      * Returns the key a product is cached under. Product IDs are
+      * zero padded to 3 chars in policy store filenames (e.g., 001), so "1"
+      * and "001" must share one cache entry.
+      */
+     static String getCacheKey(String productID) {
+         if (productID == null || productID.length() >= 3) return productID;
+         StringBuffer sb = new StringBuffer();
+         for (int i = (3 - productID.length()); i > 0; i--) {
+             sb.append("0");
          }
+         sb.append(productID);
+         return sb.toString();
      }
  
  
      /**
       * A callback method for the CacheSweeper to call at regular intervals
-      * This should not be used by other classes.
+      * This should not be used by other classes. The resource policy 
+      * mappings are held by each PolicyStore, so they are flushed with it.
       */
      static void flushCache() {
          log.debug("Flushing cache");
-         synchronized(storeCache) {
-             storeCache.clear();
-         }
+         PolicyStoreCache.getInstance().clear();
+         overlayCache.clear();
      }
  
  }
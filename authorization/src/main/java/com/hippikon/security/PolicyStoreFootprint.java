@@ -0,0 +1,252 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * An estimate of the heap retained by one loaded {@link PolicyStore}.<p>
+  *
+  * The estimate is made by walking the store's resource tree and adding up 
+  * the sizes of its objects as laid out by a 64-bit JVM with compressed 
+  * references. Objects shared between nodes, such as a name used by many 
+  * resources or a subtree shared by identical resources, are counted once. 
+  * Names and ACLs are also shared between loaded products; they are counted
+  * in each store that uses them, so the footprints of several stores add up
+  * to somewhat more than they retain together. It is intended for comparing
+  * stores and bounding caches, not as an exact measurement. The bytes of a 
+  * lazily loaded store are included, though a store copied from a mapped 
+  * file keeps them in a direct buffer rather than on the heap.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class PolicyStoreFootprint {
+ 
+     // object layout of a 64-bit JVM with compressed references
+     //
+     static final int OBJECT_HEADER = 12;
+     static final int ARRAY_HEADER = 16;
+     static final int REFERENCE = 4;
+ 
+     private final String productID;
+     private final int nodes;
+     private final int sharedNodes;
+     private final int acls;
+     private final int strings;
+     private final long treeBytes;
+     private final long stringBytes;
+     private final long loaderBytes;
+ 
+     PolicyStoreFootprint(String productID, int nodes, int sharedNodes, int acls, int strings, 
+                          long treeBytes, long stringBytes, long loaderBytes) {
+         this.productID = productID;
+         this.nodes = nodes;
+         this.sharedNodes = sharedNodes;
+         this.acls = acls;
+         this.strings = strings;
+         this.treeBytes = treeBytes;
+         this.stringBytes = stringBytes;
+         this.loaderBytes = loaderBytes;
+     }
+ 
+     /**
+      * Estimates the footprint of a store. Stores that are not built from
+      * ResourceAclList nodes have an empty footprint.
+      *
+      * @param productID the product the store was loaded for
+      * @param store the store to estimate
+      */
+     static PolicyStoreFootprint estimate(String productID, PolicyStore store) {
+         if (!(store instanceof DefaultPolicyStore)) {
+             return new PolicyStoreFootprint(productID, 0, 0, 0, 0, 0, 0, 0);
+         }
+         DefaultPolicyStore defaultStore = (DefaultPolicyStore)store;
+         Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+         long[] totals = new long[6];
+ 
+         Map<String, ResourceAclList> top = defaultStore.getResourceAcls();
+         totals[3] += hashMapBytes(top.size());
+         for (ResourceAclList list : new ArrayList<ResourceAclList>(top.values())) {
+             walk(list, seen, totals);
+         }
+         return new PolicyStoreFootprint(productID, (int)totals[0], (int)totals[5], (int)totals[1], (int)totals[2], 
+                                         totals[3], totals[4], defaultStore.estimateLoaderBytes());
+     }
+ 
+     // totals: nodes, acls, strings, tree bytes, string bytes, shared nodes
+     //
+     private static void walk(ResourceAclList list, Map<Object, Object> seen, long[] totals) {
+         if (seen.put(list, list) != null) {
+             totals[5]++;
+             return;
+         }
+         totals[0]++;
+         totals[3] += list.estimateShallowBytes();
+         countString(list.getResourceName(), seen, totals);
+ 
+         // a lazily loaded node that has not been built only holds its name
+         //
+         if (!list.isLoaded()) return;
+         for (ACL acl : list.getAcls()) {
+             if (seen.put(acl, acl) == null) {
+                 totals[1]++;
+                 totals[3] += ACL.SHALLOW_BYTES;
+             }
+             countString(acl.getName(), seen, totals);
+         }
+         for (ResourceAclList child : list.getNestedList().values()) {
+             walk(child, seen, totals);
+         }
+     }
+ 
+     private static void countString(String s, Map<Object, Object> seen, long[] totals) {
+         if (s == null || seen.put(s, s) != null) return;
+         totals[2]++;
+         totals[4] += stringBytes(s);
+     }
+ 
+     /**
+      * Rounds a size up to the 8 byte object alignment
+      */
+     static long align(long size) {
+         return (size + 7) & ~7L;
+     }
+ 
+     /**
+      * Returns the size of a String, assuming a compact Latin-1 value
+      */
+     static long stringBytes(String s) {
+         return align(OBJECT_HEADER + REFERENCE + 8) + align(ARRAY_HEADER + s.length());
+     }
+ 
+     /**
+      * Returns the size of a HashMap holding a number of entries, excluding 
+      * the keys and values. A HashMap that was never added to has no table.
+      */
+     static long hashMapBytes(int size) {
+         long bytes = align(OBJECT_HEADER + 3 * REFERENCE + 4 * 4 + 4);
+         if (size == 0) return bytes;
+         int capacity = 16;
+         while (size > capacity * 3 / 4) capacity <<= 1;
+         return bytes + align(ARRAY_HEADER + (long)capacity * REFERENCE) + size * align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+     }
+ 
+     /**
+      * Returns the size of an ArrayList holding a number of elements,
+      * excluding the elements
+      */
+     static long arrayListBytes(int size) {
+         return align(OBJECT_HEADER + 4 + 4 + REFERENCE) + align(ARRAY_HEADER + (long)Math.max(size, 10) * REFERENCE);
+     }
+ 
+     /**
+      * Returns the product the store was loaded for
+      */
+     public String getProductID() {
+         return productID;
+     }
+ 
+     /**
+      * Returns the number of distinct resource nodes in the store
+      */
+     public int getNodeCount() {
+         return nodes;
+     }
+ 
+     /**
+      * Returns the number of further places in the tree that reuse a node
+      * shared with an identical subtree
+      */
+     public int getSharedNodeCount() {
+         return sharedNodes;
+     }
+ 
+     /**
+      * Returns the number of distinct principal ACL objects in the store
+      */
+     public int getAclCount() {
+         return acls;
+     }
+ 
+     /**
+      * Returns the number of distinct String objects held by the nodes and ACLs
+      */
+     public int getStringCount() {
+         return strings;
+     }
+ 
+     /**
+      * Returns the estimated bytes of the resource nodes, their maps and ACLs
+      */
+     public long getTreeBytes() {
+         return treeBytes;
+     }
+ 
+     /**
+      * Returns the estimated bytes of the resource and principal names
+      */
+     public long getStringBytes() {
+         return stringBytes;
+     }
+ 
+     /**
+      * Returns the estimated bytes kept by the loader in addition to the 
+      * resource tree, such as a parsed XML document
+      */
+     public long getLoaderBytes() {
+         return loaderBytes;
+     }
+ 
+     /**
+      * Returns the total estimated bytes retained by the store
+      */
+     public long getRetainedBytes() {
+         return treeBytes + stringBytes + loaderBytes;
+     }
+ 
+     public String toString() {
+         return productID + ": " + nodes + " nodes (" + sharedNodes + " shared), " + acls + " acls, " + strings + " strings, " + 
+                (getRetainedBytes() / 1024) + " KB (tree " + (treeBytes / 1024) + " KB, names " + 
+                (stringBytes / 1024) + " KB, loader " + (loaderBytes / 1024) + " KB)";
+     }
+ 
+     /**
+      * Returns the footprints of a number of stores as Strings
+      */
+     static String[] toStrings(List<PolicyStoreFootprint> footprints) {
+         String[] s = new String[footprints.size()];
+         for (int i = 0; i < s.length; i++) {
+             s[i] = footprints.get(i).toString();
+         }
+         return s;
+     }
+ 
+ }
@@ -0,0 +1,263 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.io.BufferedWriter;
+ import java.io.File;
+ import java.io.FileOutputStream;
+ import java.io.IOException;
+ import java.io.OutputStreamWriter;
+ import java.io.Writer;
+ import java.util.Random;
+ 
+ /**
+  * Generates synthetic, valid <code>policy-store</code> XML documents for
+  * capacity planning and for measuring how the {@link XMLPolicyStore} loader
+  * scales as a store grows.<p>
+  *
+  * The shape of the generated store is controlled by:
+  *
+  * <ul>
+  * <li><b>nodes</b> - the total number of <code>protected-resource</code> nodes
+  * <li><b>fan-out</b> - the number of children of each non-leaf node
+  * <li><b>depth</b> - the maximum depth of each top-level tree
+  * <li><b>principals</b> - the number of distinct principals
+  * <li><b>acl-density</b> - the probability (0.0 - 1.0) that a principal 
+  * has an ACL defined at any one node
+  * <li><b>seed</b> - the random seed, so a store can be regenerated exactly
+  * </ul><p>
+  *
+  * The document is written as a stream, so stores with millions of nodes
+  * may be generated without holding them in memory. Resource names are unique
+  * among siblings, as the PolicyStore requires.<p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * java com.hippikon.security.PolicyStoreGenerator out=hippikon.product-id.900.policy-store.xml nodes=100000 fan-out=8 depth=5
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class PolicyStoreGenerator {
+ 
+     private static final char[] ACL_CHARS = { 'i', 'r', 'w', 'c', 'd' };
+ 
+     private int nodes = 1000;
+     private int fanOut = 5;
+     private int depth = 4;
+     private int principals = 20;
+     private double aclDensity = 0.2;
+     private long seed = 1;
+ 
+     // state used while writing a document
+     //
+     private Random random;
+     private int written;
+ 
+     /**
+      * Creates a new PolicyStoreGenerator with the default shape of 1,000
+      * nodes, a fan-out of 5, a depth of 4, 20 principals and an ACL 
+      * density of 0.2
+      */
+     public PolicyStoreGenerator() {
+     }
+ 
+     /** Sets the total number of protected-resource nodes to generate */
+     public void setNodes(int nodes) {
+         if (nodes < 1) throw new IllegalArgumentException("nodes must be at least 1");
+         this.nodes = nodes;
+     }
+ 
+     /** Sets the number of children of each non-leaf node */
+     public void setFanOut(int fanOut) {
+         if (fanOut < 1) throw new IllegalArgumentException("fan-out must be at least 1");
+         this.fanOut = fanOut;
+     }
+ 
+     /** Sets the maximum depth of each top-level resource tree */
+     public void setDepth(int depth) {
+         if (depth < 1) throw new IllegalArgumentException("depth must be at least 1");
+         this.depth = depth;
+     }
+ 
+     /** Sets the number of distinct principals that ACLs are defined for */
+     public void setPrincipals(int principals) {
+         if (principals < 1) throw new IllegalArgumentException("principals must be at least 1");
+         this.principals = principals;
+     }
+ 
+     /** Sets the probability that a principal has an ACL at any one node */
+     public void setAclDensity(double aclDensity) {
+         if (aclDensity < 0 || aclDensity > 1) throw new IllegalArgumentException("acl-density must be between 0 and 1");
+         this.aclDensity = aclDensity;
+     }
+ 
+     /** Sets the random seed */
+     public void setSeed(long seed) {
+         this.seed = seed;
+     }
+ 
+     /**
+      * Returns the name of a generated principal. The first quarter of the
+      * principals are named as roles and the rest as user principals.
+      */
+     public String getPrincipalName(int i) {
+         return (i < Math.max(1, principals / 4)) ? ("role-" + i) : ("user-" + i);
+     }
+ 
+     /**
+      * Writes a generated policy store to a file
+      *
+      * @return the number of protected-resource nodes written
+      */
+     public int generate(File file) throws IOException {
+         Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 65536);
+         try {
+             return generate(out);
+         } finally {
+             out.close();
+         }
+     }
+ 
+     /**
+      * Writes a generated policy store to a Writer. The Writer is flushed 
+      * but not closed.
+      *
+      * @return the number of protected-resource nodes written
+      */
+     public int generate(Writer out) throws IOException {
+ 
+         this.random = new Random(seed);
+         this.written = 0;
+ 
+         out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+         out.write("<policy-store application-name=\"Generated store: " + nodes + " nodes, fan-out " 
+                   + fanOut + ", depth " + depth + "\">\n");
+ 
+         // keep adding top-level trees until the node budget is spent
+         //
+         for (int top = 0; written < nodes; top++) {
+             writeResource(out, "Resource" + top, 1);
+         }
+ 
+         out.write("</policy-store>\n");
+         out.flush();
+         return written;
+     }
+ 
+     // writes a protected-resource node and recurses depth first
+     // into its children while the node budget allows
+     //
+     private void writeResource(Writer out, String name, int level) throws IOException {
+ 
+         written++;
+         indent(out, level);
+         out.write("<protected-resource name=\"");
+         out.write(name);
+         out.write("\">\n");
+ 
+         for (int p = 0; p < principals; p++) {
+             if (random.nextDouble() >= aclDensity) continue;
+             indent(out, level + 1);
+             out.write("<principal type=\"");
+             out.write(getPrincipalName(p).startsWith("role-") ? "role" : "user");
+             out.write("\" name=\"");
+             out.write(getPrincipalName(p));
+             out.write("\" acl=\"");
+             out.write(randomAcl());
+             out.write("\"/>\n");
+         }
+ 
+         if (level < depth) {
+             for (int c = 0; c < fanOut && written < nodes; c++) {
+                 writeResource(out, name + "_" + c, level + 1);
+             }
+         }
+ 
+         indent(out, level);
+         out.write("</protected-resource>\n");
+     }
+ 
+     private String randomAcl() {
+         char[] acl = new char[5];
+         int bits = random.nextInt(32);
+         for (int i = 0; i < 5; i++) {
+             acl[i] = ((bits & (1 << (4 - i))) != 0) ? ACL_CHARS[i] : '-';
+         }
+         return new String(acl);
+     }
+ 
+     private static void indent(Writer out, int level) throws IOException {
+         for (int i = 0; i < level; i++) {
+             out.write("    ");
+         }
+     }
+ 
+     /**
+      * Generates a policy store from the command line. Arguments are given
+      * as name=value pairs: out, nodes, fan-out, depth, principals, 
+      * acl-density and seed.
+      */
+     public static void main(String[] args) throws IOException {
+ 
+         PolicyStoreGenerator generator = new PolicyStoreGenerator();
+         File out = null;
+ 
+         for (int i = 0; i < args.length; i++) {
+             int eq = args[i].indexOf('=');
+             if (eq < 0) {
+                 System.err.println("Illegal argument: " + args[i]);
+                 System.exit(1);
+             }
+             String name = args[i].substring(0, eq);
+             String value = args[i].substring(eq + 1);
+             if (name.equals("out")) out = new File(value);
+             else if (name.equals("nodes")) generator.setNodes(Integer.parseInt(value));
+             else if (name.equals("fan-out")) generator.setFanOut(Integer.parseInt(value));
+             else if (name.equals("depth")) generator.setDepth(Integer.parseInt(value));
+             else if (name.equals("principals")) generator.setPrincipals(Integer.parseInt(value));
+             else if (name.equals("acl-density")) generator.setAclDensity(Double.parseDouble(value));
+             else if (name.equals("seed")) generator.setSeed(Long.parseLong(value));
+             else {
+                 System.err.println("Unknown argument: " + name);
+                 System.exit(1);
+             }
+         }
+ 
+         if (out == null) {
+             System.err.println("Usage: PolicyStoreGenerator out=file [nodes=n] [fan-out=n] [depth=n] "
+                                + "[principals=n] [acl-density=d] [seed=n]");
+             System.exit(1);
+         }
+ 
+         int written = generator.generate(out);
+         System.out.println("Wrote " + written + " protected-resource nodes to " + out);
+     }
+ 
+ }
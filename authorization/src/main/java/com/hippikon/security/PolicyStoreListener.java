@@ -0,0 +1,53 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * Notified by the {@link PolicyStoreCache} when the permissions of a 
+  * cached product store may have changed, so that anything derived from 
+  * them, such as cached decisions, can be brought up to date.<p>
+  *
+  * Listeners are called on the thread that changed the store, after the 
+  * change is visible to new requests, and must not block.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public interface PolicyStoreListener {
+ 
+     /**
+      * Called when a product's store has been reloaded, edited, evicted or
+      * flushed
+      *
+      * @param productID the product whose store changed, zero padded as in
+      * the store filename, or null if every store was flushed
+      * @param diff the ACLs that changed, or null if they are not known, in
+      * which case any permission of the product may have changed
+      */
+     public void policyStoreChanged(String productID, PolicyStoreDiff diff);
+ 
+ }
@@ -0,0 +1,540 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import com.hippikon.io.ByteBufferInputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+ 
+ /**
+  * Loads and validates every product {@link PolicyStore} and resource policy
+  * mapping at application startup, and places them in the factory caches
+  * before any traffic arrives.<p>
+  *
+  * Without preloading, the first authorization request for each product 
+  * parses the policy store XML while holding the PolicyStoreFactory lock, 
+  * and a misconfigured store or policy class is only found by the first 
+  * real request.<p>
+  *
+  * The preloader finds every <code>hippikon.product-id.*.policy-store.xml</code>
+  * file in a {@link PolicySource}, by default the same source the 
+  * PermissionsFactory loads from, together with the matching 
+  * <code>.resource.policies</code> file. Products 
+  * are loaded in parallel on a bounded thread pool, and the store document 
+  * and the modules it includes are scanned again for:<p>
+  *
+  * <ul>
+  * <li>protected-resource names that are missing or not unique among siblings
+  * <li>principal entries without a name, or with an acl that is not of the 
+  * form [i-][r-][w-][c-][d-]
+  * <li>Policy classes that cannot be loaded, do not implement {@link Policy}
+  * or lack a public (Object, AuthorizationContext) constructor
+  * </ul><p>
+  *
+  * Every store that loads is cached, whether or not it has problems, so that
+  * preloading never changes the decisions made. The problems are logged 
+  * and returned in a {@link Report}.<p>
+  *
+  * The following system properties configure {@link #preload()}:<p>
+  *
+  * <pre>
+  * hippikon.preload.directory     directory to load from instead of the default source
+  * hippikon.preload.threads       loader threads (default: available processors)
+  * hippikon.preload.fail-on-error true to throw if any problem is found
+  * </pre><p>
+  *
+  * <b>Example:</b><p>
+  *
+  * <pre>
+  * // in a ServletContextListener or application main()
+  * PolicyStorePreloader.preload();
+  * </pre>
+  *
+  * The class may also be run from the command line to validate a directory
+  * of policy stores, exiting with a non-zero status if any problem is found.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public class PolicyStorePreloader {
+ 
+     private static final String POLICY_STORE_PREFIX = "hippikon.product-id.";
+     private static final String POLICY_STORE_EXT = ".policy-store.xml";
+     private static final String RESOURCE_POLICY_EXT = ".resource.policies";
+ 
+     private static final Pattern ACL_PATTERN = Pattern.compile("[i-][r-][w-][c-][d-]");
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.PolicyStorePreloader");
+ 
+     private PolicySource source;
+     private int threads;
+     private boolean failOnError;
+     private boolean populateCaches;
+ 
+     /**
+      * Creates a new PolicyStorePreloader that loads from the default 
+      * {@link PolicySource} with one thread per available processor and 
+      * populates the factory caches
+      */
+     public PolicyStorePreloader() {
+         this.source = PolicySource.getDefault();
+         this.threads = Runtime.getRuntime().availableProcessors();
+         this.populateCaches = true;
+     }
+ 
+     /**
+      * Sets the source to load policy stores from
+      */
+     public void setSource(PolicySource source) {
+         if (source == null) throw new IllegalArgumentException("NULL PolicySource passed to PolicyStorePreloader");
+         this.source = source;
+     }
+ 
+     /**
+      * Sets a directory to load policy stores from
+      */
+     public void setDirectory(File directory) {
+         setSource(new DirectoryPolicySource(directory));
+     }
+ 
+     /**
+      * Sets the maximum number of products loaded at once
+      */
+     public void setThreads(int threads) {
+         if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+         this.threads = threads;
+     }
+ 
+     /**
+      * Sets whether {@link #run()} throws a PolicyStoreLoadException if any
+      * problem is found
+      */
+     public void setFailOnError(boolean failOnError) {
+         this.failOnError = failOnError;
+     }
+ 
+     /**
+      * Sets whether loaded stores and policy mappings are placed in the 
+      * factory caches. Set to false to only validate.
+      */
+     public void setPopulateCaches(boolean populateCaches) {
+         this.populateCaches = populateCaches;
+     }
+ 
+     /**
+      * Preloads all product stores using the hippikon.preload system 
+      * properties
+      *
+      * @exception PolicyStoreLoadException thrown if hippikon.preload.fail-on-error
+      * is true and a problem was found
+      */
+     public static Report preload() throws PolicyStoreLoadException {
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         String dir = System.getProperty("hippikon.preload.directory");
+         if (dir != null) preloader.setDirectory(new File(dir));
+         String threads = System.getProperty("hippikon.preload.threads");
+         if (threads != null) preloader.setThreads(Integer.parseInt(threads));
+         preloader.setFailOnError(Boolean.getBoolean("hippikon.preload.fail-on-error"));
+         return preloader.run();
+     }
+ 
+     /**
+      * Finds, loads and validates all product stores
+      *
+      * @exception PolicyStoreLoadException thrown if the stores could not be 
+      * searched for, or if fail-on-error is set and a problem was found
+      */
+     public Report run() throws PolicyStoreLoadException {
+ 
+         long start = System.currentTimeMillis();
+         List<ProductFiles> products = findProducts();
+         Report report = new Report();
+         if (products.isEmpty()) {
+             log.warn("No policy stores found to preload");
+             return report;
+         }
+ 
+         ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, products.size()), 
+                                                                 new PreloadThreadFactory());
+         try {
+             List<Future<ProductResult>> futures = new ArrayList<Future<ProductResult>>();
+             for (final ProductFiles product : products) {
+                 futures.add(executor.submit(new Callable<ProductResult>() {
+                     public ProductResult call() {
+                         return load(product);
+                     }
+                 }));
+             }
+             for (Future<ProductResult> future : futures) {
+                 ProductResult result;
+                 try {
+                     result = future.get();
+                 } catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                     throw new PolicyStoreLoadException("Interrupted while preloading policy stores");
+                 } catch (Exception e) {
+                     throw new PolicyStoreLoadException("Preloading policy stores failed: " + e.getMessage());
+                 }
+                 report.add(result);
+                 if (populateCaches) {
+                     if (result.store != null) 
+                         PolicyStoreFactory.putPolicyStore(result.productID, result.store);
+                 }
+             }
+         } finally {
+             executor.shutdownNow();
+         }
+ 
+         report.elapsedMillis = System.currentTimeMillis() - start;
+         for (String problem : report.getProblems()) {
+             log.error(problem);
+         }
+         log.info("Preloaded " + report.getProducts().size() + " policy stores in " + 
+                  report.elapsedMillis + " ms with " + report.getProblems().size() + " problems");
+ 
+         if (failOnError && !report.isValid()) {
+             throw new PolicyStoreLoadException(report.getProblems().size() + 
+                                                " problems found preloading policy stores: " + 
+                                                report.getProblems());
+         }
+         return report;
+     }
+ 
+     // finds the policy store and resource policy files for each product
+     //
+     private List<ProductFiles> findProducts() throws PolicyStoreLoadException {
+         TreeMap<String, ProductFiles> products = new TreeMap<String, ProductFiles>();
+         List<String> names;
+         try {
+             names = source.list(POLICY_STORE_PREFIX);
+         } catch (IOException e) {
+             throw new PolicyStoreLoadException("Could not search " + source + " for policy stores: " + e.getMessage());
+         }
+         for (String name : names) {
+             String productID;
+             boolean isStore;
+             if (name.endsWith(POLICY_STORE_EXT)) {
+                 productID = name.substring(POLICY_STORE_PREFIX.length(), name.length() - POLICY_STORE_EXT.length());
+                 isStore = true;
+             } else if (name.endsWith(RESOURCE_POLICY_EXT)) {
+                 productID = name.substring(POLICY_STORE_PREFIX.length(), name.length() - RESOURCE_POLICY_EXT.length());
+                 isStore = false;
+             } else {
+                 continue;
+             }
+             ProductFiles product = products.get(productID);
+             if (product == null) {
+                 product = new ProductFiles(productID);
+                 products.put(productID, product);
+             }
+             if (isStore) product.hasStore = true;
+         }
+         return new ArrayList<ProductFiles>(products.values());
+     }
+ 
+     // loads and validates one product, never throwing so that every
+     // problem with every product is reported in one pass
+     //
+     private ProductResult load(ProductFiles product) {
+         ProductResult result = new ProductResult(product.productID);
+ 
+         if (!product.hasStore) {
+             result.problem("no " + POLICY_STORE_EXT + " file found");
+         } else {
+             try {
+                 XMLPolicyStore store = new XMLPolicyStore(product.productID, source);
+                 validateStore(POLICY_STORE_PREFIX + product.productID + POLICY_STORE_EXT, result);
+                 validatePolicies(store.getPolicyRegistry(), result);
+                 result.store = store;
+             } catch (PolicyStoreLoadException e) {
+                 result.problem(e.getMessage());
+             }
+         }
+ 
+         return result;
+     }
+ 
+     // the loaded store keeps no DOM, and its trees have lost the names 
+     // and acls as written, so the document and each module it includes
+     // are read and scanned again
+     //
+     private void validateStore(String filename, ProductResult result) throws PolicyStoreLoadException {
+         List<String> includes = validateDocument(filename, result);
+         for (String include : includes) {
+             validateDocument(include, result);
+         }
+     }
+ 
+     // validates one document, returning the modules it includes
+     //
+     private List<String> validateDocument(String name, ProductResult result) throws PolicyStoreLoadException {
+         String description = source.getDescription(name);
+         List<String> includes = new ArrayList<String>();
+         try {
+             ByteBuffer buffer = source.read(name);
+             PolicyStoreScanner scanner = new PolicyStoreScanner(buffer, description);
+             int root = scanner.findRoot();
+             if (root >= 0) {
+                 validateElement(scanner, root, "", includes, result);
+                 return includes;
+             }
+ 
+             // documents the scanner does not read are parsed as a DOM
+             //
+             Element element = XMLPolicyStore.parse(new ByteBufferInputStream(buffer), description).getDocumentElement();
+             NodeList children = element.getChildNodes();
+             for (int i = 0; i < children.getLength(); i++) {
+                 Node node = children.item(i);
+                 if (node.getNodeName().equals(XMLPolicyStore.INCLUDE)) includes.add(((Element)node).getAttribute("file"));
+             }
+             validateChildren(element, "", result);
+             return includes;
+         } catch (PolicyStoreLoadException e) {
+             throw e;
+         } catch (Exception e) {
+             throw new PolicyStoreLoadException(description + ": " + e.getMessage());
+         }
+     }
+ 
+     // checks the principal and protected-resource children of the element
+     // starting at an offset and recurses
+     //
+     private void validateElement(PolicyStoreScanner scanner, int start, final String path, 
+                                  final List<String> includes, final ProductResult result) throws PolicyStoreLoadException {
+         final Set<String> siblings = new HashSet<String>();
+         final Set<String> principals = new HashSet<String>();
+         final List<Integer> starts = new ArrayList<Integer>();
+         final List<String> paths = new ArrayList<String>();
+         scanner.scan(start, new PolicyStoreScanner.Handler() {
+             public void principal(String name, String acl) {
+                 validatePrincipal(name, acl, principals, path, result);
+             }
+             public void resource(String name, int start, int end) {
+                 String childPath = path + "/" + name;
+                 validateResource(name, childPath, siblings, path, result);
+                 starts.add(Integer.valueOf(start));
+                 paths.add(childPath);
+             }
+             public void include(String file) {
+                 if (includes != null) includes.add(file);
+             }
+             public void role(String name, String inherits) { }
+             public void finalRule(Map<String, String> attributes) { }
+         }, false);
+         for (int i = 0; i < starts.size(); i++) {
+             validateElement(scanner, starts.get(i).intValue(), paths.get(i), null, result);
+         }
+     }
+ 
+     private void validateResource(String name, String childPath, Set<String> siblings, String path, ProductResult result) {
+         result.resourceNames.add(name);
+         if (name.length() == 0) {
+             result.problem("protected-resource without a name under " + (path.length() == 0 ? "/" : path));
+         } else if (!siblings.add(name)) {
+             result.problem("duplicate protected-resource " + childPath);
+         }
+     }
+ 
+     private void validatePrincipal(String name, String acl, Set<String> principals, String path, ProductResult result) {
+         if (name.length() == 0) {
+             result.problem("principal without a name in " + path);
+         } else if (!principals.add(name)) {
+             result.problem("duplicate principal " + name + " in " + path);
+         }
+         if (!ACL_PATTERN.matcher(acl).matches()) {
+             result.problem("malformed acl \"" + acl + "\" for principal " + name + " in " + path);
+         }
+     }
+ 
+     // checks the protected-resource children of an element and recurses
+     //
+     private void validateChildren(Element parent, String path, ProductResult result) {
+         Set<String> siblings = new HashSet<String>();
+         Set<String> principals = new HashSet<String>();
+         NodeList children = parent.getChildNodes();
+         for (int i = 0; i < children.getLength(); i++) {
+             Node node = children.item(i);
+             if (!(node instanceof Element)) continue;
+             Element child = (Element)node;
+ 
+             if (child.getNodeName().equals(XMLPolicyStore.PROTECTED_RESOURCE)) {
+                 String name = child.getAttribute("name");
+                 String childPath = path + "/" + name;
+                 validateResource(name, childPath, siblings, path, result);
+                 validateChildren(child, childPath, result);
+             } else if (child.getNodeName().equals("principal")) {
+                 validatePrincipal(child.getAttribute("name"), child.getAttribute("acl"), principals, path, result);
+             }
+         }
+     }
+ 
+     // resolving each binding also caches its Policy constructor so the
+     // first request does not pay for the reflection
+     //
+     private void validatePolicies(PolicyRegistry registry, ProductResult result) {
+         if (registry.getLoadError() != null) {
+             result.problem(registry.getLoadError());
+             return;
+         }
+         for (String key : registry.getUnknownKeys()) {
+             result.problem("unknown resource policy entry " + key);
+         }
+         Map<String, PolicyFactory> factories = new TreeMap<String, PolicyFactory>(registry.getFactories());
+         for (Map.Entry<String, PolicyFactory> entry : factories.entrySet()) {
+             String resourceName = entry.getKey();
+             if (!result.resourceNames.contains(resourceName)) {
+                 result.problem("policy mapped for " + resourceName + " which is not in the policy store");
+             }
+             try {
+                 entry.getValue().resolve();
+             } catch (PolicyStoreLoadException e) {
+                 result.problem(resourceName + ": " + e.getMessage());
+             }
+         }
+     }
+ 
+     /**
+      * The outcome of a preload
+      */
+     public static final class Report {
+ 
+         private final List<String> products = new ArrayList<String>();
+         private final List<String> problems = new ArrayList<String>();
+         private long elapsedMillis;
+ 
+         void add(ProductResult result) {
+             if (result.store != null) products.add(result.productID);
+             for (String problem : result.problems) {
+                 problems.add("product " + result.productID + ": " + problem);
+             }
+         }
+ 
+         /**
+          * Returns the productIDs whose policy stores were loaded
+          */
+         public List<String> getProducts() {
+             return Collections.unmodifiableList(products);
+         }
+ 
+         /**
+          * Returns a description of every problem found
+          */
+         public List<String> getProblems() {
+             return Collections.unmodifiableList(problems);
+         }
+ 
+         /**
+          * Returns true if no problems were found
+          */
+         public boolean isValid() {
+             return problems.isEmpty();
+         }
+ 
+         /**
+          * Returns the wall-clock time of the preload in milliseconds
+          */
+         public long getElapsedMillis() {
+             return elapsedMillis;
+         }
+ 
+         public String toString() {
+             return products.size() + " policy stores loaded in " + elapsedMillis + " ms, " + 
+                    problems.size() + " problems";
+         }
+     }
+ 
+     private static class ProductFiles {
+         final String productID;
+         boolean hasStore;
+ 
+         ProductFiles(String productID) {
+             this.productID = productID;
+         }
+     }
+ 
+     private static class ProductResult {
+         final String productID;
+         final List<String> problems = new ArrayList<String>();
+         final Set<String> resourceNames = new HashSet<String>();
+         PolicyStore store;
+ 
+         ProductResult(String productID) {
+             this.productID = productID;
+         }
+ 
+         void problem(String problem) {
+             problems.add(problem);
+         }
+     }
+ 
+     private static class PreloadThreadFactory implements ThreadFactory {
+         private final AtomicInteger count = new AtomicInteger();
+ 
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-preload-" + count.incrementAndGet());
+             thread.setDaemon(true);
+             return thread;
+         }
+     }
+ 
+     public static void main(String[] args) throws Exception {
+         if (args.length != 1) {
+             System.err.println("Usage: PolicyStorePreloader <policy-store directory>");
+             System.exit(1);
+         }
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         preloader.setDirectory(new File(args[0]));
+         preloader.setPopulateCaches(false);
+         Report report = preloader.run();
+         for (String problem : report.getProblems()) {
+             System.out.println(problem);
+         }
+         System.out.println(report);
+         System.exit(report.isValid() ? 0 : 2);
+     }
+ 
+ }
@@ -0,0 +1,423 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+ 
+ /**
+  * Scans the bytes of an XML policy store without building a DOM, reporting
+  * the principal ACLs, final rules, includes, role declarations and nested protected-resource elements of 
+  * one element together with the byte range of each nested element. This is what lets
+  * the {@link SubtreeLoader} index a large store at load time and build any
+  * subtree later from its range alone.<p>
+  *
+  * Only what a policy store needs is understood: elements, attributes, 
+  * comments, CDATA, processing instructions and the predefined and numeric
+  * character references. Documents with a DOCTYPE, or in an encoding other
+  * than UTF-8 or US-ASCII, are not scanned and are left to the DOM parser.
+  * The scanner holds no state between calls, so one scanner may be used by
+  * any number of threads.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class PolicyStoreScanner {
+ 
+     /**
+      * Receives the contents of a scanned element
+      */
+     interface Handler {
+ 
+         /**
+          * Called for each principal element
+          */
+         void principal(String name, String acl) throws PolicyStoreLoadException;
+ 
+         /**
+          * Called for each nested protected-resource element, with the range
+          * of bytes from its start tag to the end of its end tag
+          */
+         void resource(String name, int start, int end) throws PolicyStoreLoadException;
+ 
+         /**
+          * Called for each include element
+          */
+         void include(String file) throws PolicyStoreLoadException;
+
+         /**
+          * Called for each role or group element declaring inheritance
+          */
+         void role(String name, String inherits) throws PolicyStoreLoadException;
+
+         /**
+          * Called for each final-rule element of the scanned element, with
+          * the value of each of {@link FinalRule#ATTRIBUTES}, empty if the
+          * attribute is not given
+          */
+         void finalRule(Map<String, String> attributes) throws PolicyStoreLoadException;
+     }
+ 
+     private static final byte[] PRINCIPAL = "principal".getBytes(StandardCharsets.US_ASCII);
+     private static final byte[] RESOURCE = XMLPolicyStore.PROTECTED_RESOURCE.getBytes(StandardCharsets.US_ASCII);
+     private static final byte[] INCLUDE = XMLPolicyStore.INCLUDE.getBytes(StandardCharsets.US_ASCII);
+     private static final byte[] ROLE = XMLPolicyStore.ROLE.getBytes(StandardCharsets.US_ASCII);
+     private static final byte[] GROUP = XMLPolicyStore.GROUP.getBytes(StandardCharsets.US_ASCII);
+     private static final byte[] FINAL_RULE = XMLPolicyStore.FINAL_RULE.getBytes(StandardCharsets.US_ASCII);
+ 
+     private final ByteBuffer buffer;
+     private final int limit;
+     private final String description;
+ 
+     /**
+      * Creates a new PolicyStoreScanner. The buffer is only read with 
+      * absolute gets, so its position is never changed.
+      *
+      * @param buffer the bytes of the policy store
+      * @param description the name of the store used in error messages
+      */
+     PolicyStoreScanner(ByteBuffer buffer, String description) {
+         this.buffer = buffer;
+         this.limit = buffer.limit();
+         this.description = description;
+     }
+ 
+     /**
+      * Returns the offset of the root element's start tag, or -1 if the
+      * document cannot be scanned and must be parsed as a DOM
+      *
+      * @exception PolicyStoreLoadException thrown if the document has no 
+      * root element
+      */
+     int findRoot() throws PolicyStoreLoadException {
+         int p = buffer.position();
+ 
+         // a UTF-8 byte order mark may be skipped, any other is a 
+         // different encoding
+         //
+         if (startsWith(p, new byte[] {(byte)0xef, (byte)0xbb, (byte)0xbf})) p += 3;
+         else if (p < limit && (buffer.get(p) == (byte)0xfe || buffer.get(p) == (byte)0xff || buffer.get(p) == 0)) return -1;
+ 
+         while (true) {
+             p = skipWhitespace(p);
+             if (p >= limit) throw error(p, "No root element");
+             if (buffer.get(p) != '<') throw error(p, "Content before the root element");
+             if (startsWith(p, "<?xml")) {
+                 int end = indexOf("?>", p);
+                 String encoding = attribute(decode(p + 5, end), "encoding");
+                 if (encoding != null && !encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("US-ASCII")) return -1;
+                 p = end + 2;
+             } else if (startsWith(p, "<?")) {
+                 p = indexOf("?>", p) + 2;
+             } else if (startsWith(p, "<!--")) {
+                 p = indexOf("-->", p) + 3;
+             } else if (startsWith(p, "<!")) {
+                 return -1;
+             } else {
+                 return p;
+             }
+         }
+     }
+ 
+     /**
+      * Returns the value of an attribute of the element starting at an 
+      * offset, or null if the element has no such attribute
+      */
+     String getAttribute(int start, String name) throws PolicyStoreLoadException {
+         Tag tag = readTag(start, true);
+         return tag.get(name);
+     }
+ 
+     /**
+      * Scans the element starting at an offset, reporting its principal and
+      * nested protected-resource elements to a handler.
+      *
+      * @param start the offset of the element's start tag
+      * @param handler receives the element's contents, or null to only find 
+      * the end of the element
+      * @param deep report the principal elements at any depth rather than 
+      * only those of the element itself
+      *
+      * @return the offset just after the element's end tag
+      *
+      * @exception PolicyStoreLoadException thrown if the element is not 
+      * well formed
+      */
+     int scan(int start, Handler handler, boolean deep) throws PolicyStoreLoadException {
+         Tag tag = readTag(start, false);
+         if (tag.empty) return tag.end;
+ 
+         // the start offset and length of the name of each open element
+         //
+         int[] names = new int[32];
+         int depth = 0;
+         names[0] = tag.nameStart;
+         names[1] = tag.nameLength;
+         depth++;
+ 
+         int childStart = -1;
+         String childName = null;
+         int p = tag.end;
+         while (true) {
+             int lt = indexOf('<', p);
+             if (startsWith(lt, "<!--")) {
+                 p = indexOf("-->", lt + 4) + 3;
+             } else if (startsWith(lt, "<![CDATA[")) {
+                 p = indexOf("]]>", lt + 9) + 3;
+             } else if (startsWith(lt, "<?")) {
+                 p = indexOf("?>", lt + 2) + 2;
+             } else if (startsWith(lt, "</")) {
+                 int nameStart = lt + 2;
+                 int nameEnd = nameEnd(nameStart);
+                 depth--;
+                 if (!sameBytes(nameStart, nameEnd - nameStart, names[2 * depth], names[2 * depth + 1])) {
+                     throw error(lt, "End tag does not match start tag " + decode(names[2 * depth], names[2 * depth] + names[2 * depth + 1]));
+                 }
+                 p = indexOf('>', nameEnd) + 1;
+                 if (depth == 0) return p;
+                 if (depth == 1 && childName != null) {
+                     if (handler != null) handler.resource(childName, childStart, p);
+                     childName = null;
+                 }
+             } else if (startsWith(lt, "<!")) {
+                 throw error(lt, "Unexpected declaration");
+             } else {
+                 boolean report = handler != null && (depth == 1 || deep);
+                 Tag child = readTag(lt, report);
+                 if (report && child.is(PRINCIPAL)) {
+                     handler.principal(child.get("name"), child.get("acl"));
+                 } else if (report && depth == 1 && child.is(INCLUDE)) {
+                     handler.include(child.get("file"));
+                 } else if (report && depth == 1 && (child.is(ROLE) || child.is(GROUP))) {
+                     handler.role(child.get("name"), child.get("inherits"));
+                 } else if (report && depth == 1 && child.is(FINAL_RULE)) {
+                     Map<String, String> attributes = new HashMap<String, String>();
+                     for (String name : FinalRule.ATTRIBUTES) {
+                         attributes.put(name, child.get(name));
+                     }
+                     handler.finalRule(attributes);
+                 } else if (report && depth == 1 && child.is(RESOURCE)) {
+                     if (child.empty) {
+                         handler.resource(child.get("name"), lt, child.end);
+                     } else {
+                         childStart = lt;
+                         childName = child.get("name");
+                     }
+                 }
+                 if (!child.empty) {
+                     if (2 * depth + 2 > names.length) {
+                         int[] grown = new int[names.length * 2];
+                         System.arraycopy(names, 0, grown, 0, names.length);
+                         names = grown;
+                     }
+                     names[2 * depth] = child.nameStart;
+                     names[2 * depth + 1] = child.nameLength;
+                     depth++;
+                 }
+                 p = child.end;
+             }
+         }
+     }
+ 
+     // a start tag; attributes are only decoded when asked for
+     //
+     private static class Tag {
+         int nameStart;
+         int nameLength;
+         int end;
+         boolean empty;
+         String attributes;
+         ByteBuffer buffer;
+ 
+         boolean is(byte[] name) {
+             if (nameLength != name.length) return false;
+             for (int i = 0; i < nameLength; i++) {
+                 if (buffer.get(nameStart + i) != name[i]) return false;
+             }
+             return true;
+         }
+ 
+         String get(String name) throws PolicyStoreLoadException {
+             String value = attribute(attributes, name);
+             return (value == null) ? "" : value;
+         }
+     }
+ 
+     private Tag readTag(int start, boolean decode) throws PolicyStoreLoadException {
+         if (start >= limit || buffer.get(start) != '<') throw error(start, "Expected a start tag");
+         Tag tag = new Tag();
+         tag.buffer = buffer;
+         tag.nameStart = start + 1;
+         int p = nameEnd(tag.nameStart);
+         tag.nameLength = p - tag.nameStart;
+         if (tag.nameLength == 0) throw error(start, "Element without a name");
+         int attributesStart = p;
+ 
+         // skip to the end of the tag, stepping over quoted values which
+         // may contain '>'
+         //
+         byte quote = 0;
+         while (true) {
+             if (p >= limit) throw error(start, "Unterminated start tag");
+             byte b = buffer.get(p);
+             if (quote != 0) {
+                 if (b == quote) quote = 0;
+             } else if (b == '"' || b == '\'') {
+                 quote = b;
+             } else if (b == '>') {
+                 break;
+             }
+             p++;
+         }
+         tag.empty = buffer.get(p - 1) == '/';
+         tag.end = p + 1;
+         if (decode) tag.attributes = decode(attributesStart, tag.empty ? p - 1 : p);
+         return tag;
+     }
+ 
+     // returns the value of an attribute in the attribute text of a tag,
+     // with character references replaced and whitespace normalized as 
+     // an XML parser does
+     //
+     private static String attribute(String attributes, String name) throws PolicyStoreLoadException {
+         if (attributes == null) return null;
+         int i = 0;
+         int length = attributes.length();
+         while (i < length) {
+             while (i < length && Character.isWhitespace(attributes.charAt(i))) i++;
+             int nameStart = i;
+             while (i < length && attributes.charAt(i) != '=' && !Character.isWhitespace(attributes.charAt(i))) i++;
+             String attributeName = attributes.substring(nameStart, i);
+             while (i < length && attributes.charAt(i) != '"' && attributes.charAt(i) != '\'') i++;
+             if (i >= length) return null;
+             char quote = attributes.charAt(i);
+             int valueEnd = attributes.indexOf(quote, i + 1);
+             if (valueEnd < 0) throw new PolicyStoreLoadException("Unterminated attribute value: " + attributes);
+             if (attributeName.equals(name)) return unescape(attributes.substring(i + 1, valueEnd));
+             i = valueEnd + 1;
+         }
+         return null;
+     }
+ 
+     private static String unescape(String value) throws PolicyStoreLoadException {
+         if (value.indexOf('&') < 0 && value.indexOf('\n') < 0 && value.indexOf('\t') < 0 && value.indexOf('\r') < 0) return value;
+         StringBuffer sb = new StringBuffer(value.length());
+         for (int i = 0; i < value.length(); i++) {
+             char c = value.charAt(i);
+             if (c == '\n' || c == '\t' || c == '\r') {
+                 sb.append(' ');
+             } else if (c != '&') {
+                 sb.append(c);
+             } else {
+                 int semi = value.indexOf(';', i);
+                 if (semi < 0) throw new PolicyStoreLoadException("Unterminated character reference: " + value);
+                 String ref = value.substring(i + 1, semi);
+                 if (ref.equals("amp")) sb.append('&');
+                 else if (ref.equals("lt")) sb.append('<');
+                 else if (ref.equals("gt")) sb.append('>');
+                 else if (ref.equals("quot")) sb.append('"');
+                 else if (ref.equals("apos")) sb.append('\'');
+                 else if (ref.startsWith("#x")) sb.appendCodePoint(Integer.parseInt(ref.substring(2), 16));
+                 else if (ref.startsWith("#")) sb.appendCodePoint(Integer.parseInt(ref.substring(1)));
+                 else throw new PolicyStoreLoadException("Unknown entity reference: &" + ref + ";");
+                 i = semi;
+             }
+         }
+         return sb.toString();
+     }
+ 
+     private int nameEnd(int p) {
+         while (p < limit) {
+             byte b = buffer.get(p);
+             if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r') break;
+             p++;
+         }
+         return p;
+     }
+ 
+     private int skipWhitespace(int p) {
+         while (p < limit) {
+             byte b = buffer.get(p);
+             if (b != ' ' && b != '\t' && b != '\n' && b != '\r') break;
+             p++;
+         }
+         return p;
+     }
+ 
+     private int indexOf(char c, int from) throws PolicyStoreLoadException {
+         for (int p = from; p < limit; p++) {
+             if (buffer.get(p) == c) return p;
+         }
+         throw error(from, "Unexpected end of document looking for '" + c + "'");
+     }
+ 
+     private int indexOf(String s, int from) throws PolicyStoreLoadException {
+         for (int p = from; p < limit; p++) {
+             if (startsWith(p, s)) return p;
+         }
+         throw error(from, "Unexpected end of document looking for '" + s + "'");
+     }
+ 
+     private boolean startsWith(int p, String s) {
+         if (p + s.length() > limit) return false;
+         for (int i = 0; i < s.length(); i++) {
+             if (buffer.get(p + i) != s.charAt(i)) return false;
+         }
+         return true;
+     }
+ 
+     private boolean startsWith(int p, byte[] b) {
+         if (p + b.length > limit) return false;
+         for (int i = 0; i < b.length; i++) {
+             if (buffer.get(p + i) != b[i]) return false;
+         }
+         return true;
+     }
+ 
+     private boolean sameBytes(int a, int aLength, int b, int bLength) {
+         if (aLength != bLength) return false;
+         for (int i = 0; i < aLength; i++) {
+             if (buffer.get(a + i) != buffer.get(b + i)) return false;
+         }
+         return true;
+     }
+ 
+     private String decode(int start, int end) {
+         byte[] bytes = new byte[end - start];
+         ByteBuffer view = buffer.duplicate();
+         view.position(start);
+         view.get(bytes);
+         return new String(bytes, StandardCharsets.UTF_8);
+     }
+ 
+     private PolicyStoreLoadException error(int offset, String msg) {
+         return new PolicyStoreLoadException(description + " at byte " + offset + ": " + msg);
+     }
+ 
+ }
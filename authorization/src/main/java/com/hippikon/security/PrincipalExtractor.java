@@ -0,0 +1,230 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+ 
+ /**
+  * Finds the user principals a resource declares with {@link UserPrincipal}
+  * annotations. The annotations of a class are compiled once, on its first
+  * check, into a MethodHandle for each context attribute and resource 
+  * property. The principals of a resource are then found in one pass that
+  * allocates nothing, and added straight to the principals of the check.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class PrincipalExtractor {
+ 
+     // the extractor of a class without UserPrincipal annotations
+     //
+     private static final PrincipalExtractor NONE = new PrincipalExtractor(new String[0], new MethodHandle[0], new MethodHandle[0]);
+ 
+     private static final MethodType CONTEXT_TYPE = MethodType.methodType(Object.class, AuthorizationContext.class);
+     private static final MethodType RESOURCE_TYPE = MethodType.methodType(Object.class, Object.class);
+ 
+     // reads an attribute of a ResourceDescriptor
+     //
+     private static final MethodHandle GET_ATTRIBUTE;
+     static {
+         try {
+             GET_ATTRIBUTE = MethodHandles.publicLookup().findVirtual(ResourceProjection.class, "getAttribute", 
+                                                                      MethodType.methodType(Object.class, String.class));
+         } catch (ReflectiveOperationException e) {
+             throw new ExceptionInInitializerError(e);
+         }
+     }
+ 
+     private static final ClassValue<PrincipalExtractor> extractors = new ClassValue<PrincipalExtractor>() {
+         protected PrincipalExtractor computeValue(Class<?> type) {
+             return compile(type, false);
+         }
+     };
+ 
+     // the extractors of the ResourceDescriptors of each class, which read
+     // attributes in place of properties
+     //
+     private static final ClassValue<PrincipalExtractor> projections = new ClassValue<PrincipalExtractor>() {
+         protected PrincipalExtractor computeValue(Class<?> type) {
+             return compile(type, true);
+         }
+     };
+ 
+     private final String[] names;
+     private final MethodHandle[] contextAccessors;
+     private final MethodHandle[] resourceAccessors;
+ 
+     private PrincipalExtractor(String[] names, MethodHandle[] contextAccessors, MethodHandle[] resourceAccessors) {
+         this.names = names;
+         this.contextAccessors = contextAccessors;
+         this.resourceAccessors = resourceAccessors;
+     }
+ 
+     /**
+      * Returns the extractor of a resource class
+      *
+      * @exception IllegalAuthorizationException thrown if an annotation 
+      * names an attribute or property that has no accessor
+      */
+     static PrincipalExtractor forClass(Class<?> type) throws IllegalAuthorizationException {
+         try {
+             return extractors.get(type);
+         } catch (IllegalArgumentException e) {
+             throw new IllegalAuthorizationException(e.getMessage());
+         }
+     }
+ 
+     /**
+      * Returns the extractor of a resource, which for a ResourceDescriptor 
+      * is that of the class it describes
+      *
+      * @exception IllegalAuthorizationException thrown if an annotation 
+      * names an attribute or property that has no accessor
+      */
+     static PrincipalExtractor forResource(Object res) throws IllegalAuthorizationException {
+         if (!(res instanceof ResourceDescriptor)) return forClass(res.getClass());
+         Class<?> type = ((ResourceDescriptor)res).getType();
+         if (type == null) return NONE;
+         try {
+             return projections.get(type);
+         } catch (IllegalArgumentException e) {
+             throw new IllegalAuthorizationException(e.getMessage());
+         }
+     }
+ 
+     /**
+      * Returns true if the class declares no user principals
+      */
+     boolean isEmpty() {
+         return names.length == 0;
+     }
+ 
+     /**
+      * Adds the principals the resource gives the user of a context to a 
+      * list, unless the list has them already
+      *
+      * @exception IllegalAuthorizationException thrown if an accessor fails
+      */
+     void extract(Object res, AuthorizationContext ctx, List<String> principals) throws IllegalAuthorizationException {
+         for (int i = 0; i < names.length; i++) {
+             try {
+                 Object expected = (Object)contextAccessors[i].invokeExact(ctx);
+                 Object actual = (Object)resourceAccessors[i].invokeExact(res);
+                 if (matches(expected, actual) && !principals.contains(names[i])) {
+                     principals.add(names[i]);
+                 }
+             } catch (Error e) {
+                 throw e;
+             } catch (Throwable e) {
+                 throw new IllegalAuthorizationException("Could not determine user principal " + names[i] + 
+                                                         " of " + res.getClass().getName() + ": " + e);
+             }
+         }
+     }
+ 
+     // equality, or membership where either side is a Collection. The 
+     // collections of a resource are Sets, save for the attributes of a 
+     // ResourceDescriptor, which are hashed here
+     //
+     private static boolean matches(Object expected, Object actual) {
+         if (expected == null || actual == null) return false;
+         if (actual instanceof Collection) {
+             Set<?> members = (actual instanceof Set) ? (Set<?>)actual : new HashSet<Object>((Collection<?>)actual);
+             if (expected instanceof Collection) return intersects((Collection<?>)expected, members);
+             return members.contains(expected);
+         }
+         if (expected instanceof Collection) return ((Collection<?>)expected).contains(actual);
+         return expected.equals(actual);
+     }
+ 
+     // looks each element of the context's collection up in the resource's
+     //
+     private static boolean intersects(Collection<?> expected, Set<?> members) {
+         for (Iterator<?> i = expected.iterator(); i.hasNext();) {
+             if (members.contains(i.next())) return true;
+         }
+         return false;
+     }
+ 
+     private static PrincipalExtractor compile(Class<?> type, boolean projection) {
+         UserPrincipal[] declared = type.getAnnotationsByType(UserPrincipal.class);
+         if (declared.length == 0) return NONE;
+         String[] names = new String[declared.length];
+         MethodHandle[] contextAccessors = new MethodHandle[declared.length];
+         MethodHandle[] resourceAccessors = new MethodHandle[declared.length];
+         for (int i = 0; i < declared.length; i++) {
+             names[i] = declared[i].name().intern();
+             contextAccessors[i] = findAccessor(AuthorizationContext.class, declared[i].context()).asType(CONTEXT_TYPE);
+             if (projection) {
+                 if (declared[i].property().length() == 0) 
+                     throw new IllegalArgumentException("No property named by a UserPrincipal of " + type.getName());
+                 resourceAccessors[i] = MethodHandles.insertArguments(GET_ATTRIBUTE, 1, declared[i].property()).asType(RESOURCE_TYPE);
+             } else {
+                 MethodHandle accessor = findAccessor(type, declared[i].property());
+                 Class<?> returned = accessor.type().returnType();
+                 if (Collection.class.isAssignableFrom(returned) && !Set.class.isAssignableFrom(returned)) {
+                     throw new IllegalArgumentException("Property " + declared[i].property() + " of " + type.getName() + 
+                                                        " must be a Set to be matched by membership");
+                 }
+                 resourceAccessors[i] = accessor.asType(RESOURCE_TYPE);
+             }
+         }
+         return new PrincipalExtractor(names, contextAccessors, resourceAccessors);
+     }
+ 
+     private static MethodHandle findAccessor(Class<?> type, String property) {
+         if (property.length() == 0) throw new IllegalArgumentException("No property named by a UserPrincipal of " + type.getName());
+         String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+         for (String name : new String[] {"get" + suffix, "is" + suffix}) {
+             try {
+                 Method method = type.getMethod(name);
+                 if (method.getReturnType() == Void.TYPE) continue;
+ 
+                 // the public accessors of a class that is not public 
+                 // need access checks suppressed where that is allowed
+                 //
+                 try {
+                     method.setAccessible(true);
+                 } catch (RuntimeException e) { }
+                 return MethodHandles.lookup().unreflect(method);
+             } catch (NoSuchMethodException e) {
+             } catch (IllegalAccessException e) {
+                 throw new IllegalArgumentException("Cannot read " + property + " of " + type.getName() + ": " + e.getMessage());
+             }
+         }
+         throw new IllegalArgumentException("No accessor for " + property + " of " + type.getName());
+     }
+ 
+ }
@@ -60,6 +60,12 @@ package com.hippikon.security;
   * The list simulates a multi-dimensional array while providing a convenient 
   * API for implementation classes.<p>
   *
+  * Most nodes have one or two nested lists and a handful of principal ACLs,
+  * for which a HashMap with its table and entry objects costs several times
+  * the entries themselves. Up to {@link #ARRAY_LIMIT} of each are held in an
+  * array sized to fit and found by a linear scan, which compares the 
+  * interned names by reference first. Nodes with more move to a HashMap.<p>
+  *
   * @author Dale Churchett
   * @version $Id: ResourceAclList.java,v 1.5 2012/04/23 14:25:16 dalehippikon Exp $
   * @since JDK 1.2.2
@@ -67,9 +73,20 @@ package com.hippikon.security;
  
  class ResourceAclList {
  
+     /** The most nested lists or ACLs held in an array before moving to a HashMap */
+     static final int ARRAY_LIMIT = 8;
+ 
      private String resName;
-     private Map<String, ResourceAclList> childList;
-     private Map<String, ACL> principalAclList;
+ 
+     // each is null, an array of up to ARRAY_LIMIT entries or a HashMap
+     // of name->entry
+     //
+     private Object childList;
+     private Object principalAclList;
+
+     // the final-rule elements of the resource, or null if it has none
+     //
+     private FinalRule[] finalRules;
  
      private static Logger log = Logger.getLogger("com.hippikon.security.ResourceAclList");
  
@@ -81,9 +98,7 @@ package com.hippikon.security;
       * should match the value of <code>getResourceName()</code>
       */
      ResourceAclList(String resourceName) {
-         this.resName = resourceName;
-         this.principalAclList = new HashMap<String, ACL>();
-         this.childList = new HashMap<String, ResourceAclList>();
+         this.resName = (resourceName == null) ? null : resourceName.intern();
      }
  
      /**
@@ -96,7 +111,7 @@ package com.hippikon.security;
      void addNestedList(ResourceAclList list) {
          log.debug("Adding nested list [" + list.getResourceName() + "] to " + resName);
          if (list != null)
-             childList.put(list.getResourceName(), list); 
+             childList = put(childList, list.getResourceName(), list);
      }
  
  
@@ -108,7 +123,7 @@ package com.hippikon.security;
       * for a specified resource name
       */
      boolean containsNestedList(String resourceName) {
-         return (childList.containsKey(resourceName)) ? true : false;
+         return (find(childList, resourceName) != null) ? true : false;
      }
  
  
@@ -129,7 +144,7 @@ package com.hippikon.security;
          if (!containsNestedList(resourceName))
              throw new ResourceNotFoundException("Nested ResourceAclList not found for " + resourceName);
  
-         ResourceAclList nestedList = (ResourceAclList)childList.get(resourceName);
+         ResourceAclList nestedList = (ResourceAclList)find(childList, resourceName);
          if (nestedList == null)
              throw new ResourceNotFoundException("NULL object found for nested list");
  
@@ -137,17 +152,25 @@ package com.hippikon.security;
      }
  
      /**
-      * Returns a List of all nested ResourceAclList objects
+      * Returns a Map of all nested ResourceAclList objects, built on each call
       */
      Map<String, ResourceAclList> getNestedList() {
-         return childList;
+         Map<String, ResourceAclList> map = new LinkedHashMap<String, ResourceAclList>();
+         for (Object child : values(childList)) {
+             map.put(((ResourceAclList)child).getResourceName(), (ResourceAclList)child);
+         }
+         return map;
      }
  
      /**
       * Returns a Collection of ACL objects.
       */
      Collection<ACL> getAcls() {
-         return principalAclList.values();
+         List<ACL> acls = new ArrayList<ACL>();
+         for (Object acl : values(principalAclList)) {
+             acls.add((ACL)acl);
+         }
+         return acls;
      }
      
  
@@ -157,6 +180,91 @@ package com.hippikon.security;
      String getResourceName() {
          return resName;
      }
+
+     /**
+      * Returns the estimated bytes of the node and its arrays or maps, 
+      * excluding the names, ACL objects and nested nodes, which may be shared
+      */
+     long estimateShallowBytes() {
+         long bytes = PolicyStoreFootprint.align(PolicyStoreFootprint.OBJECT_HEADER + 5 * PolicyStoreFootprint.REFERENCE);
+         if (finalRules != null) {
+             bytes += PolicyStoreFootprint.align(PolicyStoreFootprint.ARRAY_HEADER + finalRules.length * PolicyStoreFootprint.REFERENCE);
+         }
+         return bytes + estimateBytes(childList) + estimateBytes(principalAclList);
+     }
+
+     /**
+      * Replaces a nested list with an identical one, so that identical 
+      * subtrees are held once. Used by {@link DefaultPolicyStore#shareSubtrees(Map)}.
+      */
+     void replaceNestedList(ResourceAclList list) {
+         childList = put(childList, list.getResourceName(), list);
+     }
+
+     /**
+      * Returns true if another node has the same name, ACLs and rules, and
+      * the very same nested nodes, so that either may stand in for the other
+      */
+     boolean isSameSubtree(ResourceAclList list) {
+         if (list.getClass() != ResourceAclList.class || getClass() != ResourceAclList.class) return false;
+         if (!resName.equals(list.resName)) return false;
+         if (!Arrays.equals(finalRules, list.finalRules)) return false;
+         Collection<Object> acls = values(principalAclList);
+         Collection<Object> children = values(childList);
+         if (acls.size() != values(list.principalAclList).size() || children.size() != values(list.childList).size()) return false;
+         for (Object acl : acls) {
+             if (!acl.equals(find(list.principalAclList, ((ACL)acl).getName()))) return false;
+         }
+         for (Object child : children) {
+             if (find(list.childList, ((ResourceAclList)child).getResourceName()) != child) return false;
+         }
+         return true;
+     }
+
+     /**
+      * Returns a hash code consistent with {@link #isSameSubtree(ResourceAclList)}
+      */
+     int subtreeHashCode() {
+         int hash = resName.hashCode() + Arrays.hashCode(finalRules);
+         for (Object acl : values(principalAclList)) {
+             hash += 31 * acl.hashCode();
+         }
+         for (Object child : values(childList)) {
+             hash += 17 * System.identityHashCode(child);
+         }
+         return hash;
+     }
+ 
+     /**
+      * Adds a {@link FinalRule} declared on the resource
+      */
+     void addFinalRule(FinalRule rule) {
+         if (rule == null) return;
+         if (finalRules == null) {
+             finalRules = new FinalRule[] { rule };
+             return;
+         }
+         FinalRule[] grown = new FinalRule[finalRules.length + 1];
+         System.arraycopy(finalRules, 0, grown, 0, finalRules.length);
+         grown[finalRules.length] = rule;
+         finalRules = grown;
+     }
+
+     /**
+      * Returns the rules declared on the resource, or null if it has none.
+      * The array must not be changed.
+      */
+     FinalRule[] getFinalRules() {
+         return finalRules;
+     }
+
+     /**
+      * Returns true if the node's ACLs and nested nodes are in memory. Only
+      * lazily loaded nodes are ever not.
+      */
+     boolean isLoaded() {
+         return true;
+     }
  
      /**
       * Adds a principal {@link ACL} to the ResourceAclList. The ACL may not
@@ -167,7 +275,7 @@ package com.hippikon.security;
       */
      void addPrincipalACL(ACL acl) {
          if (acl == null) return;
-         principalAclList.put(acl.getName(), acl);
+         principalAclList = put(principalAclList, acl.getName(), acl);
      }
  
      /**
@@ -181,7 +289,7 @@ package com.hippikon.security;
       */
      ACL getPrincipalACL(String principal) {
  
-         ACL acl = (ACL)principalAclList.get(principal);
+         ACL acl = (ACL)find(principalAclList, principal);
  
          if (acl == null)
                  log.debug("Principal ACL [" + principal + "] not defined for resource: " + resName);
@@ -193,15 +301,80 @@ package com.hippikon.security;
       * Removes all principal ACL entries for this resource
       */
      void clearPrincipalACLs() {
-         principalAclList = new HashMap<String, ACL>();
+         principalAclList = null;
      }
      
      // renames the resource this resourceAclList is associated with
      //
      void renameTo(String newName) {
-         this.resName = newName;
+         this.resName = (newName == null) ? null : newName.intern();
      }
  
+     // returns the name an entry is held under
+     //
+     private static String nameOf(Object entry) {
+         return (entry instanceof ACL) ? ((ACL)entry).getName() : ((ResourceAclList)entry).getResourceName();
+     }
+
+     // returns the entry held under a name, or null
+     //
+     @SuppressWarnings("unchecked")
+     private static Object find(Object entries, String name) {
+         if (entries == null || name == null) return null;
+         if (entries instanceof Map) return ((Map<String, Object>)entries).get(name);
+         Object[] array = (Object[])entries;
+         for (int i = 0; i < array.length; i++) {
+             if (nameOf(array[i]) == name) return array[i];
+         }
+         for (int i = 0; i < array.length; i++) {
+             if (name.equals(nameOf(array[i]))) return array[i];
+         }
+         return null;
+     }
+
+     // adds or replaces the entry held under a name, returning the entries
+     //
+     @SuppressWarnings("unchecked")
+     private static Object put(Object entries, String name, Object entry) {
+         if (entries instanceof Map) {
+             ((Map<String, Object>)entries).put(name, entry);
+             return entries;
+         }
+         Object[] array = (entries == null) ? new Object[0] : (Object[])entries;
+         for (int i = 0; i < array.length; i++) {
+             if (name.equals(nameOf(array[i]))) {
+                 array[i] = entry;
+                 return array;
+             }
+         }
+         if (array.length == ARRAY_LIMIT) {
+             Map<String, Object> map = new HashMap<String, Object>();
+             for (int i = 0; i < array.length; i++) {
+                 map.put(nameOf(array[i]), array[i]);
+             }
+             map.put(name, entry);
+             return map;
+         }
+         Object[] grown = new Object[array.length + 1];
+         System.arraycopy(array, 0, grown, 0, array.length);
+         grown[array.length] = entry;
+         return grown;
+     }
+
+     @SuppressWarnings("unchecked")
+     private static Collection<Object> values(Object entries) {
+         if (entries == null) return Collections.emptyList();
+         if (entries instanceof Map) return ((Map<String, Object>)entries).values();
+         return Arrays.asList((Object[])entries);
+     }
+
+     @SuppressWarnings("unchecked")
+     private static long estimateBytes(Object entries) {
+         if (entries == null) return 0;
+         if (entries instanceof Map) return PolicyStoreFootprint.hashMapBytes(((Map<String, Object>)entries).size());
+         return PolicyStoreFootprint.align(PolicyStoreFootprint.ARRAY_HEADER + ((Object[])entries).length * PolicyStoreFootprint.REFERENCE);
+     }
+
      /**
       * Returns the name of the protected resource this structure contains the ACLs for
       */
@@ -0,0 +1,194 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+ 
+ /**
+  * Builds the chain of ancestors of a resource with the 
+  * {@link ParentResolver} registered for each resource class, top-level
+  * resource first.<p>
+  *
+  * The chains resolved are remembered in a map the caller gives, such as 
+  * that of an {@link AuthorizationSession}, keyed by the {@link #getKey(Object)}
+  * of each resource: its class and identity if it is a 
+  * {@link VersionedResource}, its class and id if it is a 
+  * {@link ResourceProjection} with one, and the instance itself otherwise.
+  * A resolver that loads each parent afresh by its id therefore still finds
+  * the chain of the parent once it is known. The chain of each ancestor is 
+  * remembered too, so the siblings of a resolved resource only need their 
+  * own parent resolved, and every resource of a session shares the same 
+  * ancestor instances, whose Policy objects and user principals the session
+  * keeps. Chains are not remembered between requests, as a parent loaded 
+  * by its id may have changed. A {@link ResourceDescriptor} gives its own 
+  * parent.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class ResourceChains {
+ 
+     // the longest chain resolved before a cycle is assumed
+     //
+     private static final int MAX_DEPTH = Integer.getInteger("hippikon.chain.max-depth", 64).intValue();
+ 
+     private static final ConcurrentHashMap<Class<?>, ParentResolver> resolvers = new ConcurrentHashMap<Class<?>, ParentResolver>();
+ 
+     private ResourceChains() { }
+ 
+     /**
+      * Registers the resolver of a resource class, or removes it if the
+      * resolver is null
+      */
+     static void setResolver(Class<?> type, ParentResolver resolver) {
+         if (resolver == null) {
+             resolvers.remove(type);
+         } else {
+             resolvers.put(type, resolver);
+         }
+     }
+ 
+     /**
+      * Returns the resolver of a resource class, or of its nearest 
+      * superclass or interface with one, or null
+      */
+     static ParentResolver getResolver(Class<?> type) {
+         if (resolvers.isEmpty()) return null;
+         for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+             ParentResolver resolver = resolvers.get(c);
+             if (resolver != null) return resolver;
+             for (Class<?> i : c.getInterfaces()) {
+                 resolver = resolvers.get(i);
+                 if (resolver != null) return resolver;
+             }
+         }
+         return null;
+     }
+ 
+     /**
+      * Returns the chain of a resource, from the top-level resource down to 
+      * the resource itself
+      *
+      * @param res the resource being accessed
+      * @param known the chains already resolved keyed by the 
+      * {@link #getKey(Object)} of their last resource, to which those 
+      * resolved now are added, or null
+      *
+      * @exception IllegalAuthorizationException thrown if a parent cannot 
+      * be found, or the chain is longer than hippikon.chain.max-depth 
+      * resources, as it is when a resource is its own ancestor
+      */
+     static List<Object> resolve(Object res, Map<Object, List<Object>> known) throws IllegalAuthorizationException {
+         if (res == null)
+             throw new IllegalAuthorizationException("NULL objects passed to PermissionsFactory");
+ 
+         // walk up until the top, or an ancestor whose chain is known. The
+         // resource itself always ends its chain, so the known chain of
+         // another instance of it is not used
+         //
+         List<Object> unresolved = new ArrayList<Object>();
+         List<Object> chain = Collections.emptyList();
+         for (Object current = res; current != null;) {
+             List<Object> knownChain = (known != null) ? known.get(getKey(current)) : null;
+             if (knownChain != null && (current != res || knownChain.get(knownChain.size() - 1) == res)) {
+                 chain = knownChain;
+                 break;
+             }
+             if (unresolved.size() == MAX_DEPTH) {
+                 throw new IllegalAuthorizationException("The chain of " + res.getClass().getName() + 
+                                                         " is longer than " + MAX_DEPTH + " resources");
+             }
+             unresolved.add(current);
+             if (current instanceof ResourceDescriptor) {
+                 current = ((ResourceDescriptor)current).getParent();
+                 continue;
+             }
+             ParentResolver resolver = getResolver(current.getClass());
+             current = (resolver != null) ? resolver.getParent(current) : null;
+         }
+ 
+         // then build the chain of each resource on the way down
+         //
+         for (int i = unresolved.size() - 1; i >= 0; i--) {
+             Object resource = unresolved.get(i);
+             List<Object> extended = new ArrayList<Object>(chain.size() + 1);
+             extended.addAll(chain);
+             extended.add(resource);
+             chain = Collections.unmodifiableList(extended);
+             if (known != null) known.put(getKey(resource), chain);
+         }
+         return chain;
+     }
+ 
+     /**
+      * Returns the key a resource's chain is remembered by: its class and 
+      * identity or id when it has one, or else the resource itself compared
+      * by reference
+      */
+     static Object getKey(Object res) {
+         if (res instanceof VersionedResource) {
+             return new Key(res.getClass(), ((VersionedResource)res).getResourceIdentity());
+         }
+         if (res instanceof ResourceProjection) {
+             Object id = ((ResourceProjection)res).getId();
+             if (id != null) {
+                 Object type = (res instanceof ResourceDescriptor) ? ((ResourceDescriptor)res).getName() : res.getClass();
+                 return new Key(type, id);
+             }
+         }
+         return new Key(null, res);
+     }
+ 
+     // a resource type and id, or with no type a resource instance
+     //
+     private static final class Key {
+         private final Object type;
+         private final Object id;
+ 
+         Key(Object type, Object id) {
+             this.type = type;
+             this.id = id;
+         }
+ 
+         public boolean equals(Object o) {
+             if (!(o instanceof Key)) return false;
+             Key other = (Key)o;
+             if (type == null) return other.type == null && id == other.id;
+             return type.equals(other.type) && id.equals(other.id);
+         }
+ 
+         public int hashCode() {
+             if (type == null) return System.identityHashCode(id);
+             return 31 * type.hashCode() + id.hashCode();
+         }
+     }
+ 
+ }
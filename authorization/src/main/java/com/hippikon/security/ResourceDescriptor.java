@@ -0,0 +1,193 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * A ResourceDescriptor stands in for a {@link ProtectedResource} that has
+  * not been loaded, so permissions can be obtained for rows of a list page 
+  * or batch job without loading each domain object. A descriptor holds the
+  * resource name, an id, the parent of the resource and the few attributes
+  * its {@link Policy} reads through {@link ResourceProjection}.<p>
+  *
+  * The attribute names are given as an array that the descriptors of one 
+  * query can share, so each descriptor costs little more than its values:<p>
+  *
+  * <pre>
+  * String[] names = {"teamLeaderGUID", "ownerGUID", "closed"};
+  * while (rows.next()) {
+  *     ResourceDescriptor project = new ResourceDescriptor(Project.class, rows.getString(1), null, names, 
+  *         new Object[] {rows.getString(2), rows.getString(3), rows.getBoolean(4)});
+  *     PermissionSet perms = PermissionsFactory.getPermissions(project, ctx);
+  * }
+  * </pre>
+  *
+  * A descriptor made for a domain class takes the resource name of its
+  * annotation and gives the user principals its {@link UserPrincipal} 
+  * annotations declare, reading the attributes in place of the properties.
+  * The properties of <code>final-rule</code> elements are read as attributes 
+  * too, and a missing attribute holds the rule, as an unreadable property 
+  * does. The parent of a descriptor, a descriptor or a loaded domain object, 
+  * is used to build its chain by the <code>getPermissionsInChain</code> 
+  * methods of the {@link PermissionsFactory}.<p>
+  *
+  * Policies that narrow-cast the resource to a domain class cannot check
+  * a descriptor.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public final class ResourceDescriptor implements ResourceProjection {
+ 
+     private static final String[] NO_NAMES = new String[0];
+     private static final Object[] NO_VALUES = new Object[0];
+ 
+     private final String name;
+     private final Class<?> type;
+     private final Object id;
+     private final Object parent;
+     private final String[] names;
+     private final Object[] values;
+ 
+     /**
+      * Creates a new ResourceDescriptor without attributes
+      *
+      * @param name the resource name the policy store and resource.policies
+      * file use for the resource
+      * @param id the id of the resource
+      * @param parent the parent of the resource, or null
+      */
+     public ResourceDescriptor(String name, Object id, Object parent) {
+         this(name, null, id, parent, NO_NAMES, NO_VALUES);
+     }
+ 
+     /**
+      * Creates a new ResourceDescriptor. The arrays are not copied, and so 
+      * must not be changed afterwards
+      *
+      * @param name the resource name the policy store and resource.policies
+      * file use for the resource
+      * @param id the id of the resource
+      * @param parent the parent of the resource, or null
+      * @param names the names of the attributes
+      * @param values the value of each attribute
+      */
+     public ResourceDescriptor(String name, Object id, Object parent, String[] names, Object[] values) {
+         this(name, null, id, parent, names, values);
+     }
+ 
+     /**
+      * Creates a new ResourceDescriptor of an instance of a ProtectedResource
+      * class. The arrays are not copied, and so must not be changed afterwards
+      *
+      * @param type the ProtectedResource class described
+      * @param id the id of the resource
+      * @param parent the parent of the resource, or null
+      * @param names the names of the attributes
+      * @param values the value of each attribute
+      *
+      * @exception ProtectedResourceNamingException thrown if the class has 
+      * no ProtectedResource annotation
+      */
+     public ResourceDescriptor(Class<?> type, Object id, Object parent, String[] names, Object[] values) 
+     throws ProtectedResourceNamingException {
+         this(ProtectedResourceWrapper.getResourceName(type, null), type, id, parent, names, values);
+     }
+ 
+     private ResourceDescriptor(String name, Class<?> type, Object id, Object parent, String[] names, Object[] values) {
+         if (name == null) {
+             throw new IllegalArgumentException("A ResourceDescriptor needs a resource name");
+         }
+         if (names.length != values.length) {
+             throw new IllegalArgumentException("Attribute names and values differ in length for " + name);
+         }
+         this.name = name;
+         this.type = type;
+         this.id = id;
+         this.parent = parent;
+         this.names = names;
+         this.values = values;
+     }
+ 
+     /**
+      * Returns the resource name of the descriptor
+      */
+     public String getName() {
+         return name;
+     }
+ 
+     /**
+      * Returns the ProtectedResource class described, or null if the
+      * descriptor was made from a resource name
+      */
+     public Class<?> getType() {
+         return type;
+     }
+ 
+     /**
+      * Returns the id of the resource
+      */
+     public Object getId() {
+         return id;
+     }
+ 
+     /**
+      * Returns the parent of the resource, or null
+      */
+     public Object getParent() {
+         return parent;
+     }
+ 
+     /**
+      * Returns an attribute of the resource, or null if the descriptor does
+      * not have it
+      */
+     public Object getAttribute(String name) {
+         int i = indexOf(name);
+         return (i < 0) ? null : values[i];
+     }
+ 
+     /**
+      * Returns true if the descriptor has an attribute, which may be null
+      */
+     public boolean hasAttribute(String name) {
+         return indexOf(name) >= 0;
+     }
+ 
+     // a descriptor has a few attributes, so a scan is quicker than a map
+     //
+     private int indexOf(String name) {
+         for (int i = 0; i < names.length; i++) {
+             if (names[i].equals(name)) return i;
+         }
+         return -1;
+     }
+ 
+     public String toString() {
+         return name + "#" + id;
+     }
+ 
+ }
@@ -0,0 +1,71 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * A ResourceProjection gives a {@link Policy} the attributes of a 
+  * {@link ProtectedResource} by name, so the Policy can check a fully loaded
+  * domain object and a {@link ResourceDescriptor} of it alike:<p>
+  *
+  * <pre>
+  * protected PermissionSet doFinal(PermissionSet perms) {
+  *     ResourceProjection project = (ResourceProjection)res;
+  *     MutablePermissionSet mps = createMutablePermissionSet(perms);
+  *     if (Boolean.TRUE.equals(project.getAttribute("closed"))) {
+  *         mps.setReadOnly();
+  *     }
+  *     return mps;
+  * }
+  * </pre>
+  *
+  * A domain object implements this interface over its own properties. 
+  * Policies that narrow-cast the resource to the domain class instead can 
+  * only check the domain object.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ public interface ResourceProjection {
+ 
+     /**
+      * Returns the id of the resource
+      *
+      * @return the id of the resource, or null if it has none
+      */
+     public Object getId();
+ 
+     /**
+      * Returns an attribute of the resource
+      *
+      * @param name the name of the attribute, which by convention is the
+      * name of the bean property it comes from
+      * @return the value of the attribute, or null if the resource has no
+      * such attribute
+      */
+     public Object getAttribute(String name);
+ 
+ }
@@ -0,0 +1,191 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+ 
+ /**
+  * The role and group inheritance declared by a policy store, for example
+  * that a manager inherits the permissions of a teamleader:<p>
+  *
+  * <pre>
+  * &lt;role name="manager" inherits="teamleader"/&gt;
+  * &lt;role name="teamleader" inherits="clerk, auditor"/&gt;
+  * &lt;group name="emea-sales" inherits="sales"/&gt;
+  * </pre>
+  *
+  * A principal that inherits another is evaluated as if the request also 
+  * held the inherited principal, directly or through any chain of 
+  * inheritance, so each principal ACL need only be defined once instead of
+  * for every role that should have it.<p>
+  *
+  * Every principal named by a declaration is given an id when the store is
+  * loaded, and the transitive closure of each is kept as a BitSet of ids, so
+  * expanding the principals of a request takes one OR per principal rather
+  * than a walk of the declarations. Cycles are allowed and give every 
+  * principal on the cycle the same closure.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class RoleHierarchy {
+ 
+     /** The hierarchy of stores that declare no inheritance */
+     static final RoleHierarchy EMPTY = new RoleHierarchy(new LinkedHashMap<String, List<String>>());
+ 
+     private final Map<String, List<String>> declarations;
+     private final Map<String, Integer> ids = new HashMap<String, Integer>();
+     private final List<String> names = new ArrayList<String>();
+     private final BitSet[] closures;
+ 
+     private RoleHierarchy(Map<String, List<String>> declarations) {
+         this.declarations = Collections.unmodifiableMap(declarations);
+         for (Map.Entry<String, List<String>> entry : declarations.entrySet()) {
+             id(entry.getKey());
+             for (String inherited : entry.getValue()) {
+                 id(inherited);
+             }
+         }
+ 
+         // each closure starts as the principal and those it inherits 
+         // directly, and takes in the closures of those until none grows
+         //
+         closures = new BitSet[names.size()];
+         for (int i = 0; i < closures.length; i++) {
+             closures[i] = new BitSet(closures.length);
+             closures[i].set(i);
+             List<String> inherited = declarations.get(names.get(i));
+             if (inherited == null) continue;
+             for (String name : inherited) {
+                 closures[i].set(ids.get(name).intValue());
+             }
+         }
+         boolean grown = true;
+         while (grown) {
+             grown = false;
+             for (BitSet closure : closures) {
+                 int before = closure.cardinality();
+                 for (int j = closure.nextSetBit(0); j >= 0; j = closure.nextSetBit(j + 1)) {
+                     closure.or(closures[j]);
+                 }
+                 if (closure.cardinality() != before) grown = true;
+             }
+         }
+     }
+ 
+     private void id(String name) {
+         if (ids.containsKey(name)) return;
+         ids.put(name, Integer.valueOf(names.size()));
+         names.add(name);
+     }
+ 
+     /**
+      * Returns the hierarchy of a set of declarations
+      *
+      * @param declarations the principals each principal inherits directly,
+      * keyed by principal
+      */
+     static RoleHierarchy build(Map<String, List<String>> declarations) {
+         if (declarations.isEmpty()) return EMPTY;
+         return new RoleHierarchy(new LinkedHashMap<String, List<String>>(declarations));
+     }
+ 
+     /**
+      * Adds a declaration read from a store document to a set of them. The 
+      * inherited names are separated by commas or whitespace, and a 
+      * principal declared more than once inherits from each declaration.
+      */
+     static void declare(Map<String, List<String>> declarations, String name, String inherits) {
+         if (name == null || name.length() == 0) return;
+         List<String> inherited = declarations.get(name);
+         if (inherited == null) {
+             inherited = new ArrayList<String>();
+             declarations.put(name.intern(), inherited);
+         }
+         if (inherits == null) return;
+         for (String s : inherits.split("[,\\s]+")) {
+             if (s.length() > 0 && !inherited.contains(s)) inherited.add(s.intern());
+         }
+     }
+ 
+     /**
+      * Returns the principals of a request together with every principal 
+      * they inherit, each once
+      */
+     List<String> expand(List<String> principals) {
+         if (closures.length == 0) return principals;
+         BitSet expanded = null;
+         List<String> result = null;
+         for (String principal : principals) {
+             Integer id = ids.get(principal);
+             if (id == null) continue;
+             if (expanded == null) {
+                 expanded = new BitSet(closures.length);
+                 result = new ArrayList<String>(principals.size() + closures.length);
+             }
+             expanded.or(closures[id.intValue()]);
+         }
+         if (expanded == null) return principals;
+         for (String principal : principals) {
+             if (!ids.containsKey(principal)) result.add(principal);
+         }
+         for (int i = expanded.nextSetBit(0); i >= 0; i = expanded.nextSetBit(i + 1)) {
+             result.add(names.get(i));
+         }
+         return result;
+     }
+ 
+     /**
+      * Returns the principals each principal inherits directly, as declared
+      */
+     Map<String, List<String>> getDeclarations() {
+         return declarations;
+     }
+ 
+     boolean isEmpty() {
+         return declarations.isEmpty();
+     }
+ 
+     public boolean equals(Object o) {
+         return (o instanceof RoleHierarchy) && declarations.equals(((RoleHierarchy)o).declarations);
+     }
+ 
+     public int hashCode() {
+         return declarations.hashCode();
+     }
+ 
+     public String toString() {
+         return declarations.toString();
+     }
+ 
+ }
@@ -0,0 +1,305 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+ 
+ /**
+  * Builds the subtrees of a large XML policy store as they are first used.
+  * When the store is loaded only its top-level resources are created, each
+  * as a {@link LazyResourceAclList} holding the byte range of its element.
+  * The first lookup that goes into a resource scans its range with the 
+  * {@link PolicyStoreScanner} and builds its principal ACLs, and its nested
+  * resources as further lazy nodes. Load time and heap are then in proportion
+  * to the resources requested rather than to the whole store.<p>
+  *
+  * The bytes of the store are kept for the life of the store. Files read
+  * from a {@link DirectoryPolicySource} are memory mapped, and their bytes
+  * are copied into a direct buffer the loader owns, so the store holds the
+  * size of its file off the heap whatever share of it is used.<p>
+  *
+  * Top-level subtrees that have not been used for an idle timeout are 
+  * dropped, and built again should they be needed. The sweep is made by the
+  * lookups themselves, at most once every half timeout. The following system
+  * properties may be set at deploy time:<p>
+  *
+  * <pre>
+  * hippikon.lazy-store.threshold      bytes from which stores load lazily (default 8 MB, -1 never)
+  * hippikon.lazy-store.idle-timeout   idle milliseconds before a subtree is dropped (default 30 minutes, 0 never)
+  * </pre>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ final class SubtreeLoader {
+ 
+     private static Logger log = Logger.getLogger("com.hippikon.security.SubtreeLoader");
+ 
+     private final ByteBuffer buffer;
+     private final PolicyStoreScanner scanner;
+     private final String description;
+     private final int root;
+     private final long idleTimeout;
+ 
+     private final List<LazyResourceAclList> topLevel = new ArrayList<LazyResourceAclList>();
+     private final List<String> includes = new ArrayList<String>();
+     private final Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+     private volatile List<String> principals;
+ 
+     private volatile long nextSweep;
+     private final AtomicBoolean sweeping = new AtomicBoolean();
+     private final AtomicLong built = new AtomicLong();
+     private final AtomicLong dropped = new AtomicLong();
+ 
+     private SubtreeLoader(ByteBuffer buffer, PolicyStoreScanner scanner, String description, int root) {
+         this.buffer = buffer;
+         this.scanner = scanner;
+         this.description = description;
+         this.root = root;
+         this.idleTimeout = Long.getLong("hippikon.lazy-store.idle-timeout", 1800000L).longValue();
+         this.nextSweep = System.currentTimeMillis() + idleTimeout / 2;
+     }
+ 
+     /**
+      * Returns true if a store of a number of bytes should be loaded lazily
+      */
+     static boolean isLazy(int bytes) {
+         long threshold = Long.getLong("hippikon.lazy-store.threshold", 8L * 1024 * 1024).longValue();
+         return threshold >= 0 && bytes >= threshold;
+     }
+ 
+     /**
+      * Returns a buffer of the bytes of a store that the loader may keep. 
+      * A mapped policy file may be edited in place while the store is live,
+      * which would change the bytes under the index, or truncated, which 
+      * would fault the JVM on the next subtree built, so a mapped buffer is
+      * copied into a direct buffer of its own.
+      */
+     static ByteBuffer own(ByteBuffer buffer) {
+         if (!(buffer instanceof MappedByteBuffer)) return buffer;
+         ByteBuffer copy = ByteBuffer.allocateDirect(buffer.remaining());
+         copy.put(buffer.duplicate());
+         copy.flip();
+         return copy;
+     }
+ 
+     /**
+      * Indexes the top-level resources of a store. The whole document is 
+      * scanned, so a store that is not well formed fails to load here 
+      * rather than on a later lookup.
+      *
+      * @param buffer the bytes of the store
+      * @param description the name of the store used in messages
+      *
+      * @return the loader, or null if the document cannot be scanned and
+      * must be parsed as a DOM
+      *
+      * @exception PolicyStoreLoadException thrown if the document is not
+      * well formed
+      */
+     static SubtreeLoader load(ByteBuffer buffer, String description) throws PolicyStoreLoadException {
+         PolicyStoreScanner scanner = new PolicyStoreScanner(buffer, description);
+         int root = scanner.findRoot();
+         if (root < 0) return null;
+ 
+         final SubtreeLoader loader = new SubtreeLoader(buffer, scanner, description, root);
+         scanner.scan(root, new PolicyStoreScanner.Handler() {
+             public void principal(String name, String acl) {
+             }
+             public void resource(String name, int start, int end) {
+                 loader.topLevel.add(new LazyResourceAclList(name, loader, start, end, true));
+             }
+             public void include(String file) {
+                 loader.includes.add(file);
+             }
+             public void role(String name, String inherits) {
+                 RoleHierarchy.declare(loader.roles, name, inherits);
+             }
+             public void finalRule(Map<String, String> attributes) {
+             }
+         }, false);
+         log.debug("Indexed " + loader.topLevel.size() + " top-level resources of " + description);
+         return loader;
+     }
+ 
+     /**
+      * Returns the top-level resources, none of which has been built
+      */
+     List<LazyResourceAclList> getTopLevel() {
+         return topLevel;
+     }
+ 
+     /**
+      * Returns the file names of the modules the store includes
+      */
+     List<String> getIncludes() {
+         return includes;
+     }
+
+     /**
+      * Returns the role and group inheritance the store declares
+      */
+     Map<String, List<String>> getRoles() {
+         return roles;
+     }
+ 
+     /**
+      * Returns the application-name of the store
+      */
+     String getApplicationName() throws PolicyStoreLoadException {
+         return scanner.getAttribute(root, "application-name");
+     }
+ 
+     /**
+      * Builds the principal ACLs and nested resources of a lazy node. A 
+      * subtree that cannot be built is logged and treated as having no ACLs 
+      * or nested resources, so access to it is denied.
+      */
+     ResourceAclList build(LazyResourceAclList node) {
+         final ResourceAclList list = new ResourceAclList(node.getResourceName());
+         try {
+             scanner.scan(node.getStart(), new PolicyStoreScanner.Handler() {
+                 public void principal(String name, String acl) {
+                     list.addPrincipalACL(ACL.valueOf(name, DefaultPermissionSet.getIntVal(acl)));
+                 }
+                 public void resource(String name, int start, int end) {
+                     LazyResourceAclList child = new LazyResourceAclList(name, SubtreeLoader.this, start, end, false);
+                     list.addNestedList(child);
+                 }
+                 public void include(String file) {
+                 }
+                 public void role(String name, String inherits) {
+                 }
+                 public void finalRule(Map<String, String> attributes) {
+                     list.addFinalRule(FinalRule.compile(attributes, list.getResourceName()));
+                 }
+             }, false);
+             built.incrementAndGet();
+         } catch (Exception e) {
+             log.error("Could not build resource " + node.getResourceName() + " of " + description, e);
+             return new ResourceAclList(node.getResourceName());
+         }
+         return list;
+     }
+ 
+     /**
+      * Called on each use of a top-level resource. Drops the idle subtrees
+      * once the sweep is due.
+      *
+      * @return the current time in milliseconds
+      */
+     long touch() {
+         long now = System.currentTimeMillis();
+         if (idleTimeout > 0 && now >= nextSweep && sweeping.compareAndSet(false, true)) {
+             try {
+                 nextSweep = now + idleTimeout / 2;
+                 long idleSince = now - idleTimeout;
+                 int count = 0;
+                 for (LazyResourceAclList list : topLevel) {
+                     if (list.dropIfIdle(idleSince)) count++;
+                 }
+                 if (count > 0) {
+                     dropped.addAndGet(count);
+                     log.debug("Dropped " + count + " idle subtrees of " + description);
+                 }
+             } finally {
+                 sweeping.set(false);
+             }
+         }
+         return now;
+     }
+ 
+     /**
+      * Returns the principal names used anywhere in the store, found by
+      * scanning the whole document once. No subtrees are built.
+      */
+     List<String> getDefinedPrincipals() {
+         if (principals == null) {
+             final Set<String> names = new LinkedHashSet<String>();
+             try {
+                 scanner.scan(root, new PolicyStoreScanner.Handler() {
+                     public void principal(String name, String acl) {
+                         names.add(name.intern());
+                     }
+                     public void resource(String name, int start, int end) {
+                     }
+                     public void include(String file) {
+                     }
+                     public void role(String name, String inherits) {
+                     }
+                     public void finalRule(Map<String, String> attributes) {
+                     }
+                 }, true);
+             } catch (PolicyStoreLoadException e) {
+                 log.error("Could not scan principals of " + description, e);
+             }
+             principals = new ArrayList<String>(names);
+         }
+         return principals;
+     }
+ 
+     /**
+      * Returns the number of subtrees built since the store was loaded
+      */
+     long getBuiltCount() {
+         return built.get();
+     }
+ 
+     /**
+      * Returns the number of idle subtrees dropped since the store was loaded
+      */
+     long getDroppedCount() {
+         return dropped.get();
+     }
+ 
+     /**
+      * Returns the estimated memory kept by the loader: the top-level index
+      * and the bytes of the store, whether on the heap or in the direct 
+      * buffer of its own that a mapped file is copied into
+      */
+     long estimateBytes() {
+         long bytes = PolicyStoreFootprint.arrayListBytes(topLevel.size());
+         if (buffer.isDirect()) {
+             bytes += buffer.capacity();
+         } else {
+             bytes += PolicyStoreFootprint.align(PolicyStoreFootprint.ARRAY_HEADER + buffer.capacity());
+         }
+         return bytes;
+     }
+ 
+ }
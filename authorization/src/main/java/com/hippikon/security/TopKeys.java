@@ -0,0 +1,225 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.util.ArrayList;
+ import java.util.Collections;
+ import java.util.Comparator;
+ import java.util.List;
+ import java.util.concurrent.atomic.AtomicReferenceArray;
+ 
+ /**
+  * Keeps track of the <code>k</code> most frequently seen keys in a
+  * stream, using the estimates produced by a {@link CountMinSketch}.<p>
+  *
+  * The keys are held in an open-addressed table found by their hash with 
+  * linear probing, so a lookup neither boxes the hash nor allocates. Keys
+  * already being tracked are updated without locking. A new key
+  * is only admitted when its estimate beats the smallest tracked
+  * count, at which point the smallest entry is evicted. Callers should
+  * first check {@link #isCandidate(long, long)} so that the (possibly
+  * expensive) label for a key is only built when it is about to be
+  * admitted.<p>
+  *
+  * This class is used internally by {@link AccessStatistics} and is not
+  * exposed to clients in the public API.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ 
+ class TopKeys<T> {
+ 
+     private final int capacity;
+     private final int mask;
+ 
+     // the slots of the tracked keys, at least half empty. The table is only
+     // changed while holding the lock; a reader racing the removal of 
+     // another key may miss its key, which then takes the locked path
+     //
+     private final AtomicReferenceArray<Slot<T>> table;
+     private volatile int size;
+ 
+     // the smallest count currently tracked - a key must beat
+     // this to be admitted once the table is full
+     //
+     private volatile long minCount;
+ 
+     /**
+      * Creates a new TopKeys table
+      *
+      * @param capacity the number of keys to track
+      */
+     TopKeys(int capacity) {
+         if (capacity < 1)
+             throw new IllegalArgumentException("TopKeys capacity must be positive");
+         this.capacity = capacity;
+         this.mask = (Integer.highestOneBit(capacity * 2 - 1) << 1) - 1;
+         this.table = new AtomicReferenceArray<Slot<T>>(mask + 1);
+     }
+ 
+     /**
+      * Updates the count of a tracked key and returns true, or returns
+      * false if the key is not tracked
+      */
+     boolean update(long hash, long estimate) {
+         Slot<T> slot = find(hash);
+         if (slot == null) return false;
+         if (estimate > slot.count) slot.count = estimate;
+         return true;
+     }
+ 
+     /**
+      * Returns true if an untracked key with the estimated count would
+      * currently be admitted to the table
+      */
+     boolean isCandidate(long hash, long estimate) {
+         return size < capacity || estimate > minCount;
+     }
+ 
+     /**
+      * Admits a key to the table, evicting the smallest entry if the
+      * table is full
+      */
+     synchronized void insert(long hash, long estimate, T label) {
+         if (update(hash, estimate)) return;
+         if (size >= capacity) {
+             int smallest = findSmallest();
+             if (table.get(smallest).count >= estimate) return;
+             remove(smallest);
+         }
+         int i = index(hash);
+         while (table.get(i) != null) {
+             i = (i + 1) & mask;
+         }
+         table.set(i, new Slot<T>(hash, label, estimate));
+         size++;
+         minCount = (size >= capacity) ? table.get(findSmallest()).count : 0;
+     }
+ 
+     // the slot a key is first looked for in
+     //
+     private int index(long hash) {
+         return (int)(hash ^ (hash >>> 32)) & mask;
+     }
+ 
+     // probes from the key's own slot to the first empty one
+     //
+     private Slot<T> find(long hash) {
+         for (int i = index(hash);; i = (i + 1) & mask) {
+             Slot<T> slot = table.get(i);
+             if (slot == null) return null;
+             if (slot.hash == hash) return slot;
+         }
+     }
+ 
+     // scans the (small) table for the slot with the lowest count
+     //
+     private int findSmallest() {
+         int smallest = -1;
+         for (int i = 0; i < table.length(); i++) {
+             Slot<T> slot = table.get(i);
+             if (slot != null && (smallest < 0 || slot.count < table.get(smallest).count)) {
+                 smallest = i;
+             }
+         }
+         return smallest;
+     }
+ 
+     // empties a slot and moves back the keys after it that would no 
+     // longer be found past the gap
+     //
+     private void remove(int i) {
+         table.set(i, null);
+         size--;
+         for (int j = (i + 1) & mask;; j = (j + 1) & mask) {
+             Slot<T> slot = table.get(j);
+             if (slot == null) return;
+             if (((j - index(slot.hash)) & mask) >= ((j - i) & mask)) {
+                 table.set(i, slot);
+                 table.set(j, null);
+                 i = j;
+             }
+         }
+     }
+ 
+     /**
+      * Halves the count of every tracked key, to match
+      * {@link CountMinSketch#decay()}
+      */
+     synchronized void decay() {
+         for (int i = 0; i < table.length(); i++) {
+             Slot<T> slot = table.get(i);
+             if (slot != null) slot.count = slot.count >>> 1;
+         }
+         minCount = minCount >>> 1;
+     }
+ 
+     /**
+      * Removes all tracked keys
+      */
+     synchronized void clear() {
+         for (int i = 0; i < table.length(); i++) {
+             table.set(i, null);
+         }
+         size = 0;
+         minCount = 0;
+     }
+ 
+     /**
+      * Returns the labels and counts of the tracked keys, ordered from 
+      * the most to least frequent
+      */
+     List<Slot<T>> getTopKeys() {
+         List<Slot<T>> list = new ArrayList<Slot<T>>();
+         for (int i = 0; i < table.length(); i++) {
+             Slot<T> slot = table.get(i);
+             if (slot != null) list.add(new Slot<T>(slot.hash, slot.label, slot.count));
+         }
+         Collections.sort(list, new Comparator<Slot<T>>() {
+             public int compare(Slot<T> a, Slot<T> b) {
+                 return (a.count < b.count) ? 1 : ((a.count == b.count) ? 0 : -1);
+             }
+         });
+         return list;
+     }
+ 
+     /**
+      * A tracked key label and its estimated count
+      */
+     static class Slot<T> {
+         final long hash;
+         final T label;
+         volatile long count;
+ 
+         Slot(long hash, T label, long count) {
+             this.hash = hash;
+             this.label = label;
+             this.count = count;
+         }
+     }
+ 
+ }
@@ -0,0 +1,83 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+ 
+ /**
+  * The UserPrincipal annotation declares a user principal a 
+  * {@link ProtectedResource} gives the user when an attribute of the 
+  * {@link AuthorizationContext} matches a property of the resource. It 
+  * takes the place of a {@link Policy#determineUserPrincipals()} that 
+  * only compares the user with the resource. For example:<p>
+  *
+  * <pre>
+  * &#64;ProtectedResource(name="Project")
+  * &#64;UserPrincipal(name="the-teamleader", property="teamLeaderGUID")
+  * &#64;UserPrincipal(name="group-member", property="projectTeamGUIDs")
+  * public class Project { ... }
+  * </pre>
+  *
+  * The context attribute and the resource property are read with their
+  * <code>getX()</code> or <code>isX()</code> methods. They match if they 
+  * are equal or, where one is a Collection, if it contains the other; two
+  * Collections match if they have an element in common. A property matched
+  * by membership must be declared as a Set, so that membership is a hashed
+  * lookup; a class declaring another Collection fails its checks. The 
+  * attributes of a {@link ResourceDescriptor} may be any Collection.<p>
+  *
+  * The principals declared are added to those of the Policy bound to the
+  * resource. The accessors are resolved once per class.<p>
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(UserPrincipals.class)
+public @interface UserPrincipal {
+ 
+     /**
+      * Returns the name of the user principal, as used in the policy store
+      */
+     public String name();
+ 
+     /**
+      * Returns the AuthorizationContext attribute to match, by default 
+      * the userGUID
+      */
+     public String context() default "userGUID";
+ 
+     /**
+      * Returns the property of the resource to match the context attribute
+      * against
+      */
+     public String property();
+ 
+ }
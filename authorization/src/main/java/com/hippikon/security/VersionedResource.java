@@ -0,0 +1,71 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ /**
+  * The VersionedResource interface may be implemented by 
+  * {@link ProtectedResource} objects whose state changes can be stamped, 
+  * so the final PermissionSet of a check made on them can be cached and 
+  * reused by later requests.<p>
+  *
+  * A check made on a chain of resources that all implement 
+  * VersionedResource is cached under the user, the identity and version of 
+  * each resource, and the version of the {@link PolicyStore}. Any change 
+  * that may affect the decision of a {@link Policy} must therefore change 
+  * the version returned, for instance a Project being closed:<p>
+  *
+  * <pre>
+  * public long getResourceVersion() {
+  *     return lastModified.getTime();
+  * }
+  * </pre>
+  *
+  * A Policy whose decision depends on anything other than the resource, 
+  * the AuthorizationContext and the PolicyStore, such as the time of day,
+  * must not be used with resources that implement this interface.<p>
+  *
+  * The size of the cache may be set with the 
+  * <code>hippikon.decision-cache.size</code> system property (default 
+  * 10000). A size of 0 turns the cache off.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public interface VersionedResource {
+ 
+     /**
+      * Returns an identifier that is unique and stable among the resources
+      * of the same type, such as a GUID or primary key
+      */
+     public abstract String getResourceIdentity();
+ 
+     /**
+      * Returns a version or modification stamp that changes whenever the 
+      * state of the resource changes
+      */
+     public abstract long getResourceVersion();
+ 
+ }
@@ -25,18 +25,42 @@
 package com.hippikon.security;
  
  import java.io.*;
+ import java.nio.ByteBuffer;
  import java.util.*;
+ import java.util.concurrent.*;
+ import java.util.concurrent.atomic.AtomicInteger;
  import org.apache.log4j.*;
- import com.hippikon.io.FileUtil;
  import org.w3c.dom.*;
 import javax.xml.parsers.*;
+
+import com.hippikon.io.ByteBufferInputStream;
  
  
  /**
   * The XMLPolicyStore class provides an implementation of a {@link PolicyStore}
   * where permissions for user and roles principals are defined in an XML 
-  * file named [productID]-policy-store.xml that must be located in 
-  * the system classpath.<p>
+  * file named hippikon.product-id.[productID].policy-store.xml that is read 
+  * from a {@link PolicySource}, by default the system classpath.<p>
+  *
+  * Stores of hippikon.lazy-store.threshold bytes or more (8 MB by default)
+  * are not parsed in full. Their top-level resources are indexed and each
+  * subtree is built the first time it is used, see {@link SubtreeLoader}.<p>
+  *
+  * A store may be split into modules with top-level 
+  * <code>&lt;include file="..."/&gt;</code> elements naming other 
+  * policy-store documents in the same source, see {@link PolicyModule}. 
+  * Modules are read and built in parallel and their resources are added in
+  * include order after those of the store document, a later definition of 
+  * a top-level resource replacing an earlier one. Modules may not include 
+  * other modules. {@link #reloadModules()} rebuilds only the modules whose
+  * contents have changed.<p>
+  *
+  * Top-level <code>&lt;role&gt;</code> and <code>&lt;group&gt;</code> 
+  * elements declare principals that inherit others, see {@link RoleHierarchy}.<p>
+  *
+  * <code>&lt;final-rule&gt;</code> elements of a protected-resource 
+  * declare the simple restrictions otherwise written as a Policy doFinal(),
+  * see {@link FinalRule}.<p>
   *
   * @author Dale Churchett
   * @version $Id: XMLPolicyStore.java,v 1.6 2012/04/23 14:25:16 dalehippikon Exp $
@@ -58,17 +82,26 @@ import javax.xml.parsers.*;
      // the name of the protected-resource XML node
      //
      static final String PROTECTED_RESOURCE = "protected-resource";
- 
-     private static Logger log = Logger.getLogger("com.hippkion.security.XMLPolicyStore");
- 
-     // ProtectedResource DOM Node->ResourceAclList map
+
+     // the name of the include XML node
      //
-     private Map<Node, ResourceAclList> nodeAclListMap;
- 
-     // the list of bottom-most ProtectedResource nodes
-     // i.e., those that appear last in a resource path
+     static final String INCLUDE = "include";
+
+     // the names of the XML nodes declaring role and group inheritance
      //
-     private List<Node> leafList;
+     static final String ROLE = "role";
+     static final String GROUP = "group";
+
+     // the name of the XML node declaring a rule in place of a doFinal()
+     //
+     static final String FINAL_RULE = "final-rule";
+
+     // the number of threads modules are read and built with
+     //
+     private static final int MODULE_THREADS = Integer.getInteger("hippikon.module.threads", 
+                                                                  Runtime.getRuntime().availableProcessors());
+ 
+     private static Logger log = Logger.getLogger("com.hippkion.security.XMLPolicyStore");
  
      // used to load the XML document for the correct product    
      //
@@ -77,7 +110,18 @@ import javax.xml.parsers.*;
      private String filename;
      private String applicationName;
      private File xmlFile;
+     private PolicySource source;
+
+     // only kept for the PermsNavigator, which saves the edited document
+     //
      private Document xmlDoc;
+
+ 
+     // the store document and the modules it includes, in include order. 
+     // Neither is kept for stores loaded for the PermsNavigator.
+     //
+     private PolicyModule document;
+     private volatile List<PolicyModule> modules = Collections.emptyList();
      
      private List<String> uniquePrincipals = new ArrayList<String>();
  
@@ -90,18 +134,34 @@ import javax.xml.parsers.*;
       * not be loaded
       */
      protected XMLPolicyStore(String productID) throws PolicyStoreLoadException {
+         this(productID, PolicySource.getDefault());
+     }
  
+     /**
+      * Creates a new XMLPolicyStore for a product, reading the XML file
+      * from a specific source.
+      *
+      * @param productID the identifier for the product being accessed
+      * @param source the PolicySource to read the XML file from
+      * @exception PolicyStoreLoadException thrown if the PolicyStore could
+      * not be loaded
+      */
+     XMLPolicyStore(String productID, PolicySource source) throws PolicyStoreLoadException {
          this.productID = productID;
          this.filename = constructStoreFilename(productID);
+         this.source = source;
+         load();
  
-         // load the data structure from the XML file
+         // the policy mappings are loaded with the XML so that both are
+         // replaced together when the store is flushed and reloaded
          //
-         try {
-             this.xmlFile = FileUtil.findFileInClasspath(filename);
-         } catch (Exception e) {
-             throw new PolicyStoreLoadException(e.getMessage());
-         }
-         load();
+         setPolicyRegistry(PolicyBroker.loadRegistry(productID, source));
+
+         // changes made through a PolicyStoreEditor are replayed over the
+         // loaded document
+         //
+         PolicyJournal journal = PolicyJournal.forProduct(productID);
+         if (journal != null) journal.recover(this);
      }
  
      // provided for the PermsNavigator
@@ -112,6 +172,10 @@ import javax.xml.parsers.*;
          load();
      }
  
+     PolicySource getPolicySource() {
+         return (source != null) ? source : super.getPolicySource();
+     }
+ 
      /**
       * Returns the application name of the XML policy file
       */
@@ -125,7 +189,7 @@ import javax.xml.parsers.*;
       * while product policy store files are named SAL-PRDT-([\d]{3}).policy-store.xml
       * (e.g. SAL-PRDT-001.policy-store.xml)
       */
-     private String constructStoreFilename(String productID) {
+     static String constructStoreFilename(String productID) {
  
          // check for policy stores containing account
          // specific extensions. These will start with SAL
@@ -152,7 +216,7 @@ import javax.xml.parsers.*;
      /**
       * Returns a 3-length String zero padded productID (e.g., 001, 002)
       */
-     private String zeroPadProductID(String productID) {
+     private static String zeroPadProductID(String productID) {
          StringBuffer sb = new StringBuffer();
          for (int i = (3 - productID.length()); i > 0; i--) {
              sb.append("0");
@@ -163,87 +227,370 @@ import javax.xml.parsers.*;
  
  
      /**
-      * Load the PolicyStore from an XML file
+      * Load the PolicyStore from an XML file, and the modules it includes
       */
      protected void load() throws PolicyStoreLoadException {
- 
+         if (xmlFile != null) {
+             loadFile();
+             return;
+         }
+         ByteBuffer buffer;
          try {
- 
-             // used to store the nodes and their corresponding ResourceAclList
-             //
-             this.nodeAclListMap = new HashMap<Node, ResourceAclList>();
-             this.leafList = new ArrayList<Node>();
-     
-             String xmlFilename = this.xmlFile.getAbsolutePath();
-         
-             // read and parse the XML file as a DOM object
-             //
-             DocumentBuilder domParser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-             File xmlFile = new File(xmlFilename);
-             this.xmlDoc = domParser.parse(xmlFile);
-             xmlFile = null;
- 
-             // get the root element, which is the product itself
-             //
-             //Document xmlDoc = domParser.getDocument();
-             Element prdNode = xmlDoc.getDocumentElement();
- 
-             this.applicationName = prdNode.getAttribute("application-name");
-             log.debug("Parsing XML Policy Store for product: " + applicationName);
- 
-             // get all the protected-resource entries and map their respective
-             // ResourceAclList objects to the DOM node from the XML document
-             //
-             NodeList allResNodes = xmlDoc.getElementsByTagName(PROTECTED_RESOURCE);
-             for (int j = 0; j < allResNodes.getLength(); j++) {
-                 Node node = allResNodes.item(j);
- 
-                 ResourceAclList resAclList = getAclListForNode(node);
-                 nodeAclListMap.put(node, resAclList);
- 
-                 // keep track of leaf nodes so we can work backwards later
-                 //
-                 if (!(hasChildProtectedResource(node))) {
-                     leafList.add(node);
+             buffer = source.read(filename);
+         } catch (IOException e) {
+             log.error("Could not load policy store " + source.getDescription(filename), e);
+             throw new PolicyStoreLoadException(source.getDescription(filename) + ": " + e.getMessage());
+         }
+         PolicyModule document = loadModule(filename, buffer);
+         List<PolicyModule> modules = loadModules(document.getIncludes());
+         this.document = document;
+         this.applicationName = document.getApplicationName();
+         this.modules = modules;
+         setRoleHierarchy(assembleRoles(document, modules));
+         setResourceAcls(assemble(document, modules));
+     }
+
+     /**
+      * Returns true if the store document itself has changed since it was
+      * loaded, in which case the whole store must be reloaded rather than 
+      * its modules
+      *
+      * @exception PolicyStoreLoadException thrown if the document could 
+      * not be read
+      */
+     boolean isDocumentChanged() throws PolicyStoreLoadException {
+         if (document == null) return false;
+         try {
+             return PolicyModule.checksum(source.read(filename)) != document.getChecksum();
+         } catch (IOException e) {
+             throw new PolicyStoreLoadException(source.getDescription(filename) + ": " + e.getMessage());
+         }
+     }
+
+     /**
+      * Reads the included modules again and rebuilds those whose contents
+      * have changed, keeping the others as they are. The store's resources
+      * are replaced once all the changed modules have been built, so a 
+      * module that fails to load leaves the store unchanged. Changes to 
+      * the store document itself, including to its list of includes, are 
+      * not picked up.
+      *
+      * @return the names of the modules that were rebuilt
+      * @exception PolicyStoreLoadException thrown if a module could not be
+      * read or built
+      */
+     synchronized List<String> reloadModules() throws PolicyStoreLoadException {
+         List<PolicyModule> current = modules;
+         if (current.isEmpty()) return Collections.emptyList();
+         List<String> names = new ArrayList<String>();
+         for (PolicyModule module : current) {
+             names.add(module.getName());
+         }
+         Map<String, ByteBuffer> contents = readModules(names);
+
+         // only the changed modules are built again
+         //
+         Map<String, ByteBuffer> changed = new LinkedHashMap<String, ByteBuffer>();
+         for (PolicyModule module : current) {
+             ByteBuffer buffer = contents.get(module.getName());
+             if (PolicyModule.checksum(buffer) != module.getChecksum()) {
+                 changed.put(module.getName(), buffer);
+             }
+         }
+         if (changed.isEmpty()) return Collections.emptyList();
+         Map<String, PolicyModule> rebuilt = new HashMap<String, PolicyModule>();
+         for (PolicyModule module : buildModules(changed)) {
+             rebuilt.put(module.getName(), module);
+         }
+         List<PolicyModule> reloaded = new ArrayList<PolicyModule>(current.size());
+         for (PolicyModule module : current) {
+             PolicyModule changedModule = rebuilt.get(module.getName());
+             reloaded.add((changedModule != null) ? changedModule : module);
+         }
+         this.modules = reloaded;
+         setRoleHierarchy(assembleRoles(document, reloaded));
+         setResourceAcls(assemble(document, reloaded));
+         log.info("Reloaded modules " + changed.keySet() + " of " + source.getDescription(filename));
+         return new ArrayList<String>(changed.keySet());
+     }
+
+     /**
+      * Returns the modules included by the store document, in include order
+      */
+     List<PolicyModule> getModules() {
+         return modules;
+     }
+
+     // the top-level resources of the document followed by those of each
+     // module, so that a later definition replaces an earlier one
+     //
+     private static Map<String, ResourceAclList> assemble(PolicyModule document, List<PolicyModule> modules) {
+         Map<String, ResourceAclList> acls = new HashMap<String, ResourceAclList>(document.getResources());
+         for (PolicyModule module : modules) {
+             acls.putAll(module.getResources());
+         }
+         return acls;
+     }
+
+     // the inheritance declared by the document and each module
+     //
+     private static RoleHierarchy assembleRoles(PolicyModule document, List<PolicyModule> modules) {
+         Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+         List<PolicyModule> all = new ArrayList<PolicyModule>(modules);
+         all.add(0, document);
+         for (PolicyModule module : all) {
+             for (Map.Entry<String, List<String>> entry : module.getRoles().entrySet()) {
+                 RoleHierarchy.declare(roles, entry.getKey(), null);
+                 for (String inherited : entry.getValue()) {
+                     RoleHierarchy.declare(roles, entry.getKey(), inherited);
                  }
              }
- 
-             // now we can recurse through the bottom nodes
-             // and build the tree
-             //
-             for (Iterator<Node> i = leafList.iterator(); i.hasNext();) {
-                 Node node = (Node)i.next();
-                 buildTree(node);
+         }
+         return RoleHierarchy.build(roles);
+     }
+
+     // reads the included modules and builds them, in include order
+     //
+     private List<PolicyModule> loadModules(List<String> includes) throws PolicyStoreLoadException {
+         if (includes.isEmpty()) return Collections.emptyList();
+         if (new HashSet<String>(includes).size() != includes.size()) {
+             throw new PolicyStoreLoadException(source.getDescription(filename) + " includes a module more than once: " + includes);
+         }
+         if (includes.contains(filename)) {
+             throw new PolicyStoreLoadException(source.getDescription(filename) + " includes itself");
+         }
+         return buildModules(readModules(includes));
+     }
+
+     private Map<String, ByteBuffer> readModules(List<String> names) throws PolicyStoreLoadException {
+         try {
+             return source.readAll(names, MODULE_THREADS);
+         } catch (IOException e) {
+             log.error("Could not read the modules of " + source.getDescription(filename), e);
+             throw new PolicyStoreLoadException(source.getDescription(filename) + ": " + e.getMessage());
+         }
+     }
+
+     // builds modules from their contents on a pool of threads, since 
+     // each module is parsed independently of the others
+     //
+     private List<PolicyModule> buildModules(final Map<String, ByteBuffer> contents) throws PolicyStoreLoadException {
+         List<PolicyModule> built = new ArrayList<PolicyModule>(contents.size());
+         if (MODULE_THREADS < 2 || contents.size() == 1) {
+             for (Map.Entry<String, ByteBuffer> entry : contents.entrySet()) {
+                 built.add(loadModule(entry.getKey(), entry.getValue()));
              }
- 
-             // now we can add the top-level nodes to the 
-             // data structure defined in the superclass
-             //
-             NodeList resNodes = prdNode.getChildNodes();
-             for (int i = 0; i < resNodes.getLength(); i++) {
-                 Node node = resNodes.item(i);
-                 if (node.getNodeType() == Node.COMMENT_NODE) {
-                     continue;
+         } else {
+             ExecutorService executor = Executors.newFixedThreadPool(Math.min(MODULE_THREADS, contents.size()), 
+                                                                     new ModuleThreadFactory());
+             try {
+                 List<Future<PolicyModule>> futures = new ArrayList<Future<PolicyModule>>();
+                 for (final Map.Entry<String, ByteBuffer> entry : contents.entrySet()) {
+                     futures.add(executor.submit(new Callable<PolicyModule>() {
+                         public PolicyModule call() throws PolicyStoreLoadException {
+                             return loadModule(entry.getKey(), entry.getValue());
+                         }
+                     }));
+                 }
+                 for (Future<PolicyModule> future : futures) {
+                     try {
+                         built.add(future.get());
+                     } catch (InterruptedException e) {
+                         Thread.currentThread().interrupt();
+                         throw new PolicyStoreLoadException("Interrupted loading the modules of " + source.getDescription(filename));
+                     } catch (ExecutionException e) {
+                         Throwable cause = e.getCause();
+                         if (cause instanceof PolicyStoreLoadException) throw (PolicyStoreLoadException)cause;
+                         throw new PolicyStoreLoadException("Could not load the modules of " + source.getDescription(filename) + ": " + cause);
+                     }
                  }
-                 ResourceAclList aclList = (ResourceAclList)nodeAclListMap.get(node);
-                 if (!(node instanceof Element)) continue;
-                 Element e = (Element)node;
-                 String key = e.getAttribute("name");
-                 addResourceAclList(key, aclList);
+             } finally {
+                 executor.shutdownNow();
              }
+         }
+         for (PolicyModule module : built) {
+             if (!module.getIncludes().isEmpty()) {
+                 throw new PolicyStoreLoadException(source.getDescription(module.getName()) + " is a module and cannot include " + module.getIncludes());
+             }
+         }
+         return built;
+     }
+
+     /**
+      * Loads one policy-store document from its contents. Documents of 
+      * hippikon.lazy-store.threshold bytes or more are indexed by a 
+      * SubtreeLoader, others are parsed in full and their identical 
+      * subtrees shared.
+      */
+     private PolicyModule loadModule(String name, ByteBuffer buffer) throws PolicyStoreLoadException {
+         return loadModule(name, source.getDescription(name), buffer);
+     }
+
+     /**
+      * Loads a snapshot of the store written by its {@link PolicyJournal}
+      */
+     PolicyModule loadSnapshot(File file, ByteBuffer buffer) throws PolicyStoreLoadException {
+         return loadModule(file.getName(), file.getPath(), buffer);
+     }
+
+     private PolicyModule loadModule(String name, String description, ByteBuffer buffer) throws PolicyStoreLoadException {
  
+         // a lazy store keeps its bytes, so they are copied before the 
+         // checksum is taken from a mapped file that may later change
+         //
+         boolean lazy = SubtreeLoader.isLazy(buffer.remaining());
+         if (lazy) buffer = SubtreeLoader.own(buffer);
+         long checksum = PolicyModule.checksum(buffer);
+         try {
+             if (lazy) {
+                 SubtreeLoader loader = SubtreeLoader.load(buffer, description);
+                 if (loader != null) {
+                     Map<String, ResourceAclList> resources = new LinkedHashMap<String, ResourceAclList>();
+                     for (LazyResourceAclList list : loader.getTopLevel()) {
+                         resources.put(list.getResourceName(), list);
+                     }
+                     log.debug("Loaded " + description + " lazily with " + resources.size() + " top-level resources");
+                     return new PolicyModule(name, checksum, loader.getApplicationName(), resources, 
+                                             loader.getIncludes(), loader.getRoles(), null, loader);
+                 }
+                 log.debug(description + " cannot be scanned and is loaded in full");
+             }
+             Document xmlDoc = parse(new ByteBufferInputStream(buffer), description);
+             List<String> principals = new ArrayList<String>();
+             List<String> includes = new ArrayList<String>();
+             Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+             Map<String, ResourceAclList> resources = buildResources(xmlDoc, principals, includes, roles, description);
+             int shared = shareSubtrees(resources);
+             log.debug("Shared " + shared + " resource nodes in " + description);
+             return new PolicyModule(name, checksum, xmlDoc.getDocumentElement().getAttribute("application-name"), 
+                                     resources, includes, roles, principals, null);
          } catch (Exception e) {
-             e.printStackTrace();
-             System.exit(0);
-             throw new PolicyStoreLoadException(e.getMessage());
+             log.error("Could not load policy store " + description, e);
+             throw new PolicyStoreLoadException(description + ": " + e.getMessage());
+         }
+     }
+
+     /**
+      * Loads a store file for the PermsNavigator, keeping the DOM so that 
+      * the edited document can be saved. Includes are not followed.
+      */
+     private void loadFile() throws PolicyStoreLoadException {
+         String description = xmlFile.getPath();
+         InputStream in = null;
+         try {
+             in = new BufferedInputStream(new FileInputStream(xmlFile), 16384);
+             Document xmlDoc = parse(in, description);
+             List<String> includes = new ArrayList<String>();
+             Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+             Map<String, ResourceAclList> resources = buildResources(xmlDoc, uniquePrincipals, includes, roles, description);
+             setRoleHierarchy(RoleHierarchy.build(roles));
+             for (Map.Entry<String, ResourceAclList> entry : resources.entrySet()) {
+                 addResourceAclList(entry.getKey(), entry.getValue());
+             }
+             if (!includes.isEmpty()) {
+                 log.warn(description + " includes " + includes + ", which are not loaded");
+             }
+             this.applicationName = xmlDoc.getDocumentElement().getAttribute("application-name");
+             this.xmlDoc = xmlDoc;
+         } catch (Exception e) {
+             log.error("Could not load policy store " + description, e);
+             throw new PolicyStoreLoadException(description + ": " + e.getMessage());
+         } finally {
+             try {
+                 if (in != null) in.close();
+             } catch (IOException e) { }
+         }
+     }
+
+     static Document parse(InputStream in, String description) throws Exception {
+         DocumentBuilder domParser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+         return domParser.parse(in, description);
+     }
+
+     /**
+      * Builds the ResourceAclList trees of a parsed document
+      *
+      * @param xmlDoc the parsed policy-store document
+      * @param principals collects the principal names used by the document
+      * @param includes collects the file names of the modules it includes
+      * @param roles collects the role and group inheritance it declares
+      * @return the top-level ResourceAclList objects keyed by name, in 
+      * document order
+      */
+     private Map<String, ResourceAclList> buildResources(Document xmlDoc, List<String> principals, 
+                                                         List<String> includes, Map<String, List<String>> roles, 
+                                                         String description) {
+
+         // used to store the nodes and their corresponding ResourceAclList,
+         // and the bottom-most ProtectedResource nodes i.e., those that 
+         // appear last in a resource path. Neither is kept once loaded.
+         //
+         Map<Node, ResourceAclList> nodeAclListMap = new HashMap<Node, ResourceAclList>();
+         List<Node> leafList = new ArrayList<Node>();
+
+         // get the root element, which is the product itself
+         //
+         Element prdNode = xmlDoc.getDocumentElement();
+         log.debug("Parsing XML Policy Store for product: " + prdNode.getAttribute("application-name"));
+
+         // get all the protected-resource entries and map their respective
+         // ResourceAclList objects to the DOM node from the XML document
+         //
+         NodeList allResNodes = xmlDoc.getElementsByTagName(PROTECTED_RESOURCE);
+         for (int j = 0; j < allResNodes.getLength(); j++) {
+             Node node = allResNodes.item(j);
+
+             ResourceAclList resAclList = getAclListForNode(node, principals);
+             nodeAclListMap.put(node, resAclList);
+
+             // keep track of leaf nodes so we can work backwards later
+             //
+             if (!(hasChildProtectedResource(node))) {
+                 leafList.add(node);
+             }
          }
+
+         // now we can recurse through the bottom nodes
+         // and build the tree
+         //
+         for (Iterator<Node> i = leafList.iterator(); i.hasNext();) {
+             Node node = (Node)i.next();
+             buildTree(node, nodeAclListMap);
+         }
+
+         // now we can collect the top-level nodes, and the 
+         // modules included by the document
+         //
+         Map<String, ResourceAclList> resources = new LinkedHashMap<String, ResourceAclList>();
+         NodeList resNodes = prdNode.getChildNodes();
+         for (int i = 0; i < resNodes.getLength(); i++) {
+             Node node = resNodes.item(i);
+             if (!(node instanceof Element)) continue;
+             Element e = (Element)node;
+             if (e.getNodeName().equals(INCLUDE)) {
+                 includes.add(e.getAttribute("file"));
+                 continue;
+             }
+             if (e.getNodeName().equals(ROLE) || e.getNodeName().equals(GROUP)) {
+                 RoleHierarchy.declare(roles, e.getAttribute("name"), e.getAttribute("inherits"));
+                 continue;
+             }
+             ResourceAclList aclList = (ResourceAclList)nodeAclListMap.get(node);
+             String key = e.getAttribute("name");
+             if (key.length() == 0 || aclList == null) {
+                 log.error("Ignoring " + e.getNodeName() + " element " + key + " in " + description);
+                 continue;
+             }
+             resources.put(key, aclList);
+         }
+         return resources;
      }
  
      /**
       * Builds a tree of ResourceAclList objects working backwards
       * through the DOM object. This is a recursive method.
       */
-     private void buildTree(Node node) {
+     private void buildTree(Node node, Map<Node, ResourceAclList> nodeAclListMap) {
          ResourceAclList aclList = (ResourceAclList)nodeAclListMap.get(node);
  
          Node parentNode = node.getParentNode();
@@ -252,7 +599,7 @@ import javax.xml.parsers.*;
          } 
          ResourceAclList parentAclList = (ResourceAclList)nodeAclListMap.get(parentNode);
          parentAclList.addNestedList(aclList);
-         buildTree(parentNode);
+         buildTree(parentNode, nodeAclListMap);
      }
  
      /**
@@ -289,7 +636,7 @@ import javax.xml.parsers.*;
       * permissions
       *
       */
-     private ResourceAclList getAclListForNode(Node node) {
+     private ResourceAclList getAclListForNode(Node node, List<String> uniquePrincipals) {
  
          Element el = (Element)node;
          @SuppressWarnings("unused")
@@ -297,7 +644,7 @@ import javax.xml.parsers.*;
          String resourceName = el.getAttribute("name");
          ResourceAclList aclList = new ResourceAclList(resourceName);
  
-         // now find the role, user and any nested entries
+         // now find the role, user, rule and any nested entries
          //
          NodeList elementNodes = el.getChildNodes();
          for (int i = 0; i < elementNodes.getLength(); i++) {
@@ -325,15 +672,21 @@ import javax.xml.parsers.*;
              String childNodeName = childNode.getNodeName();
              if ((childNodeName != null) && childNodeName.equals("principal")) {
                  String principalName = childElement.getAttribute("name");
-                 aclList.addPrincipalACL(new ACL(principalName, aclIntVal));
+                 aclList.addPrincipalACL(ACL.valueOf(principalName, aclIntVal));
                  
                  // keep a running list of all unique principals
                  // primarily used in the PermissionsNavigator UI tool
                  //
                  if (!uniquePrincipals.contains(principalName)) {
-                     uniquePrincipals.add(principalName);
+                     uniquePrincipals.add(principalName.intern());
                  }
                  log.debug("Defining ACL for " + resourceName + "> " + elementName + ":" + principalName + ":" + acl + " (" + aclIntVal + ")");
+             } else if ((childNodeName != null) && childNodeName.equals(FINAL_RULE)) {
+                 Map<String, String> attributes = new HashMap<String, String>();
+                 for (String name : FinalRule.ATTRIBUTES) {
+                     attributes.put(name, childElement.getAttribute(name));
+                 }
+                 aclList.addFinalRule(FinalRule.compile(attributes, resourceName));
              } else {
                  continue;
              }
@@ -342,9 +695,51 @@ import javax.xml.parsers.*;
          return aclList;
      }
      
+     // the principal lists and resource maps of the modules, and the DOM 
+     // of stores loaded for the PermsNavigator. Parsed documents are 
+     // estimated from the element counts rather than walked, since a walk
+     // would build any parts of a deferred DOM not yet built
+     //
+     long estimateLoaderBytes() {
+         if (document != null) {
+             long bytes = document.estimateBytes();
+             for (PolicyModule module : modules) {
+                 bytes += module.estimateBytes();
+             }
+             return bytes;
+         }
+         long bytes = PolicyStoreFootprint.arrayListBytes(uniquePrincipals.size());
+         if (xmlDoc == null) return bytes;
+         int resources = xmlDoc.getElementsByTagName(PROTECTED_RESOURCE).getLength();
+         int principals = xmlDoc.getElementsByTagName("principal").getLength();
+ 
+         // each element has an attribute map and a whitespace text node,
+         // resources have one attribute and principals three
+         //
+         long element = 56 + 48 + 48 + 64;
+         long attribute = 56 + 48;
+         return bytes + (resources + principals) * element + (resources + 3L * principals) * attribute;
+     }
+ 
      public List<String> getDefinedPrincipals() {
-         return uniquePrincipals;
+         if (document == null) return uniquePrincipals;
+         List<PolicyModule> modules = this.modules;
+         if (modules.isEmpty()) return document.getDefinedPrincipals();
+         Set<String> principals = new LinkedHashSet<String>(document.getDefinedPrincipals());
+         for (PolicyModule module : modules) {
+             principals.addAll(module.getDefinedPrincipals());
+         }
+         return new ArrayList<String>(principals);
+     }
+
+     private static class ModuleThreadFactory implements ThreadFactory {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r) {
+             Thread thread = new Thread(r, "hippikon-module-loader-" + count.incrementAndGet());
+             thread.setDaemon(true);
+             return thread;
+         }
      }
  
  }
-
@@ -0,0 +1,160 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+ 
+ /**
+  * Tests the count-min sketch and top-k table behind the AccessStatistics.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AccessStatisticsTest extends TestCase {
+ 
+     public AccessStatisticsTest(String s) {
+         super(s);
+     }
+ 
+     /**
+      * Ensures the sketch never under-counts a key, and over-counts few 
+      * keys by more than e * N / width, the bound of a count-min sketch
+      */
+     public void testSketchBounds() throws Exception {
+         CountMinSketch sketch = new CountMinSketch(4, 1024);
+         long[] counts = new long[4000];
+         long total = 0;
+         for (int key = 0; key < counts.length; key++) {
+             counts[key] = 1 + (key % 50);
+             sketch.add(hash(key), counts[key]);
+             total += counts[key];
+         }
+         double bound = Math.E * total / 1024;
+         int over = 0;
+         for (int key = 0; key < counts.length; key++) {
+             long estimate = sketch.estimate(hash(key));
+             assertTrue("under-counted key " + key, estimate >= counts[key]);
+             if (estimate - counts[key] > bound) over++;
+         }
+         assertTrue(over + " keys over the bound", over < counts.length / 20);
+ 
+         sketch.decay();
+         assertTrue(sketch.estimate(hash(49)) >= counts[49] / 2);
+         sketch.clear();
+         assertEquals(0, sketch.estimate(hash(49)));
+     }
+ 
+     /**
+      * Ensures a full table only admits a key that beats its smallest 
+      * count, which it evicts, and lists the keys most frequent first
+      */
+     public void testTopKeysEviction() throws Exception {
+         TopKeys<String> top = new TopKeys<String>(3);
+         top.insert(hash(1), 5, "a");
+         top.insert(hash(2), 6, "b");
+         top.insert(hash(3), 7, "c");
+         assertFalse(top.isCandidate(hash(4), 5));
+         top.insert(hash(4), 5, "d");
+         assertFalse(top.update(hash(4), 5));
+ 
+         assertTrue(top.isCandidate(hash(4), 8));
+         top.insert(hash(4), 8, "d");
+         assertFalse(top.update(hash(1), 9));
+         assertTrue(top.update(hash(2), 9));
+         assertEquals("[b, d, c]", labels(top));
+ 
+         top.decay();
+         assertEquals(4, top.getTopKeys().get(0).count);
+         top.clear();
+         assertTrue(top.getTopKeys().isEmpty());
+     }
+ 
+     /**
+      * Ensures keys that probe past each other are still found once the 
+      * keys before them are evicted
+      */
+     public void testTopKeysCollisions() throws Exception {
+         TopKeys<String> top = new TopKeys<String>(8);
+         for (int i = 0; i < 8; i++) {
+             top.insert(i * 16L, i + 1, "k" + i);
+         }
+         for (int i = 8; i < 12; i++) {
+             top.insert(i * 16L, i + 1, "k" + i);
+         }
+         for (int i = 0; i < 12; i++) {
+             assertEquals("k" + i, i >= 4, top.update(i * 16L, i + 1));
+         }
+         assertEquals("[k11, k10, k9, k8, k7, k6, k5, k4]", labels(top));
+     }
+ 
+     /**
+      * Ensures a path is counted the same whatever List holds it
+      */
+     public void testPathLists() throws Exception {
+         AccessStatistics statistics = AccessStatistics.getInstance();
+         statistics.reset();
+         List<String> path = Arrays.asList("Project", "TaskList", "TaskListItem");
+         AccessStatistics.record("990", new ArrayList<String>(path), Arrays.asList("clerk"));
+         AccessStatistics.record("990", new LinkedList<String>(path), Arrays.asList("clerk"));
+         assertEquals(2, statistics.estimateChecks("990", new LinkedList<String>(path)));
+         assertEquals(path, statistics.getHotResources("990", 1).get(0).getResourcePath());
+         statistics.reset();
+     }
+ 
+     private static String labels(TopKeys<String> top) {
+         List<String> labels = new ArrayList<String>();
+         for (TopKeys.Slot<String> slot : top.getTopKeys()) {
+             labels.add(slot.label);
+         }
+         return labels.toString();
+     }
+ 
+     // the 64-bit finalizer from MurmurHash3, as the AccessStatistics mix 
+     // their keys
+     //
+     private static long hash(long h) {
+         h ^= h >>> 33;
+         h *= 0xff51afd7ed558ccdL;
+         h ^= h >>> 33;
+         h *= 0xc4ceb53a97f1d5c3L;
+         h ^= h >>> 33;
+         return h;
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.AccessStatisticsTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,359 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.lang.reflect.Method;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.List;
+ import java.util.concurrent.CountDownLatch;
+ import java.util.concurrent.ExecutorService;
+ import java.util.concurrent.TimeUnit;
+ import java.util.concurrent.atomic.AtomicBoolean;
+ import java.util.concurrent.atomic.AtomicLong;
+ import java.util.concurrent.atomic.AtomicLongArray;
+
+ import org.apache.log4j.Level;
+ import org.apache.log4j.Logger;
+
+ import com.hippikon.security.test.myapp.Component;
+ import com.hippikon.security.test.myapp.ProductChange;
+ import com.hippikon.security.test.myapp.Project;
+ import com.hippikon.security.test.myapp.PurchaseOrder;
+ import com.hippikon.security.test.myapp.TaskList;
+ import com.hippikon.security.test.myapp.TaskListItem;
+ 
+ /**
+  * Measures how authorization throughput scales with the number of threads
+  * making checks, and where it stops scaling. The known serialization points
+  * are the global locks in {@link PolicyStoreFactory#getPolicyStore} and 
+  * <code>PolicyBroker.getProperties</code>, and the synchronized
+  * {@link DefaultPolicyStore#addResourceAclList} used while a store loads.<p>
+  *
+  * The benchmark runs a mix of checks against the example products 991 and 993
+  * (from the test resources) with 1, 2, 4 ... N platform threads, and then with
+  * several thousand virtual threads when the JVM supports them (JDK 21 and later).
+  * While measuring, a background thread flushes the PolicyStoreFactory cache at
+  * a fixed interval so that product stores are reloaded under load.<p>
+  *
+  * For each run the throughput, the speed-up over one thread and the 50th, 99th
+  * and 99.9th percentile latencies are reported. Latencies are counted in a 
+  * histogram of fixed size, accurate to about 3%, that each platform thread
+  * keeps for itself and the virtual threads share, so a long run with many
+  * threads takes no more memory than a short one. The benchmark is not run 
+  * as part of the unit tests:<p>
+  *
+  * <pre>
+  * java com.hippikon.security.AuthorizationContentionBenchmark [threads=N] [seconds=5] 
+  *      [flush-interval=250] [virtual-threads=10000]
+  * </pre>
+  *
+  * A flush-interval of 0 disables the background flushing.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AuthorizationContentionBenchmark {
+ 
+     private int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+     private int seconds = 5;
+     private long flushInterval = 250;
+     private int virtualThreads = 10000;
+     private double baseline = 0;
+ 
+     public static void main(String[] args) throws Exception {
+ 
+         Logger.getRootLogger().setLevel(Level.WARN);
+ 
+         AuthorizationContentionBenchmark bench = new AuthorizationContentionBenchmark();
+         for (int i = 0; i < args.length; i++) {
+             String name = args[i].substring(0, args[i].indexOf('='));
+             long value = Long.parseLong(args[i].substring(args[i].indexOf('=') + 1));
+             if (name.equals("threads")) bench.maxThreads = (int)value;
+             else if (name.equals("seconds")) bench.seconds = (int)value;
+             else if (name.equals("flush-interval")) bench.flushInterval = value;
+             else if (name.equals("virtual-threads")) bench.virtualThreads = (int)value;
+             else throw new IllegalArgumentException("Unknown argument: " + name);
+         }
+         bench.run();
+         System.exit(0);
+     }
+ 
+     private void run() throws Exception {
+ 
+         // warm up the JIT and load both products
+         //
+         runPlatformThreads(Math.min(4, maxThreads), 2, false);
+ 
+         System.out.println(String.format("%-16s %14s %9s %10s %10s %10s %10s", 
+                            "threads", "checks/s", "speed-up", "p50-us", "p99-us", "p99.9-us", "max-us"));
+ 
+         for (int threads = 1; threads <= maxThreads; threads *= 2) {
+             report(String.valueOf(threads), runPlatformThreads(threads, seconds, true));
+         }
+ 
+         ExecutorService virtual = newVirtualThreadExecutor();
+         if (virtual == null) {
+             System.out.println("virtual threads not supported by this JVM - skipped");
+         } else {
+             report(virtualThreads + " virtual", runExecutor(virtual, virtualThreads, seconds));
+             virtual.shutdown();
+         }
+     }
+ 
+     // runs the workload on dedicated platform threads
+     //
+     private Result runPlatformThreads(int threads, int secs, boolean flush) throws Exception {
+ 
+         final AtomicBoolean running = new AtomicBoolean(true);
+         final CountDownLatch start = new CountDownLatch(1);
+         final Worker[] workers = new Worker[threads];
+         Thread[] t = new Thread[threads];
+         for (int i = 0; i < threads; i++) {
+             workers[i] = new Worker(running, start, i, new Histogram());
+             t[i] = new Thread(workers[i], "auth-bench-" + i);
+             t[i].start();
+         }
+ 
+         Thread flusher = startFlusher(running, flush);
+         long begin = System.nanoTime();
+         start.countDown();
+         Thread.sleep(secs * 1000L);
+         running.set(false);
+         for (int i = 0; i < threads; i++) t[i].join();
+         long elapsed = System.nanoTime() - begin;
+         if (flusher != null) flusher.join();
+ 
+         return new Result(workers, elapsed);
+     }
+ 
+     // runs the workload as many tasks on an executor, which count their 
+     // latencies in one histogram
+     //
+     private Result runExecutor(ExecutorService executor, int tasks, int secs) throws Exception {
+ 
+         final AtomicBoolean running = new AtomicBoolean(true);
+         final CountDownLatch start = new CountDownLatch(1);
+         final Worker[] workers = new Worker[tasks];
+         Histogram latencies = new Histogram();
+         for (int i = 0; i < tasks; i++) {
+             workers[i] = new Worker(running, start, i, latencies);
+             executor.execute(workers[i]);
+         }
+ 
+         Thread flusher = startFlusher(running, true);
+         long begin = System.nanoTime();
+         start.countDown();
+         Thread.sleep(secs * 1000L);
+         running.set(false);
+         for (int i = 0; i < tasks; i++) workers[i].done.await();
+         long elapsed = System.nanoTime() - begin;
+         if (flusher != null) flusher.join();
+ 
+         return new Result(workers, elapsed);
+     }
+ 
+     private Thread startFlusher(final AtomicBoolean running, boolean flush) {
+         if (!flush || flushInterval <= 0) return null;
+         Thread flusher = new Thread(new Runnable() {
+             public void run() {
+                 while (running.get()) {
+                     try {
+                         Thread.sleep(flushInterval);
+                     } catch (InterruptedException e) {
+                         return;
+                     }
+                     PolicyStoreFactory.flushCache();
+                 }
+             }
+         }, "auth-bench-flusher");
+         flusher.start();
+         return flusher;
+     }
+ 
+     // uses Executors.newVirtualThreadPerTaskExecutor() where the JVM provides it
+     //
+     private static ExecutorService newVirtualThreadExecutor() {
+         try {
+             Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+             return (ExecutorService)m.invoke(null);
+         } catch (Exception e) {
+             return null;
+         }
+     }
+ 
+     private void report(String label, Result result) {
+         double throughput = result.checks / (result.elapsedNanos / 1e9);
+         if (baseline == 0) baseline = throughput;
+         Histogram l = result.latencies;
+         System.out.println(String.format("%-16s %14.0f %9.2f %10.2f %10.2f %10.2f %10.2f", 
+                            label, throughput, throughput / baseline,
+                            l.percentile(0.50) / 1000.0, l.percentile(0.99) / 1000.0, l.percentile(0.999) / 1000.0,
+                            l.percentile(1.0) / 1000.0));
+     }
+ 
+     /**
+      * The combined checks and latencies of a run
+      */
+     private static class Result {
+         long checks;
+         long elapsedNanos;
+         Histogram latencies = new Histogram();
+ 
+         Result(Worker[] workers, long elapsedNanos) {
+             this.elapsedNanos = elapsedNanos;
+             for (int i = 0; i < workers.length; i++) {
+                 checks += workers[i].checks.get();
+ 
+                 // workers that share a histogram are only counted once
+                 //
+                 if (i == 0 || workers[i].latencies != workers[i - 1].latencies) {
+                     latencies.add(workers[i].latencies);
+                 }
+             }
+         }
+     }
+ 
+     /**
+      * Counts latencies in nanoseconds in buckets of fixed size. Values 
+      * below 64 have a bucket each, and every power of two above is split 
+      * into 32 buckets, so a bucket is within about 3% of the values in it
+      */
+     static class Histogram {
+ 
+         private static final int SUB_BUCKETS = 32;
+ 
+         private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * 60);
+ 
+         void record(long value) {
+             counts.incrementAndGet(index(Math.max(value, 0)));
+         }
+ 
+         void add(Histogram other) {
+             for (int i = 0; i < counts.length(); i++) {
+                 long count = other.counts.get(i);
+                 if (count != 0) counts.addAndGet(i, count);
+             }
+         }
+ 
+         long count() {
+             long total = 0;
+             for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+             return total;
+         }
+ 
+         // the value below which the given fraction of the values fall, 
+         // taken as the middle of its bucket
+         //
+         long percentile(double p) {
+             long total = count();
+             if (total == 0) return 0;
+             long rank = Math.min(total - 1, (long)(total * p));
+             long seen = 0;
+             for (int i = 0; i < counts.length(); i++) {
+                 seen += counts.get(i);
+                 if (seen > rank) return lowest(i) + (lowest(i + 1) - lowest(i)) / 2;
+             }
+             return lowest(counts.length() - 1);
+         }
+ 
+         static int index(long value) {
+             if (value < SUB_BUCKETS * 2) return (int)value;
+             int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+             return shift * SUB_BUCKETS + (int)(value >>> shift);
+         }
+ 
+         static long lowest(int index) {
+             if (index < SUB_BUCKETS * 2) return index;
+             int shift = index / SUB_BUCKETS - 1;
+             return (long)(index - shift * SUB_BUCKETS) << shift;
+         }
+     }
+ 
+     /**
+      * Makes a mix of checks until told to stop. Each worker has its
+      * own AuthorizationContext objects since the framework sets the 
+      * resource path and user principals on the context for each check.
+      */
+     private static class Worker implements Runnable {
+ 
+         final AtomicBoolean running;
+         final CountDownLatch start;
+         final CountDownLatch done = new CountDownLatch(1);
+         final AtomicLong checks = new AtomicLong();
+         final int id;
+         final Histogram latencies;
+ 
+         Worker(AtomicBoolean running, CountDownLatch start, int id, Histogram latencies) {
+             this.running = running;
+             this.start = start;
+             this.id = id;
+             this.latencies = latencies;
+         }
+ 
+         public void run() {
+             try {
+                 AuthorizationContext teamLeader = context("12341234", "991", "manager", "teamleader");
+                 AuthorizationContext vendor = context("test-partner-guid", "993", "vendor");
+ 
+                 Project project = new Project();
+                 List<Object> taskChain = new ArrayList<Object>();
+                 taskChain.add(project);
+                 taskChain.add(new TaskList());
+                 taskChain.add(new TaskListItem());
+                 List<Object> vendorChain = new ArrayList<Object>();
+                 vendorChain.add(project);
+                 vendorChain.add(new Component());
+                 vendorChain.add(new PurchaseOrder());
+ 
+                 start.await();
+ 
+                 for (int n = id; running.get(); n++) {
+                     long begin = System.nanoTime();
+                     switch (n % 4) {
+                         case 0: PermissionsFactory.getPermissions(project, teamLeader); break;
+                         case 1: PermissionsFactory.getPermissions(taskChain, teamLeader); break;
+                         case 2: PermissionsFactory.getPermissions(project, ProductChange.class, teamLeader); break;
+                         default: PermissionsFactory.getPermissions(vendorChain, vendor); break;
+                     }
+                     latencies.record(System.nanoTime() - begin);
+                     checks.incrementAndGet();
+                 }
+             } catch (Exception e) {
+                 e.printStackTrace();
+             } finally {
+                 done.countDown();
+             }
+         }
+ 
+         private static AuthorizationContext context(String user, String product, String... roles) 
+         throws IllegalAuthorizationException {
+             List<String> subs = Arrays.asList("991", "992", "993");
+             return new DefaultAuthorizationContext("0000001", product, subs, user, Arrays.asList(roles));
+         }
+     }
+ 
+ }
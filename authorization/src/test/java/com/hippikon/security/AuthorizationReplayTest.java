@@ -0,0 +1,135 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+ 
+ /**
+  * Tests that a capture written by the AuthorizationRecorder replays with
+  * the recorded decisions, and reports those a changed store makes 
+  * differently.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AuthorizationReplayTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"replay\">\n" +
+         "  <protected-resource name=\"Ledger\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "    <principal name=\"auditor\" acl=\"-r--d\"/>\n" +
+         "    <protected-resource name=\"Entry\">\n" +
+         "      <principal name=\"clerk\" acl=\"irw--\"/>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private InMemoryPolicySource source;
+     private File capture;
+ 
+     public AuthorizationReplayTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+         capture = File.createTempFile("hippikon-replay", ".capture");
+     }
+ 
+     protected void tearDown() {
+         AuthorizationRecorder.stop();
+         PolicySource.setDefault(null);
+         capture.delete();
+     }
+ 
+     /**
+      * Ensures the recorded checks replay against the same store without 
+      * a mismatch, and against an edited store with one for each changed
+      * decision
+      */
+     public void testRecordAndReplay() throws Exception {
+         AuthorizationContext clerk = getContext("clerk");
+         AuthorizationContext auditor = getContext("auditor");
+         AuthorizationRecorder.start(capture, true);
+         PermissionsFactory.getPermissions(new Ledger(), clerk);
+         PermissionsFactory.getPermissions(Arrays.asList(new Ledger(), new Entry()), clerk);
+         PermissionsFactory.getPermissions(new Ledger(), auditor);
+         PermissionsFactory.getPermissions(new Ledger(), clerk);
+         assertEquals(4, AuthorizationRecorder.stop());
+ 
+         AuthorizationReplay replay = AuthorizationReplay.load(capture);
+         assertEquals(4, replay.size());
+         AuthorizationReplay.Result result = replay.replay("990", PolicyStoreFactory.getPolicyStore(clerk));
+         assertEquals(4, result.getChecks());
+         assertEquals(0, result.getMismatches().size());
+         assertEquals(0, replay.replay("991", PolicyStoreFactory.getPolicyStore(clerk)).getChecks());
+ 
+         source.put("hippikon.product-id.990.policy-store.xml", STORE.replace("-r---", "-rw--"));
+         PolicyStoreCache.getInstance().reload("990");
+         result = replay.replay("990", PolicyStoreFactory.getPolicyStore(clerk));
+         assertEquals(4, result.getChecks());
+         List<AuthorizationReplay.Mismatch> mismatches = result.getMismatches();
+         assertEquals(2, mismatches.size());
+         for (AuthorizationReplay.Mismatch mismatch : mismatches) {
+             assertEquals(Arrays.asList("Ledger"), mismatch.getResourcePath());
+             assertEquals(DefaultPermissionSet.READ_FLAG, mismatch.getRecordedFlags());
+             assertEquals(DefaultPermissionSet.READ_FLAG | DefaultPermissionSet.WRITE_FLAG, mismatch.getReplayedFlags());
+             assertNull(mismatch.getError());
+         }
+ 
+         // the two checks of the same path and principals share their lists
+         //
+         assertSame(mismatches.get(0).getResourcePath(), mismatches.get(1).getResourcePath());
+         assertSame(mismatches.get(0).getPrincipals(), mismatches.get(1).getPrincipals());
+     }
+ 
+     @ProtectedResource(name="Ledger")
+     public static class Ledger { }
+ 
+     @ProtectedResource(name="Entry")
+     public static class Entry { }
+ 
+     private AuthorizationContext getContext(String role) throws Exception {
+         return new DefaultAuthorizationContext("0000001", "990", Arrays.asList("990"), "12341234", Arrays.asList(role));
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.AuthorizationReplayTest.class));
+         System.exit(0);
+     }
+ }
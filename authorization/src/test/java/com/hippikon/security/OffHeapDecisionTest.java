@@ -0,0 +1,122 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests the stamps of the decisions the DecisionCache keeps off the heap.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class OffHeapDecisionTest extends TestCase {
+ 
+     private static final String STORE_991 = "hippikon.product-id.991.policy-store.xml";
+     private static final String POLICIES_991 = "hippikon.product-id.991.resource.policies";
+ 
+     public OffHeapDecisionTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         ClasspathPolicySource classpath = new ClasspathPolicySource();
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put(STORE_991, toBytes(classpath, STORE_991));
+         source.put(POLICIES_991, toBytes(classpath, POLICIES_991));
+         source.put("hippikon.account-id.0000002.product-id.991.policy-store.xml",
+                    "<policy-store>" +
+                    "  <protected-resource name=\"PurchaseOrder\">" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"irw--\"/>" +
+                    "  </protected-resource>" +
+                    "</policy-store>");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a decision made in an account overlay is kept off the heap
+      * for the overlay only, and is invalidated by an edit of the product
+      * store the overlay is laid over
+      */
+     public void testOverlayDecision() throws Exception {
+         AuthorizationContext ctx = getContext("0000002");
+         DefaultPolicyStore base = (DefaultPolicyStore)PolicyStoreFactory.getPolicyStore(getContext(""));
+         OverlayPolicyStore overlay = (OverlayPolicyStore)PolicyStoreFactory.getPolicyStore(ctx);
+         assertSame(base, overlay.getBase());
+ 
+         DecisionCache cache = new DecisionCache(100, "direct");
+         List<Object> key = cache.getKey(Arrays.asList((Object)PurchaseOrder.class), null, ctx);
+         PermissionSet perms = PermissionsFactory.getPermissions(PurchaseOrder.class, ctx);
+         assertEquals("irw--", perms.toString());
+ 
+         cache.put(key, new DecisionCache.Entry(overlay, DecisionCache.getModificationCount(overlay), perms, 
+                                                null, null, null, null));
+         DecisionCache.Entry entry = cache.get(key, overlay);
+         assertNotNull("overlay decision not kept off the heap", entry);
+         assertEquals(new DefaultPermissionSet(perms).flags, entry.flags);
+ 
+         // neither the product store nor another overlay of it may see it
+         //
+         assertNull(cache.get(key, base));
+         OverlayPolicyStore other = new OverlayPolicyStore(base, "0000002", "991", PolicySource.getDefault());
+         assertNull(cache.get(key, other));
+ 
+         base.setResourceAcls(base.getResourceAcls());
+         assertNull("overlay decision outlived an edit of the product store", cache.get(key, overlay));
+     }
+ 
+     private static AuthorizationContext getContext(String accountID) throws Exception {
+         List<String> subs = Arrays.asList("991");
+         List<String> roles = Arrays.asList("manager");
+         return new DefaultAuthorizationContext(accountID, "991", subs, "12341234", roles);
+     }
+ 
+     private static byte[] toBytes(PolicySource source, String name) throws Exception {
+         ByteBuffer buffer = source.read(name);
+         byte[] bytes = new byte[buffer.remaining()];
+         buffer.get(bytes);
+         return bytes;
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.OffHeapDecisionTest.class));
+         System.exit(0);
+     }
+ }
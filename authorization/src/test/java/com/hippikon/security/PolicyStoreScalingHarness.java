@@ -0,0 +1,223 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security;
+ 
+ import java.io.File;
+ import java.lang.management.ManagementFactory;
+ import java.lang.management.MemoryMXBean;
+ import java.util.ArrayList;
+ import java.util.Arrays;
+ import java.util.Iterator;
+ import java.util.LinkedList;
+ import java.util.List;
+ import java.util.Map;
+ import java.util.Random;
+
+ import org.apache.log4j.Level;
+ import org.apache.log4j.Logger;
+ 
+ /**
+  * Measures how the {@link XMLPolicyStore} scales as a store grows. For each
+  * store size a synthetic store is written by the {@link PolicyStoreGenerator}
+  * and the following are reported:
+  *
+  * <ul>
+  * <li>the time taken to load and build the store
+  * <li>the heap retained by the loaded store, measured and as estimated 
+  * by its {@link PolicyStoreFootprint}, and the nodes shared between
+  * identical subtrees
+  * <li>the mean, median and 99th percentile latency of store lookups for
+  * random existing resource paths and principal sets
+  * </ul><p>
+  *
+  * Stores are loaded as product stores are in production, from a 
+  * {@link DirectoryPolicySource}. The harness is not run as part of the unit
+  * tests. Run it with a large heap, since the largest store is parsed into a
+  * full DOM while it loads:<p>
+  *
+  * <pre>
+  * java -Xmx8g com.hippikon.security.PolicyStoreScalingHarness [max=1000000] [fan-out=5] 
+  *      [depth=4] [principals=20] [acl-density=0.2] [lookups=200000]
+  *      [lazy=false] [working-set=1.0]
+  * </pre><p>
+  *
+  * With lazy=true every store is loaded lazily by the {@link SubtreeLoader},
+  * and the estimate after the lookups is reported as well. The lookups only
+  * go into the given fraction of the top-level resources, as the traffic 
+  * of most tenants only uses a small part of their store.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicyStoreScalingHarness {
+ 
+     private int maxNodes = 1000000;
+     private int lookups = 200000;
+     private PolicyStoreGenerator generator = new PolicyStoreGenerator();
+     private int principals = 20;
+     private Random random = new Random(42);
+     private double workingSet = 1.0;
+ 
+     public static void main(String[] args) throws Exception {
+ 
+         // production deployments don't run with debug logging
+         //
+         Logger.getRootLogger().setLevel(Level.WARN);
+ 
+         PolicyStoreScalingHarness harness = new PolicyStoreScalingHarness();
+         harness.generator.setFanOut(5);
+         harness.generator.setDepth(4);
+         harness.generator.setPrincipals(harness.principals);
+ 
+         for (int i = 0; i < args.length; i++) {
+             String name = args[i].substring(0, args[i].indexOf('='));
+             String value = args[i].substring(args[i].indexOf('=') + 1);
+             if (name.equals("max")) harness.maxNodes = Integer.parseInt(value);
+             else if (name.equals("lookups")) harness.lookups = Integer.parseInt(value);
+             else if (name.equals("fan-out")) harness.generator.setFanOut(Integer.parseInt(value));
+             else if (name.equals("depth")) harness.generator.setDepth(Integer.parseInt(value));
+             else if (name.equals("acl-density")) harness.generator.setAclDensity(Double.parseDouble(value));
+             else if (name.equals("working-set")) harness.workingSet = Double.parseDouble(value);
+             else if (name.equals("lazy")) System.setProperty("hippikon.lazy-store.threshold", Boolean.valueOf(value).booleanValue() ? "0" : "-1");
+             else if (name.equals("principals")) {
+                 harness.principals = Integer.parseInt(value);
+                 harness.generator.setPrincipals(harness.principals);
+             } else throw new IllegalArgumentException("Unknown argument: " + name);
+         }
+         harness.run();
+         System.exit(0);
+     }
+ 
+     private void run() throws Exception {
+ 
+         System.out.println(String.format("%10s %12s %12s %14s %14s %10s %10s %10s %10s %14s", 
+                            "nodes", "file-kb", "load-ms", "heap-kb", "estimate-kb", "shared", "mean-us", "p50-us", "p99-us", "after-kb"));
+ 
+         File dir = File.createTempFile("hippikon-scaling-", "");
+         dir.delete();
+         dir.mkdir();
+         dir.deleteOnExit();
+         for (int nodes = 100; nodes <= maxNodes; nodes *= 10) {
+ 
+             generator.setNodes(nodes);
+             File file = new File(dir, XMLPolicyStore.constructStoreFilename("999"));
+             file.deleteOnExit();
+             generator.generate(file);
+ 
+             long heapBefore = usedHeap();
+             long start = System.nanoTime();
+             XMLPolicyStore store = new XMLPolicyStore("999", new DirectoryPolicySource(dir));
+             long loadNanos = System.nanoTime() - start;
+             long heapAfter = usedHeap();
+             PolicyStoreFootprint footprint = PolicyStoreFootprint.estimate("999", store);
+ 
+             long[] latencies = measureLookups(store);
+             Arrays.sort(latencies);
+             long total = 0;
+             for (int i = 0; i < latencies.length; i++) total += latencies[i];
+ 
+             System.out.println(String.format("%10d %12d %12d %14d %14d %10d %10.2f %10.2f %10.2f %14d",
+                                nodes, file.length() / 1024, loadNanos / 1000000, 
+                                Math.max(0, heapAfter - heapBefore) / 1024,
+                                footprint.getRetainedBytes() / 1024, footprint.getSharedNodeCount(),
+                                (total / (double)latencies.length) / 1000.0,
+                                latencies[latencies.length / 2] / 1000.0,
+                                latencies[(int)(latencies.length * 0.99)] / 1000.0,
+                                PolicyStoreFootprint.estimate("999", store).getRetainedBytes() / 1024));
+ 
+             // keep the store reachable until the heap has been measured
+             //
+             store.getDefinedPrincipals();
+             file.delete();
+         }
+     }
+ 
+     // times lookups of random existing paths with random principal sets
+     //
+     private long[] measureLookups(DefaultPolicyStore store) throws Exception {
+ 
+         List<LinkedList<String>> paths = samplePaths(store, 1000);
+         List<List<String>> principalSets = new ArrayList<List<String>>();
+         for (int i = 0; i < 100; i++) {
+             List<String> set = new ArrayList<String>();
+             for (int p = 0; p < principals; p++) {
+                 if (random.nextInt(4) == 0) set.add(generator.getPrincipalName(p));
+             }
+             principalSets.add(set);
+         }
+ 
+         // warm up the JIT before measuring
+         //
+         for (int i = 0; i < Math.min(lookups, 20000); i++) {
+             store.getPermissions(paths.get(i % paths.size()), principalSets.get(i % principalSets.size()));
+         }
+ 
+         long[] latencies = new long[lookups];
+         for (int i = 0; i < lookups; i++) {
+             LinkedList<String> path = paths.get(random.nextInt(paths.size()));
+             List<String> set = principalSets.get(random.nextInt(principalSets.size()));
+             long start = System.nanoTime();
+             store.getPermissions(path, set);
+             latencies[i] = System.nanoTime() - start;
+         }
+         return latencies;
+     }
+ 
+     // walks the store from random top-level nodes to random depths
+     //
+     private List<LinkedList<String>> samplePaths(DefaultPolicyStore store, int count) {
+ 
+         List<ResourceAclList> tops = new ArrayList<ResourceAclList>(store.getResourceAcls().values());
+         List<LinkedList<String>> paths = new ArrayList<LinkedList<String>>();
+ 
+         for (int i = 0; i < count; i++) {
+             ResourceAclList node = tops.get(random.nextInt(Math.max(1, (int)(tops.size() * workingSet))));
+             LinkedList<String> path = new LinkedList<String>();
+             path.add(node.getResourceName());
+             while (random.nextInt(4) != 0) {
+                 Map<String, ResourceAclList> children = node.getNestedList();
+                 if (children.isEmpty()) break;
+                 int pick = random.nextInt(children.size());
+                 Iterator<ResourceAclList> j = children.values().iterator();
+                 for (int k = 0; k < pick; k++) j.next();
+                 node = j.next();
+                 path.add(node.getResourceName());
+             }
+             paths.add(path);
+         }
+         return paths;
+     }
+ 
+     private static long usedHeap() throws InterruptedException {
+         MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+         for (int i = 0; i < 3; i++) {
+             System.gc();
+             Thread.sleep(100);
+         }
+         return memory.getHeapMemoryUsage().getUsed();
+     }
+ 
+ }
@@ -0,0 +1,148 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.ClasspathPolicySource;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStorePreloader;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests account overlays laid over the example product 991 store. The 
+  * product store gives a manager and teamleader ir--- on the PurchaseOrder
+  * class.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AccountOverlayTest extends TestCase {
+ 
+     private static final String STORE_991 = "hippikon.product-id.991.policy-store.xml";
+     private static final String POLICIES_991 = "hippikon.product-id.991.resource.policies";
+ 
+     public AccountOverlayTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         ClasspathPolicySource classpath = new ClasspathPolicySource();
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put(STORE_991, toBytes(classpath, STORE_991));
+         source.put(POLICIES_991, toBytes(classpath, POLICIES_991));
+ 
+         source.put("hippikon.account-id.0000002.product-id.991.policy-store.xml",
+                    "<policy-store>" +
+                    "  <protected-resource name=\"PurchaseOrder\">" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"irw--\"/>" +
+                    "    <principal name=\"teamleader\" remove=\"true\"/>" +
+                    "  </protected-resource>" +
+                    "</policy-store>");
+ 
+         source.put("hippikon.account-id.0000003.product-id.991.policy-store.xml",
+                    "<policy-store>" +
+                    "  <protected-resource name=\"PurchaseOrder\" remove=\"true\"/>" +
+                    "</policy-store>");
+ 
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures an overlay replaces and removes principal ACLs for its account
+      * only, and leaves the shared product store unchanged
+      */
+     public void testOverlayChangesAccountOnly() throws Exception {
+         assertEquals("ir---", getPurchaseOrderPermissions("0000001"));
+         assertEquals("irw--", getPurchaseOrderPermissions("0000002"));
+         assertEquals("ir---", getPurchaseOrderPermissions("0000001"));
+     }
+ 
+     /**
+      * Ensures an overlay can remove a resource from its account
+      */
+     public void testOverlayRemovesResource() throws Exception {
+         try {
+             getPurchaseOrderPermissions("0000003");
+             fail("Found a resource removed by the account overlay");
+         } catch (IllegalAuthorizationException e) {
+         }
+         assertEquals("ir---", getPurchaseOrderPermissions("0000001"));
+     }
+ 
+     /**
+      * Ensures an overlay is read from the source its product store was 
+      * loaded from rather than from the default source
+      */
+     public void testOverlayFromStoreSource() throws Exception {
+         PolicySource source = PolicySource.getDefault();
+         PolicySource.setDefault(new ClasspathPolicySource());
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         preloader.setSource(source);
+         preloader.run();
+ 
+         assertEquals("irw--", getPurchaseOrderPermissions("0000002"));
+         assertEquals("ir---", getPurchaseOrderPermissions("0000001"));
+     }
+ 
+     private String getPurchaseOrderPermissions(String accountID) throws Exception {
+         List<String> subs = Arrays.asList("991");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         AuthorizationContext ctx = new DefaultAuthorizationContext(accountID, "991", subs, "12341234", roles);
+         PermissionSet perms = PermissionsFactory.getPermissions(PurchaseOrder.class, ctx);
+         return perms.toString();
+     }
+ 
+     private static byte[] toBytes(PolicySource source, String name) throws Exception {
+         ByteBuffer buffer = source.read(name);
+         byte[] bytes = new byte[buffer.remaining()];
+         buffer.get(bytes);
+         return bytes;
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.AccountOverlayTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,242 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.AuthorizationTimeoutException;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.Policy;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.ProtectedResource;
+import com.hippikon.security.test.myapp.Project;
+import com.hippikon.security.test.myapp.TaskList;
+import com.hippikon.security.test.myapp.TaskListItem;
+ 
+ /**
+  * Tests the asynchronous checks of the PermissionsFactory against the
+  * synchronous ones, and with policies that look their principals up 
+  * without blocking.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AsyncPermissionsTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"async\">\n" +
+         "  <protected-resource name=\"Account\">\n" +
+         "    <principal name=\"account-owner\" acl=\"-r---\"/>\n" +
+         "    <protected-resource name=\"Contract\">\n" +
+         "      <principal name=\"contract-owner\" acl=\"-rwc-\"/>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     // the lookups under way and the order doFinal was called in
+     //
+     static final List<CompletableFuture<List<String>>> lookups = 
+         Collections.synchronizedList(new ArrayList<CompletableFuture<List<String>>>());
+     static final List<String> finals = Collections.synchronizedList(new ArrayList<String>());
+ 
+     public AsyncPermissionsTest(String s) {
+         super(s);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+         lookups.clear();
+         finals.clear();
+     }
+ 
+     /**
+      * Ensures the asynchronous checks give the same answers as the 
+      * synchronous ones for the policies of the sample application
+      */
+     public void testSameDecisions() throws Exception {
+         AuthorizationContext ctx = getContext("991", "manager", "teamleader");
+         Project project = new Project();
+         List<Object> path = Arrays.<Object>asList(project, new TaskList(), new TaskListItem());
+         assertEquals(PermissionsFactory.getPermissions(path, ctx).toString(), 
+                      PermissionsFactory.getPermissionsAsync(path, ctx).get(10, TimeUnit.SECONDS).toString());
+         assertEquals(PermissionsFactory.getPermissions(Arrays.<Object>asList(project), TaskList.class, ctx).toString(), 
+                      PermissionsFactory.getPermissionsAsync(Arrays.<Object>asList(project), TaskList.class, ctx, 
+                                                             new DirectExecutor()).get(10, TimeUnit.SECONDS).toString());
+         project.setClosed();
+         assertEquals(PermissionsFactory.getPermissions(project, ctx).toString(), 
+                      PermissionsFactory.getPermissionsAsync(project, ctx).get(10, TimeUnit.SECONDS).toString());
+     }
+ 
+     /**
+      * Ensures the principal lookups along a path are started together and
+      * the doFinal calls made in reverse order once they complete
+      */
+     public void testConcurrentLookups() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", 
+                    "Account.policy.classname = " + AccountPolicy.class.getName() + "\n" +
+                    "Contract.policy.classname = " + ContractPolicy.class.getName() + "\n");
+         PolicySource.setDefault(source);
+ 
+         CompletableFuture<PermissionSet> future = 
+             PermissionsFactory.getPermissionsAsync(Arrays.<Object>asList(new Account(), new Contract()), getContext("990", "clerk"));
+         assertEquals(2, lookups.size());
+         assertFalse(future.isDone());
+ 
+         lookups.get(1).complete(Arrays.asList("contract-owner"));
+         lookups.get(0).complete(Arrays.asList("account-owner"));
+         assertEquals("-rw--", future.get(10, TimeUnit.SECONDS).toString());
+         assertEquals(Arrays.asList("Contract", "Account"), finals);
+     }
+ 
+     /**
+      * Ensures a failed lookup fails the check
+      */
+     public void testFailedLookup() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "Account.policy.classname = " + AccountPolicy.class.getName() + "\n");
+         PolicySource.setDefault(source);
+ 
+         CompletableFuture<PermissionSet> future = 
+             PermissionsFactory.getPermissionsAsync(new Account(), getContext("990", "clerk"));
+         lookups.get(0).completeExceptionally(new IllegalAuthorizationException("directory unavailable"));
+         try {
+             future.get(10, TimeUnit.SECONDS);
+             fail("expected the check to fail");
+         } catch (ExecutionException e) {
+             assertTrue(e.getCause() instanceof IllegalAuthorizationException);
+         }
+     }
+ 
+     /**
+      * Ensures a resource path the store has no entry for is reported as
+      * an IllegalAuthorizationException by the synchronous, timed and 
+      * asynchronous checks alike
+      */
+     public void testUnknownResource() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+ 
+         List<Object> path = Arrays.<Object>asList(new Ledger());
+         AuthorizationContext ctx = getContext("990", "clerk");
+         try {
+             PermissionsFactory.getPermissions(path, ctx);
+             fail("Checked a resource the store has no entry for");
+         } catch (IllegalAuthorizationException e) {
+         }
+         try {
+             PermissionsFactory.getPermissions(path, ctx, 10, TimeUnit.SECONDS);
+             fail("Checked a resource the store has no entry for with a timeout");
+         } catch (IllegalAuthorizationException e) {
+             assertFalse(e instanceof AuthorizationTimeoutException);
+         }
+         try {
+             PermissionsFactory.getPermissionsAsync(path, ctx).get(10, TimeUnit.SECONDS);
+             fail("Checked a resource the store has no entry for asynchronously");
+         } catch (ExecutionException e) {
+             assertTrue(e.getCause() instanceof IllegalAuthorizationException);
+         }
+     }
+ 
+     @ProtectedResource(name="Account")
+     public static class Account { }
+ 
+     @ProtectedResource(name="Ledger")
+     public static class Ledger { }
+ 
+     @ProtectedResource(name="Contract")
+     public static class Contract { }
+ 
+     // looks its principals up with a future the test completes
+     //
+     public static class AccountPolicy extends Policy {
+         public AccountPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected CompletableFuture<List<String>> determineUserPrincipalsAsync(Executor executor) {
+             CompletableFuture<List<String>> lookup = new CompletableFuture<List<String>>();
+             lookups.add(lookup);
+             return lookup;
+         }
+ 
+         protected PermissionSet doFinal(PermissionSet perms) {
+             assertEquals("Contract", getResourcePathInContext().get(1));
+             finals.add("Account");
+             return perms;
+         }
+     }
+ 
+     // takes control away in its doFinal
+     //
+     public static class ContractPolicy extends AccountPolicy {
+         public ContractPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected PermissionSet doFinal(PermissionSet perms) {
+             finals.add("Contract");
+             return createDefaultPermissionSet(0x0c);
+         }
+     }
+ 
+     private static class DirectExecutor implements Executor {
+         public void execute(Runnable r) {
+             r.run();
+         }
+     }
+ 
+     private AuthorizationContext getContext(String productID, String... roles) throws Exception {
+         return new DefaultAuthorizationContext("0000001", productID, Arrays.asList(productID), "12341234", Arrays.asList(roles));
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.AsyncPermissionsTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,153 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.AuthorizationSession;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.DefaultPermissionSet;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.test.myapp.Project;
+import com.hippikon.security.test.myapp.TaskList;
+import com.hippikon.security.test.myapp.TaskListItem;
+ 
+ /**
+  * Tests that an AuthorizationSession makes the same decisions as the
+  * PermissionsFactory while asking each Policy for its user principals once.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AuthorizationSessionTest extends TestCase {
+ 
+     public AuthorizationSessionTest(String s) {
+         super(s);
+     }
+ 
+     /**
+      * Ensures repeated checks of a parent Project in different chains 
+      * scan its team once and give the PermissionsFactory's answers
+      */
+     public void testMemoizedPrincipals() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         CountingProject project = new CountingProject();
+         TaskList taskList = new TaskList();
+         List<Object> items = new ArrayList<Object>();
+ 
+         AuthorizationSession session = new AuthorizationSession(ctx);
+         for (int i = 0; i < 10; i++) {
+             TaskListItem item = new TaskListItem();
+             items.add(item);
+             assertEquals(PermissionsFactory.getPermissions(Arrays.asList(project, taskList, item), ctx).toString(), 
+                          session.getPermissions(Arrays.<Object>asList(project, taskList, item)).toString());
+         }
+         project.scans = 0;
+         for (Object item : items) {
+             session.getPermissions(Arrays.asList(project, taskList, item));
+             session.getPermissions(project);
+             session.getPermissions(project, TaskList.class);
+         }
+         assertEquals(0, project.scans);
+         assertEquals(PermissionsFactory.getPermissions(project, TaskList.class, ctx).toString(), 
+                      session.getPermissions(project, TaskList.class).toString());
+     }
+ 
+     /**
+      * Ensures a decision is remembered until the session is cleared, and
+      * is not seen by other sessions
+      */
+     public void testSessionScope() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         Project project = new Project();
+         AuthorizationSession session = new AuthorizationSession(ctx);
+         assertTrue(session.getPermissions(project).canWrite());
+ 
+         project.setClosed();
+         assertTrue(session.getPermissions(project).canWrite());
+         assertFalse(new AuthorizationSession(ctx).getPermissions(project).canWrite());
+         session.clear();
+         assertFalse(session.getPermissions(project).canWrite());
+     }
+ 
+     /**
+      * Ensures a caller that changes the PermissionSet it was given does
+      * not change the decision the session gives the next caller
+      */
+     public void testDecisionsNotShared() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         Project project = new Project();
+         AuthorizationSession session = new AuthorizationSession(ctx);
+         String expected = PermissionsFactory.getPermissions(project, TaskList.class, ctx).toString();
+         PermissionSet all = new PermissionSet() {
+             public boolean canRead() { return true; }
+             public boolean canWrite() { return true; }
+             public boolean canControl() { return true; }
+             public boolean canDelete() { return true; }
+             public boolean canCreate() { return true; }
+         };
+         PermissionSet made = session.getPermissions(project, TaskList.class);
+         ((DefaultPermissionSet)made).addPermissions(all);
+         assertFalse(expected.equals(made.toString()));
+         PermissionSet remembered = session.getPermissions(project, TaskList.class);
+         assertEquals(expected, remembered.toString());
+         ((DefaultPermissionSet)remembered).addPermissions(all);
+         assertEquals(expected, session.getPermissions(project, TaskList.class).toString());
+     }
+ 
+     // counts the scans of the project team made by the ProjectPolicy
+     //
+     private static class CountingProject extends Project {
+         private static final long serialVersionUID = 1L;
+         int scans;
+ 
+         public List<String> getProjectTeamGUIDs() {
+             scans++;
+             return super.getProjectTeamGUIDs();
+         }
+     }
+ 
+     private AuthorizationContext getTeamLeaderContext() throws Exception {
+         List<String> subs = Arrays.asList("991", "992", "993");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         return new DefaultAuthorizationContext("0000001", "991", subs, "12341234", roles);
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.AuthorizationSessionTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,123 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreFootprint;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests the compact representation of loaded policy stores: resources 
+  * with more principals than fit in a node's array, and identical subtrees
+  * held once.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class CompactStoreTest extends TestCase {
+ 
+     public CompactStoreTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         StringBuffer store = new StringBuffer();
+         store.append("<policy-store application-name=\"compact\">");
+         store.append("  <protected-resource name=\"PurchaseOrder\">");
+         for (int i = 0; i < 12; i++) {
+             store.append("    <principal type=\"role\" name=\"role-" + i + "\" acl=\"" + ((i == 11) ? "irw--" : "i----") + "\"/>");
+         }
+         store.append("    <protected-resource name=\"Attachment\">");
+         store.append("      <principal type=\"role\" name=\"manager\" acl=\"ir---\"/>");
+         store.append("    </protected-resource>");
+         store.append("  </protected-resource>");
+         store.append("  <protected-resource name=\"Invoice\">");
+         store.append("    <protected-resource name=\"Attachment\">");
+         store.append("      <principal type=\"role\" name=\"manager\" acl=\"ir---\"/>");
+         store.append("    </protected-resource>");
+         store.append("  </protected-resource>");
+         store.append("</policy-store>");
+ 
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", store.toString());
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures principal ACLs are found once a resource has more than fit
+      * in its array
+      */
+     public void testManyPrincipals() throws Exception {
+         assertEquals("irw--", getPurchaseOrderPermissions("role-11"));
+         assertEquals("i----", getPurchaseOrderPermissions("role-0"));
+     }
+ 
+     /**
+      * Ensures the identical Attachment subtrees of PurchaseOrder and Invoice
+      * are held once
+      */
+     public void testIdenticalSubtreesShared() throws Exception {
+         getPurchaseOrderPermissions("role-0");
+         PolicyStoreFootprint footprint = null;
+         for (PolicyStoreFootprint f : PolicyStoreCache.getInstance().getFootprints()) {
+             if (f.getProductID().equals("990")) footprint = f;
+         }
+         assertNotNull(footprint);
+         assertEquals(3, footprint.getNodeCount());
+         assertEquals(1, footprint.getSharedNodeCount());
+     }
+ 
+     private String getPurchaseOrderPermissions(String role) throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(PurchaseOrder.class, ctx).toString();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.CompactStoreTest.class));
+         System.exit(0);
+     }
+ }
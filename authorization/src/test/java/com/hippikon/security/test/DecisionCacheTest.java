@@ -0,0 +1,210 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.DefaultPermissionSet;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicyChange;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreEditor;
+import com.hippikon.security.VersionedResource;
+import com.hippikon.security.test.myapp.Project;
+ 
+ /**
+  * Tests that final decisions on VersionedResources are reused across 
+  * requests until the resource or the store changes.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class DecisionCacheTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"decisions\">\n" +
+         "  <protected-resource name=\"Project\">\n" +
+         "    <principal name=\"the-teamleader\" acl=\"-rw--\"/>\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private InMemoryPolicySource source;
+ 
+     public DecisionCacheTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", 
+                    "Project.policy.classname = com.hippikon.security.test.myapp.ProjectPolicy\n");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a decision is reused for another instance with the same 
+      * identity and version, and made again when the version changes
+      */
+     public void testVersionedDecision() throws Exception {
+         AuthorizationContext ctx = getContext();
+         VersionedProject project = new VersionedProject("P-1");
+         assertEquals("-rw--", PermissionsFactory.getPermissions(project, ctx).toString());
+ 
+         VersionedProject copy = new VersionedProject("P-1");
+         assertEquals("-rw--", PermissionsFactory.getPermissions(copy, ctx).toString());
+         assertEquals(0, copy.scans);
+ 
+         copy.setClosed();
+         assertEquals("-r---", PermissionsFactory.getPermissions(copy, ctx).toString());
+         assertEquals(1, copy.scans);
+ 
+         VersionedProject other = new VersionedProject("P-2");
+         PermissionsFactory.getPermissions(other, ctx);
+         assertEquals(1, other.scans);
+     }
+ 
+     /**
+      * Ensures a cached decision is not used once the store is reloaded
+      */
+     public void testStoreReload() throws Exception {
+         AuthorizationContext ctx = getContext();
+         assertEquals("-rw--", PermissionsFactory.getPermissions(new VersionedProject("P-3"), ctx).toString());
+ 
+         source.put("hippikon.product-id.990.policy-store.xml", STORE.replace("-rw--", "-rwc-"));
+         PolicyStoreCache.getInstance().reload("990");
+         VersionedProject project = new VersionedProject("P-3");
+         assertEquals("-rwc-", PermissionsFactory.getPermissions(project, ctx).toString());
+         assertEquals(1, project.scans);
+     }
+ 
+     /**
+      * Ensures an edit of the store keeps the decisions it does not affect
+      * and drops those it does
+      */
+     public void testEditedStore() throws Exception {
+         File directory = File.createTempFile("hippikon-journal", "");
+         directory.delete();
+         directory.mkdirs();
+         System.setProperty("hippikon.journal.directory", directory.getPath());
+         try {
+             AuthorizationContext ctx = getContext();
+             assertEquals("-rw--", PermissionsFactory.getPermissions(new VersionedProject("P-5"), ctx).toString());
+             PolicyStoreEditor editor = PolicyStoreEditor.forProduct("990");
+ 
+             editor.apply(PolicyChange.setAcl(Arrays.asList("Project"), "auditor", "-r---"));
+             VersionedProject project = new VersionedProject("P-5");
+             assertEquals("-rw--", PermissionsFactory.getPermissions(project, ctx).toString());
+             assertEquals(0, project.scans);
+ 
+             editor.apply(PolicyChange.setAcl(Arrays.asList("Project"), "clerk", "-r--d"));
+             project = new VersionedProject("P-5");
+             assertEquals("-rw-d", PermissionsFactory.getPermissions(project, ctx).toString());
+             assertEquals(1, project.scans);
+         } finally {
+             System.clearProperty("hippikon.journal.directory");
+             for (File file : directory.listFiles()) {
+                 file.delete();
+             }
+             directory.delete();
+         }
+     }
+ 
+     /**
+      * Ensures the caller that made a decision and those that reuse it are
+      * each given a PermissionSet of their own
+      */
+     public void testDecisionsNotShared() throws Exception {
+         AuthorizationContext ctx = getContext();
+         PermissionSet made = PermissionsFactory.getPermissions(new VersionedProject("P-4"), ctx);
+         ((DefaultPermissionSet)made).addPermissions(new PermissionSet() {
+             public boolean canRead() { return true; }
+             public boolean canWrite() { return true; }
+             public boolean canControl() { return true; }
+             public boolean canDelete() { return true; }
+             public boolean canCreate() { return true; }
+         });
+         PermissionSet reused = PermissionsFactory.getPermissions(new VersionedProject("P-4"), ctx);
+         assertEquals("-rw--", reused.toString());
+         ((DefaultPermissionSet)reused).addPermissions(made);
+         assertEquals("-rw--", PermissionsFactory.getPermissions(new VersionedProject("P-4"), ctx).toString());
+     }
+ 
+     // a Project whose version is its state, counting the scans of its 
+     // team made by the ProjectPolicy
+     //
+     private static class VersionedProject extends Project implements VersionedResource {
+         private static final long serialVersionUID = 1L;
+         private final String identity;
+         int scans;
+ 
+         VersionedProject(String identity) {
+             this.identity = identity;
+         }
+ 
+         public String getResourceIdentity() {
+             return identity;
+         }
+ 
+         public long getResourceVersion() {
+             return isClosed() ? 1 : 0;
+         }
+ 
+         public List<String> getProjectTeamGUIDs() {
+             scans++;
+             return super.getProjectTeamGUIDs();
+         }
+     }
+ 
+     private AuthorizationContext getContext() throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList("clerk");
+         return new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.DecisionCacheTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,183 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.ProtectedResource;
+ 
+ /**
+  * Tests the final-rule elements of a policy store, which restrict the 
+  * permissions of a resource without a Policy class being bound to it.
+  * Each case runs against a store parsed in full and one loaded lazily.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class FinalRuleTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"rules\">\n" +
+         "  <protected-resource name=\"Ledger\">\n" +
+         "    <principal type=\"role\" name=\"clerk\" acl=\"irwcd\"/>\n" +
+         "    <final-rule property=\"closed\" unless-path-contains=\"Audit\" limit=\"-r---\"/>\n" +
+         "    <final-rule unless-subscription=\"ledgers\" revoke=\"i---d\"/>\n" +
+         "    <final-rule locale=\"fr\" revoke=\"--w--\"/>\n" +
+         "    <protected-resource name=\"Audit\">\n" +
+         "      <principal type=\"role\" name=\"clerk\" acl=\"-rw--\"/>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private InMemoryPolicySource source;
+ 
+     public FinalRuleTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         System.clearProperty("hippikon.lazy-store.threshold");
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a property rule holds only for instances in the state named, 
+      * and not on the paths it excludes
+      */
+     public void testPropertyRule() throws Exception {
+         for (String threshold : new String[] {"-1", "0"}) {
+             load(threshold);
+             AuthorizationContext ctx = getContext(true);
+             assertEquals("irwcd", PermissionsFactory.getPermissions(new Ledger(false), ctx).toString());
+             assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(true), ctx).toString());
+             assertEquals("-rw--", PermissionsFactory.getPermissions(path(new Ledger(true)), Audit.class, ctx).toString());
+ 
+             // a check on the class has no instance to read the property of
+             //
+             assertEquals("irwcd", PermissionsFactory.getPermissions(Ledger.class, ctx).toString());
+         }
+     }
+ 
+     /**
+      * Ensures rules on the context apply to instance and class checks alike
+      */
+     public void testContextRules() throws Exception {
+         for (String threshold : new String[] {"-1", "0"}) {
+             load(threshold);
+             AuthorizationContext ctx = getContext(false);
+             assertEquals("-rwc-", PermissionsFactory.getPermissions(new Ledger(false), ctx).toString());
+             assertEquals("-rwc-", PermissionsFactory.getPermissions(Ledger.class, ctx).toString());
+             assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(true), ctx).toString());
+ 
+             AuthorizationContext french = new DefaultAuthorizationContext("0000001", "990", Arrays.asList("990", "ledgers"), 
+                                                                           "12341234", Arrays.asList("clerk")) {
+                 {
+                     locale = Locale.FRANCE;
+                 }
+             };
+             assertEquals("ir-cd", PermissionsFactory.getPermissions(new Ledger(false), french).toString());
+             assertEquals("ir-cd", PermissionsFactory.getPermissionsAsync(new Ledger(false), french).get().toString());
+         }
+     }
+ 
+     /**
+      * Ensures a rule that does not say how to restrict the permissions 
+      * fails the store
+      */
+     public void testIllegalRule() throws Exception {
+         source.put("hippikon.product-id.990.policy-store.xml", 
+                    "<policy-store>\n" +
+                    "  <protected-resource name=\"Ledger\">\n" +
+                    "    <principal type=\"role\" name=\"clerk\" acl=\"irwcd\"/>\n" +
+                    "    <final-rule property=\"closed\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "</policy-store>");
+         load("-1");
+         try {
+             PermissionsFactory.getPermissions(new Ledger(true), getContext(true));
+             fail("Loaded a store with a rule that has no limit or revoke");
+         } catch (Exception e) {
+         }
+     }
+ 
+     @ProtectedResource(name="Ledger")
+     public static class Ledger { 
+         private final boolean closed;
+ 
+         Ledger(boolean closed) {
+             this.closed = closed;
+         }
+ 
+         public boolean isClosed() {
+             return closed;
+         }
+     }
+ 
+     @ProtectedResource(name="Audit")
+     public static class Audit { }
+ 
+     private void load(String threshold) {
+         System.setProperty("hippikon.lazy-store.threshold", threshold);
+         PolicySource.setDefault(source);
+     }
+ 
+     private static List<Object> path(Object res) {
+         List<Object> resources = new ArrayList<Object>();
+         resources.add(res);
+         return resources;
+     }
+ 
+     private AuthorizationContext getContext(boolean ledgers) throws Exception {
+         List<String> subscriptions = ledgers ? Arrays.asList("990", "ledgers") : Arrays.asList("990");
+         return new DefaultAuthorizationContext("0000001", "990", subscriptions, "12341234", Arrays.asList("clerk"));
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.FinalRuleTest.class));
+         System.exit(0);
+     }
+ }
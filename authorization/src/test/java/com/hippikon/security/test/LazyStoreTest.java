@@ -0,0 +1,216 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.ClasspathPolicySource;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.DirectoryPolicySource;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreFootprint;
+import com.hippikon.security.test.myapp.Prospect;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests policy stores loaded lazily, which is forced for every store by 
+  * setting the hippikon.lazy-store.threshold property to 0.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class LazyStoreTest extends TestCase {
+ 
+     private static final String STORE_991 = "hippikon.product-id.991.policy-store.xml";
+     private static final String POLICIES_991 = "hippikon.product-id.991.resource.policies";
+ 
+     private InMemoryPolicySource source;
+ 
+     public LazyStoreTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         ClasspathPolicySource classpath = new ClasspathPolicySource();
+         source = new InMemoryPolicySource();
+         source.put(STORE_991, toBytes(classpath, STORE_991));
+         source.put(POLICIES_991, toBytes(classpath, POLICIES_991));
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         System.clearProperty("hippikon.lazy-store.threshold");
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a lazy store gives the same permissions as a store loaded in
+      * full, while only building the subtrees that are used
+      */
+     public void testOnlyUsedSubtreesBuilt() throws Exception {
+         System.setProperty("hippikon.lazy-store.threshold", "-1");
+         String eager = getPurchaseOrderPermissions("991", "teamleader");
+         int eagerNodes = getFootprint("991").getNodeCount();
+ 
+         System.setProperty("hippikon.lazy-store.threshold", "0");
+         PolicySource.setDefault(source);
+         assertEquals(eager, getPurchaseOrderPermissions("991", "teamleader"));
+         assertTrue(getFootprint("991").getNodeCount() < eagerNodes);
+     }
+ 
+     /**
+      * Ensures comments, CDATA and character references are read as an XML
+      * parser reads them
+      */
+     public void testMarkup() throws Exception {
+         System.setProperty("hippikon.lazy-store.threshold", "0");
+         source.put("hippikon.product-id.990.policy-store.xml",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<!-- <protected-resource name=\"PurchaseOrder\"> -->\n" +
+                    "<policy-store application-name=\"markup\">\n" +
+                    "  <protected-resource name='Purchase&#x4f;rder'>\n" +
+                    "    <![CDATA[ <principal name=\"manager\" acl=\"irwcd\"/> ]]>\n" +
+                    "    <principal type=\"role\" name=\"sales &amp; marketing\" acl=\"ir---\"/>\n" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"-r---\"></principal>\n" +
+                    "  </protected-resource>\n" +
+                    "</policy-store>");
+         PolicySource.setDefault(source);
+         assertEquals("ir---", getPurchaseOrderPermissions("990", "sales & marketing"));
+         assertEquals("-r---", getPurchaseOrderPermissions("990", "manager"));
+     }
+ 
+     /**
+      * Ensures a store that is not well formed fails when it is loaded, not 
+      * when a subtree is first used
+      */
+     public void testMalformedStore() throws Exception {
+         System.setProperty("hippikon.lazy-store.threshold", "0");
+         source.put("hippikon.product-id.990.policy-store.xml",
+                    "<policy-store>" +
+                    "  <protected-resource name=\"PurchaseOrder\">" +
+                    "    <protected-resource name=\"Note\">" +
+                    "  </protected-resource>" +
+                    "</policy-store>");
+         PolicySource.setDefault(source);
+         try {
+             getPurchaseOrderPermissions("990", "manager");
+             fail("Loaded a store that is not well formed");
+         } catch (Exception e) {
+         }
+     }
+ 
+     /**
+      * Ensures a lazy store keeps the bytes it was loaded from when its
+      * memory mapped policy file is edited in place before a reload
+      */
+     public void testMappedFileEditedInPlace() throws Exception {
+         System.setProperty("hippikon.lazy-store.threshold", "0");
+         File dir = File.createTempFile("hippikon", "lazy");
+         dir.delete();
+         dir.mkdir();
+         File file = new File(dir, "hippikon.product-id.990.policy-store.xml");
+         try {
+ 
+             // padded past the size at which the directory source maps files
+             //
+             StringBuffer padding = new StringBuffer();
+             while (padding.length() < 70000) padding.append("padding ");
+             String store = "<policy-store>\n" +
+                            "  <protected-resource name=\"Prospect\">\n" +
+                            "    <principal type=\"role\" name=\"manager\" acl=\"-r---\"/>\n" +
+                            "  </protected-resource>\n" +
+                            "  <protected-resource name=\"PurchaseOrder\">\n" +
+                            "    <principal type=\"role\" name=\"manager\" acl=\"ir---\"/>\n" +
+                            "  </protected-resource>\n" +
+                            "  <!-- " + padding + " -->\n" +
+                            "</policy-store>";
+             FileOutputStream out = new FileOutputStream(file);
+             out.write(store.getBytes("UTF-8"));
+             out.close();
+             out = new FileOutputStream(new File(dir, "hippikon.product-id.990.resource.policies"));
+             out.close();
+             PolicySource.setDefault(new DirectoryPolicySource(dir));
+             assertEquals("-r---", getPermissions(Prospect.class, "990", "manager"));
+ 
+             // the PurchaseOrder subtree is built after the edit
+             //
+             RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             raf.seek(store.indexOf("ir---"));
+             raf.write("irwcd".getBytes("UTF-8"));
+             raf.close();
+             assertEquals("ir---", getPermissions(PurchaseOrder.class, "990", "manager"));
+         } finally {
+             for (File f : dir.listFiles()) f.delete();
+             dir.delete();
+         }
+     }
+ 
+     private String getPurchaseOrderPermissions(String productID, String role) throws Exception {
+         return getPermissions(PurchaseOrder.class, productID, role);
+     }
+ 
+     private String getPermissions(Class<?> c, String productID, String role) throws Exception {
+         List<String> subs = Arrays.asList(productID);
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", productID, subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(c, ctx).toString();
+     }
+ 
+     private static PolicyStoreFootprint getFootprint(String productID) {
+         for (PolicyStoreFootprint footprint : PolicyStoreCache.getInstance().getFootprints()) {
+             if (footprint.getProductID().equals(productID)) return footprint;
+         }
+         return null;
+     }
+ 
+     private static byte[] toBytes(PolicySource source, String name) throws Exception {
+         ByteBuffer buffer = source.read(name);
+         byte[] bytes = new byte[buffer.remaining()];
+         buffer.get(bytes);
+         return bytes;
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.LazyStoreTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,149 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.test.myapp.Invoice;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests policy stores split into modules with include elements, and the
+  * reload of a changed module.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class ModularStoreTest extends TestCase {
+ 
+     private static final String STORE_990 = "hippikon.product-id.990.policy-store.xml";
+ 
+     private InMemoryPolicySource source;
+ 
+     public ModularStoreTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         source = new InMemoryPolicySource();
+         source.put(STORE_990, 
+                    "<policy-store application-name=\"modular\">\n" +
+                    "  <protected-resource name=\"Invoice\">\n" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"irwcd\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "  <include file=\"orders.xml\"/>\n" +
+                    "  <include file=\"invoices.xml\"/>\n" +
+                    "</policy-store>");
+         source.put("orders.xml", module("PurchaseOrder", "-r---"));
+         source.put("invoices.xml", module("Invoice", "ir---"));
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures resources are taken from the included modules, a later 
+      * module replacing a resource defined earlier
+      */
+     public void testIncludes() throws Exception {
+         assertEquals("-r---", getPermissions(PurchaseOrder.class, "manager"));
+         assertEquals("ir---", getPermissions(Invoice.class, "manager"));
+     }
+ 
+     /**
+      * Ensures a changed module is rebuilt and swapped into the cached 
+      * store, and that a changed store document reloads the whole store
+      */
+     public void testReload() throws Exception {
+         assertEquals("-r---", getPermissions(PurchaseOrder.class, "manager"));
+         source.put("orders.xml", module("PurchaseOrder", "irw--"));
+         String result = PolicyStoreCache.getInstance().reload("990");
+         assertTrue(result, result.indexOf("orders.xml") != -1);
+         assertTrue(result, result.indexOf("invoices.xml") == -1);
+         assertEquals("irw--", getPermissions(PurchaseOrder.class, "manager"));
+ 
+         source.put(STORE_990, 
+                    "<policy-store application-name=\"modular\">\n" +
+                    "  <protected-resource name=\"PurchaseOrder\">\n" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"i----\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "</policy-store>");
+         PolicyStoreCache.getInstance().reload("990");
+         assertEquals("i----", getPermissions(PurchaseOrder.class, "manager"));
+     }
+ 
+     /**
+      * Ensures a module may not include other modules
+      */
+     public void testNestedInclude() throws Exception {
+         source.put("orders.xml", 
+                    "<policy-store>\n" +
+                    "  <include file=\"invoices.xml\"/>\n" +
+                    "</policy-store>");
+         PolicySource.setDefault(source);
+         try {
+             getPermissions(PurchaseOrder.class, "manager");
+             fail("Loaded a module that includes another");
+         } catch (Exception e) {
+         }
+     }
+ 
+     private static String module(String resource, String acl) {
+         return "<policy-store>\n" +
+                "  <protected-resource name=\"" + resource + "\">\n" +
+                "    <principal type=\"role\" name=\"manager\" acl=\"" + acl + "\"/>\n" +
+                "  </protected-resource>\n" +
+                "</policy-store>";
+     }
+ 
+     private String getPermissions(Class<?> resource, String role) throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(resource, ctx).toString();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.ModularStoreTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,196 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.io.Base64;
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.PermissionToken;
+import com.hippikon.security.PermissionTokenSigner;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.ResourceDescriptor;
+import com.hippikon.security.test.myapp.AnnotatedProject;
+import com.hippikon.security.test.myapp.TaskList;
+ 
+ /**
+  * Tests the base64 codec and the signed permission tokens built on it.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PermissionTokenTest extends TestCase {
+ 
+     private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+ 
+     public PermissionTokenTest(String s) {
+         super(s);
+     }
+ 
+     /**
+      * Ensures each alphabet and buffer type encodes and decodes as the JDK 
+      * codec does
+      */
+     public void testBase64() throws Exception {
+         byte[] raw = new byte[64];
+         for (int i = 0; i < raw.length; i++) {
+             raw[i] = (byte)(i * 37 + 11);
+         }
+         for (int n = 0; n <= raw.length; n++) {
+             byte[] bytes = Arrays.copyOf(raw, n);
+             String standard = java.util.Base64.getEncoder().encodeToString(bytes);
+             String urlSafe = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+             assertEquals(standard, Base64.encode(bytes));
+             assertEquals(urlSafe, Base64.encodeUrlSafe(bytes));
+             assertTrue(Arrays.equals(bytes, Base64.decode(standard)));
+             assertTrue(Arrays.equals(bytes, Base64.decodeUrlSafe(urlSafe)));
+             assertTrue(Arrays.equals(bytes, Base64.decodeUrlSafe(java.util.Base64.getUrlEncoder().encodeToString(bytes))));
+ 
+             char[] chars = new char[Base64.encodedLength(n, true) + 2];
+             assertEquals(urlSafe.length(), Base64.encode(ByteBuffer.wrap(bytes), chars, 2, true));
+             assertEquals(urlSafe, new String(chars, 2, urlSafe.length()));
+             ByteBuffer decoded = ByteBuffer.allocateDirect(n);
+             assertEquals(n, Base64.decode(urlSafe, decoded, true));
+             decoded.flip();
+             assertEquals(ByteBuffer.wrap(bytes), decoded);
+             byte[] out = new byte[n];
+             assertEquals(n, Base64.decode(chars, 2, urlSafe.length(), out, 0, true));
+             assertTrue(Arrays.equals(bytes, out));
+         }
+ 
+         String[] invalid = {"QUJ", "QR==", "QUJD=A==", "QU!D", "QUJD-_==", "Q===", "A"};
+         for (int i = 0; i < invalid.length; i++) {
+             try {
+                 Base64.decode(invalid[i]);
+                 fail("Decoded " + invalid[i]);
+             } catch (IllegalArgumentException e) {
+             }
+         }
+     }
+ 
+     /**
+      * Ensures a token issued for a Project verifies for a descriptor of 
+      * the Project, and only for the same account, user and resource
+      */
+     public void testIssueAndVerify() throws Exception {
+         AuthorizationContext ctx = getContext("12341234");
+         AnnotatedProject project = new AnnotatedProject();
+         PermissionTokenSigner signer = new PermissionTokenSigner(KEY);
+         String token = signer.issue(project, ctx, 5, TimeUnit.MINUTES);
+ 
+         ResourceDescriptor descriptor = new ResourceDescriptor("Project", project.getGUID(), null);
+         assertEquals(PermissionsFactory.getPermissions(project, ctx).toString(), 
+                      signer.verify(token, Arrays.asList((Object)descriptor), ctx).toString());
+         PermissionToken decoded = signer.verify(token);
+         assertEquals("12341234", decoded.getUserGUID());
+         assertEquals(0, decoded.getStoreVersion());
+         assertFalse(decoded.isExpired());
+         assertEquals(token, signer.encode(decoded));
+ 
+         try {
+             signer.verify(token, Arrays.asList((Object)descriptor), getContext("99999999"));
+             fail("Verified a token for another user");
+         } catch (IllegalAuthorizationException e) {
+         }
+         try {
+             signer.verify(token, Arrays.asList((Object)descriptor), getContext("0000002", "12341234"));
+             fail("Verified a token for another account");
+         } catch (IllegalAuthorizationException e) {
+         }
+         try {
+             ResourceDescriptor other = new ResourceDescriptor("Project", "another", null);
+             signer.verify(token, Arrays.asList((Object)other), ctx);
+             fail("Verified a token for another resource");
+         } catch (IllegalAuthorizationException e) {
+         }
+         try {
+             ResourceDescriptor shifted = new ResourceDescriptor("Projec", "t" + project.getGUID(), null);
+             signer.verify(token, Arrays.asList((Object)shifted), ctx);
+             fail("Verified a token for a resource whose name and id run together the same");
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     /**
+      * Ensures altered, foreign and expired tokens are refused, as is a 
+      * resource without an id
+      */
+     public void testRefusedTokens() throws Exception {
+         AuthorizationContext ctx = getContext("12341234");
+         PermissionTokenSigner signer = new PermissionTokenSigner(KEY);
+         String token = signer.issue(new AnnotatedProject(), ctx, 5, TimeUnit.MINUTES);
+ 
+         char[] altered = token.toCharArray();
+         altered[40] = (altered[40] == 'A') ? 'B' : 'A';
+         assertRefused(signer, new String(altered));
+         assertRefused(signer, token.substring(1));
+         assertRefused(signer, token + "A");
+ 
+         byte[] otherKey = KEY.clone();
+         otherKey[0] ^= 1;
+         assertRefused(new PermissionTokenSigner(otherKey), token);
+         assertRefused(signer, signer.issue(new AnnotatedProject(), ctx, 0, TimeUnit.MILLISECONDS));
+         try {
+             signer.issue(new TaskList(), ctx, 5, TimeUnit.MINUTES);
+             fail("Issued a token for a resource without an id");
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     private void assertRefused(PermissionTokenSigner signer, String token) {
+         try {
+             signer.verify(token);
+             fail("Verified " + token);
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     private AuthorizationContext getContext(String userGUID) throws Exception {
+         return getContext("0000001", userGUID);
+     }
+ 
+     private AuthorizationContext getContext(String accountID, String userGUID) throws Exception {
+         List<String> subs = Arrays.asList("991", "992", "993");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         return new DefaultAuthorizationContext(accountID, "991", subs, userGUID, roles);
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PermissionTokenTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,341 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.AuthorizationTimeoutException;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.Policy;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.ProtectedResource;
+ 
+ /**
+  * Tests the deadlines of authorization checks and the circuit breakers of
+  * Policy classes that overrun them.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicyDeadlineTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"deadlines\">\n" +
+         "  <protected-resource name=\"Ledger\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "  </protected-resource>\n" +
+         "  <protected-resource name=\"Journal\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "  </protected-resource>\n" +
+         "  <protected-resource name=\"Drawer\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "  </protected-resource>\n" +
+         "  <protected-resource name=\"Shelf\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "    <protected-resource name=\"Binder\">\n" +
+         "      <principal name=\"clerk\" acl=\"-rw--\"/>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     public PolicyDeadlineTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", 
+                    "Ledger.policy.classname = " + SleepyPolicy.class.getName() + "\n" +
+                    "Journal.policy.classname = " + HangingPolicy.class.getName() + "\n" +
+                    "Drawer.policy.classname = " + StuckPolicy.class.getName() + "\n" +
+                    "Shelf.policy.classname = " + FlakyPolicy.class.getName() + "\n" +
+                    "Binder.policy.classname = " + FlakyPolicy.class.getName() + "\n");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         System.clearProperty("hippikon.policy-breaker.open-time");
+         FlakyPolicy.hang = false;
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a blocking doFinal that overruns fails the check closed 
+      * without holding the caller, and names the Policy
+      */
+     public void testBlockingOverrun() throws Exception {
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext(), 5, TimeUnit.SECONDS).toString());
+         long start = System.currentTimeMillis();
+         try {
+             PermissionsFactory.getPermissions(new Ledger(true), getContext(), 50, TimeUnit.MILLISECONDS);
+             fail("expected the check to time out");
+         } catch (AuthorizationTimeoutException e) {
+             assertEquals(SleepyPolicy.class.getName(), e.getPolicyClassName());
+             assertEquals("doFinal", e.getCallback());
+         }
+         assertTrue(System.currentTimeMillis() - start < 1000);
+     }
+ 
+     /**
+      * Ensures a Policy class that keeps overrunning is refused at once, 
+      * even by checks without a deadline
+      */
+     public void testCircuitBreaker() throws Exception {
+ 
+         // the store is loaded first, so no deadline runs out before the
+         // lookup is called
+         //
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext()).toString());
+         for (int i = 0; i < 5; i++) {
+             try {
+                 PermissionsFactory.getPermissions(new Journal(), getContext(), 50, TimeUnit.MILLISECONDS);
+                 fail("expected the check to time out");
+             } catch (AuthorizationTimeoutException e) {
+                 assertEquals("determineUserPrincipals", e.getCallback());
+             }
+         }
+         try {
+             PermissionsFactory.getPermissions(new Journal(), getContext());
+             fail("expected the circuit to be open");
+         } catch (AuthorizationTimeoutException e) {
+             assertEquals(HangingPolicy.class.getName(), e.getPolicyClassName());
+             assertEquals(AuthorizationTimeoutException.CIRCUIT_OPEN, e.getCallback());
+         }
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext()).toString());
+     }
+ 
+     /**
+      * Ensures checks of a healthy Policy class that time out waiting 
+      * behind slow work on the executor are not held against the class
+      */
+     public void testQueuedBehindSlowWork() throws Exception {
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext()).toString());
+         ExecutorService executor = Executors.newSingleThreadExecutor();
+         try {
+             executor.execute(new Runnable() {
+                 public void run() {
+                     try {
+                         Thread.sleep(500);
+                     } catch (InterruptedException e) {
+                         Thread.currentThread().interrupt();
+                     }
+                 }
+             });
+             List<Object> resources = new ArrayList<Object>();
+             resources.add(new Ledger(false));
+             for (int i = 0; i < 5; i++) {
+                 try {
+                     PermissionsFactory.getPermissionsAsync(resources, null, getContext(), executor, 
+                                                            20, TimeUnit.MILLISECONDS).get();
+                     fail("expected the check to time out");
+                 } catch (ExecutionException e) {
+                     AuthorizationTimeoutException timeout = (AuthorizationTimeoutException)e.getCause();
+                     assertNull(timeout.getPolicyClassName());
+                 }
+             }
+         } finally {
+             executor.shutdown();
+         }
+         assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext()).toString());
+     }
+ 
+     /**
+      * Ensures a half open breaker admits a chain whose resources share a
+      * Policy class, so that the probe can close it
+      */
+     public void testProbeOfSharedPolicyClass() throws Exception {
+         List<Object> chain = new ArrayList<Object>();
+         chain.add(new Shelf());
+         chain.add(new Binder());
+         assertEquals("-rw--", PermissionsFactory.getPermissions(chain, getContext()).toString());
+         System.setProperty("hippikon.policy-breaker.open-time", "200");
+         FlakyPolicy.hang = true;
+         boolean open = false;
+         for (int i = 0; i < 10 && !open; i++) {
+             try {
+                 PermissionsFactory.getPermissions(chain, getContext(), 50, TimeUnit.MILLISECONDS);
+                 fail("expected the check to time out");
+             } catch (AuthorizationTimeoutException e) {
+                 open = AuthorizationTimeoutException.CIRCUIT_OPEN.equals(e.getCallback());
+             }
+         }
+         assertTrue(open);
+         FlakyPolicy.hang = false;
+         Thread.sleep(300);
+         assertEquals("-rw--", PermissionsFactory.getPermissions(chain, getContext(), 5, TimeUnit.SECONDS).toString());
+         assertEquals("-rw--", PermissionsFactory.getPermissions(chain, getContext()).toString());
+     }
+ 
+     /**
+      * Ensures a Policy class whose callbacks block is refused once it 
+      * holds its share of the default executor, so that the checks of 
+      * another Policy class still run
+      */
+     public void testBulkhead() throws Exception {
+         assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext()).toString());
+         StuckPolicy.latch = new CountDownLatch(1);
+         List<CompletableFuture<PermissionSet>> stuck = new ArrayList<CompletableFuture<PermissionSet>>();
+         try {
+             for (int i = 0; i < 4 * Runtime.getRuntime().availableProcessors(); i++) {
+                 stuck.add(PermissionsFactory.getPermissionsAsync(new Drawer(), getContext()));
+             }
+             assertEquals("-r---", PermissionsFactory.getPermissions(new Ledger(false), getContext(), 
+                                                                     2, TimeUnit.SECONDS).toString());
+             int refused = 0;
+             for (CompletableFuture<PermissionSet> check : stuck) {
+                 if (!check.isDone()) continue;
+                 try {
+                     check.get();
+                     fail("expected the check to be refused");
+                 } catch (ExecutionException e) {
+                     AuthorizationTimeoutException timeout = (AuthorizationTimeoutException)e.getCause();
+                     assertEquals(StuckPolicy.class.getName(), timeout.getPolicyClassName());
+                     if (AuthorizationTimeoutException.BULKHEAD_FULL.equals(timeout.getCallback())) refused++;
+                 }
+             }
+             assertTrue(refused > 0);
+         } finally {
+             StuckPolicy.latch.countDown();
+         }
+     }
+ 
+     @ProtectedResource(name="Ledger")
+     public static class Ledger { 
+         final boolean slow;
+ 
+         Ledger(boolean slow) {
+             this.slow = slow;
+         }
+     }
+ 
+     @ProtectedResource(name="Journal")
+     public static class Journal { }
+ 
+     @ProtectedResource(name="Drawer")
+     public static class Drawer { }
+ 
+     @ProtectedResource(name="Shelf")
+     public static class Shelf { }
+ 
+     @ProtectedResource(name="Binder")
+     public static class Binder { }
+ 
+     // blocks in doFinal for a slow ledger
+     //
+     public static class SleepyPolicy extends Policy {
+         public SleepyPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected PermissionSet doFinal(PermissionSet perms) {
+             if (((Ledger)res).slow) {
+                 try {
+                     Thread.sleep(2000);
+                 } catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                 }
+             }
+             return perms;
+         }
+     }
+ 
+     // looks its principals up from a dependency that never answers
+     //
+     public static class HangingPolicy extends Policy {
+         public HangingPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected CompletableFuture<List<String>> determineUserPrincipalsAsync(Executor executor) {
+             return new CompletableFuture<List<String>>();
+         }
+     }
+ 
+     // blocks looking its principals up until the latch is released
+     //
+     public static class StuckPolicy extends Policy {
+         static volatile CountDownLatch latch;
+ 
+         public StuckPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected List<String> determineUserPrincipals() {
+             try {
+                 latch.await();
+             } catch (InterruptedException e) {
+                 Thread.currentThread().interrupt();
+             }
+             return super.determineUserPrincipals();
+         }
+     }
+ 
+     // looks its principals up from a dependency that stops answering 
+     // while hang is set
+     //
+     public static class FlakyPolicy extends Policy {
+         static volatile boolean hang;
+ 
+         public FlakyPolicy(Object res, AuthorizationContext ctx) {
+             super(res, ctx);
+         }
+ 
+         protected CompletableFuture<List<String>> determineUserPrincipalsAsync(Executor executor) {
+             if (hang) return new CompletableFuture<List<String>>();
+             return super.determineUserPrincipalsAsync(executor);
+         }
+     }
+ 
+     private AuthorizationContext getContext() throws Exception {
+         return new DefaultAuthorizationContext("0000001", "990", Arrays.asList("990"), "12341234", Arrays.asList("clerk"));
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PolicyDeadlineTest.class));
+         System.exit(0);
+     }
+ }
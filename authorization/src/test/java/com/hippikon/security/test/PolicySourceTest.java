@@ -0,0 +1,329 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.ClasspathPolicySource;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.DirectoryPolicySource;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.JdbcPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.test.myapp.Project;
+ 
+ /**
+  * Tests the {@link PolicySource} implementations, loading the example 
+  * product stores from each source in turn. The JDBC source is tested 
+  * against a stand-in DataSource that serves rows from a Map.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicySourceTest extends TestCase {
+ 
+     private static final String STORE_991 = "hippikon.product-id.991.policy-store.xml";
+     private static final String POLICIES_991 = "hippikon.product-id.991.resource.policies";
+     private static final String STORE_993 = "hippikon.product-id.993.policy-store.xml";
+     private static final String POLICIES_993 = "hippikon.product-id.993.resource.policies";
+ 
+     private ClasspathPolicySource classpath = new ClasspathPolicySource();
+ 
+     public PolicySourceTest(String s) {
+         super(s);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures the classpath source lists and reads the example stores
+      */
+     public void testClasspathSource() throws Exception {
+         List<String> names = classpath.list("hippikon.product-id.");
+         assertTrue(names.containsAll(Arrays.asList(STORE_991, POLICIES_991, STORE_993, POLICIES_993)));
+         assertTrue(classpath.read(STORE_991).remaining() > 0);
+         try {
+             classpath.open("hippikon.product-id.000.policy-store.xml");
+             fail("Opened a policy store that does not exist");
+         } catch (FileNotFoundException e) {
+         }
+     }
+ 
+     /**
+      * Ensures the classpath source lists the stores packaged in a jar that
+      * is only known to the class loader it was given
+      */
+     public void testClasspathJar() throws Exception {
+         File jar = File.createTempFile("hippikon-stores", ".jar");
+         JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+         try {
+             out.putNextEntry(new JarEntry("hippikon.product-id.994.policy-store.xml"));
+             out.write(toBytes(classpath.read(STORE_991)));
+             out.closeEntry();
+         } finally {
+             out.close();
+         }
+         URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+         try {
+             ClasspathPolicySource source = new ClasspathPolicySource(loader);
+             assertEquals(Arrays.asList("hippikon.product-id.994.policy-store.xml"), source.list("hippikon.product-id."));
+             assertEquals(classpath.read(STORE_991), source.read("hippikon.product-id.994.policy-store.xml"));
+         } finally {
+             loader.close();
+             jar.delete();
+         }
+     }
+ 
+     /**
+      * Ensures a directory source reads the same bytes as the classpath
+      */
+     public void testDirectorySource() throws Exception {
+         File dir = new File(getClass().getResource("/" + STORE_991).toURI()).getParentFile();
+         DirectoryPolicySource source = new DirectoryPolicySource(dir);
+         assertEquals(classpath.read(STORE_991), source.read(STORE_991));
+         assertEquals(Arrays.asList(STORE_991, POLICIES_991), source.list("hippikon.product-id.991"));
+         try {
+             source.open("../" + STORE_991);
+             fail("Opened a file outside of the directory");
+         } catch (FileNotFoundException e) {
+         }
+     }
+ 
+     /**
+      * Ensures permissions are evaluated from a store held in memory
+      */
+     public void testInMemorySource() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put(STORE_991, toBytes(classpath.read(STORE_991)));
+         source.put(POLICIES_991, toBytes(classpath.read(POLICIES_991)));
+         PolicySource.setDefault(source);
+         assertProjectClassPermissions();
+     }
+ 
+     /**
+      * Ensures permissions are evaluated from a store read from a database, and
+      * that every connection taken is returned
+      */
+     public void testJdbcSource() throws Exception {
+         StandInDataSource db = new StandInDataSource();
+         db.put(STORE_991);
+         db.put(POLICIES_991);
+         JdbcPolicySource source = new JdbcPolicySource(db.getDataSource(), "policy_files", "name", "content");
+ 
+         assertEquals(Arrays.asList(STORE_991, POLICIES_991), source.list("hippikon.product-id."));
+         PolicySource.setDefault(source);
+         assertProjectClassPermissions();
+         assertEquals(0, db.openConnections.get());
+ 
+         try {
+             source.read(STORE_993);
+             fail("Read a row that does not exist");
+         } catch (FileNotFoundException e) {
+         }
+         assertEquals(0, db.openConnections.get());
+     }
+ 
+     /**
+      * Ensures a database failure is reported with the SQLException as its
+      * cause
+      */
+     public void testJdbcFailure() throws Exception {
+         StandInDataSource db = new StandInDataSource();
+         db.put(STORE_991);
+         db.failure = new SQLException("connection reset");
+         JdbcPolicySource source = new JdbcPolicySource(db.getDataSource(), "policy_files", "name", "content");
+         try {
+             source.read(STORE_991);
+             fail("Read a row from a failed database");
+         } catch (IOException e) {
+             assertSame(db.failure, e.getCause());
+         }
+         try {
+             source.list("hippikon.product-id.");
+             fail("Listed the rows of a failed database");
+         } catch (IOException e) {
+             assertSame(db.failure, e.getCause());
+         }
+         assertEquals(0, db.openConnections.get());
+     }
+ 
+     /**
+      * Ensures files are fetched in parallel in the order they were requested
+      */
+     public void testParallelFetch() throws Exception {
+         StandInDataSource db = new StandInDataSource();
+         List<String> names = Arrays.asList(STORE_993, POLICIES_991, STORE_991, POLICIES_993);
+         for (String name : names) {
+             db.put(name);
+         }
+         JdbcPolicySource source = new JdbcPolicySource(db.getDataSource(), "policy_files", "name", "content");
+         Map<String, ByteBuffer> contents = source.readAll(names, 4);
+         assertEquals(names, new ArrayList<String>(contents.keySet()));
+         for (String name : names) {
+             assertEquals(classpath.read(name), contents.get(name));
+         }
+         assertEquals(0, db.openConnections.get());
+     }
+ 
+     private void assertProjectClassPermissions() throws Exception {
+         List<String> subs = Arrays.asList("991", "992", "993");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "991", subs, "12341234", roles);
+         PermissionSet perms = PermissionsFactory.getPermissions(Project.class, ctx);
+         assertFalse(perms.canCreate());
+         assertTrue(perms.canRead());
+         assertFalse(perms.canWrite());
+         assertFalse(perms.canControl());
+         assertFalse(perms.canDelete());
+     }
+ 
+     private static byte[] toBytes(ByteBuffer buffer) {
+         byte[] bytes = new byte[buffer.remaining()];
+         buffer.duplicate().get(bytes);
+         return bytes;
+     }
+ 
+     /**
+      * A DataSource stand-in that answers the name and content queries
+      * of the JdbcPolicySource from a Map of rows
+      */
+     private class StandInDataSource {
+ 
+         private final Map<String, byte[]> rows = new HashMap<String, byte[]>();
+         private final AtomicInteger openConnections = new AtomicInteger();
+         private SQLException failure;
+ 
+         void put(String name) throws Exception {
+             rows.put(name, toBytes(classpath.read(name)));
+         }
+ 
+         DataSource getDataSource() {
+             return proxy(DataSource.class, new InvocationHandler() {
+                 public Object invoke(Object p, Method m, Object[] args) {
+                     if (!m.getName().equals("getConnection")) throw new UnsupportedOperationException(m.getName());
+                     openConnections.incrementAndGet();
+                     return connection();
+                 }
+             });
+         }
+ 
+         private Connection connection() {
+             return proxy(Connection.class, new InvocationHandler() {
+                 public Object invoke(Object p, Method m, Object[] args) {
+                     if (m.getName().equals("close")) {
+                         openConnections.decrementAndGet();
+                         return null;
+                     }
+                     if (!m.getName().equals("prepareStatement")) throw new UnsupportedOperationException(m.getName());
+                     return statement((String)args[0]);
+                 }
+             });
+         }
+ 
+         private PreparedStatement statement(final String sql) {
+             final String[] param = new String[1];
+             return proxy(PreparedStatement.class, new InvocationHandler() {
+                 public Object invoke(Object p, Method m, Object[] args) throws SQLException {
+                     if (m.getName().equals("setString")) {
+                         param[0] = (String)args[1];
+                         return null;
+                     }
+                     if (m.getName().equals("close")) return null;
+                     if (!m.getName().equals("executeQuery")) throw new UnsupportedOperationException(m.getName());
+                     if (failure != null) throw failure;
+ 
+                     List<Object> results = new ArrayList<Object>();
+                     if (sql.startsWith("SELECT content")) {
+                         if (rows.containsKey(param[0])) results.add(rows.get(param[0]));
+                     } else {
+                         String prefix = param[0].substring(0, param[0].length() - 1);
+                         for (String name : rows.keySet()) {
+                             if (name.startsWith(prefix)) results.add(name);
+                         }
+                     }
+                     return resultSet(results);
+                 }
+             });
+         }
+ 
+         private ResultSet resultSet(final List<Object> results) {
+             final int[] row = new int[] { -1 };
+             return proxy(ResultSet.class, new InvocationHandler() {
+                 public Object invoke(Object p, Method m, Object[] args) {
+                     if (m.getName().equals("next")) return Boolean.valueOf(++row[0] < results.size());
+                     if (m.getName().equals("getString")) return results.get(row[0]);
+                     if (m.getName().equals("getBinaryStream")) return new ByteArrayInputStream((byte[])results.get(row[0]));
+                     if (m.getName().equals("close")) return null;
+                     throw new UnsupportedOperationException(m.getName());
+                 }
+             });
+         }
+ 
+         private <T> T proxy(Class<T> type, InvocationHandler handler) {
+             return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+         }
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PolicySourceTest.class));
+         System.exit(0);
+     }
+ }
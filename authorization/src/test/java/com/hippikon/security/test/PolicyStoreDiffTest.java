@@ -0,0 +1,176 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreDiff;
+import com.hippikon.security.PolicyStoreListener;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests the ACL changes found between two versions of a policy store, and
+  * their delivery to PolicyStoreListeners when a store is reloaded.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicyStoreDiffTest extends TestCase {
+ 
+     private static final String BEFORE = 
+         "<policy-store application-name=\"diff\">\n" +
+         "  <include file=\"orders.xml\"/>\n" +
+         "  <protected-resource name=\"Invoice\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private static final String ORDERS = 
+         "<policy-store>\n" +
+         "  <protected-resource name=\"PurchaseOrder\">\n" +
+         "    <principal name=\"manager\" acl=\"-r---\"/>\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "    <protected-resource name=\"Note\"/>\n" +
+         "    <protected-resource name=\"Attachment\">\n" +
+         "      <principal name=\"manager\" acl=\"irwcd\"/>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private File directory;
+ 
+     public PolicyStoreDiffTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         directory = File.createTempFile("hippikon-diff", "");
+         directory.delete();
+         directory.mkdirs();
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+         for (File file : directory.listFiles()) {
+             file.delete();
+         }
+         directory.delete();
+     }
+ 
+     /**
+      * Ensures a changed ACL is reported on nested resources that inherit 
+      * it and not on those that override it
+      */
+     public void testInheritedChanges() throws Exception {
+         PolicyStoreDiff diff = PolicyStoreDiff.compare(write("before.xml", ORDERS), 
+                                                        write("after.xml", ORDERS.replace("\"manager\" acl=\"-r---\"", "\"manager\" acl=\"-rw--\"")));
+         assertEquals(diff.getChanges().toString(), 2, diff.getChanges().size());
+         assertTrue(diff.affects(Arrays.asList("PurchaseOrder"), Arrays.asList("manager")));
+         assertTrue(diff.affects(Arrays.asList("PurchaseOrder", "Note"), Arrays.asList("clerk", "manager")));
+         assertFalse(diff.affects(Arrays.asList("PurchaseOrder", "Attachment"), Arrays.asList("manager")));
+         assertFalse(diff.affects(Arrays.asList("PurchaseOrder", "Note"), Arrays.asList("clerk")));
+         assertEquals("-rw--", diff.getChanges().get(1).getAfter());
+     }
+ 
+     /**
+      * Ensures every principal with an ACL on a removed resource is reported
+      */
+     public void testRemovedResource() throws Exception {
+         PolicyStoreDiff diff = PolicyStoreDiff.compare(write("before.xml", ORDERS), 
+                                                        write("after.xml", ORDERS.replace("<protected-resource name=\"Note\"/>", "")));
+         assertEquals(diff.getChanges().toString(), 2, diff.getChanges().size());
+         assertEquals(Arrays.asList("PurchaseOrder", "Note"), diff.getChanges().get(0).getResourcePath());
+         assertNull(diff.getChanges().get(0).getAfter());
+         assertEquals("[clerk, manager]", diff.getAffectedPrincipals().toString());
+     }
+ 
+     /**
+      * Ensures a listener is given only the changes of the reloaded module
+      */
+     public void testReloadListener() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", BEFORE);
+         source.put("orders.xml", ORDERS);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+         getPermissions("manager");
+ 
+         final PolicyStoreDiff[] received = new PolicyStoreDiff[1];
+         PolicyStoreListener listener = new PolicyStoreListener() {
+             public void policyStoreChanged(String productID, PolicyStoreDiff diff) {
+                 if ("990".equals(productID)) received[0] = diff;
+             }
+         };
+         PolicyStoreCache.getInstance().addPolicyStoreListener(listener);
+         try {
+             source.put("orders.xml", ORDERS.replace("\"clerk\" acl=\"-r---\"", "\"clerk\" acl=\"ir---\""));
+             PolicyStoreCache.getInstance().reload("990");
+         } finally {
+             PolicyStoreCache.getInstance().removePolicyStoreListener(listener);
+         }
+         assertNotNull(received[0]);
+         assertEquals(received[0].getChanges().toString(), 3, received[0].getChanges().size());
+         assertEquals("[clerk]", received[0].getAffectedPrincipals().toString());
+         assertFalse(received[0].affects(Arrays.asList("Invoice"), Arrays.asList("clerk")));
+     }
+ 
+     private File write(String name, String xml) throws Exception {
+         File file = new File(directory, name);
+         Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+         out.write(xml);
+         out.close();
+         return file;
+     }
+ 
+     private String getPermissions(String role) throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(PurchaseOrder.class, ctx).toString();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PolicyStoreDiffTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,153 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.File;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicyChange;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreEditor;
+import com.hippikon.security.ResourceNotFoundException;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests changes made to a live policy store through a PolicyStoreEditor,
+  * and their recovery from the journal.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicyStoreEditorTest extends TestCase {
+ 
+     private static final List<String> PURCHASE_ORDER = Arrays.asList("PurchaseOrder");
+ 
+     private InMemoryPolicySource source;
+     private File directory;
+ 
+     public PolicyStoreEditorTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() throws Exception {
+         directory = File.createTempFile("hippikon-journal", "");
+         directory.delete();
+         directory.mkdirs();
+         System.setProperty("hippikon.journal.directory", directory.getPath());
+         source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", 
+                    "<policy-store application-name=\"editable\">\n" +
+                    "  <protected-resource name=\"PurchaseOrder\">\n" +
+                    "    <principal type=\"role\" name=\"manager\" acl=\"-r---\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "</policy-store>");
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+         System.clearProperty("hippikon.journal.directory");
+         for (File file : directory.listFiles()) {
+             file.delete();
+         }
+         directory.delete();
+     }
+ 
+     /**
+      * Ensures a change is seen by the next request, and is recovered from
+      * the journal and then from the snapshot when the store is reloaded
+      */
+     public void testChangesRecovered() throws Exception {
+         PolicyStoreEditor editor = PolicyStoreEditor.forProduct("990");
+         assertEquals("-r---", getPermissions("manager"));
+         assertEquals(1, editor.apply(PolicyChange.setAcl(PURCHASE_ORDER, "manager", "irw--"),
+                                      PolicyChange.setAcl(PURCHASE_ORDER, "clerk", "-r---")));
+         assertEquals("irw--", getPermissions("manager"));
+         assertEquals("-r---", getPermissions("clerk"));
+ 
+         PolicySource.setDefault(source);
+         assertEquals("irw--", getPermissions("manager"));
+         assertEquals(1, editor.getVersion());
+ 
+         editor.apply(PolicyChange.removeAcl(PURCHASE_ORDER, "clerk"));
+         editor.compact();
+         assertEquals(0, new File(directory, "hippikon.product-id.990.journal").length());
+         PolicySource.setDefault(source);
+         assertEquals("irw--", getPermissions("manager"));
+         assertEquals("-----", getPermissions("clerk"));
+         assertEquals(2, editor.getVersion());
+     }
+ 
+     /**
+      * Ensures a batch is applied whole or not at all, and is refused if 
+      * the store has changed since the version it was made against
+      */
+     public void testConflictingChanges() throws Exception {
+         PolicyStoreEditor editor = PolicyStoreEditor.forProduct("990");
+         long version = editor.getVersion();
+         try {
+             editor.apply(version, PolicyChange.setAcl(PURCHASE_ORDER, "manager", "irwcd"),
+                          PolicyChange.addResource(Arrays.asList("Invoice", "Note")));
+             fail("Applied a change to a resource that does not exist");
+         } catch (ResourceNotFoundException e) {
+         }
+         assertEquals(version, editor.getVersion());
+         assertEquals("-r---", getPermissions("manager"));
+ 
+         editor.apply(version, PolicyChange.setAcl(PURCHASE_ORDER, "manager", "irwcd"));
+         try {
+             editor.apply(version, PolicyChange.setAcl(PURCHASE_ORDER, "manager", "i----"));
+             fail("Applied a change made against an old version");
+         } catch (ConcurrentModificationException e) {
+         }
+         assertEquals("irwcd", getPermissions("manager"));
+     }
+ 
+     private String getPermissions(String role) throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(PurchaseOrder.class, ctx).toString();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PolicyStoreEditorTest.class));
+         System.exit(0);
+     }
+ }
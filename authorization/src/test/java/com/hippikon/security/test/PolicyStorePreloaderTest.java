@@ -0,0 +1,151 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreLoadException;
+import com.hippikon.security.PolicyStorePreloader;
+import com.hippikon.security.test.myapp.Project;
+ 
+ /**
+  * Tests the loading, validation and caching of the product policy stores
+  * by the PolicyStorePreloader.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class PolicyStorePreloaderTest extends TestCase {
+ 
+     // the 991 store has a four character acl, and its resource.policies
+     // file maps a resource that is not in the store to a missing class
+     //
+     private static final List<String> KNOWN_PROBLEMS = Arrays.asList(
+         "product 991: malformed acl \"----\" for principal sales executive in /Prospect/PurchaseOrder",
+         "product 991: policy mapped for Issue which is not in the policy store",
+         "product 991: Issue: Policy class com.hippikon.security.test.objects.BusinessObjectPolicy not found");
+ 
+     public PolicyStorePreloaderTest(String s) {
+         super(s);
+     }
+ 
+     /**
+      * Ensures the stores of the test resources load and validate, with 
+      * only the known faults of product 991 reported
+      */
+     public void testValidateStores() throws Exception {
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         preloader.setDirectory(getResourceDirectory());
+         preloader.setPopulateCaches(false);
+         PolicyStorePreloader.Report report = preloader.run();
+         assertEquals(Arrays.asList("991", "993"), report.getProducts());
+         assertEquals(KNOWN_PROBLEMS, report.getProblems());
+     }
+ 
+     /**
+      * Ensures the loaded stores are placed in the cache, so the first 
+      * check of each product does not load its store
+      */
+     public void testPopulateCaches() throws Exception {
+         PolicyStoreCache cache = PolicyStoreCache.getInstance();
+         cache.flush();
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         preloader.setDirectory(getResourceDirectory());
+         PolicyStorePreloader.Report report = preloader.run();
+         assertEquals(Arrays.asList("991", "993"), report.getProducts());
+         assertEquals(2, cache.getEntryCount());
+ 
+         long misses = cache.getMissCount();
+         List<String> subs = Arrays.asList("991", "992", "993");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "991", subs, "12341234", roles);
+         PermissionsFactory.getPermissions(new Project(), ctx);
+         assertEquals(misses, cache.getMissCount());
+     }
+ 
+     /**
+      * Ensures faults in a store and in the modules it includes are all 
+      * reported, and fail the preload if asked
+      */
+     public void testReportProblems() throws Exception {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", 
+                    "<policy-store>\n" +
+                    "  <include file=\"orders.xml\"/>\n" +
+                    "  <protected-resource name=\"Ledger\">\n" +
+                    "    <principal type=\"role\" name=\"clerk\" acl=\"irwcd\"/>\n" +
+                    "    <principal type=\"role\" name=\"clerk\" acl=\"-r---\"/>\n" +
+                    "    <protected-resource name=\"\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "  <protected-resource name=\"Ledger\"/>\n" +
+                    "</policy-store>");
+         source.put("orders.xml", 
+                    "<policy-store>\n" +
+                    "  <protected-resource name=\"PurchaseOrder\">\n" +
+                    "    <principal type=\"role\" name=\"buyer\" acl=\"rw\"/>\n" +
+                    "  </protected-resource>\n" +
+                    "</policy-store>");
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicyStorePreloader preloader = new PolicyStorePreloader();
+         preloader.setSource(source);
+         preloader.setPopulateCaches(false);
+         PolicyStorePreloader.Report report = preloader.run();
+         assertEquals(Arrays.asList(
+             "product 990: duplicate protected-resource /Ledger",
+             "product 990: duplicate principal clerk in /Ledger",
+             "product 990: protected-resource without a name under /Ledger",
+             "product 990: malformed acl \"rw\" for principal buyer in /PurchaseOrder"), report.getProblems());
+ 
+         preloader.setFailOnError(true);
+         try {
+             preloader.run();
+             fail("Preloaded stores with problems");
+         } catch (PolicyStoreLoadException e) {
+         }
+     }
+ 
+     private File getResourceDirectory() throws Exception {
+         return new File(getClass().getResource("/hippikon.product-id.991.policy-store.xml").toURI()).getParentFile();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.PolicyStorePreloaderTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,208 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.AuthorizationSession;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.ParentResolver;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.VersionedResource;
+import com.hippikon.security.test.myapp.Project;
+import com.hippikon.security.test.myapp.TaskList;
+import com.hippikon.security.test.myapp.TaskListItem;
+ 
+ /**
+  * Tests the checks made on the chain of ancestors given by the 
+  * ParentResolver of each resource class.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class ResourceChainTest extends TestCase {
+ 
+     // the parent of each resource, as a resolver would look it up by id
+     //
+     private final Map<Object, Object> parents = new IdentityHashMap<Object, Object>();
+     private int lookups;
+ 
+     private final ParentResolver resolver = new ParentResolver() {
+         public Object getParent(Object res) {
+             lookups++;
+             return parents.get(res);
+         }
+     };
+ 
+     public ResourceChainTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         PermissionsFactory.setParentResolver(TaskList.class, resolver);
+         PermissionsFactory.setParentResolver(TaskListItem.class, resolver);
+     }
+ 
+     protected void tearDown() {
+         PermissionsFactory.setParentResolver(TaskList.class, null);
+         PermissionsFactory.setParentResolver(TaskListItem.class, null);
+         PermissionsFactory.setParentResolver(IdentifiedTaskList.class, null);
+     }
+ 
+     /**
+      * Ensures a check on a resolved chain gives the same permissions as a 
+      * check on the chain passed in full
+      */
+     public void testResolvedChain() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         Project project = new Project();
+         TaskList taskList = new TaskList();
+         TaskListItem item = new TaskListItem();
+         parents.put(taskList, project);
+         parents.put(item, taskList);
+ 
+         assertEquals(PermissionsFactory.getPermissions(Arrays.asList(project, taskList, item), ctx).toString(), 
+                      PermissionsFactory.getPermissionsInChain(item, ctx).toString());
+         assertEquals(PermissionsFactory.getPermissions(project, TaskList.class, ctx).toString(), 
+                      PermissionsFactory.getPermissionsInChain(project, TaskList.class, ctx).toString());
+     }
+ 
+     /**
+      * Ensures a session resolves the parents shared by many children once
+      */
+     public void testSessionChains() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         Project project = new Project();
+         TaskList taskList = new TaskList();
+         parents.put(taskList, project);
+         List<TaskListItem> items = new ArrayList<TaskListItem>();
+         for (int i = 0; i < 10; i++) {
+             TaskListItem item = new TaskListItem();
+             parents.put(item, taskList);
+             items.add(item);
+         }
+ 
+         AuthorizationSession session = new AuthorizationSession(ctx);
+         for (TaskListItem item : items) {
+             assertEquals(PermissionsFactory.getPermissions(Arrays.asList(project, taskList, item), ctx).toString(), 
+                          session.getPermissionsInChain(item).toString());
+         }
+ 
+         // one lookup for each item and one for the task list, the project
+         // having no resolver
+         //
+         assertEquals(11, lookups);
+         session.getPermissionsInChain(items.get(0));
+         assertEquals(11, lookups);
+     }
+ 
+     /**
+      * Ensures a session finds the chain of a parent that the resolver 
+      * loads afresh by its id for each child
+      */
+     public void testParentsLoadedById() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         final Project project = new Project();
+         final int[] listLookups = new int[1];
+         PermissionsFactory.setParentResolver(TaskListItem.class, new ParentResolver() {
+             public Object getParent(Object res) {
+                 return new IdentifiedTaskList("L-1");
+             }
+         });
+         PermissionsFactory.setParentResolver(IdentifiedTaskList.class, new ParentResolver() {
+             public Object getParent(Object res) {
+                 listLookups[0]++;
+                 return project;
+             }
+         });
+ 
+         AuthorizationSession session = new AuthorizationSession(ctx);
+         for (int i = 0; i < 10; i++) {
+             TaskListItem item = new TaskListItem();
+             List<Object> chain = Arrays.asList(project, new IdentifiedTaskList("L-1"), item);
+             assertEquals(PermissionsFactory.getPermissions(chain, ctx).toString(), 
+                          session.getPermissionsInChain(item).toString());
+         }
+         assertEquals(1, listLookups[0]);
+     }
+ 
+     /**
+      * Ensures a resource that is its own ancestor fails the check
+      */
+     public void testCycle() throws Exception {
+         TaskList taskList = new TaskList();
+         TaskListItem item = new TaskListItem();
+         parents.put(taskList, item);
+         parents.put(item, taskList);
+         try {
+             PermissionsFactory.getPermissionsInChain(item, getTeamLeaderContext());
+             fail("Resolved a chain with a cycle");
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     // a task list that a resolver loads by its id
+     //
+     private static class IdentifiedTaskList extends TaskList implements VersionedResource {
+         private static final long serialVersionUID = 1L;
+         private final String identity;
+ 
+         IdentifiedTaskList(String identity) {
+             this.identity = identity;
+         }
+ 
+         public String getResourceIdentity() {
+             return identity;
+         }
+ 
+         public long getResourceVersion() {
+             return 0;
+         }
+     }
+ 
+     private AuthorizationContext getTeamLeaderContext() throws Exception {
+         List<String> subs = Arrays.asList("991", "992", "993");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         return new DefaultAuthorizationContext("0000001", "991", subs, "12341234", roles);
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.ResourceChainTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,157 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.ResourceDescriptor;
+import com.hippikon.security.test.myapp.AnnotatedProject;
+import com.hippikon.security.test.myapp.AnnotatedProjectPolicy;
+import com.hippikon.security.test.myapp.TaskList;
+import com.hippikon.security.test.myapp.TaskListItem;
+ 
+ /**
+  * Tests checks made on ResourceDescriptors in place of the domain objects
+  * they describe.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class ResourceDescriptorTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"descriptors\">\n" +
+         "  <protected-resource name=\"Project\">\n" +
+         "    <principal type=\"role\" name=\"manager\" acl=\"-r---\"/>\n" +
+         "    <principal type=\"user\" name=\"the-teamleader\" acl=\"-rwc-\"/>\n" +
+         "    <protected-resource name=\"TaskList\">\n" +
+         "      <principal type=\"role\" name=\"manager\" acl=\"-r---\"/>\n" +
+         "      <principal type=\"user\" name=\"group-member\" acl=\"irw--\"/>\n" +
+         "      <protected-resource name=\"TaskListItem\">\n" +
+         "        <principal type=\"user\" name=\"the-teamleader\" acl=\"irwcd\"/>\n" +
+         "      </protected-resource>\n" +
+         "    </protected-resource>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     // the attributes read by the AnnotatedProject annotations and its Policy
+     //
+     private static final String[] PROJECT_ATTRIBUTES = {"teamLeaderGUID", "ownerGUID", "projectTeam", "closed"};
+ 
+     public ResourceDescriptorTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", 
+                    "Project.policy.classname = " + AnnotatedProjectPolicy.class.getName() + "\n");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a descriptor of a Project gives the permissions of the Project,
+      * open and closed
+      */
+     public void testProjectDescriptor() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         AnnotatedProject project = new AnnotatedProject();
+         assertEquals(PermissionsFactory.getPermissions(project, ctx).toString(), 
+                      PermissionsFactory.getPermissions(describe(project), ctx).toString());
+         assertTrue(PermissionsFactory.getPermissions(describe(project), ctx).canWrite());
+ 
+         project.setClosed();
+         assertEquals(PermissionsFactory.getPermissions(project, ctx).toString(), 
+                      PermissionsFactory.getPermissions(describe(project), ctx).toString());
+         assertFalse(PermissionsFactory.getPermissions(describe(project), ctx).canWrite());
+     }
+ 
+     /**
+      * Ensures a descriptor without the attributes the annotations read 
+      * gives no user principals
+      */
+     public void testMissingAttributes() throws Exception {
+         ResourceDescriptor project = new ResourceDescriptor(AnnotatedProject.class, "12341234ABCDASDE", null, 
+                                                             new String[0], new Object[0]);
+         PermissionSet perms = PermissionsFactory.getPermissions(project, getTeamLeaderContext());
+         assertTrue(perms.canRead());
+         assertFalse(perms.canWrite());
+     }
+ 
+     /**
+      * Ensures a chain of descriptors, given in full or built from their
+      * parents, gives the permissions of the domain objects
+      */
+     public void testDescriptorChain() throws Exception {
+         AuthorizationContext ctx = getTeamLeaderContext();
+         AnnotatedProject project = new AnnotatedProject();
+         ResourceDescriptor projectDescriptor = describe(project);
+         ResourceDescriptor taskList = new ResourceDescriptor("TaskList", "tl-1", projectDescriptor);
+         ResourceDescriptor item = new ResourceDescriptor("TaskListItem", "tli-1", taskList);
+ 
+         String expected = PermissionsFactory.getPermissions(Arrays.asList(project, new TaskList(), new TaskListItem()), ctx).toString();
+         assertEquals(expected, PermissionsFactory.getPermissions(Arrays.asList((Object)projectDescriptor, taskList, item), ctx).toString());
+         assertEquals(expected, PermissionsFactory.getPermissionsInChain(item, ctx).toString());
+     }
+ 
+     // the team is given as the List of the Project, which is hashed when 
+     // matched
+     //
+     private ResourceDescriptor describe(AnnotatedProject project) throws Exception {
+         Object[] values = {project.getTeamLeaderGUID(), project.getOwnerGUID(), project.getProjectTeamGUIDs(), 
+                            Boolean.valueOf(project.isClosed())};
+         return new ResourceDescriptor(AnnotatedProject.class, project.getGUID(), null, PROJECT_ATTRIBUTES, values);
+     }
+ 
+     private AuthorizationContext getTeamLeaderContext() throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList("manager", "teamleader");
+         return new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.ResourceDescriptorTest.class));
+         System.exit(0);
+     }
+ }
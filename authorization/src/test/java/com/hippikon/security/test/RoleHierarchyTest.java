@@ -0,0 +1,152 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.PolicyStoreCache;
+import com.hippikon.security.PolicyStoreDiff;
+import com.hippikon.security.PolicyStoreListener;
+import com.hippikon.security.test.myapp.Invoice;
+import com.hippikon.security.test.myapp.PurchaseOrder;
+ 
+ /**
+  * Tests the role and group inheritance declared by a policy store
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class RoleHierarchyTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"roles\">\n" +
+         "  <role name=\"manager\" inherits=\"teamleader\"/>\n" +
+         "  <role name=\"teamleader\" inherits=\"clerk\"/>\n" +
+         "  <group name=\"accounts\" inherits=\"clerk, auditor\"/>\n" +
+         "  <protected-resource name=\"PurchaseOrder\">\n" +
+         "    <principal name=\"clerk\" acl=\"-r---\"/>\n" +
+         "    <principal name=\"teamleader\" acl=\"-rw--\"/>\n" +
+         "  </protected-resource>\n" +
+         "  <protected-resource name=\"Invoice\">\n" +
+         "    <principal name=\"auditor\" acl=\"-r---\"/>\n" +
+         "    <principal name=\"manager\" acl=\"i----\"/>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     private InMemoryPolicySource source;
+ 
+     public RoleHierarchyTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a principal gets the permissions of every role it inherits, 
+      * directly or transitively
+      */
+     public void testInheritedPermissions() throws Exception {
+         assertEquals("-r---", getPermissions(PurchaseOrder.class, "clerk"));
+         assertEquals("-rw--", getPermissions(PurchaseOrder.class, "teamleader"));
+         assertEquals("-rw--", getPermissions(PurchaseOrder.class, "manager"));
+         assertEquals("i----", getPermissions(Invoice.class, "manager"));
+         assertEquals("-r---", getPermissions(PurchaseOrder.class, "accounts"));
+         assertEquals("-r---", getPermissions(Invoice.class, "accounts"));
+     }
+ 
+     /**
+      * Ensures cyclic declarations give each role in the cycle the 
+      * permissions of the others
+      */
+     public void testCycle() throws Exception {
+         source.put("hippikon.product-id.990.policy-store.xml", 
+                    STORE.replace("inherits=\"clerk\"/>", "inherits=\"clerk, manager\"/>"));
+         PolicySource.setDefault(source);
+         assertEquals("i----", getPermissions(Invoice.class, "teamleader"));
+         assertEquals("-rw--", getPermissions(PurchaseOrder.class, "manager"));
+         assertEquals("-----", getPermissions(Invoice.class, "clerk"));
+     }
+ 
+     /**
+      * Ensures a reload that changes the inheritance is reported as 
+      * affecting every decision
+      */
+     public void testReloadDiff() throws Exception {
+         getPermissions(PurchaseOrder.class, "manager");
+         final PolicyStoreDiff[] received = new PolicyStoreDiff[1];
+         PolicyStoreListener listener = new PolicyStoreListener() {
+             public void policyStoreChanged(String productID, PolicyStoreDiff diff) {
+                 if ("990".equals(productID)) received[0] = diff;
+             }
+         };
+         PolicyStoreCache.getInstance().addPolicyStoreListener(listener);
+         try {
+             source.put("hippikon.product-id.990.policy-store.xml", 
+                        STORE.replace("<role name=\"manager\" inherits=\"teamleader\"/>", ""));
+             PolicyStoreCache.getInstance().reload("990");
+         } finally {
+             PolicyStoreCache.getInstance().removePolicyStoreListener(listener);
+         }
+         assertNotNull(received[0]);
+         assertTrue(received[0].isRoleHierarchyChanged());
+         assertTrue(received[0].getChanges().isEmpty());
+         assertTrue(received[0].affects(Arrays.asList("Invoice"), Arrays.asList("auditor")));
+         assertEquals("", getPermissions(PurchaseOrder.class, "manager").replace("-", ""));
+     }
+ 
+     private String getPermissions(Class<?> resource, String role) throws Exception {
+         List<String> subs = Arrays.asList("990");
+         List<String> roles = Arrays.asList(role);
+         AuthorizationContext ctx = new DefaultAuthorizationContext("0000001", "990", subs, "12341234", roles);
+         return PermissionsFactory.getPermissions(resource, ctx).toString();
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.RoleHierarchyTest.class));
+         System.exit(0);
+     }
+ }
@@ -0,0 +1,181 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test;
+ 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.DefaultAuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.InMemoryPolicySource;
+import com.hippikon.security.PermissionsFactory;
+import com.hippikon.security.PolicySource;
+import com.hippikon.security.ProtectedResource;
+import com.hippikon.security.UserPrincipal;
+ 
+ /**
+  * Tests the user principals declared on resource classes with 
+  * UserPrincipal annotations, in place of a Policy class.
+  * 
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class UserPrincipalTest extends TestCase {
+ 
+     private static final String STORE = 
+         "<policy-store application-name=\"principals\">\n" +
+         "  <protected-resource name=\"Case\">\n" +
+         "    <principal type=\"role\" name=\"clerk\" acl=\"-r---\"/>\n" +
+         "    <principal type=\"user\" name=\"the-handler\" acl=\"-rw--\"/>\n" +
+         "    <principal type=\"user\" name=\"the-team\" acl=\"ir---\"/>\n" +
+         "    <principal type=\"user\" name=\"the-account\" acl=\"-r--d\"/>\n" +
+         "  </protected-resource>\n" +
+         "</policy-store>";
+ 
+     public UserPrincipalTest(String s) {
+         super(s);
+     }
+ 
+     protected void setUp() {
+         InMemoryPolicySource source = new InMemoryPolicySource();
+         source.put("hippikon.product-id.990.policy-store.xml", STORE);
+         source.put("hippikon.product-id.990.resource.policies", "");
+         PolicySource.setDefault(source);
+     }
+ 
+     protected void tearDown() {
+         PolicySource.setDefault(null);
+     }
+ 
+     /**
+      * Ensures a principal is given by an equal attribute, by membership of
+      * a collection on either side, and by collections in common
+      */
+     public void testMatches() throws Exception {
+         assertEquals("-r---", getPermissions(new Case("nobody", "nobody", "other"), "12341234", "outsiders"));
+         assertEquals("-rw--", getPermissions(new Case("12341234", "nobody", "other"), "12341234", "outsiders"));
+         assertEquals("ir---", getPermissions(new Case("nobody", "12341234", "other"), "12341234", "outsiders"));
+         assertEquals("-r--d", getPermissions(new Case("nobody", "nobody", "0000001"), "12341234", "outsiders"));
+         assertEquals("irw--", getPermissions(new Case("12341234", "nobody", "other"), "12341234", "case-team"));
+         assertEquals("irw--", PermissionsFactory.getPermissionsAsync(new Case("12341234", "nobody", "other"), 
+                                                                      getContext("12341234", "case-team")).get().toString());
+     }
+ 
+     /**
+      * Ensures a principal declared on a property without an accessor 
+      * fails the check
+      */
+     public void testMissingProperty() throws Exception {
+         try {
+             PermissionsFactory.getPermissions(new BrokenCase(), getContext("12341234", "outsiders"));
+             fail("Determined the principals of a resource without the property declared");
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     /**
+      * Ensures a principal matched by membership of a property that is not
+      * a Set fails the check
+      */
+     public void testListProperty() throws Exception {
+         try {
+             PermissionsFactory.getPermissions(new ListCase(), getContext("12341234", "outsiders"));
+             fail("Matched the members of a List property");
+         } catch (IllegalAuthorizationException e) {
+         }
+     }
+ 
+     @ProtectedResource(name="Case")
+     @UserPrincipal(name="the-handler", property="handlerGUID")
+     @UserPrincipal(name="the-team", property="teamGUIDs")
+     @UserPrincipal(name="the-team", context="userGroups", property="teams")
+     @UserPrincipal(name="the-account", context="accountID", property="accountIDs")
+     public static class Case { 
+         private final String handlerGUID;
+         private final Set<String> teamGUIDs;
+         private final Set<String> accountIDs;
+ 
+         Case(String handlerGUID, String teamGUID, String accountID) {
+             this.handlerGUID = handlerGUID;
+             this.teamGUIDs = new HashSet<String>(Arrays.asList(teamGUID, "somebody"));
+             this.accountIDs = Collections.singleton(accountID);
+         }
+ 
+         public String getHandlerGUID() {
+             return handlerGUID;
+         }
+ 
+         public Set<String> getTeamGUIDs() {
+             return teamGUIDs;
+         }
+ 
+         public Set<String> getTeams() {
+             return TEAMS;
+         }
+ 
+         public Set<String> getAccountIDs() {
+             return accountIDs;
+         }
+     }
+ 
+     private static final Set<String> TEAMS = new HashSet<String>(Arrays.asList("case-team", "audit-team"));
+ 
+     @ProtectedResource(name="Case")
+     @UserPrincipal(name="the-handler", property="handler")
+     public static class BrokenCase { }
+ 
+     @ProtectedResource(name="Case")
+     @UserPrincipal(name="the-team", property="teamGUIDs")
+     public static class ListCase { 
+         public List<String> getTeamGUIDs() {
+             return Arrays.asList("12341234");
+         }
+     }
+ 
+     private String getPermissions(Object res, String userGUID, String group) throws Exception {
+         return PermissionsFactory.getPermissions(res, getContext(userGUID, group)).toString();
+     }
+ 
+     private AuthorizationContext getContext(String userGUID, String group) throws Exception {
+         return new DefaultAuthorizationContext("0000001", "990", Arrays.asList("990"), userGUID, 
+                                                Arrays.asList("clerk"), Arrays.asList(group));
+     }
+ 
+     /**
+      * Provided for JUnit invocation
+      */
+     public static void main(String[] args) {
+         junit.textui.TestRunner.run(new TestSuite(com.hippikon.security.test.UserPrincipalTest.class));
+         System.exit(0);
+     }
+ }
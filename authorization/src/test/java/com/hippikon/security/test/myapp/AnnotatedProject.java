@@ -0,0 +1,72 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test.myapp;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.hippikon.security.ProtectedResource;
+import com.hippikon.security.ResourceProjection;
+import com.hippikon.security.UserPrincipal;
+ 
+ /**
+  * A Project that declares its user principals with UserPrincipal 
+  * annotations in place of the ProjectPolicy, and may be read as a 
+  * ResourceProjection by the {@link AnnotatedProjectPolicy}, so that a 
+  * ResourceDescriptor of it is checked the same way.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ @ProtectedResource(name="Project")
+ @UserPrincipal(name="the-teamleader", property="teamLeaderGUID")
+ @UserPrincipal(name="the-sales-executive", property="ownerGUID")
+ @UserPrincipal(name="group-member", property="projectTeam")
+ public class AnnotatedProject extends Project implements ResourceProjection {
+ 
+     private static final long serialVersionUID = 1L;
+ 
+     /**
+      * Returns the GUIDs of the project team as a Set, which the 
+      * group-member principal is matched against
+      */
+     public Set<String> getProjectTeam() {
+         return new LinkedHashSet<String>(getProjectTeamGUIDs());
+     }
+ 
+     public Object getId() {
+         return getGUID();
+     }
+ 
+     public Object getAttribute(String name) {
+         if ("teamLeaderGUID".equals(name)) return getTeamLeaderGUID();
+         if ("ownerGUID".equals(name)) return getOwnerGUID();
+         if ("projectTeam".equals(name)) return getProjectTeam();
+         if ("closed".equals(name)) return Boolean.valueOf(isClosed());
+         return null;
+     }
+ 
+ }
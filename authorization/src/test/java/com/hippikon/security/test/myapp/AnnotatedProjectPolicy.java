@@ -0,0 +1,75 @@
+/** 
+ * Part of the Hippikon API, a powerful authoriation
+ * security framework for Java applications.
+ *
+ * Copyright (C) 2005  Dale Churchett
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Contact: Dale Churchett <dale@hippikon.com>
+ * Website: http://www.hippikon.com, http://www.hippikon.org
+ *
+ */
+package com.hippikon.security.test.myapp;
+
+import com.hippikon.security.AuthorizationContext;
+import com.hippikon.security.IllegalAuthorizationException;
+import com.hippikon.security.MutablePermissionSet;
+import com.hippikon.security.PermissionSet;
+import com.hippikon.security.Policy;
+import com.hippikon.security.ResourceProjection;
+ 
+ /**
+  * The Policy of an {@link AnnotatedProject}, whose user principals are 
+  * declared on the class, so this Policy only makes a closed Project 
+  * read-only. It reads the Project as a ResourceProjection, so a 
+  * ResourceDescriptor of a Project is checked the same way.
+  *
+  * @author Dale Churchett
+  * @version $Id$
+  * @since JDK 1.8
+  */
+ public class AnnotatedProjectPolicy extends Policy {
+ 
+     private ResourceProjection project;
+ 
+     /**
+      * Creates a new AnnotatedProjectPolicy instance
+      */
+     public AnnotatedProjectPolicy(Object res, AuthorizationContext ctx) 
+     throws IllegalAuthorizationException {
+ 
+         super(res, ctx);
+         this.project = (ResourceProjection)res;
+     }
+ 
+     /**
+      * Turns off write and control if the Project is in the CLOSED state
+      */
+     protected PermissionSet doFinal(PermissionSet perms) {
+ 
+         if (getResourcePathInContext().contains("ProductChange")) {
+             return perms;
+         }
+ 
+         MutablePermissionSet mps = createMutablePermissionSet(perms);
+ 
+         if (Boolean.TRUE.equals(project.getAttribute("closed"))) {
+             mps.setReadOnly();
+         }
+         return mps;
+     }
+ 
+ }